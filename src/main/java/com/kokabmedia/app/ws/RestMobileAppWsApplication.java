@@ -2,6 +2,7 @@ package com.kokabmedia.app.ws;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /*
  * This class is the main thread class of the application, with the main method that 
@@ -12,8 +13,12 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
  * IOC Container that manages all of the beans. It also initialises Spring Boot framework and auto 
  * configuration and enables component scanning of this package and sub-packages to locate beans,
  * this is all done automatically. 
+ * 
+ * The @EnableScheduling annotation makes the Spring framework call the methods with the 
+ * @Scheduled annotation, for example the clean up of old user tombstones.
  */
 @SpringBootApplication
+@EnableScheduling
 public class RestMobileAppWsApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,87 @@
+package com.kokabmedia.app.ws.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * This class limits how many requests are processed at the same time, the limit adapts 
+ * to the latency of the requests with additive increase and multiplicative decrease (AIMD).
+ * 
+ * When a request is slower than the latency threshold or fails with a server error the 
+ * limit is multiplied with the backoff ratio, when it is fast and the limit is actually 
+ * used the limit grows by 1/limit, so by about one per limit requests. The limit stays 
+ * between the minimum and maximum limit.
+ * 
+ * The in flight counter and the limit are both updated with compare and set, no request 
+ * ever waits for a lock.
+ */
+class AdaptiveConcurrencyLimit {
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	// The limit as the bits of a double so it can be updated with compare and set.
+	private final AtomicLong limitBits;
+	
+	private final double minLimit;
+	
+	private final double maxLimit;
+	
+	private final long latencyThresholdNanos;
+	
+	private final double backoffRatio;
+
+	AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long latencyThresholdMillis,
+			double backoffRatio) {
+		this.limitBits = new AtomicLong(Double.doubleToLongBits(initialLimit));
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+		this.backoffRatio = backoffRatio;
+	}
+
+	boolean tryAcquire() {
+		
+		while (true) {
+			int current = inFlight.get();
+			if (current >= (int) getLimit()) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	void release(long latencyNanos, boolean failed) {
+		
+		int inFlightBefore = inFlight.getAndDecrement();
+		
+		while (true) {
+			long bits = limitBits.get();
+			double limit = Double.longBitsToDouble(bits);
+			double next;
+			
+			if (failed || latencyNanos > latencyThresholdNanos) {
+				next = Math.max(minLimit, limit * backoffRatio);
+			} else if (inFlightBefore * 2 >= limit) {
+				next = Math.min(maxLimit, limit + 1 / limit);
+			} else {
+				return;
+			}
+			
+			if (next == limit || limitBits.compareAndSet(bits, Double.doubleToLongBits(next))) {
+				return;
+			}
+		}
+	}
+
+	double getLimit() {
+		return Double.longBitsToDouble(limitBits.get());
+	}
+
+	int getInFlight() {
+		return inFlight.get();
+	}
+
+}
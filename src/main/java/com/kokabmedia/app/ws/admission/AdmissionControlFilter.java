@@ -0,0 +1,217 @@
+package com.kokabmedia.app.ws.admission;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kokabmedia.app.ws.ui.model.response.ErrorMessage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class is the admission controller of the /users, /jpa/users and /sharded/users endpoints, it 
+ * decides before a request reaches the controllers and the database whether the request 
+ * is processed or rejected.
+ * 
+ * Every client has its own token bucket, a client that sends more than its rate gets 429 
+ * Too Many Requests. A client is its X-API-Key header when the key is one of the api-keys, 
+ * else its IP address. An unknown key is not trusted, a client could send a new one with 
+ * every request to get a new bucket each time. All clients together 
+ * share an adaptive concurrency limit, when it is reached the request gets 503 Service 
+ * Unavailable. Both responses are sent right away with a Retry-After header instead of 
+ * queueing the request, so an overloaded service answers fast and recovers fast.
+ * 
+ * The admitted and rejected requests, the current limit and the requests in flight are 
+ * exposed as admission.* metrics on /actuator/metrics.
+ * 
+ * The warm-up requests that the instance sends to itself before it reports ready are not 
+ * limited, they carry the random warm-up token of this filter in the X-Warm-Up header and 
+ * must come from the loopback address.
+ * 
+ * The filter is enabled unless app.admission.enabled=false.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@ConditionalOnProperty(name = "app.admission.enabled", havingValue = "true", matchIfMissing = true)
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+	static final String API_KEY_HEADER = "X-API-Key";
+
+	public static final String WARM_UP_HEADER = "X-Warm-Up";
+	
+	// Only known inside this process, a client can not pass its requests off as warm-up.
+	private final String warmUpToken = UUID.randomUUID().toString();
+
+	private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+	
+	private final Set<String> apiKeys;
+	
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+
+	private final AdaptiveConcurrencyLimit concurrencyLimit;
+	
+	private final ObjectMapper objectMapper;
+
+	private final double ratePerSecond;
+	
+	private final int burst;
+	
+	private final int maxTrackedClients;
+
+	private final Counter admitted;
+	
+	private final Counter rateLimited;
+	
+	private final Counter shed;
+
+	public AdmissionControlFilter(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+			@Value("${app.admission.client.rate-per-second:100}") double ratePerSecond,
+			@Value("${app.admission.client.burst:200}") int burst,
+			@Value("${app.admission.client.max-tracked:10000}") int maxTrackedClients,
+			@Value("${app.admission.client.api-keys:}") Set<String> apiKeys,
+			@Value("${app.admission.concurrency.initial-limit:50}") int initialLimit,
+			@Value("${app.admission.concurrency.min-limit:8}") int minLimit,
+			@Value("${app.admission.concurrency.max-limit:200}") int maxLimit,
+			@Value("${app.admission.concurrency.latency-threshold-ms:250}") long latencyThresholdMillis,
+			@Value("${app.admission.concurrency.backoff-ratio:0.9}") double backoffRatio) {
+		
+		this.objectMapper = objectMapper;
+		this.ratePerSecond = ratePerSecond;
+		this.burst = burst;
+		this.maxTrackedClients = maxTrackedClients;
+		this.apiKeys = Set.copyOf(apiKeys);
+		this.concurrencyLimit = new AdaptiveConcurrencyLimit(initialLimit, minLimit, maxLimit, latencyThresholdMillis,
+				backoffRatio);
+
+		this.admitted = Counter.builder("admission.requests").tag("result", "admitted").register(meterRegistry);
+		this.rateLimited = Counter.builder("admission.requests").tag("result", "rate_limited").register(meterRegistry);
+		this.shed = Counter.builder("admission.requests").tag("result", "shed").register(meterRegistry);
+		Gauge.builder("admission.concurrency.limit", concurrencyLimit, AdaptiveConcurrencyLimit::getLimit)
+				.register(meterRegistry);
+		Gauge.builder("admission.concurrency.in.flight", concurrencyLimit, AdaptiveConcurrencyLimit::getInFlight)
+				.register(meterRegistry);
+		Gauge.builder("admission.clients", buckets, Map::size).register(meterRegistry);
+	}
+
+	public String getWarmUpToken() {
+		return warmUpToken;
+	}
+
+	/*
+	 * Only the user endpoints are limited, the actuator and the H2 console are not.
+	 */
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		return !(isUnder(path, "/users") || isUnder(path, "/jpa/users") || isUnder(path, "/sharded/users"))
+				|| isWarmUp(request);
+	}
+
+	private boolean isWarmUp(HttpServletRequest request) {
+		if (!warmUpToken.equals(request.getHeader(WARM_UP_HEADER))) {
+			return false;
+		}
+		try {
+			// The remote address is an IP literal, it is not looked up.
+			return InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress();
+		} catch (UnknownHostException e) {
+			return false;
+		}
+	}
+
+	private static boolean isUnder(String path, String prefix) {
+		return path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/');
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+
+		long now = System.nanoTime();
+		
+		long waitNanos = bucketOf(clientKey(request), now).tryAcquire(now);
+		if (waitNanos > 0) {
+			rateLimited.increment();
+			reject(response, HttpStatus.TOO_MANY_REQUESTS, waitNanos, "Request rate limit exceeded");
+			return;
+		}
+		
+		if (!concurrencyLimit.tryAcquire()) {
+			shed.increment();
+			reject(response, HttpStatus.SERVICE_UNAVAILABLE, TimeUnit.SECONDS.toNanos(1), "Server is overloaded");
+			return;
+		}
+
+		admitted.increment();
+		boolean failed = true;
+		try {
+			filterChain.doFilter(request, response);
+			failed = response.getStatus() >= 500;
+		} finally {
+			concurrencyLimit.release(System.nanoTime() - now, failed);
+		}
+	}
+
+	private String clientKey(HttpServletRequest request) {
+		String apiKey = request.getHeader(API_KEY_HEADER);
+		return apiKey != null && apiKeys.contains(apiKey) ? "key:" + apiKey : "ip:" + request.getRemoteAddr();
+	}
+
+	private TokenBucket bucketOf(String clientKey, long now) {
+		
+		TokenBucket bucket = buckets.get(clientKey);
+		if (bucket != null) {
+			return bucket;
+		}
+		
+		/*
+		 * A full bucket behaves the same as a new one, so when too many clients are tracked 
+		 * the idle buckets are dropped, only one thread at a time does this.
+		 */
+		if (buckets.size() >= maxTrackedClients && sweeping.compareAndSet(false, true)) {
+			try {
+				buckets.values().removeIf(candidate -> candidate.isIdle(now));
+			} finally {
+				sweeping.set(false);
+			}
+		}
+		return buckets.computeIfAbsent(clientKey, key -> new TokenBucket(ratePerSecond, burst, now));
+	}
+
+	private void reject(HttpServletResponse response, HttpStatus status, long retryAfterNanos, String message)
+			throws IOException {
+		
+		long retryAfterSeconds = Math.max(1, (retryAfterNanos + 999_999_999L) / 1_000_000_000L);
+		
+		response.setStatus(status.value());
+		response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		objectMapper.writeValue(response.getOutputStream(), new ErrorMessage(new Date(), message));
+	}
+
+}
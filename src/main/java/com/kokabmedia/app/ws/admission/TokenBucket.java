@@ -0,0 +1,56 @@
+package com.kokabmedia.app.ws.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * This class is a lock-free token bucket for the requests of one client.
+ * 
+ * It is implemented as a generic cell rate algorithm: instead of a token count and a refill 
+ * time it only keeps the theoretical arrival time of the next request in one AtomicLong. 
+ * A request is admitted when it does not arrive more than burst emission intervals before 
+ * that time, which is the same as a bucket of burst tokens that is refilled with 
+ * ratePerSecond tokens per second, and a single compare and set updates it.
+ */
+class TokenBucket {
+
+	private final long emissionIntervalNanos;
+	
+	private final long burstToleranceNanos;
+	
+	private final AtomicLong theoreticalArrivalNanos;
+
+	TokenBucket(double ratePerSecond, int burst, long nowNanos) {
+		this.emissionIntervalNanos = (long) (1_000_000_000L / ratePerSecond);
+		this.burstToleranceNanos = emissionIntervalNanos * burst;
+		this.theoreticalArrivalNanos = new AtomicLong(nowNanos);
+	}
+
+	/*
+	 * Takes a token, returns 0 when the request is admitted or else the number of 
+	 * nanoseconds until a token is available.
+	 */
+	long tryAcquire(long nowNanos) {
+		
+		while (true) {
+			long arrival = theoreticalArrivalNanos.get();
+			long nextArrival = Math.max(arrival, nowNanos) + emissionIntervalNanos;
+			long allowedAt = nextArrival - burstToleranceNanos;
+			
+			if (nowNanos < allowedAt) {
+				return allowedAt - nowNanos;
+			}
+			if (theoreticalArrivalNanos.compareAndSet(arrival, nextArrival)) {
+				return 0;
+			}
+		}
+	}
+
+	/*
+	 * A bucket is idle when it is full again, it can then be dropped and created again 
+	 * later without changing what the client is allowed to do.
+	 */
+	boolean isIdle(long nowNanos) {
+		return theoreticalArrivalNanos.get() <= nowNanos;
+	}
+
+}
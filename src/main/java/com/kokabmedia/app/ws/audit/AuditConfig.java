@@ -0,0 +1,36 @@
+package com.kokabmedia.app.ws.audit;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/*
+ * This class configures the AuditLog of the changes of the /jpa/users users, see the
+ * UserAuditListener class.
+ *
+ * The @ConditionalOnProperty annotation lets the audit log be turned off with the
+ * app.audit.enabled property.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.audit.enabled", havingValue = "true")
+public class AuditConfig {
+
+	/*
+	 * The log is closed when the application shuts down, the last records are forced to disk
+	 * unless the fsync policy is none.
+	 */
+	@Bean(destroyMethod = "close")
+	public AuditLog auditLog(@Value("${app.audit.directory}") String directory,
+			@Value("${app.audit.segment-size-mb}") long segmentSizeMb,
+			@Value("${app.audit.max-segments}") int maxSegments,
+			@Value("${app.audit.fsync}") String fsync) throws IOException {
+
+		return new AuditLog(Paths.get(directory), segmentSizeMb * 1024 * 1024, maxSegments,
+				AuditLog.FsyncPolicy.valueOf(fsync.toUpperCase()));
+	}
+
+}
@@ -0,0 +1,332 @@
+package com.kokabmedia.app.ws.audit;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+
+/*
+ * This class appends the audit records of the user changes to a log of memory mapped
+ * segment files, audit-<sequence>.log in the directory.
+ *
+ * Producers do not take a lock, every record reserves its space in the current segment
+ * with one getAndAdd on the reserved position and is then written into the mapping by its
+ * own thread. A record is [int length][int crc32][body] padded to 8 bytes, the length is
+ * written last with release semantics so a reader that sees the length also sees the body,
+ * a record whose length is 0 has not been written yet. The body is the timestamp, the user
+ * id, the version, the type and the client address:
+ *
+ *   0  length   4  crc32   8  timestamp   16  user id   24  version
+ *   32 type     33 client length   34 client (UTF-8, at most 255 bytes)
+ *
+ * The producer whose reservation crosses the end of a segment seals it, it writes the end
+ * of segment marker (-1) at the start of its reservation and maps the next segment, the
+ * producers that reserved after it wait for the next segment and retry. A sealed segment
+ * is forced to disk and closed by flush() once all the records reserved before the seal
+ * have been written.
+ *
+ * The fsync policy decides when the pages reach the disk, NONE leaves it to the operating
+ * system (the records survive a crash of the process but not of the machine), INTERVAL
+ * forces the current segment every time flush() runs and ALWAYS forces it after every
+ * record. Every instance starts a new segment, segment files are sparse so the unused end
+ * of a segment does not take disk space, and only the newest maxSegments files are kept.
+ */
+public class AuditLog implements AutoCloseable {
+
+	public enum FsyncPolicy { NONE, INTERVAL, ALWAYS }
+
+	private static final Logger LOG = LoggerFactory.getLogger(AuditLog.class);
+
+	// "AUDT", the format version and the sequence of the segment.
+	static final int SEGMENT_MAGIC = 0x41554454;
+	static final int FORMAT_VERSION = 1;
+	static final int SEGMENT_HEADER_SIZE = 16;
+
+	static final int RECORD_HEADER_SIZE = 8;
+	static final int BODY_SIZE = 26;
+	static final int MAX_CLIENT_LENGTH = 255;
+	static final int END_OF_SEGMENT = -1;
+
+	static final String FILE_PREFIX = "audit-";
+	static final String FILE_SUFFIX = ".log";
+
+	// Reads and writes the length of a record with acquire and release semantics.
+	static final VarHandle LENGTH = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+	private static final ThreadLocal<Encoder> ENCODERS = ThreadLocal.withInitial(Encoder::new);
+
+	private final Path directory;
+	private final int segmentSize;
+	private final int maxSegments;
+	private final FsyncPolicy fsyncPolicy;
+
+	private final Queue<Segment> sealedSegments = new ConcurrentLinkedQueue<>();
+	private volatile Segment current;
+	private volatile IOException rotationFailure;
+	private volatile boolean closed;
+
+	public AuditLog(Path directory, long segmentSize, int maxSegments, FsyncPolicy fsyncPolicy) throws IOException {
+
+		if (segmentSize < 4096 || segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The segment size must be between 4 KB and 2 GB: " + segmentSize);
+		}
+		this.directory = directory;
+		this.segmentSize = (int) segmentSize;
+		this.maxSegments = Math.max(1, maxSegments);
+		this.fsyncPolicy = fsyncPolicy;
+		Files.createDirectories(directory);
+		this.current = openSegment();
+		// The segments of the previous instances are only released by their own flush.
+		deleteOldSegments();
+		LOG.info("Audit log {} in {}", current.file.getFileName(), directory.toAbsolutePath());
+	}
+
+	/*
+	 * Appends one record, the client is truncated to 255 bytes and may be null.
+	 */
+	public void append(long timestamp, UserChangedEvent.Type type, long userId, long version, String client) {
+
+		Encoder encoder = ENCODERS.get().encode(timestamp, type, userId, version, client);
+		int length = encoder.recordLength();
+
+		while (true) {
+			if (closed) {
+				throw new IllegalStateException("The audit log is closed");
+			}
+			Segment segment = current;
+			long start = segment.reserved.getAndAdd(length);
+			if (start + length <= segmentSize) {
+				write(segment, (int) start, length, encoder);
+				return;
+			}
+			if (start <= segmentSize) {
+				rotate(segment, start);
+			} else {
+				awaitRotation(segment);
+			}
+		}
+	}
+
+	private void write(Segment segment, int position, int length, Encoder encoder) {
+
+		ByteBuffer target = segment.buffer.duplicate();
+		target.position(position + RECORD_HEADER_SIZE);
+		target.put(encoder.body, 0, encoder.bodyLength);
+		segment.buffer.putInt(position + 4, encoder.crc);
+		LENGTH.setRelease(segment.buffer, position, length);
+		segment.written.addAndGet(length);
+		if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+			segment.buffer.force();
+		}
+	}
+
+	/*
+	 * Seals the segment at the start of the first reservation that did not fit and maps the
+	 * next one, only one producer gets a reservation that crosses the end of the segment.
+	 */
+	private void rotate(Segment segment, long start) {
+
+		segment.sealedAt = start;
+		if (start + 4 <= segmentSize) {
+			LENGTH.setRelease(segment.buffer, (int) start, END_OF_SEGMENT);
+		}
+		try {
+			Segment next = openSegment();
+			sealedSegments.add(segment);
+			current = next;
+		} catch (IOException e) {
+			rotationFailure = e;
+			throw new UncheckedIOException("Could not open the next audit segment", e);
+		}
+	}
+
+	private void awaitRotation(Segment segment) {
+
+		while (current == segment) {
+			if (rotationFailure != null) {
+				throw new UncheckedIOException("Could not open the next audit segment", rotationFailure);
+			}
+			Thread.onSpinWait();
+			Thread.yield();
+		}
+	}
+
+	/*
+	 * Forces and closes the sealed segments whose records have all been written, forces the
+	 * current segment with the INTERVAL policy and deletes the oldest segment files.
+	 */
+	public void flush() {
+
+		boolean released = false;
+		for (Iterator<Segment> segments = sealedSegments.iterator(); segments.hasNext();) {
+			Segment segment = segments.next();
+			if (segment.written.get() == segment.sealedAt) {
+				if (fsyncPolicy != FsyncPolicy.NONE) {
+					segment.buffer.force();
+				}
+				segment.close();
+				segments.remove();
+				released = true;
+			}
+		}
+		if (fsyncPolicy == FsyncPolicy.INTERVAL && !closed) {
+			current.buffer.force();
+		}
+		if (released) {
+			deleteOldSegments();
+		}
+	}
+
+	private void deleteOldSegments() {
+
+		try {
+			List<Path> segments = AuditLogReader.segments(directory);
+			for (Path file : segments.subList(0, Math.max(0, segments.size() - maxSegments))) {
+				if (AuditLogReader.sequence(file) < current.sequence) {
+					Files.deleteIfExists(file);
+				}
+			}
+		} catch (IOException e) {
+			LOG.warn("Could not delete the old audit segments in {}", directory, e);
+		}
+	}
+
+	/*
+	 * Maps a new segment after the newest segment file in the directory, another instance
+	 * that writes to the same directory may create the same file first.
+	 */
+	private Segment openSegment() throws IOException {
+
+		while (true) {
+			List<Path> segments = AuditLogReader.segments(directory);
+			long sequence = segments.isEmpty() ? 1 : AuditLogReader.sequence(segments.get(segments.size() - 1)) + 1;
+			Path file = directory.resolve(String.format("%s%016d%s", FILE_PREFIX, sequence, FILE_SUFFIX));
+			FileChannel channel;
+			try {
+				channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+						StandardOpenOption.WRITE);
+			} catch (FileAlreadyExistsException e) {
+				continue;
+			}
+			try {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+				buffer.putInt(0, SEGMENT_MAGIC);
+				buffer.putInt(4, FORMAT_VERSION);
+				buffer.putLong(8, sequence);
+				return new Segment(sequence, file, channel, buffer);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/*
+	 * Stops accepting records, then forces and closes the segments.
+	 */
+	@Override
+	public void close() {
+
+		if (closed) {
+			return;
+		}
+		closed = true;
+		flush();
+		Segment segment = current;
+		if (fsyncPolicy != FsyncPolicy.NONE) {
+			segment.buffer.force();
+		}
+		segment.close();
+	}
+
+	private static final class Segment {
+
+		final long sequence;
+		final Path file;
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+
+		// The end of the reservations, it passes the segment size when the segment is full.
+		final AtomicLong reserved = new AtomicLong(SEGMENT_HEADER_SIZE);
+
+		// The header and the bytes of the records that have been written.
+		final AtomicLong written = new AtomicLong(SEGMENT_HEADER_SIZE);
+
+		// The end of the records of a sealed segment.
+		volatile long sealedAt = -1;
+
+		Segment(long sequence, Path file, FileChannel channel, MappedByteBuffer buffer) {
+			this.sequence = sequence;
+			this.file = file;
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+
+		// The mapping stays valid until it is garbage collected, there is no public unmap.
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOG.warn("Could not close the audit segment {}", file, e);
+			}
+		}
+
+	}
+
+	/*
+	 * Encodes the body of a record and its CRC into a reusable array, one per thread, so
+	 * the mapped segment is written with a single copy.
+	 */
+	private static final class Encoder {
+
+		final byte[] body = new byte[BODY_SIZE + MAX_CLIENT_LENGTH];
+		final ByteBuffer buffer = ByteBuffer.wrap(body);
+		final CRC32 checksum = new CRC32();
+		int bodyLength;
+		int crc;
+
+		Encoder encode(long timestamp, UserChangedEvent.Type type, long userId, long version, String client) {
+
+			byte[] clientBytes = client == null ? new byte[0] : client.getBytes(StandardCharsets.UTF_8);
+			int clientLength = Math.min(clientBytes.length, MAX_CLIENT_LENGTH);
+			buffer.clear();
+			buffer.putLong(timestamp).putLong(userId).putLong(version).put((byte) type.ordinal())
+					.put((byte) clientLength).put(clientBytes, 0, clientLength);
+			bodyLength = buffer.position();
+			checksum.reset();
+			checksum.update(body, 0, bodyLength);
+			crc = (int) checksum.getValue();
+			return this;
+		}
+
+		int recordLength() {
+			return (RECORD_HEADER_SIZE + bodyLength + 7) & ~7;
+		}
+
+	}
+
+}
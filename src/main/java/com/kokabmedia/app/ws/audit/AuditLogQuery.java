@@ -0,0 +1,104 @@
+package com.kokabmedia.app.ws.audit;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+
+/*
+ * This class is the command line tool that prints the records of an audit log, it runs
+ * from the application jar without starting the application:
+ *
+ * java -cp rest-mobile-app-ws.jar -Dloader.main=com.kokabmedia.app.ws.audit.AuditLogQuery \
+ *     org.springframework.boot.loader.PropertiesLauncher <directory> \
+ *     [--user <id>] [--type CREATED|UPDATED|DELETED] [--from <instant>] [--to <instant>] \
+ *     [--client <address>] [--limit <records>]
+ *
+ * The instants are ISO-8601, for example 2021-10-01T12:00:00Z, from is inclusive and to is
+ * exclusive. The number of matching and skipped records is printed to standard error.
+ */
+public class AuditLogQuery {
+
+	private Long userId;
+	private UserChangedEvent.Type type;
+	private long from = Long.MIN_VALUE;
+	private long to = Long.MAX_VALUE;
+	private String client;
+	private long limit = Long.MAX_VALUE;
+
+	public static void main(String[] args) throws IOException {
+
+		if (args.length == 0 || args.length % 2 == 0) {
+			System.err.println("Usage: AuditLogQuery <directory> [--user <id>] [--type CREATED|UPDATED|DELETED]"
+					+ " [--from <instant>] [--to <instant>] [--client <address>] [--limit <records>]");
+			System.exit(2);
+		}
+		AuditLogQuery query = parse(Arrays.copyOfRange(args, 1, args.length));
+		AuditLogReader reader = new AuditLogReader(Paths.get(args[0]));
+		long matched = query.run(reader, System.out::println);
+		System.err.println(matched + " records, " + reader.getSkipped() + " skipped");
+	}
+
+	private void option(String name, String value) {
+
+		switch (name) {
+		case "--user":
+			userId = Long.parseLong(value);
+			break;
+		case "--type":
+			type = UserChangedEvent.Type.valueOf(value.toUpperCase());
+			break;
+		case "--from":
+			from = Instant.parse(value).toEpochMilli();
+			break;
+		case "--to":
+			to = Instant.parse(value).toEpochMilli();
+			break;
+		case "--client":
+			client = value;
+			break;
+		case "--limit":
+			limit = Long.parseLong(value);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown option " + name);
+		}
+	}
+
+	boolean matches(AuditRecord record) {
+
+		return (userId == null || record.getUserId() == userId)
+				&& (type == null || record.getType() == type)
+				&& record.getTimestamp() >= from && record.getTimestamp() < to
+				&& (client == null || client.equals(record.getClient()));
+	}
+
+	/*
+	 * Prints the matching records up to the limit and returns how many were printed.
+	 */
+	long run(AuditLogReader reader, Consumer<AuditRecord> out) throws IOException {
+
+		AtomicLong matched = new AtomicLong();
+		reader.forEach(record -> {
+			if (matched.get() < limit && matches(record)) {
+				matched.incrementAndGet();
+				out.accept(record);
+			}
+		});
+		return matched.get();
+	}
+
+	static AuditLogQuery parse(String... options) {
+
+		AuditLogQuery query = new AuditLogQuery();
+		for (int i = 0; i + 1 < options.length; i += 2) {
+			query.option(options[i], options[i + 1]);
+		}
+		return query;
+	}
+
+}
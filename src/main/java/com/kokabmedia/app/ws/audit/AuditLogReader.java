@@ -0,0 +1,120 @@
+package com.kokabmedia.app.ws.audit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+
+/*
+ * This class reads the records of the segments of an AuditLog in the order of the segments
+ * and, within a segment, in the order of their reservations.
+ *
+ * It can read the segments of a running instance, a segment ends at the end of segment
+ * marker or at the first record that has not been written yet. A record whose CRC does not
+ * match its body, torn when the machine failed, is skipped and counted.
+ */
+public class AuditLogReader {
+
+	private static final UserChangedEvent.Type[] TYPES = UserChangedEvent.Type.values();
+
+	private final Path directory;
+	private long skipped;
+
+	public AuditLogReader(Path directory) {
+		this.directory = directory;
+	}
+
+	/*
+	 * Hands every readable record to the consumer.
+	 */
+	public void forEach(Consumer<AuditRecord> consumer) throws IOException {
+
+		for (Path segment : segments(directory)) {
+			try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+				long size = Math.min(channel.size(), Integer.MAX_VALUE);
+				if (size < AuditLog.SEGMENT_HEADER_SIZE) {
+					continue;
+				}
+				read(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), consumer);
+			}
+		}
+	}
+
+	private void read(ByteBuffer buffer, Consumer<AuditRecord> consumer) {
+
+		if (buffer.getInt(0) != AuditLog.SEGMENT_MAGIC || buffer.getInt(4) != AuditLog.FORMAT_VERSION) {
+			skipped++;
+			return;
+		}
+		CRC32 checksum = new CRC32();
+		int position = AuditLog.SEGMENT_HEADER_SIZE;
+		while (position + AuditLog.RECORD_HEADER_SIZE + AuditLog.BODY_SIZE <= buffer.limit()) {
+			int length = (int) AuditLog.LENGTH.getAcquire(buffer, position);
+			if (length == 0 || length == AuditLog.END_OF_SEGMENT) {
+				return;
+			}
+			int clientLength = buffer.get(position + 33) & 0xff;
+			int bodyLength = AuditLog.BODY_SIZE + clientLength;
+			if (length < AuditLog.RECORD_HEADER_SIZE + bodyLength || length % 8 != 0
+					|| position + length > buffer.limit()) {
+				// The length itself is damaged, the rest of the segment can not be followed.
+				skipped++;
+				return;
+			}
+			ByteBuffer body = buffer.duplicate();
+			body.position(position + AuditLog.RECORD_HEADER_SIZE).limit(position + AuditLog.RECORD_HEADER_SIZE + bodyLength);
+			checksum.reset();
+			checksum.update(body);
+			int type = buffer.get(position + 32);
+			if ((int) checksum.getValue() != buffer.getInt(position + 4) || type < 0 || type >= TYPES.length) {
+				skipped++;
+			} else {
+				byte[] client = new byte[clientLength];
+				buffer.duplicate().position(position + 34).get(client);
+				consumer.accept(new AuditRecord(buffer.getLong(position + 8), TYPES[type],
+						buffer.getLong(position + 16), buffer.getLong(position + 24),
+						clientLength == 0 ? null : new String(client, StandardCharsets.UTF_8)));
+			}
+			position += length;
+		}
+	}
+
+	/*
+	 * The number of damaged records and segments that have been skipped.
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	// The segment files of the directory, oldest first.
+	static List<Path> segments(Path directory) throws IOException {
+
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(AuditLogReader::isSegment).sorted().collect(Collectors.toList());
+		}
+	}
+
+	static long sequence(Path segment) {
+
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(AuditLog.FILE_PREFIX.length(), name.length() - AuditLog.FILE_SUFFIX.length()));
+	}
+
+	private static boolean isSegment(Path file) {
+
+		String name = file.getFileName().toString();
+		return name.startsWith(AuditLog.FILE_PREFIX) && name.endsWith(AuditLog.FILE_SUFFIX)
+				&& name.length() == AuditLog.FILE_PREFIX.length() + 16 + AuditLog.FILE_SUFFIX.length();
+	}
+
+}
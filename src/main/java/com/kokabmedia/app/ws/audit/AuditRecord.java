@@ -0,0 +1,53 @@
+package com.kokabmedia.app.ws.audit;
+
+import java.time.Instant;
+
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+
+/*
+ * This class is one record of the AuditLog as it is read back by the AuditLogReader class,
+ * the version is -1 when the state of the user was not known.
+ */
+public class AuditRecord {
+
+	private final long timestamp;
+	private final UserChangedEvent.Type type;
+	private final long userId;
+	private final long version;
+	private final String client;
+
+	public AuditRecord(long timestamp, UserChangedEvent.Type type, long userId, long version, String client) {
+		this.timestamp = timestamp;
+		this.type = type;
+		this.userId = userId;
+		this.version = version;
+		this.client = client;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public UserChangedEvent.Type getType() {
+		return type;
+	}
+
+	public long getUserId() {
+		return userId;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public String getClient() {
+		return client;
+	}
+
+	@Override
+	public String toString() {
+		return Instant.ofEpochMilli(timestamp) + " " + type + " user=" + userId + " version=" + version
+				+ (client == null ? "" : " client=" + client);
+	}
+
+}
@@ -0,0 +1,91 @@
+package com.kokabmedia.app.ws.audit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class writes an audit record for every user that the UserJPAController class
+ * creates, updates or deletes.
+ *
+ * The record is appended to the AuditLog once the change is committed, so a rolled back
+ * change is not audited, and costs a copy into the page cache instead of a second write
+ * to the database. The client is the remote address of the request that made the change,
+ * it is empty when the change was not made by a request.
+ *
+ * The change is already committed when the record is appended, a record that can not be
+ * appended is logged and counted by the audit.records metric with the result failed.
+ *
+ * The @Lazy(false) annotation opens the log and schedules its flush when the application
+ * starts also with lazy initialization.
+ */
+@Component
+@Lazy(false)
+@ConditionalOnProperty(name = "app.audit.enabled", havingValue = "true")
+public class UserAuditListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UserAuditListener.class);
+
+	private final AuditLog auditLog;
+	private final Counter appended;
+	private final Counter failed;
+
+	public UserAuditListener(AuditLog auditLog, MeterRegistry meterRegistry) {
+		this.auditLog = auditLog;
+		this.appended = Counter.builder("audit.records").tag("result", "appended")
+				.description("Audit records of the /jpa/users changes").register(meterRegistry);
+		this.failed = Counter.builder("audit.records").tag("result", "failed")
+				.description("Audit records of the /jpa/users changes").register(meterRegistry);
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onUserChanged(UserChangedEvent event) {
+
+		if (!UserChangedEvent.SOURCE_JPA.equals(event.getSource())) {
+			return;
+		}
+		long version = event.getUser() == null ? -1 : event.getUser().getVersion();
+		try {
+			auditLog.append(System.currentTimeMillis(), event.getType(), Long.parseLong(event.getUserId()), version,
+					clientAddress());
+			appended.increment();
+		} catch (RuntimeException e) {
+			failed.increment();
+			LOG.error("Could not audit {}", event, e);
+		}
+	}
+
+	/*
+	 * Closes the filled segments and, with the interval fsync policy, forces the current
+	 * segment to disk.
+	 */
+	@Scheduled(fixedDelayString = "${app.audit.fsync-interval-ms}")
+	public void flush() {
+		auditLog.flush();
+	}
+
+	private static String clientAddress() {
+
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (attributes instanceof ServletRequestAttributes) {
+			HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+			return request.getRemoteAddr();
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.kokabmedia.app.ws.cache;
+
+import java.io.IOException;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.persistence.EntityManagerFactory;
+
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.hibernate.SessionFactory;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.JCacheMetrics;
+
+/*
+ * This class configures the JCache (JSR-107) CacheManager that Hibernate uses for the
+ * second-level and query cache of the UserRest entity.
+ *
+ * The CacheManager is created by the application instead of by Hibernate so the same
+ * caches can be bound to the MeterRegistry, every cache region of ehcache.xml gets the
+ * cache.gets (hit and miss), cache.puts, cache.evictions and cache.removals metrics and
+ * the second-level cache of Hibernate gets the hibernate.second.level.cache.hit.ratio
+ * gauge. The hibernate.* statistics metrics of every region are bound by the Spring Boot
+ * actuator when hibernate.generate_statistics is enabled.
+ *
+ * The @Configuration annotation lets the Spring framework create the beans returned by
+ * the methods annotated with @Bean.
+ */
+@Configuration
+public class UserCacheConfig {
+
+	/*
+	 * The CacheManager is closed when the application shuts down after the
+	 * EntityManagerFactory that depends on it.
+	 */
+	@Bean(destroyMethod = "close")
+	public CacheManager userCacheManager(@Value("${app.users.cache.config}") Resource config) throws IOException {
+
+		return Caching.getCachingProvider(EhcacheCachingProvider.class.getName())
+				.getCacheManager(config.getURI(), getClass().getClassLoader());
+	}
+
+	/*
+	 * Hands the CacheManager to the JCacheRegionFactory of Hibernate, the regions of the
+	 * entity and query caches are looked up in it by name.
+	 */
+	@Bean
+	public HibernatePropertiesCustomizer userCacheManagerCustomizer(CacheManager userCacheManager) {
+
+		return properties -> properties.put(ConfigSettings.CACHE_MANAGER, userCacheManager);
+	}
+
+	@Bean
+	public MeterBinder userCacheMetrics(CacheManager userCacheManager, EntityManagerFactory entityManagerFactory) {
+
+		return registry -> {
+			for (String name : userCacheManager.getCacheNames()) {
+				JCacheMetrics.monitor(registry, userCacheManager.getCache(name), Tags.empty());
+			}
+
+			Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+			Gauge.builder("hibernate.second.level.cache.hit.ratio", statistics, UserCacheConfig::hitRatio)
+					.description("Share of the second-level cache lookups that found the entity")
+					.register(registry);
+		};
+	}
+
+	private static double hitRatio(Statistics statistics) {
+
+		long hits = statistics.getSecondLevelCacheHitCount();
+		long lookups = hits + statistics.getSecondLevelCacheMissCount();
+		return lookups == 0 ? 0.0 : (double) hits / lookups;
+	}
+
+}
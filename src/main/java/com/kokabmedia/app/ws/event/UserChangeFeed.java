@@ -0,0 +1,278 @@
+package com.kokabmedia.app.ws.event;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.kokabmedia.app.ws.exeption.ServiceUnavailableException;
+import com.kokabmedia.app.ws.ui.model.response.UserChangeRest;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class is the change feed of the users, it keeps the latest changes in a bounded 
+ * ring buffer and sends them to the subscribers of GET /jpa/users/changes/stream as 
+ * server-sent events.
+ * 
+ * Every change gets the next sequence number and is written to the slot sequence % 
+ * capacity of the ring, writers never wait for subscribers: they write the slot and 
+ * schedule the subscribers on the dispatcher threads. Every subscriber has its own cursor 
+ * and sends the changes from the ring until it reaches a slot that has not been written 
+ * yet.
+ * 
+ * A subscriber that is so slow that its next change has already been overwritten, or 
+ * whose connection does not accept a change within the send timeout, is disconnected, 
+ * it can reconnect with the Last-Event-ID of the last change it has seen. When that change 
+ * is no longer in the ring, or is ahead of the feed because the sequence numbers started 
+ * again with a restart of the application, the subscriber gets a reset event and has to 
+ * load the users again.
+ * 
+ * When max-subscribers clients are connected a new client is answered with 503 and a 
+ * Retry-After header.
+ */
+@Component
+public class UserChangeFeed {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UserChangeFeed.class);
+
+	private final AtomicReferenceArray<UserChangeRest> ring;
+	
+	private final int capacity;
+	
+	private final AtomicLong lastSequence = new AtomicLong();
+
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+	
+	private final ExecutorService dispatcher;
+	
+	private final ScheduledExecutorService watchdog;
+	
+	private final int maxSubscribers;
+	
+	private final long sendTimeoutMillis;
+	
+	private final long streamTimeoutMillis;
+
+	private final Counter slowConsumers;
+
+	public UserChangeFeed(MeterRegistry meterRegistry,
+			@Value("${app.users.changes.capacity:4096}") int capacity,
+			@Value("${app.users.changes.max-subscribers:256}") int maxSubscribers,
+			@Value("${app.users.changes.send-timeout-ms:5000}") long sendTimeoutMillis,
+			@Value("${app.users.changes.stream-timeout-ms:1800000}") long streamTimeoutMillis) {
+		
+		this.capacity = capacity;
+		this.ring = new AtomicReferenceArray<>(capacity);
+		this.maxSubscribers = maxSubscribers;
+		this.sendTimeoutMillis = sendTimeoutMillis;
+		this.streamTimeoutMillis = streamTimeoutMillis;
+		
+		/*
+		 * A subscriber is only ever sent to by one thread at a time, so the dispatcher has 
+		 * at most one thread per subscriber and a stuck connection only holds its own thread.
+		 */
+		this.dispatcher = Executors.newCachedThreadPool(runnable -> daemon(runnable, "user-change-feed"));
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "user-change-feed-watchdog"));
+		this.watchdog.scheduleWithFixedDelay(this::disconnectStuckSubscribers, sendTimeoutMillis, sendTimeoutMillis,
+				TimeUnit.MILLISECONDS);
+
+		this.slowConsumers = Counter.builder("user.changes.slow.consumers").register(meterRegistry);
+		Gauge.builder("user.changes.subscribers", subscribers, Set::size).register(meterRegistry);
+		Gauge.builder("user.changes.sequence", lastSequence, AtomicLong::get).register(meterRegistry);
+	}
+
+	/*
+	 * Adds every committed change to the ring, with fallbackExecution the changes that 
+	 * are published outside of a transaction are added right away.
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onUserChanged(UserChangedEvent event) {
+		
+		long sequence = lastSequence.incrementAndGet();
+		UserRest user = event.getType() == UserChangedEvent.Type.DELETED ? null : event.getUser();
+		ring.set(slot(sequence), new UserChangeRest(sequence, event.getType().name(), event.getSource(),
+				event.getUserId(), user, new Date()));
+		
+		for (Subscriber subscriber : subscribers) {
+			subscriber.schedule();
+		}
+	}
+
+	/*
+	 * Subscribes a client to the feed, lastEventId is the sequence number of the last 
+	 * change the client has seen or null to only get new changes.
+	 */
+	public SseEmitter subscribe(Long lastEventId) {
+		
+		if (subscribers.size() >= maxSubscribers) {
+			throw new ServiceUnavailableException("Too many change feed subscribers, try again later", 1);
+		}
+		
+		SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+		long head = lastSequence.get();
+		long oldest = Math.max(1, head - capacity + 1);
+		
+		Subscriber subscriber;
+		if (lastEventId == null || lastEventId == head) {
+			subscriber = new Subscriber(emitter, head + 1);
+		} else if (lastEventId < head && lastEventId + 1 >= oldest) {
+			subscriber = new Subscriber(emitter, lastEventId + 1);
+		} else {
+			subscriber = new Subscriber(emitter, head + 1);
+			subscriber.sendReset();
+		}
+		
+		emitter.onCompletion(() -> subscribers.remove(subscriber));
+		emitter.onTimeout(subscriber::close);
+		emitter.onError(error -> subscriber.close());
+		
+		subscribers.add(subscriber);
+		subscriber.schedule();
+		return emitter;
+	}
+
+	private static Thread daemon(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	private int slot(long sequence) {
+		return (int) (sequence % capacity);
+	}
+
+	private void disconnectStuckSubscribers() {
+		
+		long now = System.nanoTime();
+		for (Subscriber subscriber : subscribers) {
+			long sendStarted = subscriber.sendStartedNanos;
+			if (sendStarted != 0 && now - sendStarted > TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis)) {
+				LOG.info("Disconnecting change feed subscriber that did not accept a change within {} ms",
+						sendTimeoutMillis);
+				slowConsumers.increment();
+				subscriber.abandon();
+			}
+		}
+	}
+
+	@PreDestroy
+	void stop() {
+		for (Subscriber subscriber : subscribers) {
+			subscriber.close();
+		}
+		watchdog.shutdownNow();
+		dispatcher.shutdownNow();
+	}
+
+	/*
+	 * One client of the feed with its own cursor, at most one dispatcher thread sends to 
+	 * a subscriber at a time.
+	 */
+	private final class Subscriber {
+
+		private final SseEmitter emitter;
+		
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		
+		private long cursor;
+		
+		private volatile long sendStartedNanos;
+		
+		private volatile boolean closed;
+
+		private Subscriber(SseEmitter emitter, long cursor) {
+			this.emitter = emitter;
+			this.cursor = cursor;
+		}
+
+		private void schedule() {
+			if (!closed && scheduled.compareAndSet(false, true)) {
+				dispatcher.execute(this::drain);
+			}
+		}
+
+		private void drain() {
+			
+			try {
+				while (!closed) {
+					UserChangeRest change = ring.get(slot(cursor));
+					if (change == null || change.getSequence() < cursor) {
+						break;
+					}
+					if (change.getSequence() > cursor) {
+						slowConsumers.increment();
+						sendReset();
+						close();
+						return;
+					}
+					send(SseEmitter.event().id(Long.toString(cursor)).name(change.getType())
+							.data(change, MediaType.APPLICATION_JSON));
+					cursor++;
+				}
+			} finally {
+				scheduled.set(false);
+			}
+			
+			// A change that was written while this subscriber was finishing is sent now.
+			UserChangeRest next = ring.get(slot(cursor));
+			if (!closed && next != null && next.getSequence() >= cursor) {
+				schedule();
+			}
+		}
+
+		private void sendReset() {
+			send(SseEmitter.event().name("reset").data("The requested changes are no longer available"));
+		}
+
+		private void send(SseEmitter.SseEventBuilder event) {
+			
+			sendStartedNanos = System.nanoTime();
+			try {
+				emitter.send(event);
+			} catch (IOException | IllegalStateException e) {
+				close();
+			} finally {
+				sendStartedNanos = 0;
+			}
+		}
+
+		private void close() {
+			if (!closed) {
+				abandon();
+				emitter.complete();
+			}
+		}
+
+		/*
+		 * Stops sending to a subscriber whose send is stuck, the emitter can not be 
+		 * completed while the send holds its lock, the stuck write fails when the servlet 
+		 * container's write timeout expires and then releases the dispatcher thread.
+		 */
+		private void abandon() {
+			closed = true;
+			subscribers.remove(this);
+		}
+	}
+
+}
@@ -0,0 +1,38 @@
+package com.kokabmedia.app.ws.event;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/*
+ * This class exposes the change feed of the users as server-sent events, instead of 
+ * polling /jpa/users a client keeps one connection open and receives every created, 
+ * updated and deleted user.
+ */
+@RestController
+@RequestMapping("jpa/users/changes")
+public class UserChangeFeedController {
+
+	@Autowired
+	private UserChangeFeed userChangeFeed;
+
+	/*
+	 * This method subscribes to the feed, http://localhost:8080/jpa/users/changes/stream
+	 * 
+	 * A client that reconnects sends the id of the last event it has received in the 
+	 * Last-Event-ID header (browsers do that automatically) or in the lastEventId request 
+	 * parameter and receives the changes after it.
+	 */
+	@GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter streamChanges(@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventIdHeader,
+			@RequestParam(value = "lastEventId", required = false) Long lastEventId) {
+		
+		return userChangeFeed.subscribe(lastEventIdHeader != null ? lastEventIdHeader : lastEventId);
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.kokabmedia.app.ws.event;
+
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * This class is the application event that is published when a user is created, updated 
+ * or deleted, by the UserJPAController class for the users in the database and by the 
+ * UserServiceImpl class for the users in temporary storage.
+ * 
+ * Other parts of the application listen to it with the @EventListener or the 
+ * @TransactionalEventListener annotation, so the controllers do not need to know them.
+ */
+public class UserChangedEvent {
+
+	public enum Type { CREATED, UPDATED, DELETED }
+
+	// The store of the user, jpa for the /jpa/users database and memory for /users.
+	public static final String SOURCE_JPA = "jpa";
+	
+	public static final String SOURCE_MEMORY = "memory";
+
+	private final Type type;
+	
+	private final String source;
+	
+	private final String userId;
+	
+	// The user after the change, for a deleted user its last state or null when it is not known.
+	private final UserRest user;
+
+	public UserChangedEvent(Type type, String source, String userId, UserRest user) 
+	{
+		this.type = type;
+		this.source = source;
+		this.userId = userId;
+		this.user = user;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public UserRest getUser() {
+		return user;
+	}
+
+	@Override
+	public String toString() {
+		return "UserChangedEvent [type=" + type + ", source=" + source + ", userId=" + userId + "]";
+	}
+
+}
@@ -4,6 +4,7 @@ import java.util.Date;
 
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -77,5 +78,44 @@ public class AppExeptionHandler extends ResponseEntityExceptionHandler {
 				ex, new HttpHeaders(), HttpStatus.INTERNAL_SERVER_ERROR);
 	}
 	
+	/*
+	 * This method handles conflicts, for example an update of a user that has been 
+	 * changed since the client read it, the response contains the current user.
+	 */
+	@ExceptionHandler(value = {UserConflictException.class})
+	public ResponseEntity<Object> handleUserConflictException(UserConflictException ex, WebRequest request)
+	{
+		
+		Object body = ex.getCurrent();
+		
+		if(body == null) body = new ErrorMessage(new Date(), ex.getLocalizedMessage());
+		
+		return new ResponseEntity<>(
+				body, new HttpHeaders(), HttpStatus.CONFLICT);
+	}
+	
+	/*
+	 * This method handles requests that can not be served right now, the Retry-After 
+	 * header tells the client when to try again.
+	 * 
+	 * The error message can not be written as a stream of server-sent events, for the 
+	 * change feed it is sent as JSON.
+	 */
+	@ExceptionHandler(value = {ServiceUnavailableException.class})
+	public ResponseEntity<Object> handleServiceUnavailableException(ServiceUnavailableException ex, WebRequest request)
+	{
+		
+		HttpHeaders headers = new HttpHeaders();
+		
+		headers.set(HttpHeaders.RETRY_AFTER, Long.toString(ex.getRetryAfterSeconds()));
+		
+		String accept = request.getHeader(HttpHeaders.ACCEPT);
+		if (accept != null && MediaType.parseMediaTypes(accept).contains(MediaType.TEXT_EVENT_STREAM)) {
+			headers.setContentType(MediaType.APPLICATION_JSON);
+		}
+		
+		return new ResponseEntity<>(
+				new ErrorMessage(new Date(), ex.getLocalizedMessage()), headers, HttpStatus.SERVICE_UNAVAILABLE);
+	}
 	
 }
@@ -0,0 +1,28 @@
+package com.kokabmedia.app.ws.exeption;
+
+
+/*
+ * This class represents a custom exception for requests that can not be served right now 
+ * but may succeed later, for example a request that waited too long for a concurrent 
+ * lookup or a stream when all its places are taken.
+ * 
+ * It is answered with 503 Service Unavailable and a Retry-After header with the seconds 
+ * after which the client may try again.
+ */
+public class ServiceUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = -2650393813566325784L;
+
+	private final long retryAfterSeconds;
+
+	public ServiceUnavailableException(String message, long retryAfterSeconds) 
+	{
+		super(message);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.kokabmedia.app.ws.exeption;
+
+
+/*
+ * This class represents a custom exception for requests that conflict with the current 
+ * state of a user, for example an update based on an outdated version of the user.
+ * 
+ * The current representation of the user is kept so it can be returned to the client 
+ * with the 409 Conflict response, the client can then apply its change again.
+ */
+public class UserConflictException extends RuntimeException {
+
+	private static final long serialVersionUID = 3527061298562950716L;
+
+	private final transient Object current;
+
+	public UserConflictException(String message, Object current) 
+	{
+		super(message);
+		this.current = current;
+	}
+
+	public Object getCurrent() {
+		return current;
+	}
+
+}
@@ -0,0 +1,389 @@
+package com.kokabmedia.app.ws.idempotency;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kokabmedia.app.ws.ui.model.response.ErrorMessage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This filter makes POST /users and POST /jpa/users idempotent for clients that send an
+ * Idempotency-Key header, a client that retries a create request with the same key gets
+ * the response (status and body) of the first request instead of creating another user.
+ *
+ * The first request with a key runs normally and its response is stored for ttl-ms after
+ * it completes, a duplicate that arrives while the first request is still running waits
+ * for it (up to wait-timeout-ms) instead of running in parallel. Responses with a 5xx
+ * status are not stored, so a retry after a server error is processed again. Reusing a
+ * key for a different request body is rejected with 422 Unprocessable Entity.
+ *
+ * The body is read into memory to compute its fingerprint, a body of more than
+ * max-body-bytes is rejected with 413 Payload Too Large, by its Content-Length header
+ * before it is read or when the reading passes the limit.
+ *
+ * The keys are scoped by the path and the X-API-Key header, not the IP address, because
+ * the IP address of a mobile client changes when it retries on another network. The store
+ * holds at most max-entries keys, when it is full requests are processed without a key.
+ *
+ * The filter runs after the AdmissionControlFilter, so retries are still rate limited.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 20)
+@ConditionalOnProperty(name = "app.idempotency.enabled", havingValue = "true", matchIfMissing = true)
+public class IdempotencyFilter extends OncePerRequestFilter {
+
+	public static final String KEY_HEADER = "Idempotency-Key";
+
+	// Set on responses that are replayed from the store.
+	public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private final ObjectMapper objectMapper;
+	private final long ttlMillis;
+	private final int maxEntries;
+	private final long waitTimeoutMillis;
+	private final int maxKeyLength;
+	private final int maxBodyBytes;
+
+	private final Counter firstRequests;
+	private final Counter replayedRequests;
+	private final Counter mismatchedRequests;
+	private final Counter timedOutRequests;
+	private final Counter unstoredRequests;
+	private final Counter tooLargeRequests;
+
+	public IdempotencyFilter(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+			@Value("${app.idempotency.ttl-ms}") long ttlMillis,
+			@Value("${app.idempotency.max-entries}") int maxEntries,
+			@Value("${app.idempotency.wait-timeout-ms}") long waitTimeoutMillis,
+			@Value("${app.idempotency.max-key-length}") int maxKeyLength,
+			@Value("${app.idempotency.max-body-bytes}") int maxBodyBytes) {
+
+		this.objectMapper = objectMapper;
+		this.ttlMillis = ttlMillis;
+		this.maxEntries = maxEntries;
+		this.waitTimeoutMillis = waitTimeoutMillis;
+		this.maxKeyLength = maxKeyLength;
+		this.maxBodyBytes = maxBodyBytes;
+
+		this.firstRequests = requests(meterRegistry, "first");
+		this.replayedRequests = requests(meterRegistry, "replayed");
+		this.mismatchedRequests = requests(meterRegistry, "mismatch");
+		this.timedOutRequests = requests(meterRegistry, "wait_timeout");
+		this.unstoredRequests = requests(meterRegistry, "store_full");
+		this.tooLargeRequests = requests(meterRegistry, "too_large");
+		Gauge.builder("idempotency.keys", entries, ConcurrentHashMap::size).register(meterRegistry);
+	}
+
+	private static Counter requests(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("idempotency.requests").tag("result", result)
+				.description("Create requests with an Idempotency-Key by result").register(meterRegistry);
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+
+		if (!"POST".equals(request.getMethod()) || request.getHeader(KEY_HEADER) == null) {
+			return true;
+		}
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		return !(path.equals("/users") || path.equals("/jpa/users"));
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+
+		String key = request.getHeader(KEY_HEADER);
+		if (key.isEmpty() || key.length() > maxKeyLength) {
+			reject(response, HttpStatus.BAD_REQUEST, "The " + KEY_HEADER + " header must have 1 to " + maxKeyLength
+					+ " characters");
+			return;
+		}
+
+		byte[] body = request.getContentLengthLong() > maxBodyBytes ? null
+				: readBody(request.getInputStream(), maxBodyBytes);
+		if (body == null) {
+			tooLargeRequests.increment();
+			reject(response, HttpStatus.PAYLOAD_TOO_LARGE, "A request with an " + KEY_HEADER + " can have at most "
+					+ maxBodyBytes + " bytes");
+			return;
+		}
+		HttpServletRequest cachedRequest = new CachedBodyRequest(request, body);
+		String apiKey = request.getHeader("X-API-Key");
+		String storeKey = request.getRequestURI() + '\n' + (apiKey == null ? "" : apiKey) + '\n' + key;
+		String fingerprint = fingerprint(request.getContentType(), body);
+
+		while (true) {
+			Entry entry = new Entry(fingerprint);
+			Entry existing = entries.putIfAbsent(storeKey, entry);
+
+			if (existing == null) {
+				if (entries.size() > maxEntries) {
+					evictExpired();
+					if (entries.size() > maxEntries) {
+						entries.remove(storeKey, entry);
+						entry.response.complete(null);
+						unstoredRequests.increment();
+						filterChain.doFilter(cachedRequest, response);
+						return;
+					}
+				}
+				firstRequests.increment();
+				processFirst(storeKey, entry, cachedRequest, response, filterChain);
+				return;
+			}
+
+			if (existing.isExpired(System.currentTimeMillis())) {
+				entries.remove(storeKey, existing);
+				continue;
+			}
+			if (!existing.fingerprint.equals(fingerprint)) {
+				mismatchedRequests.increment();
+				reject(response, HttpStatus.UNPROCESSABLE_ENTITY, "The " + KEY_HEADER + " " + key
+						+ " has already been used for a different request");
+				return;
+			}
+
+			StoredResponse stored;
+			try {
+				stored = existing.response.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException | ExecutionException e) {
+				timedOutRequests.increment();
+				reject(response, HttpStatus.CONFLICT, "A request with the " + KEY_HEADER + " " + key
+						+ " is still being processed");
+				return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ServletException("Interrupted while waiting for the request with the same " + KEY_HEADER, e);
+			}
+
+			// The first request failed and its key has been removed, this request takes over.
+			if (stored == null) {
+				continue;
+			}
+			replayedRequests.increment();
+			replay(stored, response);
+			return;
+		}
+	}
+
+	/*
+	 * Runs the first request with a key and stores its response, the waiting duplicates are
+	 * released when it completes, also when it fails.
+	 */
+	private void processFirst(String storeKey, Entry entry, HttpServletRequest request, HttpServletResponse response,
+			FilterChain filterChain) throws ServletException, IOException {
+
+		ContentCachingResponseWrapper cachingResponse = new ContentCachingResponseWrapper(response);
+		StoredResponse stored = null;
+		try {
+			filterChain.doFilter(request, cachingResponse);
+			if (cachingResponse.getStatus() < 500) {
+				stored = new StoredResponse(cachingResponse.getStatus(), cachingResponse.getContentType(),
+						cachingResponse.getContentAsByteArray());
+				entry.expiresAt = System.currentTimeMillis() + ttlMillis;
+			}
+		} finally {
+			if (stored == null) {
+				entries.remove(storeKey, entry);
+			}
+			entry.response.complete(stored);
+		}
+		cachingResponse.copyBodyToResponse();
+	}
+
+	/*
+	 * Reads the body up to the limit, returns null if the body has more bytes.
+	 */
+	private static byte[] readBody(InputStream input, int limit) throws IOException {
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream(Math.min(limit, 8192));
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = input.read(buffer)) != -1) {
+			if (body.size() + read > limit) {
+				return null;
+			}
+			body.write(buffer, 0, read);
+		}
+		return body.toByteArray();
+	}
+
+	private void replay(StoredResponse stored, HttpServletResponse response) throws IOException {
+
+		response.setStatus(stored.status);
+		if (stored.contentType != null) {
+			response.setContentType(stored.contentType);
+		}
+		response.setHeader(REPLAYED_HEADER, "true");
+		response.setContentLength(stored.body.length);
+		response.getOutputStream().write(stored.body);
+	}
+
+	/*
+	 * Removes the keys whose responses are older than ttl-ms, called every
+	 * cleanup-interval-ms and when the store is full. Returns the number of removed keys.
+	 */
+	@Scheduled(fixedDelayString = "${app.idempotency.cleanup-interval-ms}")
+	public int evictExpired() {
+
+		long now = System.currentTimeMillis();
+		int before = entries.size();
+		entries.values().removeIf(entry -> entry.isExpired(now));
+		return Math.max(0, before - entries.size());
+	}
+
+	private void reject(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+
+		response.setStatus(status.value());
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		objectMapper.writeValue(response.getOutputStream(), new ErrorMessage(new Date(), message));
+	}
+
+	private static String fingerprint(String contentType, byte[] body) {
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(String.valueOf(contentType).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			return Base64.getEncoder().encodeToString(digest.digest(body));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class Entry {
+
+		private final String fingerprint;
+
+		// Completed with the stored response, or with null when the first request failed.
+		private final CompletableFuture<StoredResponse> response = new CompletableFuture<>();
+
+		private volatile long expiresAt = Long.MAX_VALUE;
+
+		private Entry(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+
+		private boolean isExpired(long now) {
+			return now >= expiresAt;
+		}
+	}
+
+	private static final class StoredResponse {
+
+		private final int status;
+		private final String contentType;
+		private final byte[] body;
+
+		private StoredResponse(int status, String contentType, byte[] body) {
+			this.status = status;
+			this.contentType = contentType;
+			this.body = body;
+		}
+	}
+
+	/*
+	 * The request with its body read into memory, the body has been read to compute the
+	 * fingerprint and is read again by the controller.
+	 */
+	private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+
+		private final byte[] body;
+
+		private CachedBodyRequest(HttpServletRequest request, byte[] body) {
+			super(request);
+			this.body = body;
+		}
+
+		@Override
+		public ServletInputStream getInputStream() {
+
+			ByteArrayInputStream input = new ByteArrayInputStream(body);
+			return new ServletInputStream() {
+
+				@Override
+				public int read() {
+					return input.read();
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) {
+					return input.read(buffer, offset, length);
+				}
+
+				@Override
+				public boolean isFinished() {
+					return input.available() == 0;
+				}
+
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setReadListener(ReadListener listener) {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public BufferedReader getReader() throws IOException {
+
+			String encoding = getCharacterEncoding() == null ? StandardCharsets.UTF_8.name() : getCharacterEncoding();
+			return new BufferedReader(new InputStreamReader(getInputStream(), encoding));
+		}
+
+		@Override
+		public int getContentLength() {
+			return body.length;
+		}
+
+		@Override
+		public long getContentLengthLong() {
+			return body.length;
+		}
+	}
+
+}
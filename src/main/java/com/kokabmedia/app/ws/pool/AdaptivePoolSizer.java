@@ -0,0 +1,210 @@
+package com.kokabmedia.app.ws.pool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceUnwrapper;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.pool.HikariPool;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * This class resizes the Hikari connection pools of the application (the pool of
+ * UserJPARepository, or the primary and replica pools of the read/write routing) between
+ * min-size and max-size, with additive increase and multiplicative decrease like the
+ * AdaptiveConcurrencyLimit of the admission control.
+ *
+ * Every interval-ms it reads the hikaricp.connections.acquire and hikaricp.connections.usage
+ * timers of each pool, which Spring Boot binds to the MeterRegistry, and takes the mean of
+ * the interval:
+ *
+ * - When connections are held longer than usage-threshold-ms the database is slow, more
+ *   connections would only add to its load, so the pool is multiplied with backoff-ratio.
+ * - Else when requests wait longer than acquire-wait-threshold-ms for a connection, or
+ *   still wait at the end of the interval, the pool grows by step connections.
+ * - Else when the pool had idle connections for idle-intervals intervals in a row it
+ *   shrinks by one connection.
+ *
+ * Hikari opens new connections up to the maximum pool size as soon as a request waits.
+ * It does not close connections above a smaller maximum, so the idle connections above it
+ * are evicted here, the connections in use are closed when they are returned. The minimum
+ * idle of every pool is set to min-size. The connections to evict are borrowed without
+ * waiting, the sizer runs on the scheduler thread that the other @Scheduled tasks share.
+ *
+ * The datasource.pool.resizes counter counts the resizes by pool and reason, the
+ * hikaricp.connections.max gauge shows the current size of each pool.
+ */
+@Component
+@Lazy(false)
+@ConditionalOnProperty(name = "app.datasource.pool.adaptive.enabled", havingValue = "true")
+public class AdaptivePoolSizer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+
+	private final List<Pool> pools = new ArrayList<>();
+	private final MeterRegistry meterRegistry;
+	private final int minSize;
+	private final int maxSize;
+	private final int step;
+	private final long acquireWaitThresholdNanos;
+	private final long usageThresholdMillis;
+	private final double backoffRatio;
+	private final int idleIntervals;
+
+	public AdaptivePoolSizer(List<DataSource> dataSources, MeterRegistry meterRegistry,
+			@Value("${app.datasource.pool.adaptive.min-size}") int minSize,
+			@Value("${app.datasource.pool.adaptive.max-size}") int maxSize,
+			@Value("${app.datasource.pool.adaptive.step}") int step,
+			@Value("${app.datasource.pool.adaptive.acquire-wait-threshold-ms}") long acquireWaitThresholdMillis,
+			@Value("${app.datasource.pool.adaptive.usage-threshold-ms}") long usageThresholdMillis,
+			@Value("${app.datasource.pool.adaptive.backoff-ratio}") double backoffRatio,
+			@Value("${app.datasource.pool.adaptive.idle-intervals}") int idleIntervals) {
+
+		this.meterRegistry = meterRegistry;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.step = step;
+		this.acquireWaitThresholdNanos = TimeUnit.MILLISECONDS.toNanos(acquireWaitThresholdMillis);
+		this.usageThresholdMillis = usageThresholdMillis;
+		this.backoffRatio = backoffRatio;
+		this.idleIntervals = idleIntervals;
+
+		// The datasource of JPA is wrapped (tracing, routing), the same pool is found only once.
+		for (DataSource dataSource : dataSources) {
+			HikariDataSource hikariDataSource = DataSourceUnwrapper.unwrap(dataSource, HikariConfigMXBean.class,
+					HikariDataSource.class);
+			if (hikariDataSource != null && pools.stream().noneMatch(pool -> pool.dataSource == hikariDataSource)) {
+				hikariDataSource.setMinimumIdle(minSize);
+				hikariDataSource.setMaximumPoolSize(
+						Math.max(minSize, Math.min(maxSize, hikariDataSource.getMaximumPoolSize())));
+				pools.add(new Pool(hikariDataSource));
+			}
+		}
+	}
+
+	@Scheduled(initialDelayString = "${app.datasource.pool.adaptive.interval-ms}",
+			fixedDelayString = "${app.datasource.pool.adaptive.interval-ms}")
+	public void adjust() {
+		pools.forEach(this::adjust);
+	}
+
+	private void adjust(Pool pool) {
+
+		// Hikari starts the pool with the first connection.
+		HikariPoolMXBean poolBean = pool.dataSource.getHikariPoolMXBean();
+		if (poolBean == null || pool.dataSource.isClosed()) {
+			return;
+		}
+		String name = pool.dataSource.getPoolName();
+		Timer acquire = meterRegistry.find("hikaricp.connections.acquire").tag("pool", name).timer();
+		Timer usage = meterRegistry.find("hikaricp.connections.usage").tag("pool", name).timer();
+		long meanWaitNanos = pool.acquire.mean(acquire, TimeUnit.NANOSECONDS);
+		long meanUsageMillis = pool.usage.mean(usage, TimeUnit.MILLISECONDS);
+		int waiting = poolBean.getThreadsAwaitingConnection();
+
+		int size = pool.dataSource.getMaximumPoolSize();
+		int next;
+		String reason;
+		if (meanUsageMillis > usageThresholdMillis) {
+			next = Math.max(minSize, (int) (size * backoffRatio));
+			reason = "usage";
+		} else if (meanWaitNanos > acquireWaitThresholdNanos || waiting > 0) {
+			next = Math.min(maxSize, size + step);
+			reason = "wait";
+		} else if (poolBean.getIdleConnections() == 0) {
+			pool.idleIntervals = 0;
+			return;
+		} else if (++pool.idleIntervals >= idleIntervals) {
+			next = Math.max(minSize, size - 1);
+			reason = "idle";
+		} else {
+			return;
+		}
+		pool.idleIntervals = 0;
+		if (next != size) {
+			pool.dataSource.setMaximumPoolSize(next);
+			meterRegistry.counter("datasource.pool.resizes", "pool", name, "reason", reason).increment();
+			LOG.debug("Resized pool {} from {} to {} connections ({}), mean wait {} us, mean usage {} ms", name,
+					size, next, reason, meanWaitNanos / 1000, meanUsageMillis);
+		}
+		retire(pool.dataSource, poolBean);
+	}
+
+	/*
+	 * Evicts idle connections above the maximum pool size, a connection that is idle is
+	 * handed out at once, it is then closed instead of returned. A connection that a
+	 * request took after the idle count was read is not waited for, it is left to the next
+	 * interval.
+	 */
+	private void retire(HikariDataSource dataSource, HikariPoolMXBean poolBean) {
+
+		int excess = poolBean.getTotalConnections() - dataSource.getMaximumPoolSize();
+		for (int i = 0; i < excess && poolBean.getIdleConnections() > 0; i++) {
+			try (Connection connection = ((HikariPool) poolBean).getConnection(0)) {
+				dataSource.evictConnection(connection);
+			} catch (SQLTransientConnectionException e) {
+				return;
+			} catch (SQLException e) {
+				LOG.warn("Could not evict a connection of pool {}", dataSource.getPoolName(), e);
+				return;
+			}
+		}
+	}
+
+	private static class Pool {
+
+		private final HikariDataSource dataSource;
+		private final Interval acquire = new Interval();
+		private final Interval usage = new Interval();
+		private int idleIntervals;
+
+		Pool(HikariDataSource dataSource) {
+			this.dataSource = dataSource;
+		}
+
+	}
+
+	/*
+	 * The count and total time of a timer at the last interval, the timers of the
+	 * registry are cumulative.
+	 */
+	private static class Interval {
+
+		private long count;
+		private double totalTime;
+
+		long mean(Timer timer, TimeUnit unit) {
+
+			if (timer == null) {
+				return 0;
+			}
+			long nextCount = timer.count();
+			double nextTotalTime = timer.totalTime(unit);
+			long counted = nextCount - count;
+			double time = nextTotalTime - totalTime;
+			count = nextCount;
+			totalTime = nextTotalTime;
+			return counted > 0 ? (long) (time / counted) : 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,141 @@
+package com.kokabmedia.app.ws.profiling;
+
+import java.util.List;
+
+/*
+ * This class is the profile of one user endpoint in a flight recording, the response of
+ * GET /actuator/profiling/summary has one per endpoint.
+ *
+ * The hot methods are the top frames of the execution samples taken on the request
+ * threads while the endpoint was handled, the allocation sites the allocated class and the
+ * top frame of the allocation samples with their sampled bytes. Both are estimates that
+ * become more accurate with more requests in the recording.
+ */
+public class EndpointProfile {
+
+	private String endpoint;
+	private long requests;
+	private long errors;
+	private double meanLatencyMs;
+	private double maxLatencyMs;
+	private long bytes;
+	private long executionSamples;
+	private long sampledAllocationBytes;
+	private List<Site> hotMethods;
+	private List<Site> allocationSites;
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public void setEndpoint(String endpoint) {
+		this.endpoint = endpoint;
+	}
+
+	public long getRequests() {
+		return requests;
+	}
+
+	public void setRequests(long requests) {
+		this.requests = requests;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public void setErrors(long errors) {
+		this.errors = errors;
+	}
+
+	public double getMeanLatencyMs() {
+		return meanLatencyMs;
+	}
+
+	public void setMeanLatencyMs(double meanLatencyMs) {
+		this.meanLatencyMs = meanLatencyMs;
+	}
+
+	public double getMaxLatencyMs() {
+		return maxLatencyMs;
+	}
+
+	public void setMaxLatencyMs(double maxLatencyMs) {
+		this.maxLatencyMs = maxLatencyMs;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+
+	public long getExecutionSamples() {
+		return executionSamples;
+	}
+
+	public void setExecutionSamples(long executionSamples) {
+		this.executionSamples = executionSamples;
+	}
+
+	public long getSampledAllocationBytes() {
+		return sampledAllocationBytes;
+	}
+
+	public void setSampledAllocationBytes(long sampledAllocationBytes) {
+		this.sampledAllocationBytes = sampledAllocationBytes;
+	}
+
+	public List<Site> getHotMethods() {
+		return hotMethods;
+	}
+
+	public void setHotMethods(List<Site> hotMethods) {
+		this.hotMethods = hotMethods;
+	}
+
+	public List<Site> getAllocationSites() {
+		return allocationSites;
+	}
+
+	public void setAllocationSites(List<Site> allocationSites) {
+		this.allocationSites = allocationSites;
+	}
+
+	/*
+	 * A method or an allocation site with its number of samples or sampled bytes.
+	 */
+	public static class Site {
+
+		private String name;
+		private long value;
+
+		public Site() {
+		}
+
+		public Site(String name, long value) {
+			this.name = name;
+			this.value = value;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public long getValue() {
+			return value;
+		}
+
+		public void setValue(long value) {
+			this.value = value;
+		}
+
+	}
+
+}
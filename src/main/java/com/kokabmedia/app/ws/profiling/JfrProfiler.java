@@ -0,0 +1,187 @@
+package com.kokabmedia.app.ws.profiling;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/*
+ * This class runs the JDK Flight Recorder recording of the profiling endpoint, at most one
+ * recording at a time. A stopped recording is kept until the next one starts so it can
+ * still be downloaded and summarized.
+ *
+ * The settings are the "default" configuration of the JDK (about 1% overhead) with the
+ * execution sampling period and the allocation sampling of the app.profiling properties.
+ * The events with the environment variables and the system properties of the JVM are
+ * turned off, they hold credentials that must not end up in a downloaded recording.
+ * JDK 16 and later sample allocations with a throttled ObjectAllocationSample event, older
+ * JDKs get the allocation of new TLABs instead, which costs more. The recording keeps the
+ * last max-age-minutes and max-size-mb in its disk repository, so a recording started with
+ * start-on-startup can run for the life time of the instance.
+ */
+@Component
+@ConditionalOnProperty(name = "app.profiling.enabled", havingValue = "true")
+public class JfrProfiler implements ApplicationListener<ApplicationReadyEvent> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(JfrProfiler.class);
+
+	private static final String RECORDING_NAME = "rest-mobile-app-ws";
+
+	private final Map<String, String> settings;
+	private final Duration maxAge;
+	private final long maxSize;
+	private final boolean startOnStartup;
+
+	private Recording recording;
+
+	public JfrProfiler(@Value("${app.profiling.execution-sample-period-ms}") long executionSamplePeriodMillis,
+			@Value("${app.profiling.allocation-sample-throttle}") String allocationSampleThrottle,
+			@Value("${app.profiling.max-age-minutes}") long maxAgeMinutes,
+			@Value("${app.profiling.max-size-mb}") long maxSizeMegabytes,
+			@Value("${app.profiling.start-on-startup}") boolean startOnStartup) throws IOException, ParseException {
+
+		this.settings = settings(executionSamplePeriodMillis, allocationSampleThrottle);
+		this.maxAge = Duration.ofMinutes(maxAgeMinutes);
+		this.maxSize = maxSizeMegabytes * 1024 * 1024;
+		this.startOnStartup = startOnStartup;
+	}
+
+	static Map<String, String> settings(long executionSamplePeriodMillis, String allocationSampleThrottle)
+			throws IOException, ParseException {
+
+		Map<String, String> settings = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+		settings.put("jdk.ExecutionSample#enabled", "true");
+		settings.put("jdk.ExecutionSample#period", executionSamplePeriodMillis + " ms");
+		if (Runtime.version().feature() >= 16) {
+			settings.put("jdk.ObjectAllocationSample#enabled", "true");
+			settings.put("jdk.ObjectAllocationSample#throttle", allocationSampleThrottle);
+			settings.put("jdk.ObjectAllocationInNewTLAB#enabled", "false");
+		} else {
+			settings.put("jdk.ObjectAllocationInNewTLAB#enabled", "true");
+			settings.put("jdk.ObjectAllocationInNewTLAB#stackTrace", "true");
+		}
+		settings.put("jdk.ObjectAllocationOutsideTLAB#enabled", "false");
+		settings.put("jdk.InitialEnvironmentVariable#enabled", "false");
+		settings.put("jdk.InitialSystemProperty#enabled", "false");
+		settings.put(UserRequestEvent.NAME + "#enabled", "true");
+		settings.put(UserRequestEvent.NAME + "#threshold", "0 ms");
+		return settings;
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		if (startOnStartup && start(null)) {
+			LOG.info("Started the flight recording of the profiling endpoint");
+		}
+	}
+
+	/*
+	 * Starts a new recording, it stops by itself after duration if duration is not null.
+	 * Returns false if a recording is already running.
+	 */
+	public synchronized boolean start(Duration duration) {
+
+		if (isRunning()) {
+			return false;
+		}
+		if (recording != null) {
+			recording.close();
+		}
+		recording = new Recording(settings);
+		recording.setName(RECORDING_NAME);
+		recording.setToDisk(true);
+		recording.setMaxAge(maxAge);
+		recording.setMaxSize(maxSize);
+		if (duration != null) {
+			recording.setDuration(duration);
+		}
+		recording.start();
+		return true;
+	}
+
+	/*
+	 * Stops the running recording, returns false if no recording is running.
+	 */
+	public synchronized boolean stop() {
+
+		if (!isRunning()) {
+			return false;
+		}
+		recording.stop();
+		return true;
+	}
+
+	public synchronized boolean isRunning() {
+		return recording != null && recording.getState() == RecordingState.RUNNING;
+	}
+
+	/*
+	 * Writes the data of the current or the last recording to a new temporary file, the
+	 * caller deletes it. A running recording keeps running. Returns null if there is no
+	 * recording.
+	 */
+	public synchronized Path dump() throws IOException {
+
+		if (recording == null || recording.getState() == RecordingState.NEW) {
+			return null;
+		}
+		Path file = Files.createTempFile("profile-", ".jfr");
+		try {
+			recording.dump(file);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(file);
+			throw e;
+		}
+		return file;
+	}
+
+	/*
+	 * The state of the current or the last recording.
+	 */
+	public synchronized Map<String, Object> status() {
+
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("state", recording != null ? recording.getState().name() : "NONE");
+		if (recording != null) {
+			status.put("startTime", toString(recording.getStartTime()));
+			status.put("stopTime", toString(recording.getStopTime()));
+			status.put("sizeBytes", recording.getSize());
+		}
+		status.put("executionSamplePeriod", settings.get("jdk.ExecutionSample#period"));
+		status.put("allocationSampling", settings.getOrDefault("jdk.ObjectAllocationSample#throttle", "new TLAB"));
+		status.put("maxAge", maxAge.toString());
+		status.put("maxSizeBytes", maxSize);
+		return status;
+	}
+
+	private static String toString(Instant instant) {
+		return instant != null ? instant.toString() : null;
+	}
+
+	@PreDestroy
+	synchronized void close() {
+		if (recording != null) {
+			recording.close();
+		}
+	}
+
+}
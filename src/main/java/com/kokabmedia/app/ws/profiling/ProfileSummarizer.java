@@ -0,0 +1,184 @@
+package com.kokabmedia.app.ws.profiling;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+/*
+ * This class reads a flight recording and builds the profile of every user endpoint.
+ *
+ * The first pass collects the UserRequestEvents by thread, the second pass attributes every
+ * execution sample and allocation sample to the request that its thread was handling at
+ * the time of the sample. A servlet thread handles one request at a time, so the requests
+ * of a thread do not overlap and are kept in a TreeMap by start time. Samples outside a
+ * user request (other endpoints, background jobs) are ignored.
+ */
+final class ProfileSummarizer {
+
+	private static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+	private static final String ALLOCATION_SAMPLE = "jdk.ObjectAllocationSample";
+	private static final String ALLOCATION_IN_NEW_TLAB = "jdk.ObjectAllocationInNewTLAB";
+
+	private ProfileSummarizer() {
+	}
+
+	static List<EndpointProfile> summarize(Path recording, int top) throws IOException {
+
+		Map<Long, TreeMap<Instant, Request>> requestsByThread = new HashMap<>();
+		Map<String, Accumulator> endpoints = new HashMap<>();
+
+		try (RecordingFile file = new RecordingFile(recording)) {
+			while (file.hasMoreEvents()) {
+				RecordedEvent event = file.readEvent();
+				if (!event.getEventType().getName().equals(UserRequestEvent.NAME) || event.getThread() == null) {
+					continue;
+				}
+				Accumulator endpoint = endpoints.computeIfAbsent(event.getString("endpoint"), Accumulator::new);
+				endpoint.add(event);
+				requestsByThread.computeIfAbsent(event.getThread().getJavaThreadId(), id -> new TreeMap<>())
+						.put(event.getStartTime(), new Request(event.getEndTime(), endpoint));
+			}
+		}
+
+		try (RecordingFile file = new RecordingFile(recording)) {
+			while (file.hasMoreEvents()) {
+				RecordedEvent event = file.readEvent();
+				String type = event.getEventType().getName();
+				if (type.equals(EXECUTION_SAMPLE)) {
+					Accumulator endpoint = endpointAt(requestsByThread, event.getThread("sampledThread"),
+							event.getStartTime());
+					String frame = topFrame(event.getStackTrace());
+					if (endpoint != null && frame != null) {
+						endpoint.executionSamples++;
+						endpoint.hotMethods.merge(frame, 1L, Long::sum);
+					}
+				} else if (type.equals(ALLOCATION_SAMPLE) || type.equals(ALLOCATION_IN_NEW_TLAB)) {
+					Accumulator endpoint = endpointAt(requestsByThread, event.getThread(), event.getStartTime());
+					String frame = topFrame(event.getStackTrace());
+					if (endpoint != null && frame != null) {
+						long bytes = event.hasField("weight") ? event.getLong("weight") : event.getLong("tlabSize");
+						endpoint.sampledAllocationBytes += bytes;
+						endpoint.allocationSites.merge(event.getClass("objectClass").getName() + " at " + frame, bytes,
+								Long::sum);
+					}
+				}
+			}
+		}
+
+		return endpoints.values().stream()
+				.map(endpoint -> endpoint.toProfile(top))
+				.sorted(Comparator.comparingLong(EndpointProfile::getRequests).reversed())
+				.collect(Collectors.toList());
+	}
+
+	private static Accumulator endpointAt(Map<Long, TreeMap<Instant, Request>> requestsByThread,
+			RecordedThread thread, Instant time) {
+
+		if (thread == null) {
+			return null;
+		}
+		TreeMap<Instant, Request> requests = requestsByThread.get(thread.getJavaThreadId());
+		Map.Entry<Instant, Request> request = requests != null ? requests.floorEntry(time) : null;
+		return request != null && !time.isAfter(request.getValue().end) ? request.getValue().endpoint : null;
+	}
+
+	private static String topFrame(RecordedStackTrace stackTrace) {
+
+		if (stackTrace == null) {
+			return null;
+		}
+		for (RecordedFrame frame : stackTrace.getFrames()) {
+			if (frame.isJavaFrame()) {
+				return frame.getMethod().getType().getName() + '.' + frame.getMethod().getName();
+			}
+		}
+		return null;
+	}
+
+	private static class Request {
+
+		final Instant end;
+		final Accumulator endpoint;
+
+		Request(Instant end, Accumulator endpoint) {
+			this.end = end;
+			this.endpoint = endpoint;
+		}
+
+	}
+
+	private static class Accumulator {
+
+		final String endpoint;
+		long requests;
+		long errors;
+		long totalLatencyNanos;
+		long maxLatencyNanos;
+		long bytes;
+		long executionSamples;
+		long sampledAllocationBytes;
+		final Map<String, Long> hotMethods = new HashMap<>();
+		final Map<String, Long> allocationSites = new HashMap<>();
+
+		Accumulator(String endpoint) {
+			this.endpoint = endpoint;
+		}
+
+		void add(RecordedEvent event) {
+
+			long latency = event.getDuration().toNanos();
+			requests++;
+			totalLatencyNanos += latency;
+			maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+			bytes += event.getLong("bytes");
+			if (event.getInt("status") >= 500) {
+				errors++;
+			}
+		}
+
+		EndpointProfile toProfile(int top) {
+
+			EndpointProfile profile = new EndpointProfile();
+			profile.setEndpoint(endpoint);
+			profile.setRequests(requests);
+			profile.setErrors(errors);
+			profile.setMeanLatencyMs(millis(totalLatencyNanos / (double) requests));
+			profile.setMaxLatencyMs(millis(maxLatencyNanos));
+			profile.setBytes(bytes);
+			profile.setExecutionSamples(executionSamples);
+			profile.setSampledAllocationBytes(sampledAllocationBytes);
+			profile.setHotMethods(top(hotMethods, top));
+			profile.setAllocationSites(top(allocationSites, top));
+			return profile;
+		}
+
+		private static double millis(double nanos) {
+			return Math.round(nanos / Duration.ofMillis(1).toNanos() * 1000) / 1000.0;
+		}
+
+		private static List<EndpointProfile.Site> top(Map<String, Long> counts, int top) {
+			List<EndpointProfile.Site> sites = new ArrayList<>();
+			counts.entrySet().stream()
+					.sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+					.limit(top)
+					.forEach(entry -> sites.add(new EndpointProfile.Site(entry.getKey(), entry.getValue())));
+			return sites;
+		}
+
+	}
+
+}
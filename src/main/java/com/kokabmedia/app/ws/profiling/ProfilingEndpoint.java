@@ -0,0 +1,117 @@
+package com.kokabmedia.app.ws.profiling;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.web.annotation.RestControllerEndpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/*
+ * This class is the profiling actuator endpoint, it starts, stops and downloads the
+ * flight recording of the JfrProfiler and summarizes it per user endpoint.
+ *
+ * GET    /actuator/profiling            the state of the current or the last recording
+ * POST   /actuator/profiling            starts a recording, ?durationSeconds= stops it after that time
+ * DELETE /actuator/profiling            stops the recording
+ * GET    /actuator/profiling/recording  the recording so far as a .jfr file (JDK Mission Control, jfr print)
+ * GET    /actuator/profiling/summary    the requests, latency, bytes, hot methods and allocation sites per endpoint
+ *
+ * A running recording keeps running when it is downloaded or summarized. The endpoint has
+ * to be exposed with management.endpoints.web.exposure.include like the other actuator
+ * endpoints. It has no authentication of its own, so it is disabled unless
+ * app.profiling.enabled=true and should only be exposed on a management.server.port that
+ * the clients of the API can not reach.
+ */
+@Component
+@RestControllerEndpoint(id = "profiling")
+@ConditionalOnProperty(name = "app.profiling.enabled", havingValue = "true")
+public class ProfilingEndpoint {
+
+	private final JfrProfiler profiler;
+	private final int summaryTop;
+
+	public ProfilingEndpoint(JfrProfiler profiler, @Value("${app.profiling.summary.top}") int summaryTop) {
+		this.profiler = profiler;
+		this.summaryTop = summaryTop;
+	}
+
+	@GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+	public Map<String, Object> status() {
+		return profiler.status();
+	}
+
+	/*
+	 * 409 with the state of the running recording if a recording is already running.
+	 */
+	@PostMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Map<String, Object>> start(@RequestParam(required = false) Long durationSeconds) {
+
+		boolean started = profiler.start(durationSeconds != null ? Duration.ofSeconds(durationSeconds) : null);
+		return ResponseEntity.status(started ? HttpStatus.OK : HttpStatus.CONFLICT).body(profiler.status());
+	}
+
+	/*
+	 * 404 with the state of the last recording if no recording is running.
+	 */
+	@DeleteMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Map<String, Object>> stop() {
+
+		boolean stopped = profiler.stop();
+		return ResponseEntity.status(stopped ? HttpStatus.OK : HttpStatus.NOT_FOUND).body(profiler.status());
+	}
+
+	/*
+	 * The recording is dumped to a temporary file that is deleted once it is sent, 404 if
+	 * no recording has been started.
+	 */
+	@GetMapping(path = "/recording")
+	public ResponseEntity<StreamingResponseBody> recording() throws IOException {
+
+		Path file = profiler.dump();
+		if (file == null) {
+			return ResponseEntity.notFound().build();
+		}
+		StreamingResponseBody body = out -> {
+			try {
+				Files.copy(file, out);
+			} finally {
+				Files.deleteIfExists(file);
+			}
+		};
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_OCTET_STREAM)
+				.contentLength(Files.size(file))
+				.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"profile.jfr\"")
+				.body(body);
+	}
+
+	@GetMapping(path = "/summary", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<EndpointProfile>> summary() throws IOException {
+
+		Path file = profiler.dump();
+		if (file == null) {
+			return ResponseEntity.notFound().build();
+		}
+		try {
+			return ResponseEntity.ok(ProfileSummarizer.summarize(file, summaryTop));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+}
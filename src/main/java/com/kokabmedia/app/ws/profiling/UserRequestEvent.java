@@ -0,0 +1,40 @@
+package com.kokabmedia.app.ws.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * This class is the JDK Flight Recorder event of one request to the UserJPAController or
+ * the UserController, the duration of the event is the latency of the request. The
+ * ProfileSummarizer attributes the execution and allocation samples of the request thread
+ * between the start and the end of the event to the endpoint.
+ *
+ * The event is only created when a recording has it enabled, see the UserRequestEventFilter.
+ */
+@Name(UserRequestEvent.NAME)
+@Label("User Request")
+@Category({ "Rest Mobile App WS", "Requests" })
+@Description("A request to the user endpoints")
+@StackTrace(false)
+class UserRequestEvent extends Event {
+
+	static final String NAME = "com.kokabmedia.app.ws.UserRequest";
+
+	@Label("Endpoint")
+	@Description("The HTTP method and the route, GET /jpa/users/{userId}")
+	String endpoint;
+
+	@Label("Status")
+	int status;
+
+	@Label("Bytes")
+	@Description("The bytes of the response body")
+	@DataAmount
+	long bytes;
+
+}
@@ -0,0 +1,146 @@
+package com.kokabmedia.app.ws.profiling;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.kokabmedia.app.ws.ui.controller.UserController;
+import com.kokabmedia.app.ws.ui.controller.UserJPAController;
+
+/*
+ * This filter commits a UserRequestEvent for every request that is handled by the
+ * UserJPAController or the UserController while a flight recording is running.
+ *
+ * Without a recording that enables the event the request only pays for the isEnabled()
+ * check, the response is only wrapped to count the bytes of the body when the event is
+ * recorded.
+ */
+@Component
+@ConditionalOnProperty(name = "app.profiling.enabled", havingValue = "true")
+public class UserRequestEventFilter extends OncePerRequestFilter {
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return request.getRequestURI().startsWith(request.getContextPath() + "/actuator");
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+
+		UserRequestEvent event = new UserRequestEvent();
+		if (!event.isEnabled()) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		CountingResponse countingResponse = new CountingResponse(response);
+		boolean failed = true;
+		event.begin();
+		try {
+			filterChain.doFilter(request, countingResponse);
+			failed = false;
+		} finally {
+			event.end();
+			Object handler = request.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE);
+			if (isUserController(handler) && event.shouldCommit()) {
+				Object route = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+				event.endpoint = request.getMethod() + ' ' + (route != null ? route : request.getRequestURI());
+				event.status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus();
+				event.bytes = countingResponse.getByteCount();
+				event.commit();
+			}
+		}
+	}
+
+	private static boolean isUserController(Object handler) {
+
+		if (!(handler instanceof HandlerMethod)) {
+			return false;
+		}
+		Class<?> controller = ((HandlerMethod) handler).getBeanType();
+		return controller == UserJPAController.class || controller == UserController.class;
+	}
+
+	/*
+	 * Counts the bytes written to the output stream, the message converters write the
+	 * bodies of the user endpoints to the output stream and not to the writer.
+	 */
+	private static class CountingResponse extends HttpServletResponseWrapper {
+
+		private CountingOutputStream outputStream;
+
+		CountingResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (outputStream == null) {
+				outputStream = new CountingOutputStream(super.getOutputStream());
+			}
+			return outputStream;
+		}
+
+		long getByteCount() {
+			return outputStream != null ? outputStream.byteCount : 0;
+		}
+
+	}
+
+	private static class CountingOutputStream extends ServletOutputStream {
+
+		private final ServletOutputStream delegate;
+		private long byteCount;
+
+		CountingOutputStream(ServletOutputStream delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			delegate.write(b);
+			byteCount++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			delegate.write(b, off, len);
+			byteCount += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			delegate.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			delegate.close();
+		}
+
+		@Override
+		public boolean isReady() {
+			return delegate.isReady();
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			delegate.setWriteListener(writeListener);
+		}
+
+	}
+
+}
@@ -1,8 +1,15 @@
 package com.kokabmedia.app.ws.repository;
 
+import java.util.List;
 import java.util.Optional;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.kokabmedia.app.ws.ui.model.response.UserRest;
@@ -36,6 +43,45 @@ import com.kokabmedia.app.ws.ui.model.response.UserRest;
 */
 public interface UserJPARepository extends JpaRepository<UserRest, Long>{
 	
+	/*
+	 * The ids of all users are kept in the query cache, the users themselves are read 
+	 * from the second-level cache. The cached result is discarded when the User_Rest 
+	 * table is changed.
+	 */
+	@Override
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
+	List<UserRest> findAll();
+	
+	/*
+	 * Returns one page of the users ordered by id without the COUNT(*) query of a Page, 
+	 * the total is kept by the UserCountService class. The ids of the page are kept in 
+	 * the query cache like findAll().
+	 */
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
+	List<UserRest> findAllByOrderByUserId(Pageable pageable);
+
+	/*
+	 * Returns the users that changed after the position (lastModified, userId) of a sync 
+	 * token and before the until time, in the order of the idx_user_rest_last_modified 
+	 * index so the next page starts where this one ended (keyset pagination).
+	 */
+	@Query("select u from UserRest u where u.lastModified < :until and "
+			+ "(u.lastModified > :since or (u.lastModified = :since and u.userId > :afterId)) "
+			+ "order by u.lastModified, u.userId")
+	List<UserRest> findChangedAfter(@Param("since") long since, @Param("afterId") long afterId,
+			@Param("until") long until, Pageable pageable);
+
+	// Uses the unique idx_user_rest_email index, the email must be normalized.
+	boolean existsByEmail(String email);
+	
+	@Query("select min(u.userId) from UserRest u")
+	Long findMinUserId();
+	
+	@Query("select max(u.userId) from UserRest u")
+	Long findMaxUserId();
 	
+	// The emails of a range of ids, the ranges are read in parallel to build the UserEmailIndex.
+	@Query("select u.email from UserRest u where u.userId between :fromId and :toId")
+	List<String> findEmailsByUserIdBetween(@Param("fromId") long fromId, @Param("toId") long toId);
 
 }
@@ -0,0 +1,35 @@
+package com.kokabmedia.app.ws.repository;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.kokabmedia.app.ws.ui.model.response.UserTombstone;
+
+/*
+ * This interface is used for handling the tombstones of deleted users to and from the 
+ * database.
+ */
+@Repository
+public interface UserTombstoneRepository extends JpaRepository<UserTombstone, Long> {
+
+	/*
+	 * Returns the tombstones after the position (deletedAt, userId) of a sync token and 
+	 * before the until time, in the order of the idx_user_tombstone_deleted_at index.
+	 */
+	@Query("select t from UserTombstone t where t.deletedAt < :until and "
+			+ "(t.deletedAt > :since or (t.deletedAt = :since and t.userId > :afterId)) "
+			+ "order by t.deletedAt, t.userId")
+	List<UserTombstone> findDeletedAfter(@Param("since") long since, @Param("afterId") long afterId,
+			@Param("until") long until, Pageable pageable);
+
+	@Modifying
+	@Query("delete from UserTombstone t where t.deletedAt < :before")
+	int deleteOlderThan(@Param("before") long before);
+
+}
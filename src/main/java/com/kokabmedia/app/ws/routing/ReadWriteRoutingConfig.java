@@ -0,0 +1,109 @@
+package com.kokabmedia.app.ws.routing;
+
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/*
+ * This class replaces the single datasource of the application with a primary and a
+ * replica connection pool, read-only transactions (the GET endpoints of UserJPAController
+ * and UserSyncController) use the replica and all other transactions use the primary.
+ *
+ * The primary pool is configured with the spring.datasource.* properties and the replica
+ * pool with the app.datasource.replica.* properties. Both pools are beans so the Spring
+ * Boot actuator binds the hikaricp.* metrics of each pool (tag pool=primary or replica).
+ *
+ * Locally the replica URL is the in-memory database of the primary opened by a second
+ * pool, replication has no lag there. Once deployed it points to a read replica and more
+ * replicas can be added behind it to scale the reads.
+ *
+ * Entities read from the replica are not put into the second-level cache (see
+ * ReplicaCacheModeJpaDialect), so a client that reads its own writes from the primary
+ * never gets a cached copy of a replica that has not caught up.
+ *
+ * The @ConditionalOnProperty annotation makes the routing opt-in with the
+ * app.datasource.routing.enabled property, without it Spring Boot configures its
+ * single datasource as before.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.datasource.routing.enabled", havingValue = "true")
+public class ReadWriteRoutingConfig {
+
+	@Bean
+	@ConfigurationProperties("spring.datasource.hikari")
+	public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+
+		HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+		dataSource.setPoolName(ReadWriteRoutingDataSource.PRIMARY);
+		return dataSource;
+	}
+
+	@Bean
+	@ConfigurationProperties("app.datasource.replica.hikari")
+	public HikariDataSource replicaDataSource(@Value("${app.datasource.replica.url}") String url,
+			@Value("${app.datasource.replica.username}") String username,
+			@Value("${app.datasource.replica.password}") String password) {
+
+		HikariDataSource dataSource = new HikariDataSource();
+		dataSource.setJdbcUrl(url);
+		dataSource.setUsername(username);
+		dataSource.setPassword(password);
+		dataSource.setPoolName(ReadWriteRoutingDataSource.REPLICA);
+		dataSource.setReadOnly(true);
+		return dataSource;
+	}
+
+	/*
+	 * The datasource used by JPA, the SQL initialization and the H2 console, the lazy proxy
+	 * takes a connection of the routing datasource only at the first SQL statement of a
+	 * transaction, once it is known whether the transaction is read-only.
+	 */
+	@Bean
+	@Primary
+	public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+			@Qualifier("replicaDataSource") DataSource replicaDataSource) {
+
+		ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource();
+		routingDataSource.setTargetDataSources(Map.<Object, Object>of(
+				ReadWriteRoutingDataSource.PRIMARY, primaryDataSource,
+				ReadWriteRoutingDataSource.REPLICA, replicaDataSource));
+		routingDataSource.setDefaultTargetDataSource(primaryDataSource);
+		routingDataSource.afterPropertiesSet();
+		return new LazyConnectionDataSourceProxy(routingDataSource);
+	}
+
+	/*
+	 * Sets the JPA dialect of the entity manager factory before it is initialized, the
+	 * transaction manager takes its dialect from the factory. The method is static because
+	 * a BeanPostProcessor is created before the other beans of this class.
+	 */
+	@Bean
+	public static BeanPostProcessor replicaCacheModeJpaDialect() {
+
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessBeforeInitialization(Object bean, String beanName) {
+				if (bean instanceof LocalContainerEntityManagerFactoryBean) {
+					((LocalContainerEntityManagerFactoryBean) bean).setJpaDialect(new ReplicaCacheModeJpaDialect());
+				}
+				return bean;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.kokabmedia.app.ws.routing;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/*
+ * This class sends the connections of read-only transactions to the replica database and
+ * all other connections to the primary database.
+ *
+ * The lookup key is determined when a connection is taken from the pool, this class must
+ * be wrapped in a LazyConnectionDataSourceProxy so the connection is only taken at the
+ * first SQL statement, after the transaction manager has marked the transaction read-only.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+	public static final String PRIMARY = "primary";
+	public static final String REPLICA = "replica";
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+
+		if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			return ReadYourWrites.isPinned() ? PRIMARY : REPLICA;
+		}
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			ReadYourWrites.onWrite();
+		}
+		return PRIMARY;
+	}
+
+}
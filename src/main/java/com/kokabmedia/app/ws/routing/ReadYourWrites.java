@@ -0,0 +1,108 @@
+package com.kokabmedia.app.ws.routing;
+
+import java.util.function.Supplier;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * This class keeps the read-your-writes state of the HTTP request that is handled by the
+ * current thread.
+ *
+ * A client that wrote a user gets the primary-until cookie, until that time all its reads
+ * go to the primary database instead of the replica, so the client never reads a replica
+ * that has not yet caught up with its own write. Other clients keep reading the replica.
+ *
+ * Threads that do not handle a request (scheduled tasks, the write-behind writer) have no
+ * state, they are never pinned and writes on them set no cookie.
+ */
+public final class ReadYourWrites {
+
+	public static final String COOKIE_NAME = "primary-until";
+
+	private static final ThreadLocal<State> CURRENT = new ThreadLocal<>();
+
+	private ReadYourWrites() {}
+
+	/*
+	 * Returns true when the current request must read from the primary database.
+	 */
+	public static boolean isPinned() {
+
+		State state = CURRENT.get();
+		return state != null && state.pinned;
+	}
+
+	/*
+	 * Returns a supplier that runs the given supplier with the state of the current request,
+	 * for the work that a request hands to another thread.
+	 */
+	public static <T> Supplier<T> propagate(Supplier<T> supplier) {
+
+		State state = CURRENT.get();
+		if (state == null) {
+			return supplier;
+		}
+		return () -> {
+			State previous = CURRENT.get();
+			CURRENT.set(state);
+			try {
+				return supplier.get();
+			} finally {
+				if (previous == null) {
+					CURRENT.remove();
+				} else {
+					CURRENT.set(previous);
+				}
+			}
+		};
+	}
+
+	// Called by the ReadYourWritesFilter when the request starts.
+	static void begin(HttpServletResponse response, boolean pinned, long windowMillis) {
+
+		CURRENT.set(new State(response, pinned, windowMillis));
+	}
+
+	// Called by the ReadYourWritesFilter when the request ends.
+	static void end() {
+
+		CURRENT.remove();
+	}
+
+	/*
+	 * Called by the ReadWriteRoutingDataSource when a read-write transaction of the current
+	 * request gets a connection of the primary database, the rest of the request and the
+	 * requests of the next windowMillis of the client read from the primary.
+	 */
+	static void onWrite() {
+
+		State state = CURRENT.get();
+		if (state == null || state.cookieSet) {
+			return;
+		}
+		state.pinned = true;
+		state.cookieSet = true;
+
+		Cookie cookie = new Cookie(COOKIE_NAME, Long.toString(System.currentTimeMillis() + state.windowMillis));
+		cookie.setPath("/");
+		cookie.setHttpOnly(true);
+		cookie.setMaxAge((int) Math.max(1, (state.windowMillis + 999) / 1000));
+		state.response.addCookie(cookie);
+	}
+
+	private static final class State {
+
+		private final HttpServletResponse response;
+		private final long windowMillis;
+		private boolean pinned;
+		private boolean cookieSet;
+
+		private State(HttpServletResponse response, boolean pinned, long windowMillis) {
+			this.response = response;
+			this.pinned = pinned;
+			this.windowMillis = windowMillis;
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.kokabmedia.app.ws.routing;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/*
+ * This filter reads the primary-until cookie of a request and pins the request to the
+ * primary database while the cookie time has not passed, see ReadYourWrites.
+ *
+ * The @ConditionalOnProperty annotation only registers the filter when the read/write
+ * routing of the ReadWriteRoutingConfig class is enabled.
+ */
+@Component
+@ConditionalOnProperty(name = "app.datasource.routing.enabled", havingValue = "true")
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+	// How long a client reads from the primary after a write, at least the replication lag.
+	@Value("${app.datasource.routing.read-your-writes-ms}")
+	private long windowMillis;
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+
+		ReadYourWrites.begin(response, primaryUntil(request) > System.currentTimeMillis(), windowMillis);
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			ReadYourWrites.end();
+		}
+	}
+
+	private static long primaryUntil(HttpServletRequest request) {
+
+		Cookie[] cookies = request.getCookies();
+		if (cookies == null) {
+			return 0;
+		}
+		for (Cookie cookie : cookies) {
+			if (ReadYourWrites.COOKIE_NAME.equals(cookie.getName())) {
+				try {
+					return Long.parseLong(cookie.getValue());
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 0;
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.kokabmedia.app.ws.routing;
+
+import java.sql.SQLException;
+
+import javax.persistence.CacheStoreMode;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+
+/*
+ * This class keeps the reads of the replica database out of the second-level cache of 
+ * Hibernate.
+ * 
+ * The cache regions are shared by all sessions, an entity that a read-only transaction 
+ * loads from a replica that lags behind would be put into the cache and then returned to 
+ * a client that reads its own writes from the primary. Sessions of transactions that are 
+ * routed to the replica (see ReadWriteRoutingDataSource) therefore bypass the cache when 
+ * they store (CacheMode.GET), they read the cache but never put into it, so the cache is 
+ * only filled from the primary.
+ * 
+ * The cache mode is set with the JPA store mode property of the session because find() 
+ * derives the cache mode from it. It is restored when the transaction ends, with open 
+ * session in view the same session is used by the next transaction of the request.
+ */
+public class ReplicaCacheModeJpaDialect extends HibernateJpaDialect {
+
+	private static final long serialVersionUID = 3461218190283513647L;
+
+	private static final String STORE_MODE = "javax.persistence.cache.storeMode";
+
+	@Override
+	public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition)
+			throws PersistenceException, SQLException, TransactionException {
+
+		Object transactionData = super.beginTransaction(entityManager, definition);
+		if (!definition.isReadOnly() || ReadYourWrites.isPinned()) {
+			return transactionData;
+		}
+		Object previousStoreMode = entityManager.getProperties().get(STORE_MODE);
+		entityManager.setProperty(STORE_MODE, CacheStoreMode.BYPASS);
+		return new ReplicaTransactionData(transactionData, entityManager, previousStoreMode);
+	}
+
+	@Override
+	public void cleanupTransaction(Object transactionData) {
+
+		if (transactionData instanceof ReplicaTransactionData) {
+			ReplicaTransactionData replicaData = (ReplicaTransactionData) transactionData;
+			replicaData.entityManager.setProperty(STORE_MODE,
+					replicaData.previousStoreMode != null ? replicaData.previousStoreMode : CacheStoreMode.USE);
+			super.cleanupTransaction(replicaData.transactionData);
+		} else {
+			super.cleanupTransaction(transactionData);
+		}
+	}
+
+	private static final class ReplicaTransactionData {
+
+		private final Object transactionData;
+		private final EntityManager entityManager;
+		private final Object previousStoreMode;
+
+		private ReplicaTransactionData(Object transactionData, EntityManager entityManager, Object previousStoreMode) {
+			this.transactionData = transactionData;
+			this.entityManager = entityManager;
+			this.previousStoreMode = previousStoreMode;
+		}
+	}
+
+}
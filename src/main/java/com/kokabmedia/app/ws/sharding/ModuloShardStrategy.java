@@ -0,0 +1,40 @@
+package com.kokabmedia.app.ws.sharding;
+
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * This class stores a user on the shard userId mod shardCount.
+ *
+ * A shard generates the ids sequence * shardCount + shard, so every id it generates is
+ * routed back to it without a lookup table. New users are spread over the shards by a hash
+ * of their email address.
+ *
+ * The number of shards is fixed for the life of the data, changing it moves almost every
+ * user to another shard.
+ */
+public class ModuloShardStrategy implements ShardStrategy {
+
+	@Override
+	public int shardForId(long userId, int shardCount) {
+
+		return (int) Math.floorMod(userId, (long) shardCount);
+	}
+
+	@Override
+	public int shardForNewUser(UserRest user, int shardCount) {
+
+		// The bits of the string hash are spread so similar emails land on different shards.
+		int hash = user.getEmail() == null ? 0 : user.getEmail().hashCode();
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return Math.floorMod(hash, shardCount);
+	}
+
+	@Override
+	public long idForShard(long sequence, int shard, int shardCount) {
+
+		return sequence * shardCount + shard;
+	}
+
+}
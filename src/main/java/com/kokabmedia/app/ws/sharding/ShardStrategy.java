@@ -0,0 +1,29 @@
+package com.kokabmedia.app.ws.sharding;
+
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * This interface decides on which shard (datasource) of the ShardedUserRepository class
+ * a user is stored, another strategy (for example consistent hashing) can be plugged in
+ * by declaring it as a bean.
+ */
+public interface ShardStrategy {
+
+	/*
+	 * Returns the shard (0 to shardCount - 1) that stores the user with the id.
+	 */
+	int shardForId(long userId, int shardCount);
+
+	/*
+	 * Returns the shard on which a new user is created, the id generated by that shard
+	 * must be routed back to it by shardForId().
+	 */
+	int shardForNewUser(UserRest user, int shardCount);
+
+	/*
+	 * Returns the id of a user that is created on the shard, sequence is the next value of
+	 * the user sequence of the shard, so ids are unique without coordination between shards.
+	 */
+	long idForShard(long sequence, int shard, int shardCount);
+
+}
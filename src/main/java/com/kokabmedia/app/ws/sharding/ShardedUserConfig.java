@@ -0,0 +1,107 @@
+package com.kokabmedia.app.ws.sharding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
+
+import com.kokabmedia.app.ws.tracing.Tracer;
+import com.kokabmedia.app.ws.tracing.TracingDataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class creates the ShardedUserRepository of the /sharded/users endpoints with one
+ * connection pool per shard, the JDBC URL of shard i is the app.sharding.url-template
+ * property formatted with i, locally every shard is an embedded H2 database.
+ *
+ * The pools are not beans so they do not replace the datasource of JPA, their hikaricp.*
+ * metrics are bound with the pool names shard-0 to shard-N-1. With request tracing
+ * enabled the statements on the shards are traced and the scatter tasks run in the trace
+ * of the request that submitted them.
+ *
+ * The @ConditionalOnProperty annotation makes the sharded storage opt-in with the
+ * app.sharding.enabled property.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.sharding.enabled", havingValue = "true")
+public class ShardedUserConfig {
+
+	@Bean
+	@ConditionalOnMissingBean
+	public ShardStrategy shardStrategy() {
+
+		return new ModuloShardStrategy();
+	}
+
+	@Bean(destroyMethod = "close")
+	public ShardedUserRepository shardedUserRepository(ShardStrategy shardStrategy, MeterRegistry meterRegistry,
+			ObjectProvider<Tracer> tracerProvider,
+			@Value("${app.sharding.shards}") int shardCount,
+			@Value("${app.sharding.url-template}") String urlTemplate,
+			@Value("${app.sharding.pool-size}") int poolSize) {
+
+		Tracer tracer = tracerProvider.getIfAvailable();
+		List<DataSource> dataSources = new ArrayList<>(shardCount);
+		for (int shard = 0; shard < shardCount; shard++) {
+			HikariDataSource dataSource = new HikariDataSource();
+			dataSource.setJdbcUrl(String.format(urlTemplate, shard));
+			dataSource.setUsername("sa");
+			dataSource.setPoolName("shard-" + shard);
+			dataSource.setMaximumPoolSize(poolSize);
+			dataSource.setMetricRegistry(meterRegistry);
+			dataSources.add(tracer != null ? TracingDataSource.wrap(dataSource) : dataSource);
+		}
+
+		ShardedUserRepository repository = new ShardedUserRepository(dataSources, shardStrategy,
+				scatterExecutor(shardCount, tracer));
+		repository.createSchema();
+		return repository;
+	}
+
+	/*
+	 * The threads that query the shards in parallel, one query per shard at a time for
+	 * every request that scatters.
+	 */
+	static ExecutorService scatterExecutor(int shardCount) {
+
+		return scatterExecutor(shardCount, null);
+	}
+
+	/*
+	 * The decorator, if not null, wraps every task when it is submitted.
+	 */
+	static ExecutorService scatterExecutor(int shardCount, TaskDecorator decorator) {
+
+		int threadCount = Math.max(2, shardCount * 4);
+		AtomicInteger threads = new AtomicInteger();
+		return new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				runnable -> {
+					Thread thread = new Thread(runnable, "shard-scatter-" + threads.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}) {
+
+			@Override
+			public void execute(Runnable task) {
+				super.execute(decorator != null ? decorator.decorate(task) : task);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,283 @@
+package com.kokabmedia.app.ws.sharding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import com.kokabmedia.app.ws.exeption.UserConflictException;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * This class stores the users in the USER_REST table of N databases (shards), a user with
+ * a given id is read, updated and deleted on the one shard chosen by the ShardStrategy and
+ * queries over all users are sent to every shard in parallel (scatter) and the sorted
+ * results of the shards are merged into one page (gather).
+ *
+ * Every shard has its own USER_SEQ sequence, the ShardStrategy turns the sequence value
+ * into an id that routes back to the shard, so creating a user needs no coordination
+ * between the shards.
+ *
+ * The class uses plain JDBC (JdbcTemplate) instead of JPA because JPA works with one
+ * datasource per EntityManagerFactory.
+ */
+public class ShardedUserRepository implements AutoCloseable {
+
+	private static final String COLUMNS = "USER_ID, EMAIL, FIRST_NAME, LAST_NAME, PASSWORD, VERSION, LAST_MODIFIED";
+
+	private static final RowMapper<UserRest> USER_ROW_MAPPER = (rs, rowNum) -> {
+		UserRest user = new UserRest(rs.getLong("USER_ID"), rs.getString("FIRST_NAME"), rs.getString("LAST_NAME"),
+				rs.getString("EMAIL"), rs.getString("PASSWORD"));
+		user.setVersion(rs.getLong("VERSION"));
+		user.setLastModified(rs.getLong("LAST_MODIFIED"));
+		return user;
+	};
+
+	private static final Comparator<UserRest> BY_USER_ID = Comparator.comparingLong(UserRest::getUserId);
+
+	private final List<DataSource> dataSources;
+	private final List<JdbcTemplate> shards;
+	private final ShardStrategy strategy;
+	private final ExecutorService scatterExecutor;
+
+	public ShardedUserRepository(List<DataSource> dataSources, ShardStrategy strategy, ExecutorService scatterExecutor) {
+
+		this.dataSources = List.copyOf(dataSources);
+		this.strategy = strategy;
+		this.scatterExecutor = scatterExecutor;
+
+		List<JdbcTemplate> templates = new ArrayList<>(dataSources.size());
+		for (DataSource dataSource : dataSources) {
+			templates.add(new JdbcTemplate(dataSource));
+		}
+		this.shards = Collections.unmodifiableList(templates);
+	}
+
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	/*
+	 * Creates the USER_REST table and the USER_SEQ sequence on every shard that does not
+	 * have them yet.
+	 */
+	public void createSchema() {
+
+		scatter(shard -> {
+			shard.execute("CREATE SEQUENCE IF NOT EXISTS USER_SEQ");
+			shard.execute("CREATE TABLE IF NOT EXISTS USER_REST (USER_ID BIGINT NOT NULL PRIMARY KEY, "
+					+ "EMAIL VARCHAR(255) NOT NULL, FIRST_NAME VARCHAR(255) NOT NULL, LAST_NAME VARCHAR(255), "
+					+ "PASSWORD VARCHAR(255) NOT NULL, VERSION BIGINT NOT NULL, LAST_MODIFIED BIGINT NOT NULL)");
+			shard.execute("CREATE INDEX IF NOT EXISTS IDX_USER_REST_LAST_NAME ON USER_REST (LAST_NAME, USER_ID)");
+			return null;
+		});
+	}
+
+	/*
+	 * Stores the user on the shard of the ShardStrategy with an id generated by that shard,
+	 * the id, version and lastModified fields of the user are set.
+	 */
+	public UserRest create(UserRest user) {
+
+		int shardIndex = strategy.shardForNewUser(user, shards.size());
+		JdbcTemplate shard = shards.get(shardIndex);
+
+		long sequence = shard.queryForObject("SELECT NEXT VALUE FOR USER_SEQ", Long.class);
+		user.setUserId(strategy.idForShard(sequence, shardIndex, shards.size()));
+		user.setVersion(0);
+		user.setLastModified(System.currentTimeMillis());
+
+		shard.update("INSERT INTO USER_REST (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?)", user.getUserId(),
+				user.getEmail(), user.getFirstName(), user.getLastName(), user.getPassword(), user.getVersion(),
+				user.getLastModified());
+		return user;
+	}
+
+	public Optional<UserRest> findById(long userId) {
+
+		return shardFor(userId).query("SELECT " + COLUMNS + " FROM USER_REST WHERE USER_ID = ?", USER_ROW_MAPPER, userId)
+				.stream().findFirst();
+	}
+
+	/*
+	 * Updates the names of the user in one statement that also increments the version, when
+	 * an expected version is given the row is only updated if it still has that version.
+	 * Returns the updated user or an empty Optional when the user does not exist, a version
+	 * mismatch throws a UserConflictException with the current user.
+	 */
+	public Optional<UserRest> update(long userId, String firstName, String lastName, Long expectedVersion) {
+
+		JdbcTemplate shard = shardFor(userId);
+		String sql = "UPDATE USER_REST SET FIRST_NAME = ?, LAST_NAME = ?, VERSION = VERSION + 1, LAST_MODIFIED = ? "
+				+ "WHERE USER_ID = ?";
+		int updated = expectedVersion == null
+				? shard.update(sql, firstName, lastName, System.currentTimeMillis(), userId)
+				: shard.update(sql + " AND VERSION = ?", firstName, lastName, System.currentTimeMillis(), userId,
+						expectedVersion);
+
+		Optional<UserRest> current = findById(userId);
+		if (updated == 0 && current.isPresent()) {
+			throw new UserConflictException("User " + userId + " has been changed since version " + expectedVersion,
+					current.get());
+		}
+		return current;
+	}
+
+	public boolean deleteById(long userId) {
+
+		return shardFor(userId).update("DELETE FROM USER_REST WHERE USER_ID = ?", userId) > 0;
+	}
+
+	/*
+	 * Returns the users ordered by id from offset to offset + limit, every shard returns
+	 * its first offset + limit users and the sorted lists are merged. The cost grows with
+	 * the offset, deep pages are read with findAllAfter.
+	 */
+	public List<UserRest> findAll(int offset, int limit) {
+
+		int perShard = Math.addExact(offset, limit);
+		return merge(scatter(shard -> shard.query(
+				"SELECT " + COLUMNS + " FROM USER_REST ORDER BY USER_ID LIMIT ?", USER_ROW_MAPPER, perShard)),
+				offset, limit);
+	}
+
+	/*
+	 * Returns the first limit users ordered by id after the user with the id afterId (keyset
+	 * paging), every shard returns at most limit users whatever the position of the page.
+	 */
+	public List<UserRest> findAllAfter(long afterId, int limit) {
+
+		return merge(scatter(shard -> shard.query(
+				"SELECT " + COLUMNS + " FROM USER_REST WHERE USER_ID > ? ORDER BY USER_ID LIMIT ?", USER_ROW_MAPPER,
+				afterId, limit)), 0, limit);
+	}
+
+	/*
+	 * Returns the first limit users ordered by id whose last name starts with the prefix.
+	 */
+	public List<UserRest> findByLastNameStartingWith(String prefix, int limit) {
+
+		String pattern = prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+		return merge(scatter(shard -> shard.query("SELECT " + COLUMNS + " FROM USER_REST WHERE LAST_NAME LIKE ? "
+				+ "ESCAPE '\\' ORDER BY USER_ID LIMIT ?", USER_ROW_MAPPER, pattern, limit)), 0, limit);
+	}
+
+	public long count() {
+
+		long total = 0;
+		for (Long shardCount : scatter(shard -> shard.queryForObject("SELECT COUNT(*) FROM USER_REST", Long.class))) {
+			total += shardCount;
+		}
+		return total;
+	}
+
+	/*
+	 * Shuts the scatter threads down and closes the datasources of the shards that can be
+	 * closed (connection pools).
+	 */
+	@Override
+	public void close() throws Exception {
+
+		scatterExecutor.shutdown();
+		scatterExecutor.awaitTermination(5, TimeUnit.SECONDS);
+		for (DataSource dataSource : dataSources) {
+			if (dataSource instanceof AutoCloseable) {
+				((AutoCloseable) dataSource).close();
+			}
+		}
+	}
+
+	private JdbcTemplate shardFor(long userId) {
+
+		return shards.get(strategy.shardForId(userId, shards.size()));
+	}
+
+	/*
+	 * Runs the query on every shard in parallel and returns the results in the order of the
+	 * shards, the first failure of a shard is rethrown.
+	 */
+	private <T> List<T> scatter(Function<JdbcTemplate, T> query) {
+
+		if (shards.size() == 1) {
+			return Collections.singletonList(query.apply(shards.get(0)));
+		}
+
+		List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+		for (JdbcTemplate shard : shards) {
+			futures.add(CompletableFuture.supplyAsync(() -> query.apply(shard), scatterExecutor));
+		}
+
+		List<T> results = new ArrayList<>(futures.size());
+		try {
+			for (CompletableFuture<T> future : futures) {
+				results.add(future.join());
+			}
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+		return results;
+	}
+
+	/*
+	 * Merges lists that are sorted by id (k-way merge) and returns limit users after
+	 * skipping offset users.
+	 */
+	private static List<UserRest> merge(List<List<UserRest>> sortedLists, int offset, int limit) {
+
+		PriorityQueue<Cursor> heads = new PriorityQueue<>(Comparator.comparing(cursor -> cursor.head(), BY_USER_ID));
+		for (List<UserRest> list : sortedLists) {
+			if (!list.isEmpty()) {
+				heads.add(new Cursor(list));
+			}
+		}
+
+		List<UserRest> page = new ArrayList<>(Math.min(limit, 1024));
+		int skipped = 0;
+		while (!heads.isEmpty() && page.size() < limit) {
+			Cursor cursor = heads.poll();
+			if (skipped < offset) {
+				skipped++;
+			} else {
+				page.add(cursor.head());
+			}
+			if (cursor.advance()) {
+				heads.add(cursor);
+			}
+		}
+		return page;
+	}
+
+	private static final class Cursor {
+
+		private final List<UserRest> list;
+		private int position;
+
+		private Cursor(List<UserRest> list) {
+			this.list = list;
+		}
+
+		private UserRest head() {
+			return list.get(position);
+		}
+
+		private boolean advance() {
+			return ++position < list.size();
+		}
+	}
+
+}
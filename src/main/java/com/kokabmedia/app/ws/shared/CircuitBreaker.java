@@ -0,0 +1,210 @@
+package com.kokabmedia.app.ws.shared;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kokabmedia.app.ws.exeption.UserServiceException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This utility class is a circuit breaker with a strict timeout for every call.
+ *
+ * Every call runs on the executor and the caller waits at most timeoutMillis for it, a
+ * call that takes longer is cancelled (its thread is interrupted) and counts as a failure,
+ * like a call that throws or that the executor rejects because all its threads and its
+ * queue are busy. The breaker keeps the outcome of the last windowSize calls, once at
+ * least minimumCalls of them are known and failureRateThreshold percent of them failed
+ * the breaker opens.
+ *
+ * While the breaker is open (or half-open) every call fails at once without running, the
+ * caller answers it from a fallback. Requests never test whether the resource is back,
+ * instead probe() is called in the background: after openMillis it moves the breaker to
+ * half-open and runs the probe with the same timeout, when the probe succeeds the breaker
+ * closes with an empty window, else it stays open for another openMillis.
+ *
+ * The calls by result and the state (0 closed, 1 open, 2 half-open) are exposed as
+ * circuit.breaker.* metrics.
+ */
+public class CircuitBreaker {
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	private final String name;
+
+	private final ExecutorService executor;
+
+	private final long timeoutMillis;
+
+	private final int minimumCalls;
+
+	private final int failureRateThreshold;
+
+	private final long openMillis;
+
+	// The outcomes of the last calls as a ring, guarded by this.
+	private final boolean[] window;
+
+	private int position;
+
+	private int calls;
+
+	private int failures;
+
+	private volatile State state = State.CLOSED;
+
+	private volatile long openedAt;
+
+	private final Counter successes;
+
+	private final Counter failed;
+
+	private final Counter timeouts;
+
+	private final Counter rejected;
+
+	private final Counter notPermitted;
+
+	public CircuitBreaker(String name, ExecutorService executor, long timeoutMillis, int windowSize, int minimumCalls,
+			int failureRateThreshold, long openMillis, MeterRegistry meterRegistry) {
+
+		this.name = name;
+		this.executor = executor;
+		this.timeoutMillis = timeoutMillis;
+		this.window = new boolean[windowSize];
+		this.minimumCalls = Math.min(minimumCalls, windowSize);
+		this.failureRateThreshold = failureRateThreshold;
+		this.openMillis = openMillis;
+
+		this.successes = calls(meterRegistry, "success");
+		this.failed = calls(meterRegistry, "failure");
+		this.timeouts = calls(meterRegistry, "timeout");
+		this.rejected = calls(meterRegistry, "rejected");
+		this.notPermitted = calls(meterRegistry, "not_permitted");
+		Gauge.builder("circuit.breaker.state", this, breaker -> breaker.getState().ordinal()).tag("name", name)
+				.description("0 closed, 1 open, 2 half-open").register(meterRegistry);
+	}
+
+	private Counter calls(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("circuit.breaker.calls").tag("name", name).tag("result", result)
+				.register(meterRegistry);
+	}
+
+	/*
+	 * Runs the call when the breaker is closed, a failed, timed out or rejected call and a
+	 * call while the breaker is open throw a UserServiceException (or the exception of the
+	 * call) after at most timeoutMillis.
+	 */
+	public <T> T execute(Supplier<T> call) {
+
+		if (state != State.CLOSED) {
+			notPermitted.increment();
+			throw new UserServiceException("Circuit breaker " + name + " is " + state);
+		}
+		try {
+			T result = run(call);
+			successes.increment();
+			record(false);
+			return result;
+		} catch (RuntimeException | Error e) {
+			record(true);
+			throw e;
+		}
+	}
+
+	/*
+	 * Runs the probe when the breaker has been open for openMillis, returns true when the
+	 * breaker is closed afterwards.
+	 */
+	public boolean probe(Supplier<?> probe) {
+
+		if (state == State.CLOSED) {
+			return true;
+		}
+		if (System.currentTimeMillis() - openedAt < openMillis) {
+			return false;
+		}
+		state = State.HALF_OPEN;
+		try {
+			run(probe);
+		} catch (RuntimeException e) {
+			LOG.debug("Probe of circuit breaker {} failed", name, e);
+			openedAt = System.currentTimeMillis();
+			state = State.OPEN;
+			return false;
+		}
+		synchronized (this) {
+			position = 0;
+			calls = 0;
+			failures = 0;
+		}
+		state = State.CLOSED;
+		LOG.info("Circuit breaker {} is closed again", name);
+		return true;
+	}
+
+	private <T> T run(Supplier<T> call) {
+
+		Future<T> future;
+		try {
+			future = executor.submit(call::get);
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			throw new UserServiceException("Circuit breaker " + name + " has no free thread");
+		}
+		try {
+			return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			failed.increment();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw new UserServiceException(e.getCause().toString());
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			timeouts.increment();
+			throw new UserServiceException("Circuit breaker " + name + " timed out after " + timeoutMillis + " ms");
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new UserServiceException("Interrupted while waiting for circuit breaker " + name);
+		}
+	}
+
+	private synchronized void record(boolean failure) {
+
+		if (state != State.CLOSED) {
+			return;
+		}
+		if (calls == window.length) {
+			failures -= window[position] ? 1 : 0;
+		} else {
+			calls++;
+		}
+		window[position] = failure;
+		failures += failure ? 1 : 0;
+		position = (position + 1) % window.length;
+
+		if (calls >= minimumCalls && failures * 100 >= failureRateThreshold * calls) {
+			openedAt = System.currentTimeMillis();
+			state = State.OPEN;
+			LOG.warn("Circuit breaker {} is open, {} of the last {} calls failed", name, failures, calls);
+		}
+	}
+
+	public State getState() {
+		return state;
+	}
+
+}
@@ -0,0 +1,178 @@
+package com.kokabmedia.app.ws.shared;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * This class is a counting Bloom filter of strings that can be updated by many threads at
+ * the same time without locks.
+ *
+ * Every string is mapped to hashCount counters, add() increments them and remove()
+ * decrements them, mightContain() returns false only when the string has certainly not
+ * been added (or has been removed), when it returns true the string is in the set or it
+ * is a false positive with a probability of about falsePositiveRate.
+ *
+ * The counters have 4 bits, 16 counters are packed into every long of an AtomicLongArray
+ * and are changed with compare-and-set. A counter that reaches 15 is never changed again,
+ * so removing strings can only cause false positives and never false negatives.
+ */
+public class CountingBloomFilter {
+
+	private static final int COUNTER_BITS = 4;
+	private static final int COUNTERS_PER_WORD = Long.SIZE / COUNTER_BITS;
+	private static final long MAX_COUNT = (1L << COUNTER_BITS) - 1;
+
+	private final AtomicLongArray words;
+	private final long counterCount;
+	private final int hashCount;
+
+	/*
+	 * Sizes the filter for the expected number of strings, the optimal number of counters
+	 * is -n ln(p) / ln(2)^2 and of hash functions (counters per string) m / n ln(2).
+	 */
+	public CountingBloomFilter(long expectedInsertions, double falsePositiveRate) {
+
+		if (expectedInsertions < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("expectedInsertions must be positive and falsePositiveRate in (0, 1)");
+		}
+		long counters = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, (counters + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD);
+
+		this.words = new AtomicLongArray(wordCount);
+		this.counterCount = (long) wordCount * COUNTERS_PER_WORD;
+		this.hashCount = Math.max(1, (int) Math.round((double) counterCount / expectedInsertions * Math.log(2)));
+	}
+
+	public void add(CharSequence value) {
+
+		long hash1 = hash1(value);
+		long hash2 = hash2(hash1);
+		for (int i = 0; i < hashCount; i++) {
+			increment(index(hash1, hash2, i));
+		}
+	}
+
+	/*
+	 * Removes a string that has been added, removing a string that has not been added can
+	 * cause false negatives for other strings.
+	 */
+	public void remove(CharSequence value) {
+
+		long hash1 = hash1(value);
+		long hash2 = hash2(hash1);
+		for (int i = 0; i < hashCount; i++) {
+			decrement(index(hash1, hash2, i));
+		}
+	}
+
+	public boolean mightContain(CharSequence value) {
+
+		long hash1 = hash1(value);
+		long hash2 = hash2(hash1);
+		for (int i = 0; i < hashCount; i++) {
+			if (count(index(hash1, hash2, i)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void clear() {
+
+		for (int i = 0; i < words.length(); i++) {
+			words.set(i, 0);
+		}
+	}
+
+	public long getCounterCount() {
+		return counterCount;
+	}
+
+	public int getHashCount() {
+		return hashCount;
+	}
+
+	/*
+	 * The share of counters that are not zero, the false positive rate is about this
+	 * value to the power of hashCount.
+	 */
+	public double fillRatio() {
+
+		long used = 0;
+		for (int i = 0; i < words.length(); i++) {
+			long word = words.get(i);
+			for (int counter = 0; counter < COUNTERS_PER_WORD; counter++) {
+				if ((word >>> (counter * COUNTER_BITS) & MAX_COUNT) != 0) {
+					used++;
+				}
+			}
+		}
+		return (double) used / counterCount;
+	}
+
+	private long count(long index) {
+
+		return words.get((int) (index / COUNTERS_PER_WORD)) >>> shift(index) & MAX_COUNT;
+	}
+
+	private void increment(long index) {
+
+		int word = (int) (index / COUNTERS_PER_WORD);
+		int shift = shift(index);
+		long current;
+		do {
+			current = words.get(word);
+			if ((current >>> shift & MAX_COUNT) == MAX_COUNT) {
+				return;
+			}
+		} while (!words.compareAndSet(word, current, current + (1L << shift)));
+	}
+
+	private void decrement(long index) {
+
+		int word = (int) (index / COUNTERS_PER_WORD);
+		int shift = shift(index);
+		long current;
+		do {
+			current = words.get(word);
+			long count = current >>> shift & MAX_COUNT;
+			if (count == 0 || count == MAX_COUNT) {
+				return;
+			}
+		} while (!words.compareAndSet(word, current, current - (1L << shift)));
+	}
+
+	private static int shift(long index) {
+		return (int) (index % COUNTERS_PER_WORD) * COUNTER_BITS;
+	}
+
+	// Double hashing, the i-th counter of a string is hash1 + i * hash2.
+	private long index(long hash1, long hash2, int i) {
+		return Math.floorMod(hash1 + i * hash2, counterCount);
+	}
+
+	// 64-bit FNV-1a of the characters followed by the MurmurHash3 finalizer.
+	private static long hash1(CharSequence value) {
+
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	private static long hash2(long hash1) {
+		return mix(hash1 ^ 0x9e3779b97f4a7c15L) | 1;
+	}
+
+	private static long mix(long hash) {
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb93e7f3a7fbbL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
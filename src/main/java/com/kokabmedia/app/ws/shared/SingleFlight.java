@@ -0,0 +1,98 @@
+package com.kokabmedia.app.ws.shared;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import com.kokabmedia.app.ws.exeption.ServiceUnavailableException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This utility class coalesces concurrent calls for the same key into one call, also 
+ * known as single flight.
+ * 
+ * The first caller for a key (the leader) runs the loader, every caller that arrives 
+ * while the leader is still running (a follower) waits for the result of the leader 
+ * instead of running the loader again. When the leader fails all followers get the same 
+ * exception unchanged, so it is answered with the same status. A follower that waits 
+ * longer than the timeout gets a ServiceUnavailableException (503) of its own. 
+ * As soon as the leader is done the key is removed, so the next call runs the loader 
+ * again, nothing is cached.
+ * 
+ * The number of leaders, followers and timeouts and the coalescing ratio (the share of 
+ * calls that did not run the loader) are exposed as single.flight.* metrics.
+ */
+public class SingleFlight<K, V> {
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	
+	private final long timeoutMillis;
+
+	private final Counter leaders;
+	
+	private final Counter followers;
+	
+	private final Counter timeouts;
+
+	public SingleFlight(String name, long timeoutMillis, MeterRegistry meterRegistry) {
+		
+		this.timeoutMillis = timeoutMillis;
+		this.leaders = Counter.builder("single.flight.calls").tag("name", name).tag("role", "leader")
+				.register(meterRegistry);
+		this.followers = Counter.builder("single.flight.calls").tag("name", name).tag("role", "follower")
+				.register(meterRegistry);
+		this.timeouts = Counter.builder("single.flight.timeouts").tag("name", name).register(meterRegistry);
+		
+		Gauge.builder("single.flight.coalescing.ratio", this, SingleFlight::coalescingRatio).tag("name", name)
+				.register(meterRegistry);
+		Gauge.builder("single.flight.in.flight", inFlight, ConcurrentHashMap::size).tag("name", name)
+				.register(meterRegistry);
+	}
+
+	public V execute(K key, Supplier<V> loader) {
+		
+		CompletableFuture<V> flight = new CompletableFuture<>();
+		CompletableFuture<V> leaderFlight = inFlight.putIfAbsent(key, flight);
+		
+		if (leaderFlight == null) {
+			leaders.increment();
+			try {
+				V value = loader.get();
+				flight.complete(value);
+				return value;
+			} catch (RuntimeException | Error e) {
+				flight.completeExceptionally(e);
+				throw e;
+			} finally {
+				inFlight.remove(key, flight);
+			}
+		}
+
+		followers.increment();
+		try {
+			return leaderFlight.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			// The loader is a Supplier, the leader can only fail with an unchecked exception.
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw (RuntimeException) e.getCause();
+		} catch (TimeoutException e) {
+			timeouts.increment();
+			throw new ServiceUnavailableException("Timed out after " + timeoutMillis + " ms waiting for " + key, 1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceUnavailableException("Interrupted while waiting for " + key, 1);
+		}
+	}
+
+	private double coalescingRatio() {
+		double total = leaders.count() + followers.count();
+		return total == 0 ? 0 : followers.count() / total;
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.kokabmedia.app.ws.shared;
 
+import java.util.Locale;
 import java.util.Random;
 import java.util.UUID;
 
@@ -33,4 +34,13 @@ public class Utils {
 	public long generateUserId() {
 		return random.nextLong();
 		}
+	
+	/*
+	 * Returns the email address without surrounding white space and in lower case, the 
+	 * form in which emails are stored and compared, so Bob@Test.com and bob@test.com are 
+	 * the same address.
+	 */
+	public static String normalizeEmail(String email) {
+		return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+	}
 }
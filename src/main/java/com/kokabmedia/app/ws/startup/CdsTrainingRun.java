@@ -0,0 +1,81 @@
+package com.kokabmedia.app.ws.startup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/*
+ * This class is the training run that is used by the cds Maven profile to create an 
+ * AppCDS archive, it is only active with the cds-training profile.
+ * 
+ * When the application is ready it sends a few requests to its own endpoints so that the 
+ * classes that are loaded by the first requests (Jackson, Hibernate Validator, the 
+ * controllers and the JPA repository) end up in the archive, after that the application 
+ * exits and the JVM writes the archive with -XX:ArchiveClassesAtExit.
+ */
+@Component
+@Profile("cds-training")
+public class CdsTrainingRun implements ApplicationListener<ApplicationReadyEvent> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CdsTrainingRun.class);
+
+	@Value("${local.server.port}")
+	private int port;
+
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		
+		String base = "http://localhost:" + port;
+		String user = "{\"firstName\":\"Training\",\"lastName\":\"Run\",\"email\":\"training@test.com\",\"password\":\"12345678\"}";
+		
+		try {
+			send("POST", base + "/jpa/users", "application/json", user);
+			send("GET", base + "/jpa/users", "application/json", null);
+			send("GET", base + "/jpa/users/1", "application/xml", null);
+			send("POST", base + "/users", "application/json", user);
+			send("GET", base + "/users?page=1&limit=50", "text/plain", null);
+		} catch (IOException e) {
+			LOG.warn("CDS training request failed", e);
+		}
+
+		// Exits the JVM so the class list of this run is written to the archive.
+		System.exit(SpringApplication.exit(event.getApplicationContext()));
+	}
+
+	private void send(String method, String url, String accept, String body) throws IOException {
+		
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod(method);
+		connection.setRequestProperty("Accept", accept);
+		
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json");
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		if (in != null) {
+			try (InputStream stream = in) {
+				stream.readAllBytes();
+			}
+		}
+		LOG.info("CDS training {} {} -> {}", method, url, status);
+	}
+
+}
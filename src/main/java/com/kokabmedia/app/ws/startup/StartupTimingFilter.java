@@ -0,0 +1,78 @@
+package com.kokabmedia.app.ws.startup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/*
+ * This class measures how long the application takes to start and how long the first 
+ * HTTP request takes, these are the two numbers that matter when new instances are added 
+ * under load and they are used to compare the default start up with the prod profile 
+ * and the AppCDS archive.
+ * 
+ * The start up time is measured from the launch of the JVM until the application is ready, 
+ * the first request latency is measured around the filter chain of the first request only, 
+ * every following request only pays for a single volatile read. Requests before the 
+ * application is ready (the UserWarmUpRunner) and requests to the actuator endpoints (health 
+ * probes) are not counted as the first request.
+ * 
+ * The @Component annotation lets the Spring framework register this filter in the 
+ * embedded servlet container.
+ */
+@Component
+public class StartupTimingFilter extends OncePerRequestFilter implements ApplicationListener<ApplicationReadyEvent> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StartupTimingFilter.class);
+
+	private final AtomicBoolean firstRequestSeen = new AtomicBoolean();
+
+	private volatile boolean ready;
+
+	/*
+	 * This method is called by the Spring framework when the application is ready to 
+	 * serve requests.
+	 */
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		
+		long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+		LOG.info("Application ready {} ms after JVM launch", uptime);
+		ready = true;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !ready || request.getRequestURI().startsWith(request.getContextPath() + "/actuator");
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+
+		if (firstRequestSeen.get() || !firstRequestSeen.compareAndSet(false, true)) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		long start = System.nanoTime();
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			long elapsed = (System.nanoTime() - start) / 1_000_000;
+			LOG.info("First request {} {} took {} ms", request.getMethod(), request.getRequestURI(), elapsed);
+		}
+	}
+
+}
@@ -0,0 +1,315 @@
+package com.kokabmedia.app.ws.startup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.List;
+import java.util.Set;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.kokabmedia.app.ws.admission.AdmissionControlFilter;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.shared.Utils;
+import com.kokabmedia.app.ws.ui.controller.UserController;
+import com.kokabmedia.app.ws.ui.controller.UserJPAController;
+import com.kokabmedia.app.ws.ui.model.request.UpdateUserDetailsRequestModel;
+import com.kokabmedia.app.ws.ui.model.request.UserDetailsRequestModel;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.kokabmedia.app.ws.userservice.impl.UserServiceImpl;
+import com.kokabmedia.app.ws.userservice.impl.UserWriteBehindBuffer;
+
+/*
+ * This class warms up a new instance before it receives traffic, the first requests of a
+ * cold JVM run interpreted code and load the classes of Jackson, Hibernate Validator,
+ * Hibernate and the controllers, so they take several times longer than the same requests
+ * a few thousand requests later.
+ *
+ * Every iteration sends a synthetic user through UserJPAController and UserController the
+ * way a request does: the body is written and read with the HTTP message converters of the
+ * application (JSON and XML alternately), validated, the user is created, read, listed,
+ * updated and deleted and every response is written with the converters again. An
+ * iteration runs in a transaction that is rolled back, so the users never reach the
+ * database, and the UserChangedEvent listeners only run after a commit so they never see
+ * them either. The in-memory users go through a UserController with a UserServiceImpl of
+ * its own, the same code as the /users endpoints but with a map that is not journaled by
+ * the UserStorePersistence and without events. Every iteration also sends one read-only
+ * GET request to the embedded server, so the servlet container, the filters and the
+ * DispatcherServlet are warmed up as well, the request carries the warm-up token of the
+ * AdmissionControlFilter so the warm-up is not rate limited.
+ *
+ * The warm-up stops after iterations iterations or max-duration-ms, whichever comes first.
+ * Spring Boot runs ApplicationRunners before it reports the readiness state
+ * ACCEPTING_TRAFFIC, so /actuator/health/readiness is OUT_OF_SERVICE until the warm-up
+ * has finished. The latency of the first and the last iteration is logged, the
+ * StartupTimingFilter logs the latency of the first real request.
+ */
+@Component
+@ConditionalOnProperty(name = "app.warmup.enabled", havingValue = "true")
+public class UserWarmUpRunner implements ApplicationRunner {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UserWarmUpRunner.class);
+
+	private static final List<MediaType> MEDIA_TYPES = List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML);
+
+	private static final List<String> WARM_UP_PATHS = List.of("/jpa/users?page=1&limit=50", "/jpa/users/0",
+			"/jpa/users?ids=0", "/users/0");
+
+	private final UserJPAController userJpaController;
+	private final UserController userController;
+	private final String warmUpToken;
+	private final UserJPARepository userJpaRepository;
+	private final ObjectProvider<UserWriteBehindBuffer> userWriteBehindBuffer;
+	private final List<HttpMessageConverter<?>> converters;
+	private final Validator validator;
+	private final TransactionTemplate transactionTemplate;
+	private final int iterations;
+	private final long maxDurationMillis;
+	private final HttpClient httpClient = HttpClient.newHttpClient();
+
+	// 0 when there is no embedded server (a test with a mock web environment).
+	@Value("${local.server.port:0}")
+	private int port;
+
+	private volatile int completedIterations;
+
+	public UserWarmUpRunner(UserJPAController userJpaController, Utils utils,
+			ObjectProvider<AdmissionControlFilter> admissionControlFilter,
+			UserJPARepository userJpaRepository, ObjectProvider<UserWriteBehindBuffer> userWriteBehindBuffer,
+			HttpMessageConverters httpMessageConverters, Validator validator,
+			PlatformTransactionManager transactionManager,
+			@Value("${app.warmup.iterations}") int iterations,
+			@Value("${app.warmup.max-duration-ms}") long maxDurationMillis) {
+
+		this.userJpaController = userJpaController;
+		this.userController = new UserController(new UserServiceImpl(utils));
+		AdmissionControlFilter filter = admissionControlFilter.getIfAvailable();
+		this.warmUpToken = filter != null ? filter.getWarmUpToken() : null;
+		this.userJpaRepository = userJpaRepository;
+		this.userWriteBehindBuffer = userWriteBehindBuffer;
+		this.converters = httpMessageConverters.getConverters();
+		this.validator = validator;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.iterations = iterations;
+		this.maxDurationMillis = maxDurationMillis;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+
+		long start = System.nanoTime();
+		long deadline = start + maxDurationMillis * 1_000_000;
+		long firstMicros = 0;
+		long lastMicros = 0;
+		int completed = 0;
+
+		while (completed < iterations && System.nanoTime() < deadline) {
+			int iteration = completed;
+			long iterationStart = System.nanoTime();
+			try {
+				transactionTemplate.executeWithoutResult(status -> {
+					status.setRollbackOnly();
+					runIteration(iteration);
+				});
+				sendRequest(iteration);
+			} catch (RuntimeException | IOException e) {
+				// A failed warm-up must not keep the instance from starting.
+				LOG.warn("Warm-up stopped after {} iterations", completed, e);
+				break;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			lastMicros = (System.nanoTime() - iterationStart) / 1_000;
+			if (completed++ == 0) {
+				firstMicros = lastMicros;
+			}
+		}
+
+		completedIterations = completed;
+		LOG.info("Warm-up ran {} iterations in {} ms, first iteration {} us, last iteration {} us", completed,
+				(System.nanoTime() - start) / 1_000_000, firstMicros, lastMicros);
+	}
+
+	public int getCompletedIterations() {
+		return completedIterations;
+	}
+
+	private void runIteration(int iteration) {
+
+		MediaType mediaType = MEDIA_TYPES.get(iteration % MEDIA_TYPES.size());
+		String email = "warm-up-" + iteration + "@warm-up.invalid";
+
+		// UserJPAController, with write-behind the user would be committed by another thread.
+		UserRest user = readRequest(new UserRest(0, "Warm", "Up", email, "12345678"), UserRest.class, mediaType);
+		UserRest created = userWriteBehindBuffer.getIfAvailable() == null
+				? userJpaController.createUser(user).getBody()
+				: userJpaRepository.save(user);
+		write(created, mediaType);
+		write(userJpaController.getUser(created.getUserId()).getBody(), mediaType);
+		write(userJpaController.getUsers(1, 50).getBody(), mediaType);
+		write(userJpaController.getUsersByIds(List.of(created.getUserId())).getBody(), mediaType);
+		write(userJpaController.updateUser(created.getUserId(), updateDetails(mediaType)), mediaType);
+		userJpaController.deleteUser(created.getUserId());
+
+		// UserController of the warm-up, its user is not part of the transaction.
+		UserDetailsRequestModel details = new UserDetailsRequestModel();
+		details.setFirstName("Warm");
+		details.setLastName("Up");
+		details.setEmail(email);
+		details.setPassword("12345678");
+		UserRest memoryUser = userController.createUser(readRequest(details, UserDetailsRequestModel.class, mediaType))
+				.getBody();
+		String userId = String.valueOf(memoryUser.getUserId());
+		try {
+			write(memoryUser, mediaType);
+			write(userController.getUser(userId).getBody(), mediaType);
+			write(userController.updateUser(userId, updateDetails(mediaType)), mediaType);
+		} finally {
+			userController.deleteUser(userId);
+		}
+	}
+
+	/*
+	 * Sends a GET request that does not change anything to the embedded server, alternating
+	 * between the endpoints and the media types.
+	 */
+	private void sendRequest(int iteration) throws IOException, InterruptedException {
+
+		if (port == 0) {
+			return;
+		}
+		String path = WARM_UP_PATHS.get(iteration % WARM_UP_PATHS.size());
+		MediaType mediaType = MEDIA_TYPES.get(iteration / WARM_UP_PATHS.size() % MEDIA_TYPES.size());
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+				.header(HttpHeaders.ACCEPT, mediaType.toString()).GET();
+		if (warmUpToken != null) {
+			request.header(AdmissionControlFilter.WARM_UP_HEADER, warmUpToken);
+		}
+		httpClient.send(request.build(), BodyHandlers.discarding());
+	}
+
+	private UpdateUserDetailsRequestModel updateDetails(MediaType mediaType) {
+
+		UpdateUserDetailsRequestModel details = new UpdateUserDetailsRequestModel();
+		details.setFirstName("Warmed");
+		details.setLastName("Up");
+		return readRequest(details, UpdateUserDetailsRequestModel.class, mediaType);
+	}
+
+	/*
+	 * Writes the body of a request with the converters and reads it back the way the
+	 * @RequestBody of a controller is read, then validates it like @Valid.
+	 */
+	private <T> T readRequest(T body, Class<T> type, MediaType mediaType) {
+
+		byte[] bytes = write(body, mediaType);
+		T request = read(type, bytes, mediaType);
+		Set<ConstraintViolation<T>> violations = validator.validate(request);
+		if (!violations.isEmpty()) {
+			throw new ConstraintViolationException(violations);
+		}
+		return request;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T read(Class<T> type, byte[] body, MediaType mediaType) {
+
+		for (HttpMessageConverter<?> converter : converters) {
+			if (converter.canRead(type, mediaType)) {
+				try {
+					return ((HttpMessageConverter<T>) converter).read(type, new RequestBody(body, mediaType));
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		throw new IllegalStateException("No converter reads " + type.getSimpleName() + " as " + mediaType);
+	}
+
+	@SuppressWarnings("unchecked")
+	private byte[] write(Object body, MediaType mediaType) {
+
+		for (HttpMessageConverter<?> converter : converters) {
+			if (converter.canWrite(body.getClass(), mediaType)) {
+				ResponseBody message = new ResponseBody();
+				try {
+					((HttpMessageConverter<Object>) converter).write(body, mediaType, message);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+				return message.output.toByteArray();
+			}
+		}
+		throw new IllegalStateException("No converter writes " + body.getClass().getSimpleName() + " as " + mediaType);
+	}
+
+	/*
+	 * A request body in memory.
+	 */
+	private static final class RequestBody implements HttpInputMessage {
+
+		private final HttpHeaders headers = new HttpHeaders();
+		private final byte[] body;
+
+		private RequestBody(byte[] body, MediaType mediaType) {
+			this.body = body;
+			headers.setContentType(mediaType);
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return headers;
+		}
+
+		@Override
+		public InputStream getBody() {
+			return new ByteArrayInputStream(body);
+		}
+	}
+
+	/*
+	 * A response body in memory, the converter sets the content type.
+	 */
+	private static final class ResponseBody implements HttpOutputMessage {
+
+		private final HttpHeaders headers = new HttpHeaders();
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return headers;
+		}
+
+		@Override
+		public OutputStream getBody() {
+			return output;
+		}
+	}
+
+}
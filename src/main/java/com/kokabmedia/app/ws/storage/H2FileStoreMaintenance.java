@@ -0,0 +1,135 @@
+package com.kokabmedia.app.ws.storage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.function.ToDoubleFunction;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class looks after the MVStore file of the H2 database when the application runs with
+ * the file profile, see application-file.properties.
+ *
+ * Updates and deletes leave old pages behind in the chunks of the file, H2 only rewrites
+ * the chunks in its background writer while the database is busy writing. Every
+ * compaction.interval-ms, when the file or its chunks are less than
+ * compaction.target-fill-rate percent live data, the live pages of the emptiest chunks are
+ * rewritten for at most compaction.max-time-ms, the space of the old chunks is then reused
+ * by new writes or cut off the end of the file. The file is compacted again when the
+ * database is closed, for at most the MAX_COMPACT_TIME of the JDBC URL.
+ *
+ * The h2.store.file.size, h2.store.fill.rate and h2.store.cache.used gauges show the size of
+ * the file, how much of it is live data and how much of the page cache (CACHE_SIZE of the
+ * JDBC URL) is used.
+ *
+ * The MVStore is reached through the H2MvStore class, the only class that depends on the
+ * internals of the H2 driver.
+ *
+ * The @ConditionalOnProperty annotation creates this class only with the file profile, an
+ * in-memory database has no MVStore file, the @Lazy(false) annotation schedules the
+ * compaction also with lazy initialization.
+ */
+@Component
+@Lazy(false)
+@ConditionalOnProperty(name = "app.h2.file.enabled", havingValue = "true")
+public class H2FileStoreMaintenance {
+
+	private static final Logger LOG = LoggerFactory.getLogger(H2FileStoreMaintenance.class);
+
+	private final DataSource dataSource;
+	private final int targetFillRate;
+	private final long maxCompactTimeMillis;
+	private final int rewriteBytes;
+
+	private volatile H2MvStore store;
+
+	public H2FileStoreMaintenance(DataSource dataSource, MeterRegistry meterRegistry,
+			@Value("${app.h2.file.compaction.target-fill-rate}") int targetFillRate,
+			@Value("${app.h2.file.compaction.max-time-ms}") long maxCompactTimeMillis,
+			@Value("${app.h2.file.compaction.rewrite-mb}") int rewriteMb) {
+
+		this.dataSource = dataSource;
+		this.targetFillRate = targetFillRate;
+		this.maxCompactTimeMillis = maxCompactTimeMillis;
+		this.rewriteBytes = rewriteMb * 1024 * 1024;
+
+		Gauge.builder("h2.store.file.size", this, maintenance -> maintenance.measure(H2MvStore::fileSize))
+				.description("Size of the H2 database file").baseUnit("bytes").register(meterRegistry);
+		Gauge.builder("h2.store.fill.rate", this, maintenance -> maintenance.measure(H2MvStore::fillRate))
+				.description("Live data of the H2 database file").baseUnit("percent").register(meterRegistry);
+		Gauge.builder("h2.store.cache.used", this,
+				maintenance -> maintenance.measure(s -> s.cacheSizeUsed() * 1024L * 1024))
+				.description("Used page cache of the H2 database").baseUnit("bytes").register(meterRegistry);
+	}
+
+	/*
+	 * Rewrites the chunks below the target fill rate, the MVStore takes its own locks so
+	 * requests keep reading and writing during the compaction.
+	 */
+	@Scheduled(initialDelayString = "${app.h2.file.compaction.interval-ms}",
+			fixedDelayString = "${app.h2.file.compaction.interval-ms}")
+	public void compact() {
+
+		H2MvStore mvStore = store();
+		if (mvStore == null || mvStore.isClosed()
+				|| (mvStore.chunksFillRate() >= targetFillRate && mvStore.fillRate() >= targetFillRate)) {
+			return;
+		}
+		int fillRateBefore = mvStore.fillRate();
+		long sizeBefore = mvStore.fileSize();
+		long start = System.nanoTime();
+		int rounds = 0;
+		int fillRate = fillRateBefore;
+		// Every round rewrites up to rewriteBytes and commits so the old chunks are freed, a
+		// round that does not raise the fill rate of the file ends the compaction.
+		while (System.nanoTime() - start < maxCompactTimeMillis * 1_000_000
+				&& mvStore.compact(targetFillRate, rewriteBytes)) {
+			mvStore.commit();
+			rounds++;
+			int previous = fillRate;
+			fillRate = mvStore.fillRate();
+			if (fillRate <= previous) {
+				break;
+			}
+		}
+		LOG.info("Compacted the H2 store in {} ms ({} rounds), fill rate {}% -> {}%, file {} KB -> {} KB",
+				(System.nanoTime() - start) / 1_000_000, rounds, fillRateBefore, fillRate, sizeBefore / 1024,
+				mvStore.fileSize() / 1024);
+	}
+
+	private double measure(ToDoubleFunction<H2MvStore> value) {
+
+		H2MvStore mvStore = store();
+		return mvStore == null || mvStore.isClosed() ? Double.NaN : value.applyAsDouble(mvStore);
+	}
+
+	/*
+	 * The MVStore of the database, it is looked up through a pooled connection the first
+	 * time it is needed and is null when the database is not an H2 MVStore database.
+	 */
+	H2MvStore store() {
+
+		H2MvStore mvStore = store;
+		if (mvStore == null) {
+			try (Connection connection = dataSource.getConnection()) {
+				mvStore = H2MvStore.of(connection);
+				store = mvStore;
+			} catch (SQLException | ReflectiveOperationException | RuntimeException e) {
+				LOG.warn("Could not find the MVStore of the H2 database", e);
+			}
+		}
+		return mvStore;
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.kokabmedia.app.ws.storage;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/*
+ * This class is the MVStore of an H2 file database for the H2FileStoreMaintenance class,
+ * it is the only class of the application that reaches into the internals of the H2
+ * driver.
+ *
+ * H2 has no public API for the MVStore of a database that was opened through JDBC, the
+ * store is found through the session of the connection (JdbcConnection.getSession(),
+ * Session.getDatabase(), Database.getStore(), Store.getMvStore()). The methods are called
+ * by their names through reflection, so the application is compiled without H2 (the h2
+ * dependency has runtime scope) and the classes that H2 2.x renamed (SessionLocal,
+ * org.h2.mvstore.db.Store) are found as well. A driver without these methods has no
+ * MVStore for the maintenance.
+ */
+final class H2MvStore {
+
+	private static final String JDBC_CONNECTION_CLASS = "org.h2.jdbc.JdbcConnection";
+
+	private final Object mvStore;
+	private final Method getFileStore;
+	private final Method getFillRate;
+	private final Method getChunksFillRate;
+	private final Method getCacheSizeUsed;
+	private final Method compact;
+	private final Method commit;
+	private final Method isClosed;
+
+	private H2MvStore(Object mvStore) throws ReflectiveOperationException {
+
+		Class<?> type = mvStore.getClass();
+		this.mvStore = mvStore;
+		this.getFileStore = type.getMethod("getFileStore");
+		this.getFillRate = type.getMethod("getFillRate");
+		this.getChunksFillRate = type.getMethod("getChunksFillRate");
+		this.getCacheSizeUsed = type.getMethod("getCacheSizeUsed");
+		this.compact = type.getMethod("compact", int.class, int.class);
+		this.commit = type.getMethod("commit");
+		this.isClosed = type.getMethod("isClosed");
+	}
+
+	/*
+	 * The MVStore of the database of the connection, null when the connection is not an H2
+	 * connection or its database is not an MVStore database.
+	 */
+	static H2MvStore of(Connection connection) throws SQLException, ReflectiveOperationException {
+
+		Class<?> jdbcConnectionClass;
+		try {
+			jdbcConnectionClass = Class.forName(JDBC_CONNECTION_CLASS, false, H2MvStore.class.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+		if (!connection.isWrapperFor(jdbcConnectionClass)) {
+			return null;
+		}
+		Object session = call(connection.unwrap(jdbcConnectionClass), "getSession");
+		Object store = call(call(session, "getDatabase"), "getStore");
+		return store == null ? null : new H2MvStore(call(store, "getMvStore"));
+	}
+
+	long fileSize() {
+		return (Long) call(invoke(getFileStore), "size");
+	}
+
+	int fillRate() {
+		return (Integer) invoke(getFillRate);
+	}
+
+	int chunksFillRate() {
+		return (Integer) invoke(getChunksFillRate);
+	}
+
+	// The used page cache in MB.
+	int cacheSizeUsed() {
+		return (Integer) invoke(getCacheSizeUsed);
+	}
+
+	/*
+	 * Rewrites the live pages of the chunks below the target fill rate, up to write bytes,
+	 * returns false if there was nothing to rewrite.
+	 */
+	boolean compact(int targetFillRate, int write) {
+		return (Boolean) invoke(compact, targetFillRate, write);
+	}
+
+	void commit() {
+		invoke(commit);
+	}
+
+	boolean isClosed() {
+		return (Boolean) invoke(isClosed);
+	}
+
+	// The org.h2.mvstore.MVStore, for the tests.
+	Object unwrap() {
+		return mvStore;
+	}
+
+	private Object invoke(Method method, Object... args) {
+
+		try {
+			return method.invoke(mvStore, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+					: new IllegalStateException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Object call(Object target, String name) {
+
+		try {
+			return target.getClass().getMethod(name).invoke(target);
+		} catch (InvocationTargetException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+					: new IllegalStateException(e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("The H2 driver has no method " + name + " on " + target.getClass(), e);
+		}
+	}
+
+}
@@ -0,0 +1,227 @@
+package com.kokabmedia.app.ws.tracing;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class writes the exported traces to a local file in the OTLP JSON encoding, one
+ * ExportTraceServiceRequest per line (the format of the file exporter of the
+ * OpenTelemetry Collector), so the file can be replayed into a collector or read with jq.
+ *
+ * Traces are put on a bounded queue and written by a single writer thread, a request never
+ * waits for the file. When the queue is full the trace is dropped and counted.
+ *
+ * The file is rolled over once it has grown to max-size-kb: it is renamed to the same
+ * name with the suffix .1, replacing the previous one, and a new file is started. The
+ * traces take at most about twice max-size-kb on disk, the oldest traces are lost.
+ */
+@Component
+@ConditionalOnProperty(name = "app.tracing.enabled", havingValue = "true")
+public class OtlpJsonFileExporter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(OtlpJsonFileExporter.class);
+
+	private static final String SERVICE_NAME = "rest-mobile-app-ws";
+
+	// OTLP status code of a span that ended with an error.
+	private static final int STATUS_CODE_ERROR = 2;
+
+	private static final long POLL_INTERVAL_MS = 100;
+
+	private final Path file;
+	private final Path rolledFile;
+	private final long maxFileBytes;
+	private final BlockingQueue<Trace> queue;
+	private final JsonFactory jsonFactory = new JsonFactory();
+	private final Counter droppedTraces;
+	private final Thread writer;
+
+	private volatile boolean running = true;
+
+	public OtlpJsonFileExporter(MeterRegistry meterRegistry,
+			@Value("${app.tracing.export.file}") String file,
+			@Value("${app.tracing.export.queue-capacity}") int queueCapacity,
+			@Value("${app.tracing.export.max-size-kb}") long maxFileKilobytes) {
+
+		this.file = Paths.get(file);
+		this.rolledFile = Paths.get(file + ".1");
+		this.maxFileBytes = maxFileKilobytes * 1024;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.droppedTraces = Counter.builder("tracing.export.dropped")
+				.description("Traces that were not exported because the export queue was full").register(meterRegistry);
+		this.writer = new Thread(this::writeLoop, "trace-exporter");
+		this.writer.setDaemon(true);
+	}
+
+	@PostConstruct
+	void start() {
+		writer.start();
+	}
+
+	/*
+	 * Writes the traces that are still queued and stops the writer thread.
+	 */
+	@PreDestroy
+	void stop() throws InterruptedException {
+		running = false;
+		writer.join(5_000);
+	}
+
+	void export(Trace trace) {
+		if (!queue.offer(trace)) {
+			droppedTraces.increment();
+		}
+	}
+
+	/*
+	 * The writer polls instead of waiting in take(), so stop() does not have to interrupt
+	 * it, an interrupt would close the file channel of a write in progress.
+	 */
+	private void writeLoop() {
+
+		List<Trace> batch = new ArrayList<>();
+		while (running || !queue.isEmpty()) {
+			try {
+				Trace trace = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+				if (trace != null) {
+					batch.add(trace);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			queue.drainTo(batch);
+			if (!batch.isEmpty()) {
+				write(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void write(List<Trace> traces) {
+
+		try {
+			if (file.getParent() != null) {
+				Files.createDirectories(file.getParent());
+			}
+			if (Files.exists(file) && Files.size(file) >= maxFileBytes) {
+				Files.move(file, rolledFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+			try (Writer out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+				for (Trace trace : traces) {
+					writeTrace(out, trace);
+					out.write('\n');
+				}
+			}
+		} catch (IOException e) {
+			LOG.warn("Could not write {} traces to {}: {}", traces.size(), file, e.getMessage());
+		}
+	}
+
+	private void writeTrace(Writer out, Trace trace) throws IOException {
+
+		String traceId = trace.getTraceIdHex();
+		JsonGenerator json = jsonFactory.createGenerator(out);
+		json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+		json.writeStartObject();
+		json.writeArrayFieldStart("resourceSpans");
+		json.writeStartObject();
+
+		json.writeObjectFieldStart("resource");
+		json.writeArrayFieldStart("attributes");
+		writeAttribute(json, "service.name", SERVICE_NAME);
+		json.writeEndArray();
+		json.writeEndObject();
+
+		json.writeArrayFieldStart("scopeSpans");
+		json.writeStartObject();
+		json.writeObjectFieldStart("scope");
+		json.writeStringField("name", Tracer.class.getPackageName());
+		json.writeEndObject();
+		json.writeArrayFieldStart("spans");
+		for (Span span : trace.getSpans()) {
+			writeSpan(json, traceId, trace, span);
+		}
+		json.writeEndArray();
+		json.writeEndObject();
+		json.writeEndArray();
+
+		json.writeEndObject();
+		json.writeEndArray();
+		json.writeEndObject();
+		json.close();
+	}
+
+	private void writeSpan(JsonGenerator json, String traceId, Trace trace, Span span) throws IOException {
+
+		json.writeStartObject();
+		json.writeStringField("traceId", traceId);
+		json.writeStringField("spanId", Span.hex(span.getSpanId()));
+		if (span.getParent() != null) {
+			json.writeStringField("parentSpanId", Span.hex(span.getParent().getSpanId()));
+		}
+		json.writeStringField("name", span.getName());
+		json.writeNumberField("kind", span.getKind().getOtlpValue());
+		json.writeStringField("startTimeUnixNano", Long.toString(trace.toEpochNanos(span.getStartNanos())));
+		json.writeStringField("endTimeUnixNano", Long.toString(trace.toEpochNanos(span.getEndNanos())));
+
+		json.writeArrayFieldStart("attributes");
+		for (int i = 0; i < span.getAttributeCount(); i++) {
+			writeAttribute(json, span.getAttributeKey(i), span.getAttributeValue(i));
+		}
+		json.writeEndArray();
+
+		if (span.isError()) {
+			json.writeObjectFieldStart("status");
+			json.writeNumberField("code", STATUS_CODE_ERROR);
+			json.writeStringField("message", span.getErrorMessage());
+			json.writeEndObject();
+		}
+		json.writeEndObject();
+	}
+
+	private static void writeAttribute(JsonGenerator json, String key, Object value) throws IOException {
+
+		json.writeStartObject();
+		json.writeStringField("key", key);
+		json.writeObjectFieldStart("value");
+		if (value instanceof Long || value instanceof Integer) {
+			// OTLP JSON encodes 64 bit integers as strings.
+			json.writeStringField("intValue", value.toString());
+		} else {
+			json.writeStringField("stringValue", value.toString());
+		}
+		json.writeEndObject();
+		json.writeEndObject();
+	}
+
+}
@@ -0,0 +1,186 @@
+package com.kokabmedia.app.ws.tracing;
+
+import java.util.Arrays;
+
+/*
+ * This class is one timed operation of a trace, for example a request, a repository call
+ * or a JDBC statement. A span is started by the Tracer, becomes the current span of its
+ * thread and is ended with end() (or close() in a try-with-resources block) on the same
+ * thread, which makes its parent the current span again.
+ *
+ * A request that is not recorded gets the NOOP span, which has no trace and ignores every
+ * call, so an unsampled request does not allocate spans.
+ */
+public final class Span implements AutoCloseable {
+
+	/*
+	 * The span kinds of OTLP, the number is the value of the kind field.
+	 */
+	public enum Kind {
+		INTERNAL(1), SERVER(2), CLIENT(3);
+
+		private final int otlpValue;
+
+		Kind(int otlpValue) {
+			this.otlpValue = otlpValue;
+		}
+
+		int getOtlpValue() {
+			return otlpValue;
+		}
+	}
+
+	static final Span NOOP = new Span(null, null, null, 0, null, Kind.INTERNAL, 0);
+
+	private final Trace trace;
+	private final Span parent;
+	// The current span of the thread when this span was started, current again after end().
+	private final Span previous;
+	private final long spanId;
+	private final Kind kind;
+	private final long startNanos;
+
+	private String name;
+	private long endNanos;
+	// Keys and values alternately, only grown when a span has more than four attributes.
+	private Object[] attributes = new Object[8];
+	private int attributeCount;
+	private String errorMessage;
+	private boolean error;
+
+	Span(Trace trace, Span parent, Span previous, long spanId, String name, Kind kind, long startNanos) {
+		this.trace = trace;
+		this.parent = parent;
+		this.previous = previous;
+		this.spanId = spanId;
+		this.name = name;
+		this.kind = kind;
+		this.startNanos = startNanos;
+	}
+
+	public boolean isRecording() {
+		return trace != null;
+	}
+
+	/*
+	 * Renames the span, used by the TracingFilter once the route of the request is known.
+	 */
+	public Span setName(String name) {
+		if (trace != null) {
+			this.name = name;
+		}
+		return this;
+	}
+
+	/*
+	 * Adds an attribute, the value is exported as an int when it is a Long or an Integer and
+	 * as a string otherwise.
+	 */
+	public Span setAttribute(String key, Object value) {
+
+		if (trace == null || value == null) {
+			return this;
+		}
+		if (attributeCount * 2 == attributes.length) {
+			attributes = Arrays.copyOf(attributes, attributes.length * 2);
+		}
+		attributes[attributeCount * 2] = key;
+		attributes[attributeCount * 2 + 1] = value;
+		attributeCount++;
+		return this;
+	}
+
+	public Span recordError(Throwable throwable) {
+		if (trace != null) {
+			error = true;
+			errorMessage = throwable.getClass().getSimpleName() + ": " + throwable.getMessage();
+		}
+		return this;
+	}
+
+	public Span setError(String message) {
+		if (trace != null) {
+			error = true;
+			errorMessage = message;
+		}
+		return this;
+	}
+
+	public void end() {
+		if (trace != null && endNanos == 0) {
+			endNanos = System.nanoTime();
+			trace.getTracer().end(this);
+		}
+	}
+
+	@Override
+	public void close() {
+		end();
+	}
+
+	/*
+	 * The W3C traceparent header of this span, for a response or an outgoing request.
+	 */
+	public String traceparent() {
+		return trace == null ? null
+				: "00-" + trace.getTraceIdHex() + '-' + hex(spanId) + '-' + (trace.isSampled() ? "01" : "00");
+	}
+
+	static String hex(long value) {
+		String hex = Long.toHexString(value);
+		return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+	}
+
+	Trace getTrace() {
+		return trace;
+	}
+
+	Span getParent() {
+		return parent;
+	}
+
+	Span getPrevious() {
+		return previous;
+	}
+
+	long getSpanId() {
+		return spanId;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	Kind getKind() {
+		return kind;
+	}
+
+	long getStartNanos() {
+		return startNanos;
+	}
+
+	long getEndNanos() {
+		return endNanos;
+	}
+
+	int getAttributeCount() {
+		return attributeCount;
+	}
+
+	String getAttributeKey(int index) {
+		return (String) attributes[index * 2];
+	}
+
+	Object getAttributeValue(int index) {
+		return attributes[index * 2 + 1];
+	}
+
+	boolean isError() {
+		return error;
+	}
+
+	String getErrorMessage() {
+		return errorMessage;
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.kokabmedia.app.ws.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * This class collects the ended spans of one recorded request until its root span ends,
+ * then the Tracer decides whether the trace is exported.
+ *
+ * Spans can end on other threads (a task of an async executor), so the list is guarded
+ * by the trace. A trace keeps at most maxSpans spans, the others are only counted so a
+ * request that loops over the repository can not grow a trace without bound.
+ */
+final class Trace {
+
+	private final Tracer tracer;
+	private final long traceIdHigh;
+	private final long traceIdLow;
+	private final boolean sampled;
+	private final long startEpochNanos;
+	private final long startNanos;
+	private final int maxSpans;
+
+	private final List<Span> spans = new ArrayList<>();
+	private int droppedSpans;
+
+	Trace(Tracer tracer, long traceIdHigh, long traceIdLow, boolean sampled, int maxSpans) {
+		this.tracer = tracer;
+		this.traceIdHigh = traceIdHigh;
+		this.traceIdLow = traceIdLow;
+		this.sampled = sampled;
+		this.maxSpans = maxSpans;
+		this.startEpochNanos = System.currentTimeMillis() * 1_000_000;
+		this.startNanos = System.nanoTime();
+	}
+
+	synchronized void add(Span span) {
+		if (spans.size() < maxSpans) {
+			spans.add(span);
+		} else {
+			droppedSpans++;
+		}
+	}
+
+	synchronized List<Span> getSpans() {
+		return new ArrayList<>(spans);
+	}
+
+	synchronized int getDroppedSpans() {
+		return droppedSpans;
+	}
+
+	/*
+	 * Converts a System.nanoTime() value of a span to nanoseconds since the epoch.
+	 */
+	long toEpochNanos(long nanos) {
+		return startEpochNanos + (nanos - startNanos);
+	}
+
+	String getTraceIdHex() {
+		return Span.hex(traceIdHigh) + Span.hex(traceIdLow);
+	}
+
+	long getTraceIdHigh() {
+		return traceIdHigh;
+	}
+
+	long getTraceIdLow() {
+		return traceIdLow;
+	}
+
+	// Whether the head of the trace (the caller or the sample rate) decided to export it.
+	boolean isSampled() {
+		return sampled;
+	}
+
+	Tracer getTracer() {
+		return tracer;
+	}
+
+}
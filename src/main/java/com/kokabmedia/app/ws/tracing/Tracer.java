@@ -0,0 +1,222 @@
+package com.kokabmedia.app.ws.tracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class starts and ends the spans of the request tracing, the current span of a
+ * thread is kept in a ThreadLocal.
+ *
+ * Sampling is decided at the head and at the tail of a request. The head decision is made
+ * when the root span starts: a request with a traceparent header follows the sampled flag
+ * of its caller, other requests are sampled with the probability sample-rate. A sampled
+ * trace is always exported. With tail sampling enabled the unsampled requests are
+ * recorded as well and their trace is exported when the root span ended with an error or
+ * took at least tail.latency-threshold-ms, otherwise it is dropped. With tail sampling
+ * disabled an unsampled request gets the NOOP span and allocates nothing for tracing.
+ *
+ * The trace context is carried to other threads by decorate(), the Tracer is registered
+ * as the TaskDecorator of the executors that Spring Boot creates (applicationTaskExecutor)
+ * and can wrap the tasks of other executors.
+ */
+@Component
+@ConditionalOnProperty(name = "app.tracing.enabled", havingValue = "true")
+public class Tracer implements TaskDecorator {
+
+	public static final String TRACEPARENT_HEADER = "traceparent";
+
+	// Static so the datasource and the aspect, which are created before the Tracer, can check it.
+	private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+
+	private final OtlpJsonFileExporter exporter;
+	private final double sampleRate;
+	private final boolean tailSampling;
+	private final long tailLatencyThresholdNanos;
+	private final int maxSpansPerTrace;
+
+	private final Counter headSampledTraces;
+	private final Counter tailSampledTraces;
+	private final Counter droppedTraces;
+
+	public Tracer(OtlpJsonFileExporter exporter, MeterRegistry meterRegistry,
+			@Value("${app.tracing.sample-rate}") double sampleRate,
+			@Value("${app.tracing.tail.enabled}") boolean tailSampling,
+			@Value("${app.tracing.tail.latency-threshold-ms}") long tailLatencyThresholdMillis,
+			@Value("${app.tracing.max-spans-per-trace}") int maxSpansPerTrace) {
+
+		this.exporter = exporter;
+		this.sampleRate = sampleRate;
+		this.tailSampling = tailSampling;
+		this.tailLatencyThresholdNanos = tailLatencyThresholdMillis * 1_000_000;
+		this.maxSpansPerTrace = maxSpansPerTrace;
+
+		this.headSampledTraces = traces(meterRegistry, "head_sampled");
+		this.tailSampledTraces = traces(meterRegistry, "tail_sampled");
+		this.droppedTraces = traces(meterRegistry, "not_sampled");
+	}
+
+	private static Counter traces(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("tracing.traces").tag("result", result)
+				.description("Recorded traces by sampling decision").register(meterRegistry);
+	}
+
+	/*
+	 * Starts the root span of a request, the traceparent header of the caller may be null.
+	 * Returns the NOOP span when the request is not recorded.
+	 */
+	public Span startRootSpan(String name, String traceparent) {
+
+		long traceIdHigh = 0;
+		long traceIdLow = 0;
+		long parentSpanId = 0;
+		boolean sampled;
+
+		if (isValidTraceparent(traceparent)) {
+			traceIdHigh = Long.parseUnsignedLong(traceparent.substring(3, 19), 16);
+			traceIdLow = Long.parseUnsignedLong(traceparent.substring(19, 35), 16);
+			parentSpanId = Long.parseUnsignedLong(traceparent.substring(36, 52), 16);
+			sampled = (Integer.parseInt(traceparent.substring(53, 55), 16) & 1) == 1;
+		} else {
+			sampled = ThreadLocalRandom.current().nextDouble() < sampleRate;
+		}
+		if (!sampled && !tailSampling) {
+			return Span.NOOP;
+		}
+
+		if (traceIdHigh == 0 && traceIdLow == 0) {
+			traceIdHigh = randomId();
+			traceIdLow = randomId();
+		}
+		Trace trace = new Trace(this, traceIdHigh, traceIdLow, sampled, maxSpansPerTrace);
+		Span remoteParent = parentSpanId == 0 ? null
+				: new Span(null, null, null, parentSpanId, null, Span.Kind.SERVER, 0);
+		Span root = new Span(trace, remoteParent, CURRENT.get(), randomId(), name, Span.Kind.SERVER, System.nanoTime());
+		CURRENT.set(root);
+		return root;
+	}
+
+	/*
+	 * Starts a child of the current span of this thread, returns the NOOP span when the
+	 * thread has no recorded span.
+	 */
+	public Span startSpan(String name, Span.Kind kind) {
+
+		Span parent = CURRENT.get();
+		if (parent == null) {
+			return Span.NOOP;
+		}
+		Span span = new Span(parent.getTrace(), parent, parent, randomId(), name, kind, System.nanoTime());
+		CURRENT.set(span);
+		return span;
+	}
+
+	/*
+	 * Returns the current span of this thread, or the NOOP span.
+	 */
+	public Span currentSpan() {
+		Span span = CURRENT.get();
+		return span == null ? Span.NOOP : span;
+	}
+
+	public boolean isRecording() {
+		return CURRENT.get() != null;
+	}
+
+	/*
+	 * The Tracer of the recorded span of this thread, null when the thread records nothing.
+	 */
+	static Tracer currentTracer() {
+		Span span = CURRENT.get();
+		return span == null ? null : span.getTrace().getTracer();
+	}
+
+	/*
+	 * Runs the task with the span that is current when it is submitted as its current span,
+	 * so the spans that the task starts belong to the trace of the submitting request.
+	 */
+	@Override
+	public Runnable decorate(Runnable task) {
+
+		Span submitter = CURRENT.get();
+		if (submitter == null) {
+			return task;
+		}
+		return () -> {
+			Span previous = CURRENT.get();
+			CURRENT.set(submitter);
+			try {
+				task.run();
+			} finally {
+				restore(previous);
+			}
+		};
+	}
+
+	void end(Span span) {
+
+		restore(span.getPrevious());
+		Trace trace = span.getTrace();
+		trace.add(span);
+
+		boolean root = span.getParent() == null || span.getParent().getTrace() != trace;
+		if (!root) {
+			return;
+		}
+		if (trace.getDroppedSpans() > 0) {
+			span.setAttribute("tracing.dropped_spans", trace.getDroppedSpans());
+		}
+		if (trace.isSampled()) {
+			headSampledTraces.increment();
+			exporter.export(trace);
+		} else if (span.isError() || span.getEndNanos() - span.getStartNanos() >= tailLatencyThresholdNanos) {
+			tailSampledTraces.increment();
+			exporter.export(trace);
+		} else {
+			droppedTraces.increment();
+		}
+	}
+
+	private void restore(Span span) {
+		if (span == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(span);
+		}
+	}
+
+	private static long randomId() {
+		long id;
+		do {
+			id = ThreadLocalRandom.current().nextLong();
+		} while (id == 0);
+		return id;
+	}
+
+	/*
+	 * version "00", 32 hex digits trace id, 16 hex digits parent id and 2 hex digits flags,
+	 * an all zero trace or parent id is invalid.
+	 */
+	static boolean isValidTraceparent(String traceparent) {
+
+		if (traceparent == null || traceparent.length() != 55 || !traceparent.startsWith("00-")
+				|| traceparent.charAt(35) != '-' || traceparent.charAt(52) != '-') {
+			return false;
+		}
+		for (int i = 3; i < 55; i++) {
+			char c = traceparent.charAt(i);
+			if (i != 35 && i != 52 && Character.digit(c, 16) < 0) {
+				return false;
+			}
+		}
+		return !traceparent.startsWith("00000000000000000000000000000000", 3)
+				&& !traceparent.startsWith("0000000000000000", 36);
+	}
+
+}
@@ -0,0 +1,93 @@
+package com.kokabmedia.app.ws.tracing;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/*
+ * This aspect adds a span around the methods of the REST controllers, the Spring Data
+ * repositories and the validation of @Valid request bodies.
+ *
+ * A call on a thread without a recorded span goes straight to the method, the span names
+ * (UserJPAController.getUser, UserJPARepository.findById) are built once per method.
+ *
+ * The aspect is created with the first bean that may be advised, before the Tracer can be,
+ * so it takes the Tracer from the recorded span of the thread.
+ */
+@Aspect
+@Component
+@ConditionalOnProperty(name = "app.tracing.enabled", havingValue = "true")
+public class TracingAspect {
+
+	private final Map<Method, String> controllerSpanNames = new ConcurrentHashMap<>();
+
+	// Repository proxy class and method to span name, the method is often inherited (findById).
+	private final Map<Class<?>, Map<Method, String>> repositorySpanNames = new ConcurrentHashMap<>();
+
+	@Around("@within(org.springframework.web.bind.annotation.RestController)")
+	public Object traceController(ProceedingJoinPoint joinPoint) throws Throwable {
+
+		Tracer tracer = Tracer.currentTracer();
+		if (tracer == null) {
+			return joinPoint.proceed();
+		}
+		Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+		String name = controllerSpanNames.computeIfAbsent(method,
+				m -> m.getDeclaringClass().getSimpleName() + '.' + m.getName());
+		return proceed(tracer, joinPoint, name);
+	}
+
+	@Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+	public Object traceRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+
+		Tracer tracer = Tracer.currentTracer();
+		if (tracer == null) {
+			return joinPoint.proceed();
+		}
+		Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+		String name = repositorySpanNames.computeIfAbsent(joinPoint.getThis().getClass(), c -> new ConcurrentHashMap<>())
+				.computeIfAbsent(method, m -> repositoryName(joinPoint.getThis()) + '.' + m.getName());
+		return proceed(tracer, joinPoint, name);
+	}
+
+	@Around("bean(mvcValidator) && execution(* validate(..))")
+	public Object traceValidation(ProceedingJoinPoint joinPoint) throws Throwable {
+
+		Tracer tracer = Tracer.currentTracer();
+		if (tracer == null) {
+			return joinPoint.proceed();
+		}
+		return proceed(tracer, joinPoint, "validation");
+	}
+
+	private static Object proceed(Tracer tracer, ProceedingJoinPoint joinPoint, String name) throws Throwable {
+
+		try (Span span = tracer.startSpan(name, Span.Kind.INTERNAL)) {
+			try {
+				return joinPoint.proceed();
+			} catch (Throwable e) {
+				span.recordError(e);
+				throw e;
+			}
+		}
+	}
+
+	/*
+	 * The name of the repository interface, UserJPARepository rather than the JDK proxy
+	 * class or the CrudRepository that declares findById.
+	 */
+	private static String repositoryName(Object repository) {
+
+		Class<?>[] interfaces = AopProxyUtils.proxiedUserInterfaces(repository);
+		return interfaces.length > 0 ? interfaces[0].getSimpleName() : repository.getClass().getSimpleName();
+	}
+
+}
@@ -0,0 +1,167 @@
+package com.kokabmedia.app.ws.tracing;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+/*
+ * This class adds the spans of the layers that the TracingAspect can not reach with a
+ * pointcut: the JDBC statements of the datasource, the commit and rollback of the JPA
+ * transactions and the reading and writing of the JSON and XML bodies.
+ *
+ * The commit() of the transaction manager and the write() of the message converters are
+ * final, so the spans are added by subclasses that replace the beans of Spring Boot, the
+ * auto-configuration backs off when a bean of the type exists. Like the TracingAspect they
+ * take the Tracer from the recorded span of the thread, the transaction manager is created
+ * before the meter registry that the Tracer needs.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.tracing.enabled", havingValue = "true")
+public class TracingConfig {
+
+	/*
+	 * Wraps the datasource of JPA (the routing datasource when read/write routing is on),
+	 * static so the post processor is registered before the datasource is created.
+	 */
+	@Bean
+	public static BeanPostProcessor tracingDataSourcePostProcessor() {
+
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+				if (bean instanceof DataSource && beanName.equals("dataSource")) {
+					return TracingDataSource.wrap((DataSource) bean);
+				}
+				return bean;
+			}
+		};
+	}
+
+	@Bean
+	public JpaTransactionManager transactionManager(
+			ObjectProvider<TransactionManagerCustomizers> transactionManagerCustomizers) {
+
+		JpaTransactionManager transactionManager = new TracingJpaTransactionManager();
+		transactionManagerCustomizers.ifAvailable(customizers -> customizers.customize(transactionManager));
+		return transactionManager;
+	}
+
+	@Bean
+	public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(
+			Jackson2ObjectMapperBuilder builder) {
+
+		return new TracingJsonConverter(builder);
+	}
+
+	@Bean
+	public MappingJackson2XmlHttpMessageConverter mappingJackson2XmlHttpMessageConverter(
+			Jackson2ObjectMapperBuilder builder) {
+
+		return new TracingXmlConverter(builder);
+	}
+
+	/*
+	 * A child of the recorded span of this thread, or the NOOP span.
+	 */
+	static Span startSpan(String name, Span.Kind kind) {
+		Tracer tracer = Tracer.currentTracer();
+		return tracer == null ? Span.NOOP : tracer.startSpan(name, kind);
+	}
+
+	static class TracingJpaTransactionManager extends JpaTransactionManager {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doCommit(DefaultTransactionStatus status) {
+			try (Span span = startSpan("transaction.commit", Span.Kind.INTERNAL)) {
+				try {
+					super.doCommit(status);
+				} catch (RuntimeException e) {
+					span.recordError(e);
+					throw e;
+				}
+			}
+		}
+
+		@Override
+		protected void doRollback(DefaultTransactionStatus status) {
+			try (Span span = startSpan("transaction.rollback", Span.Kind.INTERNAL)) {
+				super.doRollback(status);
+			}
+		}
+
+	}
+
+	static class TracingJsonConverter extends MappingJackson2HttpMessageConverter {
+
+		TracingJsonConverter(Jackson2ObjectMapperBuilder builder) {
+			super(builder.build());
+		}
+
+		@Override
+		public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage)
+				throws IOException, HttpMessageNotReadableException {
+			try (Span span = startSpan("message.read", Span.Kind.INTERNAL)) {
+				span.setAttribute("content_type", "json");
+				return super.read(type, contextClass, inputMessage);
+			}
+		}
+
+		@Override
+		protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+				throws IOException, HttpMessageNotWritableException {
+			try (Span span = startSpan("message.write", Span.Kind.INTERNAL)) {
+				span.setAttribute("content_type", "json");
+				super.writeInternal(object, type, outputMessage);
+			}
+		}
+
+	}
+
+	static class TracingXmlConverter extends MappingJackson2XmlHttpMessageConverter {
+
+		TracingXmlConverter(Jackson2ObjectMapperBuilder builder) {
+			super(builder.createXmlMapper(true).build());
+		}
+
+		@Override
+		public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage)
+				throws IOException, HttpMessageNotReadableException {
+			try (Span span = startSpan("message.read", Span.Kind.INTERNAL)) {
+				span.setAttribute("content_type", "xml");
+				return super.read(type, contextClass, inputMessage);
+			}
+		}
+
+		@Override
+		protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+				throws IOException, HttpMessageNotWritableException {
+			try (Span span = startSpan("message.write", Span.Kind.INTERNAL)) {
+				span.setAttribute("content_type", "xml");
+				super.writeInternal(object, type, outputMessage);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.kokabmedia.app.ws.tracing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+/*
+ * This class wraps a DataSource so that every JDBC statement execution of a recorded
+ * request gets a span with the SQL as its db.statement attribute.
+ *
+ * A connection is only wrapped when it is obtained on a thread with a recorded span, and
+ * a statement only when it is created on such a thread, so the connections of background
+ * jobs and of unsampled requests are the plain connections of the pool. Everything that
+ * is not a statement execution, including unwrap() for the pool metrics and close() of a
+ * pool, is passed on to the wrapped object.
+ */
+public final class TracingDataSource {
+
+	private TracingDataSource() {
+	}
+
+	public static DataSource wrap(DataSource dataSource) {
+
+		Class<?>[] interfaces = dataSource instanceof AutoCloseable
+				? new Class<?>[] { DataSource.class, AutoCloseable.class }
+				: new Class<?>[] { DataSource.class };
+		return (DataSource) proxy(interfaces, dataSource, (proxy, method, args) -> {
+			Object result = invoke(dataSource, method, args);
+			if (result instanceof Connection && Tracer.currentTracer() != null) {
+				return connection((Connection) result);
+			}
+			return result;
+		});
+	}
+
+	private static Connection connection(Connection connection) {
+
+		return (Connection) proxy(new Class<?>[] { Connection.class }, connection, (proxy, method, args) -> {
+			Object result = invoke(connection, method, args);
+			if (result instanceof Statement && Tracer.currentTracer() != null) {
+				// prepareStatement(sql, ...) and prepareCall(sql, ...), createStatement() has no SQL yet.
+				String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+				return statement(method.getReturnType(), (Statement) result, sql);
+			}
+			return result;
+		});
+	}
+
+	private static Object statement(Class<?> type, Statement statement, String preparedSql) {
+
+		return proxy(new Class<?>[] { type }, statement, (proxy, method, args) -> {
+			Tracer tracer = Tracer.currentTracer();
+			if (tracer == null || !method.getName().startsWith("execute")) {
+				return invoke(statement, method, args);
+			}
+			try (Span span = tracer.startSpan("jdbc." + method.getName(), Span.Kind.CLIENT)) {
+				String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+				span.setAttribute("db.statement", sql);
+				try {
+					return invoke(statement, method, args);
+				} catch (Throwable e) {
+					span.recordError(e);
+					throw e;
+				}
+			}
+		});
+	}
+
+	private static Object proxy(Class<?>[] interfaces, Object target, InvocationHandler handler) {
+
+		return Proxy.newProxyInstance(TracingDataSource.class.getClassLoader(), interfaces,
+				(proxy, method, args) -> {
+					// A proxy is only equal to itself, Hibernate keeps statements in hash maps.
+					if (method.getName().equals("equals") && method.getParameterCount() == 1) {
+						return proxy == args[0];
+					}
+					if (method.getName().equals("hashCode") && method.getParameterCount() == 0) {
+						return System.identityHashCode(proxy);
+					}
+					return handler.invoke(proxy, method, args);
+				});
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.kokabmedia.app.ws.tracing;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+/*
+ * This filter starts the root span of every request (except the actuator endpoints) and
+ * ends it when the response is complete. It runs before the AdmissionControlFilter, so a
+ * rejected request is traced as well.
+ *
+ * The span is named after the route (GET /jpa/users/{userId}) instead of the path, so
+ * the requests for different users have the same span name. A recorded request gets the
+ * traceparent header of its root span in the response, a client can use it to find the
+ * trace in the exported file.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 5)
+@ConditionalOnProperty(name = "app.tracing.enabled", havingValue = "true")
+public class TracingFilter extends OncePerRequestFilter {
+
+	private final Tracer tracer;
+
+	public TracingFilter(Tracer tracer) {
+		this.tracer = tracer;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return request.getRequestURI().startsWith(request.getContextPath() + "/actuator");
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+
+		Span span = tracer.startRootSpan(request.getMethod(), request.getHeader(Tracer.TRACEPARENT_HEADER));
+		if (!span.isRecording()) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		response.setHeader(Tracer.TRACEPARENT_HEADER, span.traceparent());
+		try {
+			filterChain.doFilter(request, response);
+		} catch (IOException | ServletException | RuntimeException e) {
+			span.recordError(e);
+			throw e;
+		} finally {
+			Object route = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+			span.setName(request.getMethod() + ' ' + (route != null ? route : request.getRequestURI()));
+			span.setAttribute("http.method", request.getMethod());
+			span.setAttribute("http.target", request.getRequestURI());
+			span.setAttribute("http.status_code", response.getStatus());
+			if (response.getStatus() >= 500 && !span.isError()) {
+				span.setError("HTTP " + response.getStatus());
+			}
+			span.end();
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import java.util.List;
+import java.util.Optional;
+
+import javax.validation.Valid;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.kokabmedia.app.ws.sharding.ShardedUserRepository;
+import com.kokabmedia.app.ws.ui.model.request.UpdateUserDetailsRequestModel;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * This class handles the HTTP requests of the users that are stored across the shards of
+ * the ShardedUserRepository class, it offers the same operations as the UserJPAController
+ * class under the "sharded/users" path.
+ *
+ * A request for one user id is sent to the shard of that id only, the list and search
+ * requests are sent to all shards and the results are merged ordered by user id.
+ *
+ * The @ConditionalOnProperty annotation only registers the controller when the sharded
+ * storage is enabled with the app.sharding.enabled property.
+ */
+@RestController
+@RequestMapping("sharded/users")
+@ConditionalOnProperty(name = "app.sharding.enabled", havingValue = "true")
+public class ShardedUserController {
+
+	@Autowired
+	private ShardedUserRepository shardedUserRepository;
+
+	// The largest page that a list or search request may ask for.
+	@Value("${app.sharding.max-page-size}")
+	private int maxPageSize;
+
+	// The largest offset of a page, every shard reads offset + limit users for a page.
+	@Value("${app.sharding.max-offset}")
+	private int maxOffset;
+
+	/*
+	 * This method returns a page of users ordered by id,
+	 * http://localhost:8080/sharded/users?page=1&limit=50
+	 * 
+	 * Pages whose offset is above max-offset are answered with 400, the next pages are read
+	 * after the last user id of a page instead, every shard then reads at most limit users,
+	 * http://localhost:8080/sharded/users?afterId=12345&limit=50
+	 */
+	@GetMapping(produces = {
+			MediaType.APPLICATION_XML_VALUE,
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<List<UserRest>> getUsers(@RequestParam(value = "page", defaultValue = "1") int page,
+			@RequestParam(value = "limit", defaultValue = "50") int limit,
+			@RequestParam(value = "afterId", required = false) Long afterId) {
+
+		if (page < 1 || limit < 1 || limit > maxPageSize || (long) (page - 1) * limit > maxOffset
+				|| (afterId != null && page != 1)) {
+			return ResponseEntity.badRequest().build();
+		}
+		List<UserRest> users = afterId != null ? shardedUserRepository.findAllAfter(afterId, limit)
+				: shardedUserRepository.findAll((page - 1) * limit, limit);
+		return new ResponseEntity<>(users, HttpStatus.OK);
+	}
+
+	/*
+	 * This method returns the users whose last name starts with a prefix ordered by id,
+	 * http://localhost:8080/sharded/users?lastName=Doe&limit=50
+	 */
+	@GetMapping(params = "lastName",
+			produces = {
+			MediaType.APPLICATION_XML_VALUE,
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<List<UserRest>> searchUsers(@RequestParam(value = "lastName") String lastName,
+			@RequestParam(value = "limit", defaultValue = "50") int limit) {
+
+		if (lastName.isEmpty() || limit < 1 || limit > maxPageSize) {
+			return ResponseEntity.badRequest().build();
+		}
+		return new ResponseEntity<>(shardedUserRepository.findByLastNameStartingWith(lastName, limit), HttpStatus.OK);
+	}
+
+	@GetMapping(path = "/{userId}",
+			produces = {
+			MediaType.APPLICATION_XML_VALUE,
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<UserRest> getUser(@PathVariable long userId) {
+
+		return response(shardedUserRepository.findById(userId));
+	}
+
+	/*
+	 * This method creates a user on the shard chosen by the ShardStrategy, the returned
+	 * user has the id generated by that shard.
+	 */
+	@PostMapping(
+			consumes = {
+			MediaType.APPLICATION_XML_VALUE,
+			MediaType.APPLICATION_JSON_VALUE },
+			produces = {
+			MediaType.APPLICATION_XML_VALUE,
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<UserRest> createUser(@Valid @RequestBody UserRest user) {
+
+		return new ResponseEntity<>(shardedUserRepository.create(user), HttpStatus.OK);
+	}
+
+	/*
+	 * This method updates the names of a user, when the request has a version and the
+	 * user has been changed since that version a 409 Conflict is returned with the current
+	 * user (see the AppExeptionHandler class).
+	 */
+	@PutMapping(path = "/{userId}",
+			consumes = {
+			MediaType.APPLICATION_XML_VALUE,
+			MediaType.APPLICATION_JSON_VALUE },
+			produces = {
+			MediaType.APPLICATION_XML_VALUE,
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<UserRest> updateUser(@PathVariable long userId,
+			@Valid @RequestBody UpdateUserDetailsRequestModel userDetails) {
+
+		return response(shardedUserRepository.update(userId, userDetails.getFirstName(), userDetails.getLastName(),
+				userDetails.getVersion()));
+	}
+
+	@DeleteMapping(path = "/{userId}")
+	public ResponseEntity<Void> deleteUser(@PathVariable long userId) {
+
+		return new ResponseEntity<>(shardedUserRepository.deleteById(userId) ? HttpStatus.OK : HttpStatus.NO_CONTENT);
+	}
+
+	private static ResponseEntity<UserRest> response(Optional<UserRest> user) {
+
+		return user.map(value -> new ResponseEntity<>(value, HttpStatus.OK))
+				.orElseGet(() -> new ResponseEntity<>(HttpStatus.NO_CONTENT));
+	}
+
+}
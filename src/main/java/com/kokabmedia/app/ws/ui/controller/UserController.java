@@ -66,9 +66,6 @@ import com.kokabmedia.app.ws.userservice.impl.UserServiceImpl;
 @RequestMapping("/users") 
 public class UserController {
 
-	// Map for temporary storage
-	Map<String, UserRest> usersMap; 
-
 	/*
 	 * The @Autowired annotation tells the Spring framework that the userService bean 
 	 * implementation is an dependency of UserController class. It is a mechanism 
@@ -86,6 +83,16 @@ public class UserController {
 	@Autowired
 	UserService userService;
 	
+	public UserController() {}
+	
+	/*
+	 * A controller of the given user service instead of the bean, the UserWarmUpRunner 
+	 * sends its synthetic users through one with a user service of its own.
+	 */
+	public UserController(UserService userService) {
+		this.userService = userService;
+	}
+	
 	/*
 	 * This method returns an user with a specific id.
 	 * 
@@ -116,16 +123,15 @@ public class UserController {
 	 */
 	public ResponseEntity<UserRest> getUser(@PathVariable String userId) {
 		/*
-		 * Collects RestUser with userId from URL path variable.
-		 * 
-		 * Creates new UserRest object in temporary storage map with userId that gets
-		 * returned as ResponseEntity and a UserRest object.
+		 * Collects RestUser with userId from URL path variable from the temporary storage
+		 * of the UserService implementation.
 		 * 
 		 *  RespondEntity returns a HTTP code status ok with a UserRest object else
 		 *  it returns status code no content.
 		 */
-		if(usersMap.containsKey(userId)) {
-			return new ResponseEntity<>(usersMap.get(userId), HttpStatus.OK);
+		UserRest user = userService.getUser(userId);
+		if(user != null) {
+			return new ResponseEntity<>(user, HttpStatus.OK);
 		} else {
 			return new ResponseEntity<>(HttpStatus.NO_CONTENT);
 		}
@@ -244,20 +250,12 @@ public class UserController {
 	public UserRest updateUser(@PathVariable String userId,
 			@Valid @RequestBody UpdateUserDetailsRequestModel updateUserDetails) {
 		
-		// Retrieve the correct UserRest object with the provided user id.
-		UserRest userDetails = usersMap.get(userId);
-		
 		/* 
-		 * Update the data from the body of PUT HTTP request with the
-		 * updateUserDetails object.
+		 * Update the user with the data from the body of PUT HTTP request with the
+		 * updateUserDetails object, when the request contains a version that is no 
+		 * longer the current version of the user a 409 Conflict is returned.
 		 */
-		userDetails.setFirstName(updateUserDetails.getFirstName());
-		userDetails.setLastName(updateUserDetails.getLastName());
-
-		// Update the storage unit map.
-		usersMap.put(userId, userDetails);
-
-		return userDetails;
+		return userService.updateUser(userId, updateUserDetails);
 	}
 
 	/*
@@ -274,7 +272,7 @@ public class UserController {
 	@DeleteMapping(path = "/{userId}")
 	public ResponseEntity<Void> deleteUser(@PathVariable String userId) {
 
-		usersMap.remove(userId);
+		userService.deleteUser(userId);
 		return ResponseEntity.noContent().build();
 	}
 
@@ -2,17 +2,35 @@ package com.kokabmedia.app.ws.ui.controller;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -23,12 +41,31 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+import com.kokabmedia.app.ws.exeption.UserConflictException;
+import com.kokabmedia.app.ws.exeption.UserServiceException;
 import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.repository.UserTombstoneRepository;
+import com.kokabmedia.app.ws.routing.ReadYourWrites;
+import com.kokabmedia.app.ws.shared.SingleFlight;
+import com.kokabmedia.app.ws.ui.model.request.BulkUserRequestModel;
 import com.kokabmedia.app.ws.ui.model.request.UpdateUserDetailsRequestModel;
 import com.kokabmedia.app.ws.ui.model.request.UserDetailsRequestModel;
+import com.kokabmedia.app.ws.ui.model.request.UserIdsRequestModel;
+import com.kokabmedia.app.ws.ui.model.response.BulkOperationResultRest;
+import com.kokabmedia.app.ws.ui.model.response.BulkUserResultRest;
 import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.kokabmedia.app.ws.ui.model.response.UserTombstone;
+import com.kokabmedia.app.ws.ui.model.response.UsersRest;
 import com.kokabmedia.app.ws.userservice.UserService;
+import com.kokabmedia.app.ws.userservice.impl.UserBulkService;
+import com.kokabmedia.app.ws.userservice.impl.UserCountService;
+import com.kokabmedia.app.ws.userservice.impl.UserEmailIndex;
+import com.kokabmedia.app.ws.userservice.impl.UserReadService;
 import com.kokabmedia.app.ws.userservice.impl.UserServiceImpl;
+import com.kokabmedia.app.ws.userservice.impl.UserWriteBehindBuffer;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 /*
  * This class can also be named UserJPAResource and its function is to handle HTTP requests, 
@@ -89,6 +126,84 @@ public class UserJPAController {
 	@Autowired
 	private UserJPARepository userJpaRepository;
 	
+	/*
+	 * The write-behind buffer only exists when app.users.write-behind.enabled=true, 
+	 * otherwise this field stays null and every user is saved in its own transaction.
+	 */
+	@Autowired(required = false)
+	private UserWriteBehindBuffer userWriteBehindBuffer;
+	
+	// Stores the tombstones of deleted users for the delta sync.
+	@Autowired
+	private UserTombstoneRepository userTombstoneRepository;
+	
+	// Publishes a UserChangedEvent for every created, updated and deleted user.
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+	
+	// Maintains the total number of users for the X-Total-Count header.
+	@Autowired
+	private UserCountService userCountService;
+	
+	// The largest page that GET /jpa/users may ask for.
+	@Value("${app.users.list.max-limit}")
+	private int maxPageSize;
+	
+	// Checks whether the email of a new user is taken.
+	@Autowired
+	private UserEmailIndex userEmailIndex;
+	
+	// Tells which users are in the second-level cache for the multi-get.
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+	
+	// Reads the users of GET /jpa/users/{userId} through a circuit breaker.
+	@Autowired
+	private UserReadService userReadService;
+	
+	// Applies the operations of POST /jpa/users/bulk.
+	@Autowired
+	private UserBulkService userBulkService;
+	
+	// The most operations of one POST /jpa/users/bulk request.
+	@Value("${app.users.bulk.max-operations:1000}")
+	private int maxBulkOperations;
+	
+	// How long a create request waits for the group commit of its user.
+	@Value("${app.users.write-behind.ack-timeout-ms:30000}")
+	private long writeBehindAckTimeoutMillis;
+	
+	// The total number of users and whether it is exact, sent with every page of GET /jpa/users.
+	public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+	
+	public static final String TOTAL_COUNT_EXACT_HEADER = "X-Total-Count-Exact";
+	
+	// The Warning header of a user that is answered from its last known copy.
+	public static final String STALE_WARNING = "110 - \"Response is Stale\"";
+	
+	// How many ids are sent to the database in one IN query.
+	@Value("${app.users.multi-get.chunk-size:500}")
+	private int multiGetChunkSize;
+	
+	// Transactions for the optimistic update attempts.
+	private final TransactionTemplate transactionTemplate;
+	
+	// How many times a merge-safe update is retried after a concurrent update.
+	@Value("${app.users.update.max-retries:3}")
+	private int updateMaxRetries;
+	
+	/*
+	 * Concurrent lookups of the same user share one database query, see the 
+	 * SingleFlight class.
+	 */
+	private final SingleFlight<Long, UserReadService.UserRead> userLookups;
+	
+	public UserJPAController(PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+			@Value("${app.users.lookup.coalescing-timeout-ms:2000}") long coalescingTimeoutMillis) {
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.userLookups = new SingleFlight<>("user.lookup", coalescingTimeoutMillis, meterRegistry);
+	}
+	
 	/*
 	 * This method will return a collection of users from the database using JPA.
 	 * 
@@ -97,18 +212,128 @@ public class UserJPAController {
 	 * will be called.
 	 * 
 	 * The @GetMapping annotation will bind and make getUsers method respond to a HTTP GET request.
+	 * 
+	 * The @Transactional(readOnly = true) annotation runs the method in a read-only transaction, 
+	 * Hibernate skips the dirty checking of the loaded users and, when the read/write routing 
+	 * is enabled, the query is sent to the replica database (see ReadWriteRoutingConfig).
 	 */
 	@GetMapping
-	public List<UserRest> getUsers(@RequestParam(value = "page", defaultValue = "1") int page,
+	@Transactional(readOnly = true)
+	public ResponseEntity<List<UserRest>> getUsers(@RequestParam(value = "page", defaultValue = "1") int page,
 			@RequestParam(value = "limit", defaultValue = "50") int limit)// http://localhost:8080/jpa/users?page=1&limit=50
 	{
+		/*
+		 * A page past the last user is empty, but the offset of the first user of the page 
+		 * must fit the int first result of the query.
+		 */
+		if (page < 1 || limit < 1 || limit > maxPageSize || (long) (page - 1) * limit > Integer.MAX_VALUE) {
+			return ResponseEntity.badRequest().build();
+		}
+		
 		/*
 		 * This userRepository bean is managed by the Spring framework with
 		 * dependency injection with autowiring.
 		 * 
-		 * findAll() method retrieves all users from the database.
+		 * findAllByOrderByUserId() method retrieves one page of users from the database.
+		 */
+		List<UserRest> users = userJpaRepository.findAllByOrderByUserId(PageRequest.of(page - 1, limit));
+		
+		/*
+		 * The total number of users is not counted for every page, it is maintained by the 
+		 * UserCountService and the X-Total-Count-Exact header tells whether it is exact or 
+		 * approximate.
 		 */
-		return userJpaRepository.findAll();
+		UserCountService.Count total = userCountService.getCount();
+		return ResponseEntity.ok()
+				.header(TOTAL_COUNT_HEADER, String.valueOf(total.getValue()))
+				.header(TOTAL_COUNT_EXACT_HEADER, String.valueOf(total.isExact()))
+				.body(users);
+	}
+	
+	/*
+	 * This method returns many users with one HTTP request, for example the friends list 
+	 * of a user, http://localhost:8080/jpa/users?ids=10001,10002,10003
+	 * 
+	 * The params parameter makes this method respond instead of getUsers() when the 
+	 * request has an ids parameter.
+	 * 
+	 * The produces parameter enables the web service end point to return
+	 * information in XML and JSON format.
+	 */
+	@Transactional(readOnly = true)
+	@GetMapping(params = "ids",
+			produces = { 
+			MediaType.APPLICATION_XML_VALUE, 
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<UsersRest> getUsersByIds(@RequestParam(value = "ids") List<Long> ids) {
+		
+		/*
+		 * The same limits as the ids of UserIdsRequestModel, an empty value in the list 
+		 * (ids=1,,2) is converted to null.
+		 */
+		if (ids.isEmpty() || ids.size() > UserIdsRequestModel.MAX_IDS || ids.stream().anyMatch(Objects::isNull)) {
+			return ResponseEntity.badRequest().build();
+		}
+		return new ResponseEntity<>(findUsersByIds(ids), HttpStatus.OK);
+	}
+
+	/*
+	 * This method does the same as getUsersByIds() for lists of ids that are too long for 
+	 * a URL, the ids are sent in the body of a POST request, { "ids": [10001, 10002] }.
+	 */
+	@Transactional(readOnly = true)
+	@PostMapping(path = "/lookup",
+			consumes = { 
+			MediaType.APPLICATION_XML_VALUE, 
+			MediaType.APPLICATION_JSON_VALUE }, 
+			produces = {
+			MediaType.APPLICATION_XML_VALUE, 
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<UsersRest> lookupUsers(@Valid @RequestBody UserIdsRequestModel userIds) {
+		
+		return new ResponseEntity<>(findUsersByIds(userIds.getIds()), HttpStatus.OK);
+	}
+
+	/*
+	 * Reads the users that are in the second-level cache with findById() and loads the 
+	 * others with findAllById() in chunks of multiGetChunkSize ids, so every chunk is one 
+	 * SQL query with an IN clause. The users are returned in the order of the requested 
+	 * ids (without duplicates) and the ids without a user are reported as missing.
+	 */
+	private UsersRest findUsersByIds(List<Long> ids) {
+		
+		List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+		Map<Long, UserRest> found = new HashMap<>();
+		List<Long> uncachedIds = new ArrayList<>();
+		
+		Cache cache = entityManagerFactory.getCache();
+		for (Long id : distinctIds) {
+			if (cache.contains(UserRest.class, id)) {
+				userJpaRepository.findById(id).ifPresent(user -> found.put(id, user));
+			}
+			if (!found.containsKey(id)) {
+				uncachedIds.add(id);
+			}
+		}
+		
+		for (int from = 0; from < uncachedIds.size(); from += multiGetChunkSize) {
+			List<Long> chunk = uncachedIds.subList(from, Math.min(from + multiGetChunkSize, uncachedIds.size()));
+			for (UserRest user : userJpaRepository.findAllById(chunk)) {
+				found.put(user.getUserId(), user);
+			}
+		}
+		
+		List<UserRest> users = new ArrayList<>(found.size());
+		List<Long> missingIds = new ArrayList<>();
+		for (Long id : distinctIds) {
+			UserRest user = found.get(id);
+			if (user != null) {
+				users.add(user);
+			} else {
+				missingIds.add(id);
+			}
+		}
+		return new UsersRest(users, missingIds);
 	}
 	
 	/*
@@ -147,15 +372,45 @@ public class UserJPAController {
 		 * the @PathVariable annotation parameter userId.
 		 * 
 		 * Optional ensures that even if User is null a proper object will be returned.
+		 * 
+		 * When other requests are already looking up the same user this request waits 
+		 * for their query instead of sending its own, unless the client has just written 
+		 * and must read its own write from the primary database (see ReadYourWrites).
+		 * 
+		 * The user is read by the UserReadService class in a read-only transaction of its 
+		 * own on another thread, so this method has no transaction and the request thread 
+		 * does not take a connection, when the database stalls the request is answered 
+		 * after the timeout of the circuit breaker.
 		 */
-		Optional<UserRest> user = userJpaRepository.findById(userId);
+		UserReadService.UserRead read = ReadYourWrites.isPinned() ? userReadService.read(userId)
+				: userLookups.execute(userId, () -> userReadService.read(userId));
+		
+		/*
+		 * Without the database and without a last known copy of the user the client may 
+		 * try again when the circuit breaker probes the database again.
+		 */
+		if (read.isUnavailable()) {
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1")
+					.build();
+		}
+		
+		/*
+		 * A last known copy of the user is marked as stale with the Age header (seconds 
+		 * since it was read from the database) and the Warning 110 header of RFC 7234.
+		 */
+		HttpHeaders headers = new HttpHeaders();
+		if (read.isStale()) {
+			headers.set(HttpHeaders.AGE, Long.toString(read.getAgeMillis() / 1000));
+			headers.set(HttpHeaders.WARNING, STALE_WARNING);
+		}
 		
 		/*
 		 *  RespondEntity returns a HTTP code status ok with a UserRest object else
 		 *  it returns status code no content.
 		 */
+		Optional<UserRest> user = read.getUser();
 		if(user.isPresent()) {
-			return new ResponseEntity<>(user.get(), HttpStatus.OK);
+			return new ResponseEntity<>(user.get(), headers, HttpStatus.OK);
 		} else {
 			return new ResponseEntity<>(HttpStatus.NO_CONTENT);
 		}
@@ -209,8 +464,32 @@ public class UserJPAController {
 	public ResponseEntity<UserRest> createUser(@Valid @RequestBody UserRest user) { 
 
 		
-		// Save a user in the H2 in memory database.
-		UserRest returnValue = userJpaRepository.save(user); 		
+		/*
+		 * A new email is usually answered by the Bloom filter of the UserEmailIndex without 
+		 * a query, a taken email is rejected with 409 Conflict before the user is queued.
+		 */
+		if (userEmailIndex.isTaken(user.getEmail())) {
+			throw new UserConflictException("The email " + user.getEmail() + " is already taken", null);
+		}
+		
+		/*
+		 * Save a user in the H2 in memory database, either in its own transaction or in 
+		 * the next group commit of the write-behind buffer. The unique email index rejects 
+		 * a concurrent signup with the same email that passed the check above.
+		 */
+		UserRest returnValue;
+		try {
+			if (userWriteBehindBuffer != null) {
+				returnValue = awaitGroupCommit(userWriteBehindBuffer.submit(user));
+			} else {
+				returnValue = userJpaRepository.save(user);
+			}
+		} catch (DataIntegrityViolationException e) {
+			throw new UserConflictException("The email " + user.getEmail() + " is already taken", null);
+		}
+		
+		eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.CREATED, UserChangedEvent.SOURCE_JPA,
+				String.valueOf(returnValue.getUserId()), returnValue));
 		
 		// RespondEntity returns a HTTP code status ok with a UserRest object
 		return new ResponseEntity<UserRest>(returnValue, HttpStatus.OK);
@@ -241,34 +520,54 @@ public class UserJPAController {
 	public UserRest updateUser(@PathVariable long userId,
 			@Valid @RequestBody UpdateUserDetailsRequestModel userDetails) { 
 		
+		/*
+		 * Every attempt runs in its own transaction, Hibernate only updates the row when 
+		 * its version is still the version that was read, otherwise the commit fails with 
+		 * an ObjectOptimisticLockingFailureException.
+		 * 
+		 * When the client did not send a version the new names do not depend on what was 
+		 * read, so the update is merge-safe and is retried up to updateMaxRetries times 
+		 * with the current user. When the client sent a version or the retries are used up 
+		 * a 409 Conflict is returned with the current user.
+		 */
+		for (int attempt = 0; ; attempt++) {
+			try {
+				UserRest updatedUser = transactionTemplate.execute(status -> applyUpdate(userId, userDetails));
+				eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.UPDATED,
+						UserChangedEvent.SOURCE_JPA, String.valueOf(userId), updatedUser));
+				return updatedUser;
+			} catch (ObjectOptimisticLockingFailureException e) {
+				if (userDetails.getVersion() != null || attempt >= updateMaxRetries) {
+					throw new UserConflictException("User " + userId + " has been changed by another request",
+							userJpaRepository.findById(userId).orElse(null));
+				}
+			}
+		}
+	}
+	
+	private UserRest applyUpdate(long userId, UpdateUserDetailsRequestModel userDetails) {
+		
 		/* 
 		 * Retrieve the correct UserRest object with the provided user id.
 		 * from the h2 database.
 		 */
-		//UserRest updatedUser = userJpaRepository.getById(userId);
 		UserRest updatedUser = userJpaRepository.findById(userId).get();
-
+		
+		// Reject the update when the client has read an older version of the user.
+		if (userDetails.getVersion() != null && userDetails.getVersion() != updatedUser.getVersion()) {
+			throw new UserConflictException("User " + userId + " has been changed since version "
+					+ userDetails.getVersion(), updatedUser);
+		}
 		
 		/* 
 		 * Update the data from the body of PUT HTTP request with the
-		 * updateUserDetails object.
+		 * updateUserDetails object, the changes of the managed entity are written to 
+		 * the database when the transaction commits.
 		 */
 		updatedUser.setFirstName(userDetails.getFirstName());
 		updatedUser.setLastName(userDetails.getLastName());
-
-		/*
-		 * Save the updated user in the H2 database with the new
-		 * incoming values.
-		 */
-		userJpaRepository.save(updatedUser);
-		// Update the storage unit map.
-		//usersMap.put(userId, userDetails);
-		return updatedUser;
 		
-		/*
-		 *  RespondEntity returns a HTTP code status ok with a UserRest object else
-		 *  it returns status code no content.
-		 */
+		return updatedUser;
 	}
 
 	/*
@@ -291,7 +590,81 @@ public class UserJPAController {
 	@DeleteMapping(path = "/{userId}")
 	public void deleteUser(@PathVariable long userId) {
 
-		userJpaRepository.deleteById(userId);
+		/*
+		 * The user is deleted and its tombstone for the delta sync is stored in the 
+		 * same transaction.
+		 */
+		UserRest deletedUser = transactionTemplate.execute(status -> {
+			UserRest user = userJpaRepository.findById(userId)
+					.orElseThrow(() -> new EmptyResultDataAccessException("No user with id " + userId, 1));
+			userJpaRepository.delete(user);
+			userTombstoneRepository.save(new UserTombstone(userId, System.currentTimeMillis()));
+			return user;
+		});
+		
+		eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.DELETED, UserChangedEvent.SOURCE_JPA,
+				String.valueOf(userId), deletedUser));
+	}
+
+	/*
+	 * This method applies an ordered list of create, update and delete operations with 
+	 * one HTTP POST request, for example:
+	 * 
+	 * { "mode": "BEST_EFFORT", "operations": [
+	 *     { "op": "CREATE", "firstName": "Bob", "lastName": "Smith", "email": "bob@test.com", "password": "12345678" },
+	 *     { "op": "UPDATE", "userId": 10001, "firstName": "Robert", "lastName": "Smith", "version": 0 },
+	 *     { "op": "DELETE", "userId": 10002 } ] }
+	 * 
+	 * The operations are validated first and then applied in JDBC batches by the 
+	 * UserBulkService class, the response has the result of every operation in the order 
+	 * of the request. The status is 200 when every operation was applied, 207 (Multi-Status) 
+	 * when a BEST_EFFORT request applied only some of them and for an ATOMIC request that 
+	 * applied none the status of the first operation that failed.
+	 */
+	@PostMapping(path = "/bulk",
+			consumes = { 
+			MediaType.APPLICATION_XML_VALUE, 
+			MediaType.APPLICATION_JSON_VALUE }, 
+			produces = {
+			MediaType.APPLICATION_XML_VALUE, 
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<BulkUserResultRest> applyBulk(@Valid @RequestBody BulkUserRequestModel request) {
+		
+		if (request.getOperations().size() > maxBulkOperations) {
+			return ResponseEntity.badRequest().build();
+		}
+		BulkUserResultRest result = userBulkService.apply(request);
+		if (result.getFailed() == 0) {
+			return new ResponseEntity<>(result, HttpStatus.OK);
+		}
+		if (result.getSucceeded() > 0) {
+			return new ResponseEntity<>(result, HttpStatus.MULTI_STATUS);
+		}
+		int status = result.getResults().stream().mapToInt(BulkOperationResultRest::getStatus)
+				.filter(code -> code != HttpStatus.FAILED_DEPENDENCY.value()).findFirst()
+				.orElse(HttpStatus.CONFLICT.value());
+		return ResponseEntity.status(status).body(result);
+	}
+
+	/*
+	 * Waits until the group that contains the user has been committed, a failure of the 
+	 * commit is rethrown so it is handled by the AppExeptionHandler class.
+	 */
+	private UserRest awaitGroupCommit(CompletableFuture<UserRest> pending) {
+		
+		try {
+			return pending.get(writeBehindAckTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new UserServiceException(e.getCause().toString());
+		} catch (TimeoutException e) {
+			throw new UserServiceException("The user was not stored within " + writeBehindAckTimeoutMillis + " ms");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UserServiceException("Interrupted while waiting for the user to be stored");
+		}
 	}
 
 }
@@ -0,0 +1,152 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.repository.UserTombstoneRepository;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.kokabmedia.app.ws.ui.model.response.UserSyncRest;
+import com.kokabmedia.app.ws.ui.model.response.UserTombstone;
+
+/*
+ * This class handles the delta sync of mobile clients, instead of loading all users on 
+ * every start a client sends the sync token of its last sync and only receives the users 
+ * that were changed and the ids of the users that were deleted since then.
+ * 
+ * The sync token is the position (time of change, user id) of the last change the client 
+ * has received and the time the token was issued, the changes after the position are read in the order of the last_modified and 
+ * deleted_at indexes with keyset pagination, so a sync costs as much as the number of 
+ * changes and not the number of users.
+ * 
+ * Changes of the last settle-ms milliseconds are left for the next sync, so a transaction 
+ * that started before the token was issued but commits after it is not skipped.
+ */
+@RestController
+@RequestMapping("jpa/users/sync")
+public class UserSyncController {
+
+	@Autowired
+	private UserJPARepository userJpaRepository;
+	
+	@Autowired
+	private UserTombstoneRepository userTombstoneRepository;
+
+	@Value("${app.users.sync.settle-ms:1000}")
+	private long settleMillis;
+	
+	@Value("${app.users.sync.max-page-size:500}")
+	private int maxPageSize;
+	
+	@Value("${app.users.sync.tombstone-retention-days:30}")
+	private long tombstoneRetentionDays;
+
+	/*
+	 * This method returns the next page of changes, http://localhost:8080/jpa/users/sync?since=token
+	 * 
+	 * Without a since parameter the sync starts from the beginning and returns all users. 
+	 * When the token is older than the retention time of the tombstones 410 Gone is 
+	 * returned and the client has to sync from the beginning.
+	 */
+	@Transactional(readOnly = true)
+	@GetMapping(produces = { 
+			MediaType.APPLICATION_XML_VALUE, 
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<UserSyncRest> sync(@RequestParam(value = "since", required = false) String since,
+			@RequestParam(value = "limit", defaultValue = "100") int limit) {
+
+		long now = System.currentTimeMillis();
+		long until = now - settleMillis;
+		int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+
+		long[] token = since == null ? new long[] { -1, Long.MIN_VALUE, now } : decodeToken(since);
+		if (token == null) {
+			return ResponseEntity.badRequest().build();
+		}
+		
+		// The tombstones of users deleted after the token was issued may have been removed.
+		if (token[2] < now - TimeUnit.DAYS.toMillis(tombstoneRetentionDays)) {
+			return ResponseEntity.status(HttpStatus.GONE).build();
+		}
+		long[] position = { token[0], token[1] };
+
+		// One more row than the page size tells whether there is another page.
+		PageRequest firstRows = PageRequest.of(0, pageSize + 1);
+		List<UserRest> users = userJpaRepository.findChangedAfter(position[0], position[1], until, firstRows);
+		
+		// A client that syncs from the beginning has no users to remove.
+		List<UserTombstone> tombstones = since == null ? Collections.emptyList()
+				: userTombstoneRepository.findDeletedAfter(position[0], position[1], until, firstRows);
+
+		/*
+		 * Merges the two ordered lists by (time, id) and takes the first pageSize changes, 
+		 * the position of the last one is the next token.
+		 */
+		List<UserRest> changed = new ArrayList<>();
+		List<Long> deletedIds = new ArrayList<>();
+		int u = 0;
+		int t = 0;
+		while (changed.size() + deletedIds.size() < pageSize && (u < users.size() || t < tombstones.size())) {
+			boolean takeUser = t >= tombstones.size() || (u < users.size()
+					&& compare(users.get(u).getLastModified(), users.get(u).getUserId(),
+							tombstones.get(t).getDeletedAt(), tombstones.get(t).getUserId()) < 0);
+			if (takeUser) {
+				UserRest user = users.get(u++);
+				changed.add(user);
+				position = new long[] { user.getLastModified(), user.getUserId() };
+			} else {
+				UserTombstone tombstone = tombstones.get(t++);
+				deletedIds.add(tombstone.getUserId());
+				position = new long[] { tombstone.getDeletedAt(), tombstone.getUserId() };
+			}
+		}
+		boolean hasMore = u < users.size() || t < tombstones.size();
+
+		/*
+		 * When all changes before until have been returned the next sync can start at until, 
+		 * so the token of an idle client stays recent.
+		 */
+		if (!hasMore && compare(until - 1, Long.MAX_VALUE, position[0], position[1]) > 0) {
+			position = new long[] { until - 1, Long.MAX_VALUE };
+		}
+
+		return new ResponseEntity<>(new UserSyncRest(changed, deletedIds, encodeToken(position, now), hasMore),
+				HttpStatus.OK);
+	}
+
+	private static int compare(long time, long id, long otherTime, long otherId) {
+		int byTime = Long.compare(time, otherTime);
+		return byTime != 0 ? byTime : Long.compare(id, otherId);
+	}
+
+	private static String encodeToken(long[] position, long issuedAt) {
+		String token = position[0] + ":" + position[1] + ":" + issuedAt;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static long[] decodeToken(String token) {
+		try {
+			String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+			return new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]) };
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.kokabmedia.app.ws.ui.model.request;
+
+/*
+ * This class will handle and model one operation of a POST /jpa/users/bulk request, a 
+ * CREATE has the names, email and password of the new user, an UPDATE the user id, the 
+ * new names and optionally the version that was read, and a DELETE only the user id.
+ * 
+ * The operations are validated by the UserBulkService class instead of with @Valid, so 
+ * an invalid operation gets its own result instead of failing the whole request.
+ */
+public class BulkUserOperationModel {
+
+	public enum Op { CREATE, UPDATE, DELETE }
+
+	private Op op;
+	
+	private Long userId;
+	
+	private String firstName;
+	
+	private String lastName;
+	
+	private String email;
+	
+	private String password;
+	
+	private Long version;
+
+	public Op getOp() {
+		return op;
+	}
+
+	public void setOp(Op op) {
+		this.op = op;
+	}
+
+	public Long getUserId() {
+		return userId;
+	}
+
+	public void setUserId(Long userId) {
+		this.userId = userId;
+	}
+
+	public String getFirstName() {
+		return firstName;
+	}
+
+	public void setFirstName(String firstName) {
+		this.firstName = firstName;
+	}
+
+	public String getLastName() {
+		return lastName;
+	}
+
+	public void setLastName(String lastName) {
+		this.lastName = lastName;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public void setEmail(String email) {
+		this.email = email;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
+	/*
+	 * The purpose of this method is to returns a textual representation 
+	 * of the object, instead of for example hash code in the logger.
+	 */
+	@Override
+	public String toString() {
+		return "BulkUserOperationModel [op=" + op + ", userId=" + userId + ", firstName=" + firstName
+				+ ", lastName=" + lastName + ", email=" + email + ", version=" + version + "]";
+	}
+
+}
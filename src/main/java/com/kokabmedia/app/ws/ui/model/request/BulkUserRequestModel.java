@@ -0,0 +1,52 @@
+package com.kokabmedia.app.ws.ui.model.request;
+
+import java.util.List;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+/*
+ * This class will handle and model the ordered list of operations of a POST 
+ * /jpa/users/bulk request.
+ * 
+ * In the ATOMIC mode (the default) either every operation is applied or none, in the 
+ * BEST_EFFORT mode every operation that can be applied is applied and the others are 
+ * reported as failed.
+ */
+public class BulkUserRequestModel {
+
+	public enum Mode { ATOMIC, BEST_EFFORT }
+
+	private Mode mode = Mode.ATOMIC;
+
+	// The most operations of one request is checked against app.users.bulk.max-operations.
+	@NotNull(message = "Operations connot be null")
+	@Size(min = 1, message = "At least one operation must be given")
+	private List<BulkUserOperationModel> operations;
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	public List<BulkUserOperationModel> getOperations() {
+		return operations;
+	}
+
+	public void setOperations(List<BulkUserOperationModel> operations) {
+		this.operations = operations;
+	}
+
+	/*
+	 * The purpose of this method is to returns a textual representation 
+	 * of the object, instead of for example hash code in the logger.
+	 */
+	@Override
+	public String toString() {
+		return "BulkUserRequestModel [mode=" + mode + ", operations=" + (operations == null ? 0 : operations.size()) + "]";
+	}
+
+}
@@ -22,6 +22,12 @@ public class UpdateUserDetailsRequestModel {
 	@NotNull(message = "Last name connot be null")
 	@Size(min = 2, message = "Last name must not be less than 2 characters")
 	private String lastName;
+	
+	/*
+	 * The version of the user that the client has read, it is optional. When it is given 
+	 * the update is rejected with 409 Conflict if the user has been changed since.
+	 */
+	private Long version;
 
 	/*
 	 * The names of the fields and getter and setter methods must match the names of the
@@ -44,13 +50,21 @@ public class UpdateUserDetailsRequestModel {
 		this.lastName = lastName;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
 	/*
 	 * The purpose of this method is to returns a textual representation 
 	 * of the object, instead of for example hash code in the logger.
 	 */
 	@Override
 	public String toString() {
-		return "UpdateUserDetailsRequestModel [firstName=" + firstName + ", lastName=" + lastName + "]";
+		return "UpdateUserDetailsRequestModel [firstName=" + firstName + ", lastName=" + lastName + ", version=" + version + "]";
 	}
 	
 	
@@ -0,0 +1,38 @@
+package com.kokabmedia.app.ws.ui.model.request;
+
+import java.util.List;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+/*
+ * This class will handle and model the list of user ids coming in from a POST HTTP 
+ * request that looks up many users at once.
+ */
+public class UserIdsRequestModel {
+
+	// The most ids that can be looked up with one request, also of GET /jpa/users?ids=.
+	public static final int MAX_IDS = 1000;
+
+	@NotNull(message = "Ids connot be null")
+	@Size(min = 1, max = MAX_IDS, message = "Between {min} and {max} ids can be looked up at once")
+	private List<@NotNull(message = "Ids connot contain null") Long> ids;
+
+	public List<Long> getIds() {
+		return ids;
+	}
+
+	public void setIds(List<Long> ids) {
+		this.ids = ids;
+	}
+
+	/*
+	 * The purpose of this method is to returns a textual representation 
+	 * of the object, instead of for example hash code in the logger.
+	 */
+	@Override
+	public String toString() {
+		return "UserIdsRequestModel [ids=" + ids + "]";
+	}
+
+}
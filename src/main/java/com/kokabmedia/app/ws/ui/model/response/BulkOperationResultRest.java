@@ -0,0 +1,83 @@
+package com.kokabmedia.app.ws.ui.model.response;
+
+/*
+ * The purpose of this class is to respond with the result of one operation of a POST 
+ * /jpa/users/bulk request, in the order of the operations of the request.
+ * 
+ * The status is the HTTP status the operation would have had as a request of its own, 
+ * 200 when it was applied, 400 when it is invalid, 404 when the user does not exist, 409 
+ * on a conflict and 424 (Failed Dependency) when it was not applied because another 
+ * operation of an ATOMIC request failed. The user is the created or updated user.
+ */
+public class BulkOperationResultRest {
+
+	private int index;
+	
+	private String op;
+	
+	private int status;
+	
+	private Long userId;
+	
+	private UserRest user;
+	
+	private String error;
+
+	public BulkOperationResultRest() {}
+
+	public BulkOperationResultRest(int index, String op, Long userId) 
+	{
+		this.index = index;
+		this.op = op;
+		this.userId = userId;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public String getOp() {
+		return op;
+	}
+
+	public void setOp(String op) {
+		this.op = op;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	public Long getUserId() {
+		return userId;
+	}
+
+	public void setUserId(Long userId) {
+		this.userId = userId;
+	}
+
+	public UserRest getUser() {
+		return user;
+	}
+
+	public void setUser(UserRest user) {
+		this.user = user;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.kokabmedia.app.ws.ui.model.response;
+
+import java.util.List;
+
+/*
+ * The purpose of this class is to respond to a POST /jpa/users/bulk request with the 
+ * result of every operation and how many of them were applied.
+ */
+public class BulkUserResultRest {
+
+	private String mode;
+	
+	private int succeeded;
+	
+	private int failed;
+	
+	private List<BulkOperationResultRest> results;
+
+	public BulkUserResultRest() {}
+
+	public BulkUserResultRest(String mode, List<BulkOperationResultRest> results) 
+	{
+		this.mode = mode;
+		this.results = results;
+		for (BulkOperationResultRest result : results) {
+			if (result.getStatus() == 200) {
+				succeeded++;
+			} else {
+				failed++;
+			}
+		}
+	}
+
+	public String getMode() {
+		return mode;
+	}
+
+	public void setMode(String mode) {
+		this.mode = mode;
+	}
+
+	public int getSucceeded() {
+		return succeeded;
+	}
+
+	public void setSucceeded(int succeeded) {
+		this.succeeded = succeeded;
+	}
+
+	public int getFailed() {
+		return failed;
+	}
+
+	public void setFailed(int failed) {
+		this.failed = failed;
+	}
+
+	public List<BulkOperationResultRest> getResults() {
+		return results;
+	}
+
+	public void setResults(List<BulkOperationResultRest> results) {
+		this.results = results;
+	}
+
+}
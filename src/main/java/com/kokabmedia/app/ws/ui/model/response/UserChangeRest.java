@@ -0,0 +1,84 @@
+package com.kokabmedia.app.ws.ui.model.response;
+
+import java.util.Date;
+
+/*
+ * The purpose of this class is to respond with one change of a user in the change feed, 
+ * the sequence number is also the id of the server-sent event so a client can resume 
+ * the feed after the last change it has seen.
+ */
+public class UserChangeRest {
+
+	private long sequence;
+	
+	private String type;
+	
+	private String source;
+	
+	private String userId;
+	
+	private UserRest user;
+	
+	private Date timeStamp;
+
+	public UserChangeRest() {}
+
+	public UserChangeRest(long sequence, String type, String source, String userId, UserRest user, Date timeStamp) 
+	{
+		this.sequence = sequence;
+		this.type = type;
+		this.source = source;
+		this.userId = userId;
+		this.user = user;
+		this.timeStamp = timeStamp;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public void setUserId(String userId) {
+		this.userId = userId;
+	}
+
+	public UserRest getUser() {
+		return user;
+	}
+
+	public void setUser(UserRest user) {
+		this.user = user;
+	}
+
+	public Date getTimeStamp() {
+		return timeStamp;
+	}
+
+	public void setTimeStamp(Date timeStamp) {
+		this.timeStamp = timeStamp;
+	}
+
+}
@@ -1,14 +1,24 @@
 package com.kokabmedia.app.ws.ui.model.response;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Version;
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.GenericGenerator;
 
+import com.kokabmedia.app.ws.shared.Utils;
+
 /*
  * This is a model class for the purpose of retrieving, creating, updating, deleting 
  * data with REST resources as well as with the database, mapping HTTP POST request 
@@ -28,6 +38,27 @@ import org.hibernate.annotations.GenericGenerator;
  * UserJPARepository class that extends JpaRepository.
  */
 @Entity
+/*
+ * The index on last_modified and user_id lets the delta sync of the UserSyncController 
+ * class read the users that changed after a sync token in order without a table scan.
+ * 
+ * The unique index on email makes sure an email address belongs to one user and lets the 
+ * UserEmailIndex class check whether an email is taken without a table scan.
+ */
+@Table(indexes = {
+		@Index(name = "idx_user_rest_last_modified", columnList = "lastModified, userId"),
+		@Index(name = "idx_user_rest_email", columnList = "email", unique = true) })
+/*
+ * The @Cacheable and @Cache annotations keep the users that are read by id in the 
+ * second-level cache of Hibernate (region com.kokabmedia.app.ws.ui.model.response.UserRest 
+ * in ehcache.xml), so findById() does not query the database when the user is cached.
+ * 
+ * The READ_WRITE concurrency strategy locks the cache entry of a user while a transaction 
+ * updates or deletes it and replaces the entry when the transaction commits, so other 
+ * requests never read a stale user from the cache.
+ */
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class UserRest {
 
 	/*
@@ -57,6 +88,20 @@ public class UserRest {
 	@NotNull(message="Password name connot be null")
 	@Size(min=8,max=16, message="Password must be equal or greater than 8 characters and less than 16 characters")
 	private String password;
+	
+	/*
+	 * The @Version annotation enables optimistic locking, Hibernate increments the version 
+	 * on every update and only updates the row when the version in the database is still 
+	 * the version that was read, so concurrent updates can not silently overwrite each other.
+	 */
+	@Version
+	private long version;
+	
+	/*
+	 * The time of the last change of the user in milliseconds since the epoch, it is 
+	 * set by onPersistOrUpdate() and is used by the delta sync.
+	 */
+	private long lastModified;
 
 	/*
 	 * JPA mandates a default no argument constructor, this constructor will be
@@ -119,6 +164,33 @@ public class UserRest {
 		this.password = password;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
+	
+	/*
+	 * The @PrePersist and @PreUpdate annotations make JPA call this method before the 
+	 * user is inserted or updated, the email is stored in its normalized form.
+	 */
+	@PrePersist
+	@PreUpdate
+	void onPersistOrUpdate() {
+		lastModified = System.currentTimeMillis();
+		email = Utils.normalizeEmail(email);
+	}
+
 	/*
 	 * The purpose of this method is to returns a textual representation of the
 	 * object, instead of for example hash code in the logger.
@@ -126,7 +198,7 @@ public class UserRest {
 	@Override
 	public String toString() {
 		return "UserRest [userId=" + userId + ", firstName=" + firstName + ", lastName=" + lastName + ", email=" + email
-				+ ", password=" + password + "]";
+				+ ", password=" + password + ", version=" + version + ", lastModified=" + lastModified + "]";
 	}
 
 	
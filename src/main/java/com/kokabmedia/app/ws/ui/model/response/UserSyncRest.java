@@ -0,0 +1,65 @@
+package com.kokabmedia.app.ws.ui.model.response;
+
+import java.util.List;
+
+/*
+ * The purpose of this class is to respond with one page of the delta sync, the users 
+ * that were created or updated and the ids of the users that were deleted since the 
+ * sync token of the request.
+ * 
+ * The next token is sent with the next sync request, when hasMore is true the next 
+ * page can be requested right away.
+ */
+public class UserSyncRest {
+
+	private List<UserRest> changed;
+	
+	private List<Long> deletedIds;
+	
+	private String nextToken;
+	
+	private boolean hasMore;
+
+	public UserSyncRest() {}
+
+	public UserSyncRest(List<UserRest> changed, List<Long> deletedIds, String nextToken, boolean hasMore) 
+	{
+		this.changed = changed;
+		this.deletedIds = deletedIds;
+		this.nextToken = nextToken;
+		this.hasMore = hasMore;
+	}
+
+	public List<UserRest> getChanged() {
+		return changed;
+	}
+
+	public void setChanged(List<UserRest> changed) {
+		this.changed = changed;
+	}
+
+	public List<Long> getDeletedIds() {
+		return deletedIds;
+	}
+
+	public void setDeletedIds(List<Long> deletedIds) {
+		this.deletedIds = deletedIds;
+	}
+
+	public String getNextToken() {
+		return nextToken;
+	}
+
+	public void setNextToken(String nextToken) {
+		this.nextToken = nextToken;
+	}
+
+	public boolean isHasMore() {
+		return hasMore;
+	}
+
+	public void setHasMore(boolean hasMore) {
+		this.hasMore = hasMore;
+	}
+
+}
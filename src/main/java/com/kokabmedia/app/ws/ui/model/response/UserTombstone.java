@@ -0,0 +1,79 @@
+package com.kokabmedia.app.ws.ui.model.response;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.springframework.data.domain.Persistable;
+
+/*
+ * This is a model class for a deleted user, when a user is deleted from the database a 
+ * tombstone with the id of the user and the time of the delete is stored, so the delta 
+ * sync of the UserSyncController class can tell clients which users they have to remove.
+ * 
+ * The @Entity annotation maps this class to the User_Tombstone table, tombstones that are 
+ * older than the retention time are removed by the UserTombstoneCleaner class.
+ * 
+ * A tombstone is only ever inserted, implementing Persistable with isNew() returning true 
+ * makes the save() method of the repository insert it without selecting it first.
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_user_tombstone_deleted_at", columnList = "deletedAt, userId"))
+public class UserTombstone implements Persistable<Long> {
+
+	// The id of the deleted user, the ids of users are never used again.
+	@Id
+	private long userId;
+	
+	// The time of the delete in milliseconds since the epoch.
+	private long deletedAt;
+
+	/*
+	 * JPA mandates a default no argument constructor, this constructor will be
+	 * used by JPA to create this specific bean.
+	 */
+	public UserTombstone() {
+	}
+
+	public UserTombstone(long userId, long deletedAt) {
+		this.userId = userId;
+		this.deletedAt = deletedAt;
+	}
+
+	public long getUserId() {
+		return userId;
+	}
+
+	public void setUserId(long userId) {
+		this.userId = userId;
+	}
+
+	public long getDeletedAt() {
+		return deletedAt;
+	}
+
+	public void setDeletedAt(long deletedAt) {
+		this.deletedAt = deletedAt;
+	}
+
+	@Override
+	public Long getId() {
+		return userId;
+	}
+
+	@Override
+	public boolean isNew() {
+		return true;
+	}
+
+	/*
+	 * The purpose of this method is to returns a textual representation of the
+	 * object, instead of for example hash code in the logger.
+	 */
+	@Override
+	public String toString() {
+		return "UserTombstone [userId=" + userId + ", deletedAt=" + deletedAt + "]";
+	}
+
+}
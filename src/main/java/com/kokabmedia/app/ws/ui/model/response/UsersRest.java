@@ -0,0 +1,40 @@
+package com.kokabmedia.app.ws.ui.model.response;
+
+import java.util.List;
+
+/*
+ * The purpose of this class is to respond with many users at once, the users are in the 
+ * order of the requested ids and the ids that do not belong to a user are listed as 
+ * missing ids.
+ */
+public class UsersRest {
+
+	private List<UserRest> users;
+	
+	private List<Long> missingIds;
+
+	public UsersRest() {}
+
+	public UsersRest(List<UserRest> users, List<Long> missingIds) 
+	{
+		this.users = users;
+		this.missingIds = missingIds;
+	}
+
+	public List<UserRest> getUsers() {
+		return users;
+	}
+
+	public void setUsers(List<UserRest> users) {
+		this.users = users;
+	}
+
+	public List<Long> getMissingIds() {
+		return missingIds;
+	}
+
+	public void setMissingIds(List<Long> missingIds) {
+		this.missingIds = missingIds;
+	}
+
+}
@@ -2,6 +2,7 @@ package com.kokabmedia.app.ws.userservice;
 
 import java.util.Map;
 
+import com.kokabmedia.app.ws.ui.model.request.UpdateUserDetailsRequestModel;
 import com.kokabmedia.app.ws.ui.model.request.UserDetailsRequestModel;
 import com.kokabmedia.app.ws.ui.model.response.UserRest;
 /*
@@ -14,6 +15,11 @@ public interface UserService {
 	
 	UserRest createUser(UserDetailsRequestModel UserDetails);
 	
+	UserRest getUser(String userId);
+	
+	UserRest updateUser(String userId, UpdateUserDetailsRequestModel updateUserDetails);
+	
+	void deleteUser(String userId);
 	
 
 }
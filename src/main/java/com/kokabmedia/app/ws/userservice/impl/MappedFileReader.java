@@ -0,0 +1,69 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * This class reads a file through a memory mapped window that moves forward through the
+ * file, a MappedByteBuffer can not map more than 2 GB at once.
+ *
+ * The records of the snapshot and the journal files are read in place from the page cache
+ * without copying them into a heap buffer first.
+ */
+final class MappedFileReader implements AutoCloseable {
+
+	private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final long size;
+	private long windowStart;
+	private ByteBuffer window;
+
+	MappedFileReader(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW_SIZE, size));
+	}
+
+	/*
+	 * Makes sure the next bytes of the file are in the window, returns false if the file
+	 * ends before.
+	 */
+	boolean ensure(int bytes) throws IOException {
+
+		if (window.remaining() >= bytes) {
+			return true;
+		}
+		long position = position();
+		if (bytes < 0 || position + bytes > size) {
+			return false;
+		}
+		windowStart = position;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Math.max(WINDOW_SIZE, bytes), size - position));
+		return true;
+	}
+
+	/*
+	 * The window, its position is the position of the reader.
+	 */
+	ByteBuffer buffer() {
+		return window;
+	}
+
+	long position() {
+		return windowStart + window.position();
+	}
+
+	long size() {
+		return size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
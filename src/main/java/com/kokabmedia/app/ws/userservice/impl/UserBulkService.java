@@ -0,0 +1,333 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.repository.UserTombstoneRepository;
+import com.kokabmedia.app.ws.shared.Utils;
+import com.kokabmedia.app.ws.ui.model.request.BulkUserOperationModel;
+import com.kokabmedia.app.ws.ui.model.request.BulkUserRequestModel;
+import com.kokabmedia.app.ws.ui.model.request.UpdateUserDetailsRequestModel;
+import com.kokabmedia.app.ws.ui.model.response.BulkOperationResultRest;
+import com.kokabmedia.app.ws.ui.model.response.BulkUserResultRest;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.kokabmedia.app.ws.ui.model.response.UserTombstone;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class applies the operations of a POST /jpa/users/bulk request.
+ *
+ * Every operation is validated before anything is written, with the constraints of the
+ * UserRest and UpdateUserDetailsRequestModel classes and the email check of the
+ * UserEmailIndex. An operation may not change a user that another operation of the same
+ * request changes, so grouping the operations by type does not change their outcome.
+ *
+ * The valid operations are applied in one transaction (ATOMIC) or in transactions of
+ * chunk-size operations (BEST_EFFORT). Within a transaction the creates are saved first,
+ * then the users of the updates and deletes are loaded with IN queries of
+ * multi-get.chunk-size ids, renamed or deleted with their tombstones, and Hibernate sends
+ * the inserts, updates and deletes at the commit as JDBC batches (hibernate.jdbc.batch_size).
+ *
+ * In the ATOMIC mode any failed operation rolls the transaction back and the other
+ * operations get the status 424. In the BEST_EFFORT mode a chunk whose commit fails (a
+ * unique email or a concurrent update) is applied again one operation per transaction, so
+ * only the operations that fail are not applied.
+ *
+ * A UserChangedEvent is published in the transaction for every applied operation, the
+ * listeners (user count, email index, change feed, audit log) get it after the commit.
+ */
+@Service
+public class UserBulkService {
+
+	private final UserJPARepository userJpaRepository;
+	private final UserTombstoneRepository userTombstoneRepository;
+	private final UserEmailIndex userEmailIndex;
+	private final ApplicationEventPublisher eventPublisher;
+	private final Validator validator;
+	private final TransactionTemplate transactionTemplate;
+	private final MeterRegistry meterRegistry;
+	private final int chunkSize;
+	private final int lookupChunkSize;
+
+	public UserBulkService(UserJPARepository userJpaRepository, UserTombstoneRepository userTombstoneRepository,
+			UserEmailIndex userEmailIndex, ApplicationEventPublisher eventPublisher, Validator validator,
+			PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+			@Value("${app.users.bulk.chunk-size}") int chunkSize,
+			@Value("${app.users.multi-get.chunk-size:500}") int lookupChunkSize) {
+
+		this.userJpaRepository = userJpaRepository;
+		this.userTombstoneRepository = userTombstoneRepository;
+		this.userEmailIndex = userEmailIndex;
+		this.eventPublisher = eventPublisher;
+		this.validator = validator;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.meterRegistry = meterRegistry;
+		this.chunkSize = Math.max(1, chunkSize);
+		this.lookupChunkSize = lookupChunkSize;
+	}
+
+	public BulkUserResultRest apply(BulkUserRequestModel request) {
+
+		BulkUserRequestModel.Mode mode = request.getMode() == null ? BulkUserRequestModel.Mode.ATOMIC
+				: request.getMode();
+		List<Operation> operations = new ArrayList<>();
+		for (BulkUserOperationModel model : request.getOperations()) {
+			operations.add(new Operation(operations.size(), model));
+		}
+
+		validate(operations);
+		List<Operation> valid = operations.stream().filter(operation -> operation.result.getStatus() == 0)
+				.collect(Collectors.toList());
+
+		if (mode == BulkUserRequestModel.Mode.ATOMIC) {
+			if (valid.size() < operations.size()) {
+				valid.forEach(operation -> operation.fail(424, "Not applied, another operation is invalid"));
+			} else {
+				execute(valid, true);
+			}
+		} else {
+			for (int from = 0; from < valid.size(); from += chunkSize) {
+				execute(valid.subList(from, Math.min(from + chunkSize, valid.size())), false);
+			}
+		}
+
+		List<BulkOperationResultRest> results = new ArrayList<>(operations.size());
+		for (Operation operation : operations) {
+			results.add(operation.result);
+			meterRegistry.counter("user.bulk.operations", "op",
+					operation.result.getOp() == null ? "UNKNOWN" : operation.result.getOp(), "status",
+					String.valueOf(operation.result.getStatus())).increment();
+		}
+		return new BulkUserResultRest(mode.name(), results);
+	}
+
+	private void validate(List<Operation> operations) {
+
+		Set<Long> changedIds = new HashSet<>();
+		Set<String> createdEmails = new HashSet<>();
+		for (Operation operation : operations) {
+			BulkUserOperationModel model = operation.model;
+			if (model == null || model.getOp() == null) {
+				operation.fail(400, "The op must be CREATE, UPDATE or DELETE");
+				continue;
+			}
+			switch (model.getOp()) {
+			case CREATE:
+				if (model.getUserId() != null) {
+					operation.fail(400, "The id of a created user is generated");
+				} else if (!violations(newUser(model), operation)) {
+					String email = Utils.normalizeEmail(model.getEmail());
+					if (!createdEmails.add(email)) {
+						operation.fail(400, "The email " + model.getEmail() + " is created twice");
+					} else if (userEmailIndex.isTaken(model.getEmail())) {
+						operation.fail(409, "The email " + model.getEmail() + " is already taken");
+					}
+				}
+				break;
+			case UPDATE:
+				if (model.getUserId() == null) {
+					operation.fail(400, "The userId of the user to update is missing");
+				} else if (!violations(updateDetails(model), operation) && !changedIds.add(model.getUserId())) {
+					operation.fail(400, "User " + model.getUserId() + " is changed by more than one operation");
+				}
+				break;
+			case DELETE:
+				if (model.getUserId() == null) {
+					operation.fail(400, "The userId of the user to delete is missing");
+				} else if (!changedIds.add(model.getUserId())) {
+					operation.fail(400, "User " + model.getUserId() + " is changed by more than one operation");
+				}
+				break;
+			}
+		}
+	}
+
+	// Fails the operation with the constraint violations of the bean, if it has any.
+	private boolean violations(Object bean, Operation operation) {
+
+		Set<ConstraintViolation<Object>> violations = validator.validate(bean);
+		if (violations.isEmpty()) {
+			return false;
+		}
+		operation.fail(400, violations.stream().map(ConstraintViolation::getMessage).sorted()
+				.collect(Collectors.joining(", ")));
+		return true;
+	}
+
+	/*
+	 * Applies the operations in one transaction, a failed commit is handled as described
+	 * in the class comment.
+	 */
+	private void execute(List<Operation> operations, boolean atomic) {
+
+		try {
+			transactionTemplate.executeWithoutResult(status -> {
+				applyGrouped(operations);
+				if (atomic && operations.stream().anyMatch(operation -> operation.result.getStatus() != 200)) {
+					status.setRollbackOnly();
+				}
+			});
+		} catch (RuntimeException e) {
+			int status = e instanceof DataIntegrityViolationException
+					|| e instanceof ObjectOptimisticLockingFailureException ? 409 : 500;
+			if (!atomic && operations.size() > 1) {
+				for (Operation operation : operations) {
+					operation.reset();
+					execute(Collections.singletonList(operation), false);
+				}
+			} else {
+				for (Operation operation : operations) {
+					operation.fail(status, "Not applied: " + NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+				}
+			}
+			return;
+		}
+		if (atomic && operations.stream().anyMatch(operation -> operation.result.getStatus() != 200)) {
+			for (Operation operation : operations) {
+				if (operation.result.getStatus() == 200) {
+					operation.fail(424, "Rolled back, another operation failed");
+				}
+			}
+		}
+	}
+
+	private void applyGrouped(List<Operation> operations) {
+
+		List<Operation> creates = new ArrayList<>();
+		List<Operation> changes = new ArrayList<>();
+		for (Operation operation : operations) {
+			operation.reset();
+			(operation.model.getOp() == BulkUserOperationModel.Op.CREATE ? creates : changes).add(operation);
+		}
+
+		if (!creates.isEmpty()) {
+			List<UserRest> saved = userJpaRepository
+					.saveAll(creates.stream().map(operation -> newUser(operation.model)).collect(Collectors.toList()));
+			for (int i = 0; i < creates.size(); i++) {
+				UserRest user = saved.get(i);
+				creates.get(i).succeed(user.getUserId(), user);
+				eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.CREATED,
+						UserChangedEvent.SOURCE_JPA, String.valueOf(user.getUserId()), user));
+			}
+		}
+		if (changes.isEmpty()) {
+			return;
+		}
+
+		Map<Long, UserRest> users = findUsers(changes.stream().map(operation -> operation.model.getUserId())
+				.collect(Collectors.toList()));
+		List<UserRest> deleted = new ArrayList<>();
+		List<UserTombstone> tombstones = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		for (Operation operation : changes) {
+			BulkUserOperationModel model = operation.model;
+			UserRest user = users.get(model.getUserId());
+			if (user == null) {
+				operation.fail(404, "No user with id " + model.getUserId());
+			} else if (model.getOp() == BulkUserOperationModel.Op.UPDATE) {
+				if (model.getVersion() != null && model.getVersion() != user.getVersion()) {
+					operation.fail(409, "User " + model.getUserId() + " has been changed since version "
+							+ model.getVersion());
+					continue;
+				}
+				user.setFirstName(model.getFirstName());
+				user.setLastName(model.getLastName());
+				operation.succeed(user.getUserId(), user);
+				eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.UPDATED,
+						UserChangedEvent.SOURCE_JPA, String.valueOf(user.getUserId()), user));
+			} else {
+				deleted.add(user);
+				tombstones.add(new UserTombstone(user.getUserId(), now));
+				operation.succeed(user.getUserId(), null);
+				eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.DELETED,
+						UserChangedEvent.SOURCE_JPA, String.valueOf(user.getUserId()), user));
+			}
+		}
+		userJpaRepository.deleteAll(deleted);
+		userTombstoneRepository.saveAll(tombstones);
+	}
+
+	// Loads the users with IN queries of lookupChunkSize ids.
+	private Map<Long, UserRest> findUsers(List<Long> ids) {
+
+		Map<Long, UserRest> users = new HashMap<>();
+		for (int from = 0; from < ids.size(); from += lookupChunkSize) {
+			for (UserRest user : userJpaRepository.findAllById(ids.subList(from, Math.min(from + lookupChunkSize, ids.size())))) {
+				users.put(user.getUserId(), user);
+			}
+		}
+		return users;
+	}
+
+	private static UserRest newUser(BulkUserOperationModel model) {
+		return new UserRest(0, model.getFirstName(), model.getLastName(), model.getEmail(), model.getPassword());
+	}
+
+	private static UpdateUserDetailsRequestModel updateDetails(BulkUserOperationModel model) {
+
+		UpdateUserDetailsRequestModel details = new UpdateUserDetailsRequestModel();
+		details.setFirstName(model.getFirstName());
+		details.setLastName(model.getLastName());
+		details.setVersion(model.getVersion());
+		return details;
+	}
+
+	private static final class Operation {
+
+		private final BulkUserOperationModel model;
+
+		private final BulkOperationResultRest result;
+
+		private Operation(int index, BulkUserOperationModel model) {
+			this.model = model;
+			this.result = new BulkOperationResultRest(index,
+					model == null || model.getOp() == null ? null : model.getOp().name(),
+					model == null ? null : model.getUserId());
+		}
+
+		private void succeed(long userId, UserRest user) {
+			result.setStatus(200);
+			result.setUserId(userId);
+			result.setUser(user);
+			result.setError(null);
+		}
+
+		private void fail(int status, String error) {
+			result.setStatus(status);
+			result.setUser(null);
+			result.setError(error);
+			if (model != null && model.getOp() == BulkUserOperationModel.Op.CREATE) {
+				result.setUserId(null);
+			}
+		}
+
+		private void reset() {
+			result.setStatus(0);
+			result.setUser(null);
+			result.setError(null);
+		}
+
+	}
+
+}
@@ -0,0 +1,140 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class keeps the total number of users in the database for the X-Total-Count header
+ * of GET /jpa/users, so a page request does not run SELECT COUNT(*) over the whole table.
+ *
+ * The count is read with COUNT(*) when the application starts and every
+ * reconcile-interval-ms (reconcile), in between it is incremented and decremented by the
+ * UserChangedEvent of created and deleted users. A count is exact when it was read by a
+ * reconcile during which no user was created or deleted and no user has been created or
+ * deleted since, otherwise it is approximate, writes that do not publish an event (other
+ * instances, SQL scripts) are only seen by the next reconcile.
+ *
+ * The @Service annotation lets the Spring framework create this bean and run it as an
+ * ApplicationRunner after the application context has started.
+ */
+@Service
+public class UserCountService implements ApplicationRunner {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UserCountService.class);
+
+	private final UserJPARepository userJpaRepository;
+
+	private final AtomicReference<Count> count = new AtomicReference<>(new Count(0, false));
+
+	// Incremented by every create and delete, a reconcile is exact if it did not change.
+	private final AtomicLong changes = new AtomicLong();
+
+	// The maintained count minus the count read by the last reconcile.
+	private volatile long lastDrift;
+
+	public UserCountService(UserJPARepository userJpaRepository, MeterRegistry meterRegistry) {
+
+		this.userJpaRepository = userJpaRepository;
+		Gauge.builder("user.count", count, c -> c.get().getValue()).register(meterRegistry);
+		Gauge.builder("user.count.drift", this, service -> service.lastDrift)
+				.description("Difference between the maintained and the counted number of users at the last reconcile")
+				.register(meterRegistry);
+	}
+
+	public Count getCount() {
+		return count.get();
+	}
+
+	/*
+	 * Counts the users when the application starts, when the database (or the replica of 
+	 * a read/write routing) can not be queried yet the application still starts and the 
+	 * count is approximate until the next reconcile.
+	 */
+	@Override
+	public void run(ApplicationArguments args) {
+		
+		try {
+			reconcile();
+		} catch (DataAccessException e) {
+			LOG.warn("Could not count the users, the count is approximate until the next reconcile: {}", e.getMessage());
+		}
+	}
+
+	/*
+	 * Replaces the maintained count with the count of the USER_REST table.
+	 */
+	@Scheduled(initialDelayString = "${app.users.count.reconcile-interval-ms}",
+			fixedDelayString = "${app.users.count.reconcile-interval-ms}")
+	public void reconcile() {
+
+		long changesBefore = changes.get();
+		long counted = userJpaRepository.count();
+
+		/*
+		 * The check and the set are not interleaved with an adjust, a user that is created 
+		 * or deleted after the check is added to the counted users instead of overwritten.
+		 */
+		synchronized (this) {
+			boolean exact = changes.get() == changesBefore;
+			Count previous = count.getAndSet(new Count(counted, exact));
+			lastDrift = previous.getValue() - counted;
+		}
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onUserChanged(UserChangedEvent event) {
+
+		if (!UserChangedEvent.SOURCE_JPA.equals(event.getSource())) {
+			return;
+		}
+		if (event.getType() == UserChangedEvent.Type.CREATED) {
+			adjust(1);
+		} else if (event.getType() == UserChangedEvent.Type.DELETED) {
+			adjust(-1);
+		}
+	}
+
+	private synchronized void adjust(long delta) {
+
+		changes.incrementAndGet();
+		count.updateAndGet(current -> new Count(Math.max(0, current.getValue() + delta), false));
+	}
+
+	/*
+	 * A number of users and whether it is exact.
+	 */
+	public static final class Count {
+
+		private final long value;
+		private final boolean exact;
+
+		private Count(long value, boolean exact) {
+			this.value = value;
+			this.exact = exact;
+		}
+
+		public long getValue() {
+			return value;
+		}
+
+		public boolean isExact() {
+			return exact;
+		}
+	}
+
+}
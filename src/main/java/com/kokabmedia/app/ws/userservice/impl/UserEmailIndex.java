@@ -0,0 +1,135 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.util.stream.LongStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.shared.CountingBloomFilter;
+import com.kokabmedia.app.ws.shared.Utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class answers whether an email address is already taken by a user in the database
+ * before a new user is created, most signups use a new email so the answer is usually no.
+ *
+ * The normalized emails of all users are kept in a CountingBloomFilter, when the filter
+ * does not contain an email it is certainly free and the database is not queried, only
+ * possible duplicates are checked with a query on the unique email index.
+ *
+ * The filter is built when the application starts by reading the emails of id ranges in
+ * parallel and is kept up to date with the UserChangedEvent of created and deleted users
+ * (an update can not change the email). Until the filter is built every check queries
+ * the database.
+ *
+ * The @Component annotation lets the Spring framework create this bean and run it as an
+ * ApplicationRunner after the application context has started.
+ */
+@Component
+public class UserEmailIndex implements ApplicationRunner {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UserEmailIndex.class);
+
+	// free: answered by the filter, possible_duplicate: queried the database, taken: found a user.
+	private static final String CHECKS_DESCRIPTION = "Email checks of new users by result";
+
+	private final UserJPARepository userJpaRepository;
+	private final CountingBloomFilter filter;
+	private final int buildRangeSize;
+	private final Counter negativeChecks;
+	private final Counter possibleDuplicateChecks;
+	private final Counter duplicates;
+
+	// Deletes are only applied after the build, see onUserChanged().
+	private volatile boolean ready;
+
+	public UserEmailIndex(UserJPARepository userJpaRepository, MeterRegistry meterRegistry,
+			@Value("${app.users.email-filter.expected-insertions}") long expectedInsertions,
+			@Value("${app.users.email-filter.false-positive-rate}") double falsePositiveRate,
+			@Value("${app.users.email-filter.build-range-size}") int buildRangeSize) {
+
+		this.userJpaRepository = userJpaRepository;
+		this.filter = new CountingBloomFilter(expectedInsertions, falsePositiveRate);
+		this.buildRangeSize = buildRangeSize;
+		this.negativeChecks = Counter.builder("user.email.checks").tag("result", "free")
+				.description(CHECKS_DESCRIPTION).register(meterRegistry);
+		this.possibleDuplicateChecks = Counter.builder("user.email.checks").tag("result", "possible_duplicate")
+				.description(CHECKS_DESCRIPTION).register(meterRegistry);
+		this.duplicates = Counter.builder("user.email.checks").tag("result", "taken")
+				.description(CHECKS_DESCRIPTION).register(meterRegistry);
+	}
+
+	/*
+	 * Returns true when a user in the database has the email, the email does not need to
+	 * be normalized.
+	 */
+	public boolean isTaken(String email) {
+
+		String normalized = Utils.normalizeEmail(email);
+		if (ready && !filter.mightContain(normalized)) {
+			negativeChecks.increment();
+			return false;
+		}
+		possibleDuplicateChecks.increment();
+		boolean taken = userJpaRepository.existsByEmail(normalized);
+		if (taken) {
+			duplicates.increment();
+		}
+		return taken;
+	}
+
+	/*
+	 * Builds the filter from the emails in the database, the id range of the users is split
+	 * into ranges of buildRangeSize ids that are read in parallel by the common fork-join pool.
+	 */
+	@Override
+	public void run(ApplicationArguments args) {
+
+		long start = System.nanoTime();
+		Long minId = userJpaRepository.findMinUserId();
+		Long maxId = userJpaRepository.findMaxUserId();
+		if (minId != null) {
+			long ranges = (maxId - minId) / buildRangeSize + 1;
+			LongStream.range(0, ranges).parallel().forEach(range -> {
+				long fromId = minId + range * buildRangeSize;
+				for (String email : userJpaRepository.findEmailsByUserIdBetween(fromId, fromId + buildRangeSize - 1)) {
+					filter.add(Utils.normalizeEmail(email));
+				}
+			});
+		}
+		ready = true;
+		LOG.info("Email filter built in {} ms ({} counters, {} hashes)", (System.nanoTime() - start) / 1_000_000,
+				filter.getCounterCount(), filter.getHashCount());
+	}
+
+	/*
+	 * Adds the email of every created user and removes the email of every deleted user once
+	 * the change is committed.
+	 *
+	 * Before the filter is built a delete is ignored, the build may not have added the email
+	 * yet and removing it could hide the email of another user, an ignored delete only
+	 * leaves a false positive that is answered by the database.
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onUserChanged(UserChangedEvent event) {
+
+		if (!UserChangedEvent.SOURCE_JPA.equals(event.getSource()) || event.getUser() == null) {
+			return;
+		}
+		if (event.getType() == UserChangedEvent.Type.CREATED) {
+			filter.add(Utils.normalizeEmail(event.getUser().getEmail()));
+		} else if (event.getType() == UserChangedEvent.Type.DELETED && ready) {
+			filter.remove(Utils.normalizeEmail(event.getUser().getEmail()));
+		}
+	}
+
+}
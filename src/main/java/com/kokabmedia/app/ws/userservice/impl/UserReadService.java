@@ -0,0 +1,213 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.routing.ReadYourWrites;
+import com.kokabmedia.app.ws.shared.CircuitBreaker;
+import com.kokabmedia.app.ws.tracing.Tracer;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class reads the users of GET /jpa/users/{userId} through a circuit breaker, so a
+ * database that stalls does not hold the request threads.
+ *
+ * Every read runs on one of the user-read threads and fails after timeout-ms, see the
+ * CircuitBreaker class. When a read fails, or the breaker is open because too many reads
+ * failed, the user is answered from the last known good copy with its age. The copies are
+ * kept in the bounded users-last-known-good region of ehcache.xml, every user that is read
+ * or changed replaces its copy and a deleted user is removed. A user without a copy is
+ * unavailable until the breaker closes.
+ *
+ * While the breaker is open a background probe checks the database every
+ * probe-interval-ms, the requests do not wait for it. The @Lazy(false) annotation
+ * schedules the probe also with lazy initialization.
+ */
+@Service
+@Lazy(false)
+public class UserReadService {
+
+	// The name prefix of the threads that read the users.
+	public static final String THREAD_NAME_PREFIX = "user-read-";
+
+	public static final String LAST_KNOWN_GOOD_CACHE = "users-last-known-good";
+
+	private final UserJPARepository userJpaRepository;
+	private final Cache<Object, Object> lastKnownGood;
+	private final ThreadPoolExecutor executor;
+	private final CircuitBreaker circuitBreaker;
+	private final Counter staleReads;
+	private final Counter unavailableReads;
+
+	public UserReadService(UserJPARepository userJpaRepository, CacheManager userCacheManager,
+			MeterRegistry meterRegistry, ObjectProvider<Tracer> tracerProvider,
+			@Value("${app.users.read.circuit-breaker.timeout-ms}") long timeoutMillis,
+			@Value("${app.users.read.circuit-breaker.threads}") int threads,
+			@Value("${app.users.read.circuit-breaker.queue-capacity}") int queueCapacity,
+			@Value("${app.users.read.circuit-breaker.window-size}") int windowSize,
+			@Value("${app.users.read.circuit-breaker.minimum-calls}") int minimumCalls,
+			@Value("${app.users.read.circuit-breaker.failure-rate-threshold}") int failureRateThreshold,
+			@Value("${app.users.read.circuit-breaker.open-ms}") long openMillis) {
+
+		this.userJpaRepository = userJpaRepository;
+		this.lastKnownGood = userCacheManager.getCache(LAST_KNOWN_GOOD_CACHE);
+		Tracer tracer = tracerProvider.getIfAvailable();
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+					Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}) {
+
+			// Continues the trace of the request on the user-read thread.
+			@Override
+			public void execute(Runnable task) {
+				super.execute(tracer != null ? tracer.decorate(task) : task);
+			}
+		};
+		this.circuitBreaker = new CircuitBreaker("user.read", executor, timeoutMillis, windowSize, minimumCalls,
+				failureRateThreshold, openMillis, meterRegistry);
+		this.staleReads = Counter.builder("user.read.fallback").tag("result", "stale").register(meterRegistry);
+		this.unavailableReads = Counter.builder("user.read.fallback").tag("result", "unavailable")
+				.register(meterRegistry);
+	}
+
+	/*
+	 * Reads the user from the database, or else its last known good copy. The read uses
+	 * the primary database when the request must read its own writes.
+	 *
+	 * A caller in a transaction (the warm-up) already holds a connection and may read its
+	 * own uncommitted users, it reads on its own thread without the breaker and its users
+	 * are not remembered.
+	 */
+	public UserRead read(long userId) {
+
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			return new UserRead(userJpaRepository.findById(userId), -1, false);
+		}
+		Optional<UserRest> user;
+		try {
+			user = circuitBreaker.execute(ReadYourWrites.propagate(() -> userJpaRepository.findById(userId)));
+		} catch (RuntimeException e) {
+			LastKnownUser known = (LastKnownUser) lastKnownGood.get(userId);
+			if (known == null) {
+				unavailableReads.increment();
+				return new UserRead(Optional.empty(), -1, true);
+			}
+			staleReads.increment();
+			return new UserRead(Optional.of(known.user), System.currentTimeMillis() - known.readAt, false);
+		}
+		user.ifPresent(this::remember);
+		return new UserRead(user, -1, false);
+	}
+
+	@Scheduled(initialDelayString = "${app.users.read.circuit-breaker.probe-interval-ms}",
+			fixedDelayString = "${app.users.read.circuit-breaker.probe-interval-ms}")
+	public void probe() {
+		circuitBreaker.probe(() -> userJpaRepository.existsById(0L));
+	}
+
+	/*
+	 * Keeps the copies of the users that /jpa/users changes up to date once the change is
+	 * committed.
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onUserChanged(UserChangedEvent event) {
+
+		if (!UserChangedEvent.SOURCE_JPA.equals(event.getSource())) {
+			return;
+		}
+		if (event.getType() == UserChangedEvent.Type.DELETED) {
+			lastKnownGood.remove(Long.valueOf(event.getUserId()));
+		} else if (event.getUser() != null) {
+			remember(event.getUser());
+		}
+	}
+
+	// A copy, the entity of a request may still be changed after it is read.
+	private void remember(UserRest user) {
+
+		UserRest copy = new UserRest(user.getUserId(), user.getFirstName(), user.getLastName(), user.getEmail(),
+				user.getPassword());
+		copy.setVersion(user.getVersion());
+		copy.setLastModified(user.getLastModified());
+		lastKnownGood.put(user.getUserId(), new LastKnownUser(copy, System.currentTimeMillis()));
+	}
+
+	public CircuitBreaker.State getState() {
+		return circuitBreaker.getState();
+	}
+
+	@PreDestroy
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	/*
+	 * The result of a read, a stale user has the milliseconds since it was read from the
+	 * database, an unavailable user could neither be read nor be found in the copies.
+	 */
+	public static class UserRead {
+
+		private final Optional<UserRest> user;
+		private final long ageMillis;
+		private final boolean unavailable;
+
+		UserRead(Optional<UserRest> user, long ageMillis, boolean unavailable) {
+			this.user = user;
+			this.ageMillis = ageMillis;
+			this.unavailable = unavailable;
+		}
+
+		public Optional<UserRest> getUser() {
+			return user;
+		}
+
+		public boolean isStale() {
+			return ageMillis >= 0;
+		}
+
+		public long getAgeMillis() {
+			return ageMillis;
+		}
+
+		public boolean isUnavailable() {
+			return unavailable;
+		}
+
+	}
+
+	private static class LastKnownUser {
+
+		private final UserRest user;
+		private final long readAt;
+
+		LastKnownUser(UserRest user, long readAt) {
+			this.user = user;
+			this.readAt = readAt;
+		}
+
+	}
+
+}
@@ -0,0 +1,125 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * This class encodes the users of the in-memory store for the snapshot and the journal
+ * files of the UserStorePersistence.
+ *
+ * A record is an operation byte and the user id, a PUT record continues with the version,
+ * the last modified time and the first name, last name, email and password as UTF-8 bytes
+ * with an int length (-1 for null). Records are decoded straight from the memory mapped
+ * files, so only the strings of a user are copied.
+ */
+final class UserRecords {
+
+	static final byte PUT = 1;
+	static final byte REMOVE = 2;
+
+	private UserRecords() {
+	}
+
+	/*
+	 * Encodes records into a reusable buffer, one Encoder per writing thread.
+	 */
+	static final class Encoder {
+
+		private final Buffer buffer = new Buffer();
+		private final DataOutputStream out = new DataOutputStream(buffer);
+
+		Encoder put(UserRest user) throws IOException {
+			buffer.reset();
+			out.writeByte(PUT);
+			out.writeLong(user.getUserId());
+			out.writeLong(user.getVersion());
+			out.writeLong(user.getLastModified());
+			writeString(user.getFirstName());
+			writeString(user.getLastName());
+			writeString(user.getEmail());
+			writeString(user.getPassword());
+			return this;
+		}
+
+		Encoder remove(long userId) throws IOException {
+			buffer.reset();
+			out.writeByte(REMOVE);
+			out.writeLong(userId);
+			return this;
+		}
+
+		byte[] bytes() {
+			return buffer.array();
+		}
+
+		int length() {
+			return buffer.size();
+		}
+
+		private void writeString(String value) throws IOException {
+			if (value == null) {
+				out.writeInt(-1);
+			} else {
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+
+	}
+
+	static byte operation(ByteBuffer record) {
+		return record.get(record.position());
+	}
+
+	static long removedUserId(ByteBuffer record) {
+		return record.getLong(record.position() + 1);
+	}
+
+	/*
+	 * Decodes the PUT record at the position of the buffer and moves the position past it.
+	 */
+	static UserRest decodePut(ByteBuffer record) {
+
+		record.get();
+		UserRest user = new UserRest();
+		user.setUserId(record.getLong());
+		user.setVersion(record.getLong());
+		user.setLastModified(record.getLong());
+		user.setFirstName(readString(record));
+		user.setLastName(readString(record));
+		user.setEmail(readString(record));
+		user.setPassword(readString(record));
+		return user;
+	}
+
+	private static String readString(ByteBuffer record) {
+
+		int length = record.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		record.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// A ByteArrayOutputStream that hands out its array instead of a copy.
+	private static final class Buffer extends ByteArrayOutputStream {
+
+		Buffer() {
+			super(256);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+
+	}
+
+}
@@ -3,15 +3,24 @@ package com.kokabmedia.app.ws.userservice.impl;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import javax.validation.Valid;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+import com.kokabmedia.app.ws.exeption.UserConflictException;
+import com.kokabmedia.app.ws.exeption.UserServiceException;
 import com.kokabmedia.app.ws.shared.Utils;
+import com.kokabmedia.app.ws.ui.model.request.UpdateUserDetailsRequestModel;
 import com.kokabmedia.app.ws.ui.model.request.UserDetailsRequestModel;
 import com.kokabmedia.app.ws.ui.model.response.UserRest;
 import com.kokabmedia.app.ws.userservice.UserService;
@@ -42,16 +51,40 @@ import com.kokabmedia.app.ws.userservice.UserService;
  * 
  * The @Service annotation is a specialisation of @Component annotation for more specific 
  * use cases.  
+ * 
+ * The @Lazy(false) annotation creates the bean when the application starts also with lazy 
+ * initialization (the prod profile), so the users are restored before the first request 
+ * when the UserStorePersistence is enabled.
  */
 @Service
+@Lazy(false)
 public class UserServiceImpl implements UserService {
 
-	public Map<String, UserRest> usersMap;
+	/*
+	 * Map for temporary storage, the ConcurrentHashMap lets concurrent requests read and 
+	 * change different users without locking the whole map.
+	 */
+	public Map<String, UserRest> usersMap = new ConcurrentHashMap<>();
 	
 	Utils utils;
 	
+	// Publishes a UserChangedEvent for every created, updated and deleted user.
+	ApplicationEventPublisher eventPublisher;
+	
+	// Snapshots and journals the map when app.users.memory.persistence.enabled is true, or null.
+	UserStorePersistence persistence;
+	
 	public UserServiceImpl(){}
 	
+	/*
+	 * A user service with a map of its own that publishes no events and is not persisted, 
+	 * the UserWarmUpRunner warms up the in-memory users with one so its synthetic users 
+	 * are never journaled.
+	 */
+	public UserServiceImpl(Utils utils) {
+		this.utils = utils;
+	}
+	
 	/*
 	 * This is an example of constructor based dependency injection.
 	 *  
@@ -64,11 +97,18 @@ public class UserServiceImpl implements UserService {
 	 * when it is automatically initialised, we do not need to initialise a new
 	 * UserServiceImp object with a Utils class (bean) as a argument in the 
 	 * constructor.
+	 * 
+	 * The users of the last run are restored into the map here, before any request can 
+	 * change it.
 	 */
 	@Autowired 
-	 UserServiceImpl(Utils utils)
+	 UserServiceImpl(Utils utils, ApplicationEventPublisher eventPublisher,
+			 ObjectProvider<UserStorePersistence> persistence)
 	{
 		this.utils = utils;
+		this.eventPublisher = eventPublisher;
+		this.persistence = persistence.getIfAvailable();
+		if (this.persistence != null) this.persistence.attach(usersMap);
 	}
 	
 	/*
@@ -85,9 +125,97 @@ public class UserServiceImpl implements UserService {
 		long userId = utils.generateUserId(); //Generated user id
 		returnValue.setUserId(userId);
 		
-		if(usersMap == null) usersMap = new HashMap<>();
+		mutate(() -> usersMap.compute(String.valueOf(userId), (key, previous) -> journalPut(returnValue)));
+		publish(UserChangedEvent.Type.CREATED, String.valueOf(userId), returnValue);
 		
 		return returnValue;
 	}
+	
+	/*
+	 * Method that returns the user with the user id or null if there is no such user.
+	 */
+	@Override
+	public UserRest getUser(String userId) {
+		return usersMap.get(userId);
+	}
+	
+	/*
+	 * Method that updates the first and last name of a user.
+	 * 
+	 * The stored UserRest object is never changed, a copy with the new names and the next 
+	 * version replaces it inside computeIfPresent, which is atomic for the key, so two 
+	 * concurrent updates can not overwrite each other and readers never see a half updated 
+	 * user. When the client sends the version it has read and the user has been changed 
+	 * since, the update is rejected with the current user.
+	 */
+	@Override
+	public UserRest updateUser(String userId, UpdateUserDetailsRequestModel updateUserDetails) {
+		
+		UserRest[] conflict = new UserRest[1];
+		
+		UserRest updated = mutate(() -> usersMap.computeIfPresent(userId, (key, current) -> {
+			
+			Long expectedVersion = updateUserDetails.getVersion();
+			if (expectedVersion != null && expectedVersion != current.getVersion()) {
+				conflict[0] = current;
+				return current;
+			}
+			
+			UserRest copy = new UserRest(current.getUserId(), updateUserDetails.getFirstName(),
+					updateUserDetails.getLastName(), current.getEmail(), current.getPassword());
+			copy.setVersion(current.getVersion() + 1);
+			return journalPut(copy);
+		}));
+		
+		if (updated == null) throw new UserServiceException("No user with id " + userId);
+		
+		if (conflict[0] != null) throw new UserConflictException("User " + userId + " has been changed", conflict[0]);
+		
+		publish(UserChangedEvent.Type.UPDATED, userId, updated);
+		
+		return updated;
+	}
+	
+	/*
+	 * Method that removes a user from the temporary storage.
+	 */
+	@Override
+	public void deleteUser(String userId) {
+		
+		UserRest[] removed = new UserRest[1];
+		
+		mutate(() -> usersMap.computeIfPresent(userId, (key, current) -> {
+			if (persistence != null) persistence.journalRemove(current.getUserId());
+			removed[0] = current;
+			return null;
+		}));
+		
+		if (removed[0] != null) {
+			publish(UserChangedEvent.Type.DELETED, userId, null);
+		}
+	}
+	
+	/*
+	 * Runs a change of the map, with persistence a snapshot can not start a new journal 
+	 * in the middle of it.
+	 */
+	private <T> T mutate(Supplier<T> change) {
+		return persistence != null ? persistence.mutate(change) : change.get();
+	}
+	
+	/*
+	 * Appends the new state of a user to the journal inside the compute() of its key, so 
+	 * the journal has the changes of the user in the same order as the map.
+	 */
+	private UserRest journalPut(UserRest user) {
+		if (persistence != null) persistence.journalPut(user);
+		return user;
+	}
+	
+	private void publish(UserChangedEvent.Type type, String userId, UserRest user) {
+		if (eventPublisher != null) {
+			eventPublisher.publishEvent(new UserChangedEvent(type, UserChangedEvent.SOURCE_MEMORY, userId, user));
+		}
+	}
 
 }
@@ -0,0 +1,410 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * This class keeps the in-memory users of the UserServiceImpl across restarts with
+ * snapshots and an append-only journal in the persistence directory.
+ *
+ * Every change of the map is appended to the journal of the current epoch inside the
+ * compute() of the changed key, so the journal has the changes of a user in the order of
+ * the map. A snapshot starts a new epoch: the changes wait on a write lock only while the
+ * journal of the next epoch replaces the current one, then the snapshot is written from
+ * the live ConcurrentHashMap while the changes go on. A snapshot can contain some changes
+ * that are also in the journal of its epoch, replaying them is harmless because a PUT
+ * record holds the whole user and a REMOVE record only removes.
+ *
+ * On start up the newest snapshot is loaded through a memory mapped file and the journals
+ * of its epoch and later are replayed. A journal record has a length and a CRC32, replay
+ * stops at the first torn record at the end of a journal that was being written when the
+ * process died. Journals are flushed every flush-interval-ms, that is the most that is
+ * lost when the machine fails, a normal shutdown writes a last snapshot.
+ *
+ * The @ConditionalOnProperty annotation makes the persistence opt-in with the
+ * app.users.memory.persistence.enabled property.
+ */
+@Component
+@ConditionalOnProperty(name = "app.users.memory.persistence.enabled", havingValue = "true")
+public class UserStorePersistence {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UserStorePersistence.class);
+
+	// "USNP" and the version of the snapshot format.
+	private static final int SNAPSHOT_MAGIC = 0x55534E50;
+	private static final int SNAPSHOT_VERSION = 1;
+	// The length of the last record of a snapshot, followed by the number of users.
+	private static final int SNAPSHOT_END = -1;
+
+	private static final Pattern FILE_NAME = Pattern.compile("(snapshot|journal)-(\\d{16})\\.(bin|log)");
+
+	private final Path directory;
+	private final boolean fsync;
+
+	// Read lock for a change of the map, write lock to switch to the journal of the next epoch.
+	private final ReentrantReadWriteLock epochLock = new ReentrantReadWriteLock();
+	// One snapshot at a time, the scheduled one or the one at shutdown.
+	private final Object snapshotLock = new Object();
+
+	private Map<String, UserRest> users;
+	private long epoch;
+	private Journal journal;
+	// Journal records were replayed on start up, the next snapshot replaces their journals.
+	private boolean replayed;
+
+	public UserStorePersistence(@Value("${app.users.memory.persistence.directory}") String directory,
+			@Value("${app.users.memory.persistence.journal.fsync}") boolean fsync) {
+
+		this.directory = Paths.get(directory);
+		this.fsync = fsync;
+	}
+
+	/*
+	 * Restores the users of the last run into the map and journals the changes from now on.
+	 */
+	public void attach(Map<String, UserRest> users) {
+
+		synchronized (snapshotLock) {
+			try {
+				restore(users);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not restore the users from " + directory, e);
+			}
+			this.users = users;
+		}
+	}
+
+	private void restore(Map<String, UserRest> users) throws IOException {
+
+		long start = System.nanoTime();
+		Files.createDirectories(directory);
+		TreeMap<Long, Path> snapshots = new TreeMap<>();
+		TreeMap<Long, Path> journals = new TreeMap<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			files.forEach(file -> {
+				Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+				if (matcher.matches()) {
+					(matcher.group(1).equals("snapshot") ? snapshots : journals).put(Long.parseLong(matcher.group(2)), file);
+				}
+			});
+		}
+
+		long snapshotEpoch = 0;
+		long snapshotUsers = 0;
+		for (Map.Entry<Long, Path> snapshot : snapshots.descendingMap().entrySet()) {
+			try {
+				snapshotUsers = readSnapshot(snapshot.getValue(), users);
+				snapshotEpoch = snapshot.getKey();
+				break;
+			} catch (IOException e) {
+				LOG.warn("Could not read the snapshot {}: {}", snapshot.getValue(), e.getMessage());
+				users.clear();
+			}
+		}
+		if (!snapshots.isEmpty() && snapshotEpoch == 0) {
+			throw new IOException("None of the snapshots can be read");
+		}
+
+		long journalRecords = 0;
+		for (Path file : journals.tailMap(snapshotEpoch, true).values()) {
+			journalRecords += replayJournal(file, users);
+		}
+
+		replayed = journalRecords > 0;
+		long lastEpoch = Math.max(snapshots.isEmpty() ? 0 : snapshots.lastKey(), journals.isEmpty() ? 0 : journals.lastKey());
+		epoch = lastEpoch + 1;
+		journal = new Journal(file("journal", epoch));
+		LOG.info("Restored {} users from {} ({} from the snapshot, {} journal records) in {} ms", users.size(),
+				directory, snapshotUsers, journalRecords, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	/*
+	 * Runs a change of the map, the journal records of the change belong to one epoch.
+	 */
+	public <T> T mutate(Supplier<T> change) {
+
+		epochLock.readLock().lock();
+		try {
+			return change.get();
+		} finally {
+			epochLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Appends a created or updated user, called inside mutate() and the compute() of the key.
+	 */
+	public void journalPut(UserRest user) {
+		try {
+			journal.put(user);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write the journal of the users", e);
+		}
+	}
+
+	/*
+	 * Appends a deleted user, called inside mutate() and the compute() of the key.
+	 */
+	public void journalRemove(long userId) {
+		try {
+			journal.remove(userId);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write the journal of the users", e);
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${app.users.memory.persistence.journal.flush-interval-ms}")
+	public void flushJournal() throws IOException {
+
+		epochLock.readLock().lock();
+		try {
+			if (journal != null) {
+				journal.flush(fsync);
+			}
+		} finally {
+			epochLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Writes a snapshot if the users have changed since the last one and removes the files
+	 * of the older epochs.
+	 */
+	@Scheduled(initialDelayString = "${app.users.memory.persistence.snapshot-interval-ms}",
+			fixedDelayString = "${app.users.memory.persistence.snapshot-interval-ms}")
+	public void snapshot() throws IOException {
+
+		synchronized (snapshotLock) {
+			if (users == null || (journal.isEmpty() && !replayed)) {
+				return;
+			}
+			long start = System.nanoTime();
+			long snapshotEpoch = epoch + 1;
+			Journal next = new Journal(file("journal", snapshotEpoch));
+			Journal previous;
+			epochLock.writeLock().lock();
+			try {
+				previous = journal;
+				journal = next;
+				epoch = snapshotEpoch;
+			} finally {
+				epochLock.writeLock().unlock();
+			}
+			previous.close();
+
+			long count = writeSnapshot(snapshotEpoch, users);
+			replayed = false;
+			deleteOlderThan(snapshotEpoch);
+			LOG.info("Wrote a snapshot of {} users in {} ms", count,
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+
+		synchronized (snapshotLock) {
+			if (users == null) {
+				return;
+			}
+			snapshot();
+			journal.close();
+			users = null;
+		}
+	}
+
+	private long writeSnapshot(long snapshotEpoch, Map<String, UserRest> users) throws IOException {
+
+		Path target = file("snapshot", snapshotEpoch);
+		Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+		long count = 0;
+		try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 20))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeLong(snapshotEpoch);
+			UserRecords.Encoder encoder = new UserRecords.Encoder();
+			for (UserRest user : users.values()) {
+				encoder.put(user);
+				out.writeInt(encoder.length());
+				out.write(encoder.bytes(), 0, encoder.length());
+				count++;
+			}
+			out.writeInt(SNAPSHOT_END);
+			out.writeLong(count);
+			out.flush();
+			file.getChannel().force(true);
+		}
+		Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+		return count;
+	}
+
+	static long readSnapshot(Path file, Map<String, UserRest> users) throws IOException {
+
+		try (MappedFileReader reader = new MappedFileReader(file)) {
+			if (!reader.ensure(16) || reader.buffer().getInt() != SNAPSHOT_MAGIC
+					|| reader.buffer().getInt() != SNAPSHOT_VERSION) {
+				throw new IOException("Not a snapshot of the users");
+			}
+			reader.buffer().getLong();
+
+			long count = 0;
+			while (reader.ensure(4)) {
+				int length = reader.buffer().getInt();
+				if (length == SNAPSHOT_END) {
+					if (!reader.ensure(8) || reader.buffer().getLong() != count) {
+						throw new IOException("The number of users does not match");
+					}
+					return count;
+				}
+				if (length <= 0 || !reader.ensure(length)) {
+					throw new IOException("Truncated at " + reader.position());
+				}
+				ByteBuffer buffer = reader.buffer();
+				int end = buffer.position() + length;
+				UserRest user = UserRecords.decodePut(buffer);
+				buffer.position(end);
+				users.put(String.valueOf(user.getUserId()), user);
+				count++;
+			}
+			throw new IOException("Truncated at " + reader.position());
+		}
+	}
+
+	static long replayJournal(Path file, Map<String, UserRest> users) throws IOException {
+
+		CRC32 crc = new CRC32();
+		long records = 0;
+		try (MappedFileReader reader = new MappedFileReader(file)) {
+			while (reader.ensure(8)) {
+				long recordStart = reader.position();
+				int length = reader.buffer().getInt();
+				int checksum = reader.buffer().getInt();
+				if (length <= 0 || !reader.ensure(length)) {
+					LOG.warn("Ignoring the torn end of {} at {}", file, recordStart);
+					break;
+				}
+				ByteBuffer record = reader.buffer().slice();
+				record.limit(length);
+				crc.reset();
+				crc.update(record.duplicate());
+				if ((int) crc.getValue() != checksum) {
+					LOG.warn("Ignoring the torn end of {} at {}", file, recordStart);
+					break;
+				}
+				if (UserRecords.operation(record) == UserRecords.PUT) {
+					UserRest user = UserRecords.decodePut(record);
+					users.put(String.valueOf(user.getUserId()), user);
+				} else {
+					users.remove(String.valueOf(UserRecords.removedUserId(record)));
+				}
+				reader.buffer().position(reader.buffer().position() + length);
+				records++;
+			}
+		}
+		return records;
+	}
+
+	private void deleteOlderThan(long oldestEpoch) throws IOException {
+
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+				if (matcher.matches() && Long.parseLong(matcher.group(2)) < oldestEpoch) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+
+	private Path file(String kind, long fileEpoch) {
+		return directory.resolve(String.format("%s-%016d.%s", kind, fileEpoch, kind.equals("snapshot") ? "bin" : "log"));
+	}
+
+	/*
+	 * The journal file of one epoch. A record is its length, the CRC32 of the record and the
+	 * record of UserRecords, appended to a buffer that flush() writes to the file.
+	 */
+	private static final class Journal {
+
+		private final FileOutputStream file;
+		private final DataOutputStream out;
+		private final UserRecords.Encoder encoder = new UserRecords.Encoder();
+		private final CRC32 crc = new CRC32();
+		private long records;
+		private boolean closed;
+
+		Journal(Path path) throws IOException {
+			this.file = new FileOutputStream(path.toFile(), true);
+			this.out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+		}
+
+		synchronized void put(UserRest user) throws IOException {
+			append(encoder.put(user));
+		}
+
+		synchronized void remove(long userId) throws IOException {
+			append(encoder.remove(userId));
+		}
+
+		private void append(UserRecords.Encoder record) throws IOException {
+			crc.reset();
+			crc.update(record.bytes(), 0, record.length());
+			out.writeInt(record.length());
+			out.writeInt((int) crc.getValue());
+			out.write(record.bytes(), 0, record.length());
+			records++;
+		}
+
+		synchronized boolean isEmpty() {
+			return records == 0;
+		}
+
+		synchronized void flush(boolean force) throws IOException {
+			if (!closed) {
+				out.flush();
+				if (force) {
+					file.getChannel().force(false);
+				}
+			}
+		}
+
+		synchronized void close() throws IOException {
+			if (!closed) {
+				flush(true);
+				closed = true;
+				out.close();
+			}
+		}
+
+	}
+
+}
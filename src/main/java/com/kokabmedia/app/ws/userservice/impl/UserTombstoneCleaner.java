@@ -0,0 +1,44 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.kokabmedia.app.ws.repository.UserTombstoneRepository;
+
+/*
+ * This class removes the tombstones of deleted users that are older than the retention 
+ * time, clients with a sync token that is older than that have to sync from the beginning.
+ */
+@Component
+public class UserTombstoneCleaner {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UserTombstoneCleaner.class);
+
+	@Autowired
+	private UserTombstoneRepository userTombstoneRepository;
+
+	@Value("${app.users.sync.tombstone-retention-days:30}")
+	private long tombstoneRetentionDays;
+
+	/*
+	 * The @Scheduled annotation makes the Spring framework call this method once an hour.
+	 */
+	@Scheduled(fixedDelayString = "${app.users.sync.tombstone-cleanup-interval-ms:3600000}")
+	@Transactional
+	public void removeExpiredTombstones() {
+		
+		long before = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(tombstoneRetentionDays);
+		int removed = userTombstoneRepository.deleteOlderThan(before);
+		if (removed > 0) {
+			LOG.info("Removed {} user tombstones older than {} days", removed, tombstoneRetentionDays);
+		}
+	}
+
+}
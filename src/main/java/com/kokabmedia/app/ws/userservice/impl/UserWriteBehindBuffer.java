@@ -0,0 +1,201 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.kokabmedia.app.ws.exeption.UserServiceException;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * This class is the write-behind buffer for creating users, instead of committing one 
+ * transaction per POST /jpa/users request the validated users are put on a bounded queue 
+ * and a single writer thread stores them in group commits.
+ * 
+ * A group is committed when it has batch-size users or when flush-interval-ms has passed 
+ * since the first user of the group was queued, whichever happens first. The caller gets 
+ * a CompletableFuture that is completed with the stored user (and its generated id) after 
+ * the transaction of its group has committed, so the acknowledgment is durable.
+ * 
+ * If a group commit fails the users of that group are stored one by one, so one bad row 
+ * only fails its own request.
+ * 
+ * When the application stops no more users are queued and the writer commits the users 
+ * that already are. If the writer is interrupted the users it has not stored fail right 
+ * away, so no request waits for the ack timeout.
+ * 
+ * The buffer is only created when app.users.write-behind.enabled=true.
+ */
+@Component
+@ConditionalOnProperty(name = "app.users.write-behind.enabled", havingValue = "true")
+public class UserWriteBehindBuffer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UserWriteBehindBuffer.class);
+
+	private final UserJPARepository userJpaRepository;
+	
+	private final TransactionTemplate transactionTemplate;
+
+	private final BlockingQueue<PendingUser> queue;
+	
+	private final int batchSize;
+	
+	private final long flushIntervalNanos;
+
+	private final Thread writer;
+	
+	private volatile boolean running = true;
+
+	public UserWriteBehindBuffer(UserJPARepository userJpaRepository, PlatformTransactionManager transactionManager,
+			@Value("${app.users.write-behind.queue-capacity:10000}") int queueCapacity,
+			@Value("${app.users.write-behind.batch-size:100}") int batchSize,
+			@Value("${app.users.write-behind.flush-interval-ms:5}") long flushIntervalMillis) {
+		
+		this.userJpaRepository = userJpaRepository;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.batchSize = batchSize;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+		this.writer = new Thread(this::writeLoop, "user-write-behind");
+		this.writer.setDaemon(true);
+	}
+
+	@PostConstruct
+	void start() {
+		writer.start();
+	}
+
+	/*
+	 * Queues a validated user for the next group commit, the returned future completes 
+	 * when the group has been committed. When the queue is full the request is rejected 
+	 * right away instead of waiting for space.
+	 */
+	public CompletableFuture<UserRest> submit(UserRest user) {
+		
+		PendingUser pending = new PendingUser(user);
+		boolean queued;
+		// Guarded by the lock of stop(), no user is queued once the writer may exit.
+		synchronized (this) {
+			queued = running && queue.offer(pending);
+		}
+		if (!queued) {
+			throw new UserServiceException("Too many users are waiting to be stored, try again later");
+		}
+		return pending.result;
+	}
+
+	private void writeLoop() {
+		
+		List<PendingUser> group = new ArrayList<>(batchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				PendingUser first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				group.add(first);
+				
+				// Fill the group until it is full or the flush interval of its first user has passed.
+				long deadline = System.nanoTime() + flushIntervalNanos;
+				while (group.size() < batchSize) {
+					if (queue.drainTo(group, batchSize - group.size()) > 0) {
+						continue;
+					}
+					long remaining = deadline - System.nanoTime();
+					PendingUser next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+					if (next == null) {
+						break;
+					}
+					group.add(next);
+				}
+				
+				commit(group);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				running = false;
+				fail(group);
+				break;
+			} finally {
+				group.clear();
+			}
+		}
+		
+		// Only left when the writer was interrupted, its users are never stored.
+		queue.drainTo(group);
+		fail(group);
+	}
+
+	private void fail(List<PendingUser> group) {
+		
+		for (PendingUser pending : group) {
+			pending.result.completeExceptionally(new UserServiceException("The user was not stored, the "
+					+ "write-behind buffer has stopped"));
+		}
+	}
+
+	private void commit(List<PendingUser> group) {
+		
+		List<UserRest> users = new ArrayList<>(group.size());
+		for (PendingUser pending : group) {
+			users.add(pending.user);
+		}
+		
+		try {
+			List<UserRest> saved = transactionTemplate.execute(status -> userJpaRepository.saveAll(users));
+			for (int i = 0; i < group.size(); i++) {
+				group.get(i).result.complete(saved.get(i));
+			}
+		} catch (RuntimeException groupFailure) {
+			LOG.warn("Group commit of {} users failed, storing them one by one", group.size(), groupFailure);
+			for (PendingUser pending : group) {
+				// The rolled back group has given the users ids, they would be merged instead of inserted.
+				pending.user.setUserId(0);
+				pending.user.setVersion(0);
+				try {
+					pending.result.complete(transactionTemplate.execute(status -> userJpaRepository.save(pending.user)));
+				} catch (RuntimeException e) {
+					pending.result.completeExceptionally(e);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Stops accepting new users and lets the writer commit the users that are already 
+	 * queued before the application context is closed.
+	 */
+	@PreDestroy
+	void stop() throws InterruptedException {
+		synchronized (this) {
+			running = false;
+		}
+		writer.join(TimeUnit.SECONDS.toMillis(10));
+	}
+
+	private static final class PendingUser {
+
+		private final UserRest user;
+		
+		private final CompletableFuture<UserRest> result = new CompletableFuture<>();
+
+		private PendingUser(UserRest user) {
+			this.user = user;
+		}
+	}
+
+}
@@ -4,6 +4,6 @@
  * auto configuration feature.
  */
 
-INSERT INTO USER_REST VALUES(10001, 'test@test.com', 'Bob', 'Smith', '12345678');
-INSERT INTO USER_REST VALUES(10002, 'test1@test.com', 'Dave', 'Smith', '12345678' );
-INSERT INTO USER_REST VALUES(10003,  'test2@test.com', 'Erik', 'Smith', '12345678');
\ No newline at end of file
+INSERT INTO USER_REST (USER_ID, EMAIL, FIRST_NAME, LAST_NAME, PASSWORD, VERSION, LAST_MODIFIED) VALUES(10001, 'test@test.com', 'Bob', 'Smith', '12345678', 0, 0);
+INSERT INTO USER_REST (USER_ID, EMAIL, FIRST_NAME, LAST_NAME, PASSWORD, VERSION, LAST_MODIFIED) VALUES(10002, 'test1@test.com', 'Dave', 'Smith', '12345678', 0, 0);
+INSERT INTO USER_REST (USER_ID, EMAIL, FIRST_NAME, LAST_NAME, PASSWORD, VERSION, LAST_MODIFIED) VALUES(10003, 'test2@test.com', 'Erik', 'Smith', '12345678', 0, 0);
@@ -0,0 +1,88 @@
+package com.kokabmedia.app.ws.admission;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * These tests check the additive increase and multiplicative decrease of the
+ * AdaptiveConcurrencyLimit class with a latency threshold of 100 ms.
+ */
+class AdaptiveConcurrencyLimitTests {
+
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+	@Test
+	void requestsAboveTheLimitAreNotAdmitted() {
+
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10, 100, 0.5);
+
+		assertThat(limit.tryAcquire()).isTrue();
+		assertThat(limit.tryAcquire()).isTrue();
+		assertThat(limit.tryAcquire()).isFalse();
+		assertThat(limit.getInFlight()).isEqualTo(2);
+	}
+
+	@Test
+	void fastRequestsGrowAUsedLimitByOneOverTheLimit() {
+
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 20, 100, 0.5);
+		acquire(limit, 5);
+
+		limit.release(FAST, false);
+
+		assertThat(limit.getLimit()).isCloseTo(10.1, within(1e-9));
+
+		// With 1 of about 10 requests in flight the limit is not used and does not grow.
+		AdaptiveConcurrencyLimit idle = new AdaptiveConcurrencyLimit(10, 1, 20, 100, 0.5);
+		acquire(idle, 1);
+		idle.release(FAST, false);
+		assertThat(idle.getLimit()).isEqualTo(10);
+	}
+
+	@Test
+	void limitGrowsByAboutOnePerLimitRequestsUpToTheMaximum() {
+
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 5, 100, 0.5);
+
+		for (int i = 0; i < 100; i++) {
+			acquire(limit, 4);
+			for (int j = 0; j < 4; j++) {
+				limit.release(FAST, false);
+			}
+		}
+
+		assertThat(limit.getLimit()).isEqualTo(5);
+	}
+
+	@Test
+	void slowOrFailedRequestsShrinkTheLimitDownToTheMinimum() {
+
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(16, 3, 20, 100, 0.5);
+
+		acquire(limit, 1);
+		limit.release(SLOW, false);
+		assertThat(limit.getLimit()).isEqualTo(8);
+
+		acquire(limit, 1);
+		limit.release(FAST, true);
+		assertThat(limit.getLimit()).isEqualTo(4);
+
+		acquire(limit, 1);
+		limit.release(SLOW, true);
+		assertThat(limit.getLimit()).isEqualTo(3);
+		assertThat(limit.getInFlight()).isZero();
+	}
+
+	private static void acquire(AdaptiveConcurrencyLimit limit, int requests) {
+		for (int i = 0; i < requests; i++) {
+			assertThat(limit.tryAcquire()).isTrue();
+		}
+	}
+
+}
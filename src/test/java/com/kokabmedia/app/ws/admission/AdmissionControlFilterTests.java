@@ -0,0 +1,162 @@
+package com.kokabmedia.app.ws.admission;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * These tests send requests through the AdmissionControlFilter class without the Spring
+ * context and check which requests reach the chain and how the others are rejected.
+ */
+class AdmissionControlFilterTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	@Test
+	void clientAboveItsBurstGets429WithRetryAfter() throws Exception {
+
+		AdmissionControlFilter filter = filter(2, 50);
+
+		assertThat(send(filter, request("/jpa/users/1", "10.0.0.1", null)).getStatus()).isEqualTo(200);
+		assertThat(send(filter, request("/jpa/users/1", "10.0.0.1", null)).getStatus()).isEqualTo(200);
+		MockHttpServletResponse limited = send(filter, request("/jpa/users/1", "10.0.0.1", null));
+
+		assertThat(limited.getStatus()).isEqualTo(429);
+		assertThat(limited.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+		assertThat(limited.getContentType()).isEqualTo(MediaType.APPLICATION_JSON_VALUE);
+		assertThat(limited.getContentAsString()).contains("Request rate limit exceeded");
+		// Another client has its own bucket.
+		assertThat(send(filter, request("/jpa/users/1", "10.0.0.2", null)).getStatus()).isEqualTo(200);
+		assertThat(count("rate_limited")).isEqualTo(1);
+		assertThat(count("admitted")).isEqualTo(3);
+	}
+
+	@Test
+	void unknownApiKeysShareTheBucketOfTheirAddress() throws Exception {
+
+		AdmissionControlFilter filter = filter(2, 50);
+
+		// A new key with every request does not get a new bucket.
+		for (int i = 0; i < 2; i++) {
+			assertThat(send(filter, request("/users", "10.0.0.1", UUID.randomUUID().toString())).getStatus())
+					.isEqualTo(200);
+		}
+		assertThat(send(filter, request("/users", "10.0.0.1", UUID.randomUUID().toString())).getStatus())
+				.isEqualTo(429);
+
+		// A known key is limited on its own, whatever its address.
+		assertThat(send(filter, request("/users", "10.0.0.1", "trusted")).getStatus()).isEqualTo(200);
+		assertThat(registry.get("admission.clients").gauge().value()).isEqualTo(2);
+	}
+
+	@Test
+	void requestsAboveTheConcurrencyLimitAreShedWith503() throws Exception {
+
+		AdmissionControlFilter filter = filter(100, 1);
+		MockHttpServletResponse[] shed = new MockHttpServletResponse[1];
+
+		// The second request arrives while the first one is processed.
+		MockHttpServletResponse first = new MockHttpServletResponse();
+		filter.doFilter(request("/sharded/users", "10.0.0.1", null), first, (request, response) -> {
+			shed[0] = send(filter, request("/sharded/users", "10.0.0.2", null));
+		});
+
+		assertThat(first.getStatus()).isEqualTo(200);
+		assertThat(shed[0].getStatus()).isEqualTo(503);
+		assertThat(shed[0].getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+		assertThat(count("shed")).isEqualTo(1);
+		// Once the first request is done the next one is admitted.
+		assertThat(send(filter, request("/sharded/users", "10.0.0.2", null)).getStatus()).isEqualTo(200);
+	}
+
+	@Test
+	void onlyTheUserEndpointsAreLimited() {
+
+		AdmissionControlFilter filter = filter(2, 50);
+
+		assertThat(filter.shouldNotFilter(request("/users", "10.0.0.1", null))).isFalse();
+		assertThat(filter.shouldNotFilter(request("/users/7", "10.0.0.1", null))).isFalse();
+		assertThat(filter.shouldNotFilter(request("/jpa/users/changes/stream", "10.0.0.1", null))).isFalse();
+		assertThat(filter.shouldNotFilter(request("/sharded/users", "10.0.0.1", null))).isFalse();
+		assertThat(filter.shouldNotFilter(request("/usersX", "10.0.0.1", null))).isTrue();
+		assertThat(filter.shouldNotFilter(request("/jpa/users-export", "10.0.0.1", null))).isTrue();
+		assertThat(filter.shouldNotFilter(request("/actuator/health", "10.0.0.1", null))).isTrue();
+	}
+
+	@Test
+	void onlyWarmUpRequestsWithTheTokenFromLoopbackAreNotLimited() {
+
+		AdmissionControlFilter filter = filter(2, 50);
+		MockHttpServletRequest warmUp = request("/jpa/users/1", "127.0.0.1", null);
+		warmUp.addHeader(AdmissionControlFilter.WARM_UP_HEADER, filter.getWarmUpToken());
+		MockHttpServletRequest remote = request("/jpa/users/1", "10.0.0.1", null);
+		remote.addHeader(AdmissionControlFilter.WARM_UP_HEADER, filter.getWarmUpToken());
+		MockHttpServletRequest guessed = request("/jpa/users/1", "127.0.0.1", null);
+		guessed.addHeader(AdmissionControlFilter.WARM_UP_HEADER, "true");
+
+		assertThat(filter.shouldNotFilter(warmUp)).isTrue();
+		assertThat(filter.shouldNotFilter(remote)).isFalse();
+		assertThat(filter.shouldNotFilter(guessed)).isFalse();
+	}
+
+	@Test
+	void tokenBucketRefillsAtItsRate() {
+
+		long start = 1_000_000_000L;
+		TokenBucket bucket = new TokenBucket(10, 3, start);
+
+		for (int i = 0; i < 3; i++) {
+			assertThat(bucket.tryAcquire(start)).isZero();
+		}
+		// The next token comes after one emission interval of 100 ms.
+		assertThat(bucket.tryAcquire(start)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+		assertThat(bucket.tryAcquire(start + TimeUnit.MILLISECONDS.toNanos(100))).isZero();
+		assertThat(bucket.isIdle(start + TimeUnit.MILLISECONDS.toNanos(200))).isFalse();
+		assertThat(bucket.isIdle(start + TimeUnit.MILLISECONDS.toNanos(400))).isTrue();
+	}
+
+	private AdmissionControlFilter filter(int burst, int concurrencyLimit) {
+		return new AdmissionControlFilter(new ObjectMapper(), registry, 1, burst, 100, Set.of("trusted"),
+				concurrencyLimit, 1, concurrencyLimit, 250, 0.9);
+	}
+
+	private static MockHttpServletRequest request(String path, String address, String apiKey) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+		request.setRemoteAddr(address);
+		if (apiKey != null) {
+			request.addHeader(AdmissionControlFilter.API_KEY_HEADER, apiKey);
+		}
+		return request;
+	}
+
+	private static MockHttpServletResponse send(AdmissionControlFilter filter, MockHttpServletRequest request)
+			throws IOException, ServletException {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		FilterChain chain = (chainRequest, chainResponse) -> {
+			// The controller answers 200.
+		};
+		filter.doFilter(request, response, chain);
+		return response;
+	}
+
+	private double count(String result) {
+		return registry.get("admission.requests").tag("result", result).counter().count();
+	}
+
+}
@@ -0,0 +1,124 @@
+package com.kokabmedia.app.ws.audit;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+
+/*
+ * This benchmark measures the cost of an audit record appended to the AuditLog, with every
+ * fsync policy, compared with an audit row inserted into an H2 table in its own
+ * transaction as the UserJPAController class would have to write it.
+ *
+ * Every run appends the records from a number of threads and prints the throughput and
+ * the mean and 99th percentile latency of one record.
+ *
+ * It is not run by the build, run it with the test class path, for example:
+ *
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.kokabmedia.app.ws.audit.AuditLogBenchmark [threads] [records per thread]
+ */
+public class AuditLogBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int records = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+		for (AuditLog.FsyncPolicy policy : AuditLog.FsyncPolicy.values()) {
+			Path directory = Files.createTempDirectory("audit-benchmark");
+			try (AuditLog auditLog = new AuditLog(directory, 64L * 1024 * 1024, 1000, policy)) {
+				// The always policy forces every record, fewer records keep the run short.
+				int count = policy == AuditLog.FsyncPolicy.ALWAYS ? records / 100 : records;
+				run("audit log, fsync " + policy.name().toLowerCase(), threads, count, () -> {
+					long id = Thread.currentThread().getId() << 32;
+					return () -> auditLog.append(System.currentTimeMillis(), UserChangedEvent.Type.UPDATED, id, 1,
+							"127.0.0.1");
+				}, auditLog::flush);
+			}
+		}
+
+		try (Connection setup = DriverManager.getConnection("jdbc:h2:mem:audit;DB_CLOSE_DELAY=-1")) {
+			setup.createStatement().execute("create table audit (id bigint auto_increment primary key, "
+					+ "timestamp bigint, type varchar(8), user_id bigint, version bigint, client varchar(255))");
+		}
+		run("h2 insert", threads, records / 10, () -> {
+			Connection connection = DriverManager.getConnection("jdbc:h2:mem:audit");
+			connection.setAutoCommit(true);
+			PreparedStatement insert = connection.prepareStatement(
+					"insert into audit (timestamp, type, user_id, version, client) values (?, ?, ?, ?, ?)");
+			return () -> {
+				insert.setLong(1, System.currentTimeMillis());
+				insert.setString(2, "UPDATED");
+				insert.setLong(3, Thread.currentThread().getId());
+				insert.setLong(4, 1);
+				insert.setString(5, "127.0.0.1");
+				insert.executeUpdate();
+			};
+		}, () -> {
+		});
+	}
+
+	private interface Operation {
+		void run() throws Exception;
+	}
+
+	private static void run(String name, int threads, int records, Callable<Operation> operations, Runnable flush)
+			throws Exception {
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			// Warm up the JIT, then measure.
+			measure(executor, threads, records / 10, operations);
+			flush.run();
+			long start = System.nanoTime();
+			long[] latencies = measure(executor, threads, records, operations);
+			flush.run();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			Arrays.sort(latencies);
+			System.out.printf("%-26s %,12.0f records/s  mean %,9.0f ns  p99 %,9d ns%n", name,
+					latencies.length / seconds, Arrays.stream(latencies).average().orElse(0),
+					latencies[(int) (latencies.length * 0.99)]);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static long[] measure(ExecutorService executor, int threads, int records, Callable<Operation> operations)
+			throws Exception {
+
+		List<Future<long[]>> results = new ArrayList<>();
+		for (int thread = 0; thread < threads; thread++) {
+			results.add(executor.submit(() -> {
+				Operation operation = operations.call();
+				long[] latencies = new long[records];
+				for (int i = 0; i < records; i++) {
+					long start = System.nanoTime();
+					operation.run();
+					latencies[i] = System.nanoTime() - start;
+				}
+				return latencies;
+			}));
+		}
+		long[] all = new long[0];
+		for (Future<long[]> result : results) {
+			long[] latencies = result.get();
+			int offset = all.length;
+			all = Arrays.copyOf(all, offset + latencies.length);
+			System.arraycopy(latencies, 0, all, offset, latencies.length);
+		}
+		return all;
+	}
+
+}
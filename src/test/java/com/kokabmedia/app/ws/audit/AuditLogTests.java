@@ -0,0 +1,163 @@
+package com.kokabmedia.app.ws.audit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kokabmedia.app.ws.event.UserChangedEvent;
+
+/*
+ * These tests append records to an AuditLog with small segments without the Spring
+ * context and read them back with the AuditLogReader and the AuditLogQuery classes.
+ */
+class AuditLogTests {
+
+	private static final int SEGMENT_SIZE = 4096;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void readsEveryRecordOfConcurrentProducersAcrossSegments() throws Exception {
+
+		AuditLog auditLog = new AuditLog(directory, SEGMENT_SIZE, 1000, AuditLog.FsyncPolicy.INTERVAL);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> producers = new ArrayList<>();
+			for (int producer = 0; producer < 4; producer++) {
+				long firstId = producer * 100_000L;
+				producers.add(executor.submit(() -> {
+					for (long id = firstId; id < firstId + 2_000; id++) {
+						auditLog.append(id, UserChangedEvent.Type.UPDATED, id, id % 7, id % 2 == 0 ? "10.0.0." + id % 256 : null);
+					}
+				}));
+			}
+			for (Future<?> producer : producers) {
+				producer.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		auditLog.close();
+
+		List<AuditRecord> records = read();
+		Set<Long> ids = records.stream().map(AuditRecord::getUserId).collect(Collectors.toSet());
+		assertThat(records).hasSize(8_000);
+		assertThat(ids).hasSize(8_000);
+		assertThat(records).allMatch(record -> record.getTimestamp() == record.getUserId()
+				&& record.getVersion() == record.getUserId() % 7
+				&& (record.getUserId() % 2 == 0 ? ("10.0.0." + record.getUserId() % 256).equals(record.getClient())
+						: record.getClient() == null));
+		assertThat(AuditLogReader.segments(directory).size()).isGreaterThan(10);
+	}
+
+	@Test
+	void keepsTheNewestSegmentsAndStartsANewSegmentOnRestart() throws Exception {
+
+		AuditLog auditLog = new AuditLog(directory, SEGMENT_SIZE, 3, AuditLog.FsyncPolicy.NONE);
+		for (int id = 0; id < 1_000; id++) {
+			auditLog.append(id, UserChangedEvent.Type.CREATED, id, 0, null);
+		}
+		auditLog.close();
+		List<Path> segments = AuditLogReader.segments(directory);
+		assertThat(segments).hasSize(3);
+		long lastSequence = AuditLogReader.sequence(segments.get(2));
+
+		AuditLog restarted = new AuditLog(directory, SEGMENT_SIZE, 3, AuditLog.FsyncPolicy.NONE);
+		restarted.append(5_000, UserChangedEvent.Type.DELETED, 5_000, -1, "127.0.0.1");
+		restarted.close();
+
+		// The new segment of the restart counts against the newest segments too.
+		segments = AuditLogReader.segments(directory);
+		assertThat(segments).hasSize(3);
+		assertThat(AuditLogReader.sequence(segments.get(2))).isEqualTo(lastSequence + 1);
+		List<AuditRecord> records = read();
+		assertThat(records.get(records.size() - 1).getType()).isEqualTo(UserChangedEvent.Type.DELETED);
+		// The records of the kept segments are the newest ones, in order.
+		assertThat(records.stream().map(AuditRecord::getUserId).collect(Collectors.toList()))
+				.isSorted().contains(999L);
+
+		// Restarts without records do not pile up segments.
+		for (int restart = 0; restart < 5; restart++) {
+			new AuditLog(directory, SEGMENT_SIZE, 3, AuditLog.FsyncPolicy.NONE).close();
+		}
+		assertThat(AuditLogReader.segments(directory)).hasSize(3);
+	}
+
+	@Test
+	void skipsDamagedRecords() throws Exception {
+
+		AuditLog auditLog = new AuditLog(directory, SEGMENT_SIZE, 10, AuditLog.FsyncPolicy.ALWAYS);
+		for (int id = 0; id < 3; id++) {
+			auditLog.append(id, UserChangedEvent.Type.CREATED, id, 0, "client");
+		}
+		auditLog.close();
+
+		// Flip a byte of the user id of the second record.
+		Path segment = AuditLogReader.segments(directory).get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			int recordLength = channel.map(FileChannel.MapMode.READ_ONLY, 0, 64).getInt(AuditLog.SEGMENT_HEADER_SIZE);
+			channel.write(ByteBuffer.wrap(new byte[] { 42 }), AuditLog.SEGMENT_HEADER_SIZE + recordLength + 20);
+		}
+
+		AuditLogReader reader = new AuditLogReader(directory);
+		List<AuditRecord> records = new ArrayList<>();
+		reader.forEach(records::add);
+		assertThat(records).extracting(AuditRecord::getUserId).containsExactly(0L, 2L);
+		assertThat(reader.getSkipped()).isEqualTo(1);
+	}
+
+	@Test
+	void queryFiltersTheRecords() throws Exception {
+
+		long start = Instant.parse("2021-10-01T12:00:00Z").toEpochMilli();
+		AuditLog auditLog = new AuditLog(directory, SEGMENT_SIZE, 10, AuditLog.FsyncPolicy.NONE);
+		for (int i = 0; i < 100; i++) {
+			auditLog.append(start + i * 60_000L, UserChangedEvent.Type.values()[i % 3], i % 10, i, "10.0.0." + i % 4);
+		}
+		auditLog.close();
+
+		assertThat(query("--user", "3")).extracting(AuditRecord::getVersion)
+				.containsExactly(3L, 13L, 23L, 33L, 43L, 53L, 63L, 73L, 83L, 93L);
+		assertThat(query("--user", "3", "--type", "updated", "--from", "2021-10-01T12:30:00Z", "--to",
+				"2021-10-01T13:30:00Z")).extracting(AuditRecord::getVersion).containsExactly(43L, 73L);
+		assertThat(query("--client", "10.0.0.1", "--limit", "2")).extracting(AuditRecord::getVersion)
+				.containsExactly(1L, 5L);
+	}
+
+	private List<AuditRecord> query(String... options) throws IOException {
+
+		List<AuditRecord> records = new ArrayList<>();
+		AuditLogQuery.parse(options).run(new AuditLogReader(directory), records::add);
+		return records;
+	}
+
+	private List<AuditRecord> read() throws IOException {
+
+		AuditLogReader reader = new AuditLogReader(directory);
+		List<AuditRecord> records = new ArrayList<>();
+		reader.forEach(records::add);
+		assertThat(reader.getSkipped()).isZero();
+		assertThat(new HashSet<>(Files.list(directory).map(Path::getFileName).map(Path::toString)
+				.collect(Collectors.toList()))).allMatch(name -> name.startsWith("audit-"));
+		return records;
+	}
+
+}
@@ -0,0 +1,275 @@
+package com.kokabmedia.app.ws.event;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * These tests read GET /jpa/users/changes/stream over HTTP and check the streamed changes,
+ * the resume with Last-Event-ID, the reset of a client whose changes are gone, the
+ * disconnect of a client that stops reading and the limit of subscribers.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+		"app.admission.enabled=false",
+		"app.users.changes.capacity=16",
+		"app.users.changes.max-subscribers=8",
+		"app.users.changes.send-timeout-ms=200" })
+class UserChangeFeedTests {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private UserChangeFeed userChangeFeed;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	private final HttpClient client = HttpClient.newHttpClient();
+
+	private final List<CompletableFuture<?>> requests = new CopyOnWriteArrayList<>();
+
+	private final List<Stream<String>> streams = new CopyOnWriteArrayList<>();
+
+	@AfterEach
+	void disconnect() throws InterruptedException {
+		requests.forEach(request -> request.cancel(true));
+		streams.forEach(Stream::close);
+		// The feed notices a closed stream when it sends the next change.
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (subscribers() > 0 && System.currentTimeMillis() < deadline) {
+			publish(UserChangedEvent.Type.UPDATED, "10000");
+			Thread.sleep(20);
+		}
+		assertThat(subscribers()).isZero();
+	}
+
+	@Test
+	void newChangesAreStreamedInOrder() throws Exception {
+
+		long head = sequence();
+		Events events = subscribe(null);
+		awaitSubscribers(1);
+
+		publish(UserChangedEvent.Type.CREATED, "10001");
+		publish(UserChangedEvent.Type.DELETED, "10001");
+
+		assertThat(events.next()).isEqualTo(new Event(head + 1, "CREATED"));
+		Event deleted = events.next();
+		assertThat(deleted).isEqualTo(new Event(head + 2, "DELETED"));
+		assertThat(deleted.data).contains("\"userId\":\"10001\"").contains("\"source\":\"jpa\"");
+	}
+
+	@Test
+	void reconnectWithLastEventIdResumesAfterIt() throws Exception {
+
+		long head = sequence();
+		for (int i = 0; i < 3; i++) {
+			publish(UserChangedEvent.Type.UPDATED, "10002");
+		}
+
+		Events events = subscribe(head + 1);
+
+		assertThat(events.next().id).isEqualTo(head + 2);
+		assertThat(events.next().id).isEqualTo(head + 3);
+		// Up to date clients only get the changes after their last event.
+		Events upToDate = subscribe(head + 3);
+		awaitSubscribers(2);
+		assertThat(upToDate.poll()).isNull();
+	}
+
+	@Test
+	void clientWhoseChangesAreGoneOrUnknownIsReset() throws Exception {
+
+		long head = sequence();
+		for (int i = 0; i < 20; i++) {
+			publish(UserChangedEvent.Type.UPDATED, "10003");
+		}
+
+		// The ring keeps the last 16 changes.
+		assertThat(subscribe(head + 1).next().name).isEqualTo("reset");
+		assertThat(subscribe(head + 4).next().id).isEqualTo(head + 5);
+		// An id from before a restart of the application is ahead of the feed.
+		assertThat(subscribe(sequence() + 100).next().name).isEqualTo("reset");
+	}
+
+	@Test
+	void clientThatStopsReadingIsDisconnected() throws Exception {
+
+		double slowConsumers = slowConsumers();
+		requests.add(client.sendAsync(request(null), HttpResponse.BodyHandlers.ofInputStream()));
+		awaitSubscribers(1);
+
+		// Large changes fill the socket buffers of the client that does not read.
+		UserRest large = new UserRest(10004, "x".repeat(64 * 1024), "Stalled", "stalled@feed.test", null);
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (slowConsumers() == slowConsumers && System.currentTimeMillis() < deadline) {
+			userChangeFeed.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED,
+					UserChangedEvent.SOURCE_JPA, "10004", large));
+			Thread.sleep(1);
+		}
+
+		assertThat(slowConsumers()).isGreaterThan(slowConsumers);
+		assertThat(subscribers()).isZero();
+		// A client that reads gets the next changes.
+		Events events = subscribe(null);
+		awaitSubscribers(1);
+		publish(UserChangedEvent.Type.CREATED, "10005");
+		assertThat(events.next().name).isEqualTo("CREATED");
+	}
+
+	@Test
+	void clientAboveTheSubscriberLimitGets503() throws Exception {
+
+		for (int i = 1; i <= 8; i++) {
+			subscribe(null);
+			awaitSubscribers(i);
+		}
+
+		HttpResponse<String> refused = client.send(request(null), HttpResponse.BodyHandlers.ofString());
+
+		assertThat(refused.statusCode()).isEqualTo(503);
+		assertThat(refused.headers().firstValue(HttpHeaders.RETRY_AFTER)).hasValue("1");
+		assertThat(refused.body()).contains("Too many change feed subscribers");
+	}
+
+	private double slowConsumers() {
+		return meterRegistry.get("user.changes.slow.consumers").counter().count();
+	}
+
+	private long sequence() {
+		return (long) meterRegistry.get("user.changes.sequence").gauge().value();
+	}
+
+	private void publish(UserChangedEvent.Type type, String userId) {
+		userChangeFeed.onUserChanged(new UserChangedEvent(type, UserChangedEvent.SOURCE_JPA, userId,
+				new UserRest(Long.parseLong(userId), "Change", "Feed", UUID.randomUUID() + "@feed.test", null)));
+	}
+
+	private HttpRequest request(Long lastEventId) {
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port
+				+ "/jpa/users/changes/stream")).header(HttpHeaders.ACCEPT, "text/event-stream");
+		if (lastEventId != null) {
+			request.header("Last-Event-ID", lastEventId.toString());
+		}
+		return request.build();
+	}
+
+	/*
+	 * Opens a stream and parses its events on a thread of the client, the headers of the
+	 * stream only arrive with its first event. The stream is closed after the test.
+	 */
+	private Events subscribe(Long lastEventId) {
+
+		Events events = new Events();
+		requests.add(client.sendAsync(request(lastEventId), HttpResponse.BodyHandlers.ofLines()).thenAccept(response -> {
+			streams.add(response.body());
+			assertThat(response.statusCode()).isEqualTo(200);
+			Event event = new Event(0, null);
+			try {
+				for (String line : (Iterable<String>) response.body()::iterator) {
+					if (line.isEmpty()) {
+						events.queue.add(event);
+						event = new Event(0, null);
+					} else if (line.startsWith("id:")) {
+						event = new Event(Long.parseLong(line.substring(3)), event.name, event.data);
+					} else if (line.startsWith("event:")) {
+						event = new Event(event.id, line.substring(6), event.data);
+					} else if (line.startsWith("data:")) {
+						event = new Event(event.id, event.name, line.substring(5));
+					}
+				}
+			} catch (RuntimeException e) {
+				// The stream was closed.
+			}
+		}));
+		return events;
+	}
+
+	// The subscription of a stream is added on a request thread of the server.
+	private void awaitSubscribers(int subscribers) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (subscribers() != subscribers && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(subscribers()).isEqualTo(subscribers);
+	}
+
+	private int subscribers() {
+		return (int) meterRegistry.get("user.changes.subscribers").gauge().value();
+	}
+
+	private static final class Events {
+
+		private final BlockingQueue<Event> queue = new LinkedBlockingQueue<>();
+
+		private Event next() throws InterruptedException {
+			Event event = queue.poll(5, TimeUnit.SECONDS);
+			assertThat(event).as("event within 5 seconds").isNotNull();
+			return event;
+		}
+
+		private Event poll() throws InterruptedException {
+			return queue.poll(200, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static final class Event {
+
+		private final long id;
+
+		private final String name;
+
+		private final String data;
+
+		private Event(long id, String name) {
+			this(id, name, null);
+		}
+
+		private Event(long id, String name, String data) {
+			this.id = id;
+			this.name = name;
+			this.data = data;
+		}
+
+		// Events are compared by their id and name.
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Event && ((Event) other).id == id && name.equals(((Event) other).name);
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(id) * 31 + name.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "Event [id=" + id + ", name=" + name + "]";
+		}
+	}
+
+}
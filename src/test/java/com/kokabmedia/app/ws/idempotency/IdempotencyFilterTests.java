@@ -0,0 +1,144 @@
+package com.kokabmedia.app.ws.idempotency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * These tests send create requests with an Idempotency-Key header to POST /jpa/users and
+ * POST /users and check that retries get the first response instead of creating users
+ * and that bodies above max-body-bytes are not read into memory.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+class IdempotencyFilterTests {
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@LocalServerPort
+	private int port;
+
+	@Test
+	void retryReplaysFirstResponse() {
+
+		String key = UUID.randomUUID().toString();
+		Map<String, String> user = user("retry@idempotency.test");
+
+		ResponseEntity<UserRest> first = restTemplate.postForEntity("/jpa/users", request(user, key), UserRest.class);
+		ResponseEntity<UserRest> retry = restTemplate.postForEntity("/jpa/users", request(user, key), UserRest.class);
+
+		assertThat(first.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(first.getHeaders().containsKey(IdempotencyFilter.REPLAYED_HEADER)).isFalse();
+		assertThat(retry.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(retry.getHeaders().getFirst(IdempotencyFilter.REPLAYED_HEADER)).isEqualTo("true");
+		assertThat(retry.getBody().getUserId()).isEqualTo(first.getBody().getUserId());
+
+		// Without the key the same email is a new request and is rejected as taken.
+		assertThat(restTemplate.postForEntity("/jpa/users", request(user, null), String.class).getStatusCode())
+				.isEqualTo(HttpStatus.CONFLICT);
+	}
+
+	@Test
+	void concurrentDuplicatesWaitForFirstRequest() throws Exception {
+
+		String key = UUID.randomUUID().toString();
+		Map<String, String> user = user("concurrent@idempotency.test");
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<CompletableFuture<ResponseEntity<UserRest>>> responses = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				responses.add(CompletableFuture.supplyAsync(
+						() -> restTemplate.postForEntity("/users", request(user, key), UserRest.class), executor));
+			}
+
+			List<Long> userIds = new ArrayList<>();
+			for (CompletableFuture<ResponseEntity<UserRest>> response : responses) {
+				assertThat(response.get().getStatusCode()).isEqualTo(HttpStatus.OK);
+				userIds.add(response.get().getBody().getUserId());
+			}
+			assertThat(userIds).containsOnly(userIds.get(0));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void keyReusedForDifferentRequestIsRejected() {
+
+		String key = UUID.randomUUID().toString();
+
+		assertThat(restTemplate.postForEntity("/jpa/users", request(user("first@idempotency.test"), key), String.class)
+				.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(restTemplate.postForEntity("/jpa/users", request(user("second@idempotency.test"), key), String.class)
+				.getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+	}
+
+	@Test
+	void bodyAboveTheLimitIsRejectedWith413() throws Exception {
+
+		Map<String, String> user = Map.of("firstName", "x".repeat(70_000), "lastName", "Client", "email",
+				"large@idempotency.test", "password", "12345678");
+
+		// By its Content-Length.
+		assertThat(restTemplate.postForEntity("/jpa/users", request(user, UUID.randomUUID().toString()), String.class)
+				.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+
+		// And without, a chunked body is read up to the limit.
+		byte[] body = objectMapper.writeValueAsBytes(user);
+		HttpResponse<String> chunked = HttpClient.newHttpClient().send(HttpRequest.newBuilder(
+				URI.create("http://localhost:" + port + "/jpa/users"))
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.header(IdempotencyFilter.KEY_HEADER, UUID.randomUUID().toString())
+				.POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(body))).build(),
+				HttpResponse.BodyHandlers.ofString());
+		assertThat(chunked.statusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE.value());
+		assertThat(chunked.body()).contains("at most 65536 bytes");
+	}
+
+	private static Map<String, String> user(String email) {
+
+		return Map.of("firstName", "Retry", "lastName", "Client", "email", email, "password", "12345678");
+	}
+
+	private static HttpEntity<Object> request(Object body, String key) {
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+		if (key != null) {
+			headers.set(IdempotencyFilter.KEY_HEADER, key);
+		}
+		return new HttpEntity<>(body, headers);
+	}
+
+}
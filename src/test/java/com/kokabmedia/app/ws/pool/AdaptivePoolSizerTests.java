@@ -0,0 +1,112 @@
+package com.kokabmedia.app.ws.pool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * These tests run the AdaptivePoolSizer class against a Hikari pool of an in-memory H2
+ * database without the Spring context, the pool records its hikaricp.* metrics the way
+ * Spring Boot binds them.
+ */
+class AdaptivePoolSizerTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final HikariDataSource dataSource = new HikariDataSource();
+
+	@AfterEach
+	void close() {
+		dataSource.close();
+	}
+
+	@Test
+	void growsWhileRequestsWaitForAConnection() throws Exception {
+
+		AdaptivePoolSizer sizer = sizer(2);
+		Connection first = dataSource.getConnection();
+		Connection second = dataSource.getConnection();
+		CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+			try (Connection connection = dataSource.getConnection()) {
+				// Only waits for a connection.
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		while (dataSource.getHikariPoolMXBean().getThreadsAwaitingConnection() == 0) {
+			Thread.sleep(1);
+		}
+
+		sizer.adjust();
+
+		assertThat(dataSource.getMaximumPoolSize()).isEqualTo(4);
+		assertThat(registry.get("datasource.pool.resizes").tag("reason", "wait").counter().count()).isEqualTo(1);
+		first.close();
+		second.close();
+		waiting.get();
+	}
+
+	@Test
+	void shrinksAndEvictsIdleConnectionsWhenTheDatabaseIsSlow() throws Exception {
+
+		AdaptivePoolSizer sizer = sizer(8);
+		List<Connection> connections = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			connections.add(dataSource.getConnection());
+		}
+		// Every connection is held longer than the usage threshold of 50 ms.
+		Thread.sleep(100);
+		for (Connection connection : connections) {
+			connection.close();
+		}
+
+		sizer.adjust();
+
+		assertThat(dataSource.getMaximumPoolSize()).isEqualTo(6);
+		assertThat(dataSource.getHikariPoolMXBean().getTotalConnections()).isEqualTo(6);
+		assertThat(registry.get("datasource.pool.resizes").tag("reason", "usage").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void shrinksByOneAfterIdleIntervals() throws Exception {
+
+		AdaptivePoolSizer sizer = sizer(8);
+		dataSource.getConnection().close();
+
+		sizer.adjust();
+		sizer.adjust();
+		assertThat(dataSource.getMaximumPoolSize()).isEqualTo(8);
+		sizer.adjust();
+		assertThat(dataSource.getMaximumPoolSize()).isEqualTo(7);
+
+		// The lower bound is min-size.
+		for (int i = 0; i < 30; i++) {
+			sizer.adjust();
+		}
+		assertThat(dataSource.getMaximumPoolSize()).isEqualTo(2);
+	}
+
+	// A pool of 2 to 8 connections that grows by 2, shrinks to 75% and idles for 3 intervals.
+	private AdaptivePoolSizer sizer(int size) {
+
+		dataSource.setJdbcUrl("jdbc:h2:mem:" + UUID.randomUUID());
+		dataSource.setUsername("sa");
+		dataSource.setPoolName("test");
+		dataSource.setMaximumPoolSize(size);
+		dataSource.setConnectionTimeout(5000);
+		dataSource.setMetricRegistry(registry);
+		return new AdaptivePoolSizer(List.of(dataSource), registry, 2, 8, 2, 5, 50, 0.75, 3);
+	}
+
+}
@@ -0,0 +1,211 @@
+package com.kokabmedia.app.ws.pool;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.kokabmedia.app.ws.RestMobileAppWsApplication;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+
+/*
+ * This load test compares fixed connection pools with the AdaptivePoolSizer under bursty
+ * load, once with the in-memory H2 database as it is and once with every statement delayed
+ * by a number of milliseconds, like a database that is slow or far away.
+ *
+ * Every run starts the application in this JVM, stores 10 000 users and then alternates
+ * bursts of burst-threads clients with quiet phases of 2 clients, each phase takes
+ * phase-seconds. The clients send 70% GET /jpa/users/{userId}, 20% PUT and 10% POST
+ * requests. It prints the throughput, the 99th percentile latency of the requests and of
+ * the connection acquire wait, and the mean and largest number of open connections.
+ *
+ * It is not run by the build, run it with the test class path, for example:
+ *
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.kokabmedia.app.ws.pool.PoolSizingBenchmark [burst-threads] [phase-seconds] [cycles] [delay-ms]
+ */
+public class PoolSizingBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		int burstThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int phaseSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int cycles = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		int delayMillis = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		// The devtools restart would run this main method again in a new class loader.
+		System.setProperty("spring.devtools.restart.enabled", "false");
+
+		System.out.printf("burst-threads=%d phase-seconds=%d cycles=%d delay-ms=%d cpus=%d%n", burstThreads,
+				phaseSeconds, cycles, delayMillis, Runtime.getRuntime().availableProcessors());
+		for (int delay : new int[] { 0, delayMillis }) {
+			run("fixed 4", delay, burstThreads, phaseSeconds, cycles, "--spring.datasource.hikari.maximum-pool-size=4");
+			run("fixed 10", delay, burstThreads, phaseSeconds, cycles);
+			run("fixed 32", delay, burstThreads, phaseSeconds, cycles,
+					"--spring.datasource.hikari.maximum-pool-size=32");
+			run("adaptive", delay, burstThreads, phaseSeconds, cycles, "--app.datasource.pool.adaptive.enabled=true");
+		}
+	}
+
+	private static void run(String name, int delayMillis, int burstThreads, int phaseSeconds, int cycles,
+			String... properties) throws Exception {
+
+		// Without the users of data.sql, their ids collide with the generated ids above 10000.
+		List<String> args = new ArrayList<>(Arrays.asList("--server.port=0", "--spring.jpa.show-sql=false",
+				"--spring.sql.init.mode=never", "--app.admission.enabled=false", "--app.audit.enabled=false",
+				"--logging.level.root=warn"));
+		args.addAll(Arrays.asList(properties));
+		SpringApplicationBuilder builder = new SpringApplicationBuilder(RestMobileAppWsApplication.class);
+		if (delayMillis > 0) {
+			builder.initializers(context -> context.getBeanFactory().addBeanPostProcessor(delay(delayMillis)));
+		}
+
+		try (ConfigurableApplicationContext context = builder.run(args.toArray(new String[0]))) {
+			UserJPARepository repository = context.getBean(UserJPARepository.class);
+			List<UserRest> batch = new ArrayList<>();
+			for (int i = 0; i < 10_000; i++) {
+				batch.add(new UserRest(0, "First" + i, "Last" + i, "user" + i + "@pool.benchmark", "password" + i));
+			}
+			long[] ids = repository.saveAll(batch).stream().mapToLong(UserRest::getUserId).toArray();
+			String base = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort()
+					+ "/jpa/users";
+			MeterRegistry registry = context.getBean(MeterRegistry.class);
+
+			// A quiet phase and a burst to warm up, then the measured cycles.
+			load(base, ids, 2, phaseSeconds);
+			load(base, ids, burstThreads, phaseSeconds);
+			Timer acquire = registry.get("hikaricp.connections.acquire").timer();
+			long acquireCountBefore = acquire.count();
+
+			List<long[]> latencies = new ArrayList<>();
+			long[] connections = { 0, 0, 0 };
+			ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+			sampler.scheduleAtFixedRate(() -> {
+				long open = (long) registry.get("hikaricp.connections").gauge().value();
+				synchronized (connections) {
+					connections[0] += open;
+					connections[1]++;
+					connections[2] = Math.max(connections[2], open);
+				}
+			}, 0, 100, TimeUnit.MILLISECONDS);
+			try {
+				for (int cycle = 0; cycle < cycles; cycle++) {
+					latencies.add(load(base, ids, burstThreads, phaseSeconds));
+					latencies.add(load(base, ids, 2, phaseSeconds));
+				}
+			} finally {
+				sampler.shutdownNow();
+			}
+			long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+
+			double acquireP99 = Arrays.stream(acquire.takeSnapshot().percentileValues())
+					.filter(value -> value.percentile() == 0.99).mapToDouble(value -> value.value(TimeUnit.MILLISECONDS))
+					.findFirst().orElse(Double.NaN);
+			synchronized (connections) {
+				System.out.printf("delay %d ms %-9s %,7.0f requests/s  p99 %,8.2f ms  acquire p99 %,8.2f ms"
+						+ " (%,d acquires)  connections mean %4.1f max %2d%n", delayMillis, name,
+						all.length / (double) (cycles * 2 * phaseSeconds), all[(int) (all.length * 0.99)] / 1e6,
+						acquireP99, acquire.count() - acquireCountBefore, connections[0] / (double) connections[1],
+						connections[2]);
+			}
+		}
+	}
+
+	/*
+	 * Wraps the datasource of the application so every statement takes delayMillis longer,
+	 * the connection is held while the statement waits.
+	 */
+	private static BeanPostProcessor delay(int delayMillis) {
+
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (bean instanceof DataSource && beanName.equals("dataSource")) {
+					return ProxyDataSourceBuilder.create((DataSource) bean).beforeQuery((execution, queries) -> {
+						try {
+							Thread.sleep(delayMillis);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}).build();
+				}
+				return bean;
+			}
+		};
+	}
+
+	private static long[] load(String base, long[] ids, int threads, int seconds) throws Exception {
+
+		HttpClient client = HttpClient.newHttpClient();
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<long[]>> results = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				results.add(executor.submit(() -> {
+					long[] latencies = new long[1 << 12];
+					int count = 0;
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					while (System.nanoTime() < deadline) {
+						HttpRequest request = request(base, ids[random.nextInt(ids.length)], random.nextInt(100));
+						long start = System.nanoTime();
+						client.send(request, HttpResponse.BodyHandlers.discarding());
+						if (count == latencies.length) {
+							latencies = Arrays.copyOf(latencies, count * 2);
+						}
+						latencies[count++] = System.nanoTime() - start;
+					}
+					return Arrays.copyOf(latencies, count);
+				}));
+			}
+			List<long[]> latencies = new ArrayList<>();
+			for (Future<long[]> result : results) {
+				latencies.add(result.get());
+			}
+			return latencies.stream().flatMapToLong(Arrays::stream).toArray();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	// 70% reads, 20% updates and 10% creates.
+	private static HttpRequest request(String base, long id, int operation) {
+
+		HttpRequest.Builder request;
+		if (operation < 70) {
+			request = HttpRequest.newBuilder(URI.create(base + "/" + id)).GET();
+		} else if (operation < 90) {
+			request = HttpRequest.newBuilder(URI.create(base + "/" + id)).PUT(HttpRequest.BodyPublishers.ofString(
+					"{\"firstName\":\"First" + operation + "\",\"lastName\":\"Last" + operation + "\"}"));
+		} else {
+			request = HttpRequest.newBuilder(URI.create(base)).POST(HttpRequest.BodyPublishers.ofString(
+					"{\"firstName\":\"New\",\"lastName\":\"User\",\"email\":\"new" + System.nanoTime()
+							+ ThreadLocalRandom.current().nextInt() + "@pool.benchmark\",\"password\":\"password1\"}"));
+		}
+		return request.header("Content-Type", "application/json").header("Accept", "application/json").build();
+	}
+
+}
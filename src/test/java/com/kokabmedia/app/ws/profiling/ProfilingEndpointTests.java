@@ -0,0 +1,93 @@
+package com.kokabmedia.app.ws.profiling;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import jdk.jfr.consumer.RecordingFile;
+
+/*
+ * This test starts a flight recording through the profiling endpoint, sends requests to
+ * the user endpoints and checks the summary and the downloaded recording, which must not
+ * hold the environment of the JVM.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+		"app.profiling.enabled=true",
+		"spring.datasource.url=jdbc:h2:mem:profiling" })
+class ProfilingEndpointTests {
+
+	private static final int REQUESTS = 20;
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Test
+	void recordsAndSummarizesUserRequests() throws Exception {
+
+		assertThat(restTemplate.getForEntity("/actuator/profiling/summary", String.class).getStatusCode())
+				.isEqualTo(HttpStatus.NOT_FOUND);
+
+		ResponseEntity<Map> started = restTemplate.postForEntity("/actuator/profiling", null, Map.class);
+		assertThat(started.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(started.getBody().get("state")).isEqualTo("RUNNING");
+		assertThat(restTemplate.postForEntity("/actuator/profiling", null, Map.class).getStatusCode())
+				.isEqualTo(HttpStatus.CONFLICT);
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
+		for (int i = 0; i < REQUESTS; i++) {
+			assertThat(restTemplate.exchange("/jpa/users/10001", HttpMethod.GET, new HttpEntity<>(headers), String.class)
+					.getStatusCode()).isEqualTo(HttpStatus.OK);
+		}
+
+		ResponseEntity<EndpointProfile[]> summary = restTemplate.getForEntity("/actuator/profiling/summary",
+				EndpointProfile[].class);
+		assertThat(summary.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(summary.getBody()).extracting(EndpointProfile::getEndpoint)
+				.contains("GET /jpa/users/{userId}")
+				.noneMatch(endpoint -> endpoint.contains("/actuator"));
+		EndpointProfile getUser = Arrays.stream(summary.getBody())
+				.filter(profile -> profile.getEndpoint().equals("GET /jpa/users/{userId}"))
+				.findFirst().get();
+		assertThat(getUser.getRequests()).isEqualTo(REQUESTS);
+		assertThat(getUser.getErrors()).isZero();
+		assertThat(getUser.getBytes()).isGreaterThan(REQUESTS * 50L);
+		assertThat(getUser.getMeanLatencyMs()).isPositive().isLessThanOrEqualTo(getUser.getMaxLatencyMs());
+
+		ResponseEntity<byte[]> recording = restTemplate.getForEntity("/actuator/profiling/recording", byte[].class);
+		assertThat(recording.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(new String(recording.getBody(), 0, 3)).isEqualTo("FLR");
+		// The environment and the system properties of the JVM are not in the recording.
+		Path file = Files.createTempFile("profiling", ".jfr");
+		try {
+			Files.write(file, recording.getBody());
+			assertThat(RecordingFile.readAllEvents(file)).extracting(event -> event.getEventType().getName())
+					.contains(UserRequestEvent.NAME)
+					.doesNotContain("jdk.InitialEnvironmentVariable", "jdk.InitialSystemProperty");
+		} finally {
+			Files.delete(file);
+		}
+
+		ResponseEntity<Map> stopped = restTemplate.exchange("/actuator/profiling", HttpMethod.DELETE, null, Map.class);
+		assertThat(stopped.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(stopped.getBody().get("state")).isEqualTo("STOPPED");
+		assertThat(restTemplate.exchange("/actuator/profiling", HttpMethod.DELETE, null, Map.class).getStatusCode())
+				.isEqualTo(HttpStatus.NOT_FOUND);
+	}
+
+}
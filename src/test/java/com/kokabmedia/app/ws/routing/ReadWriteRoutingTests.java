@@ -0,0 +1,151 @@
+package com.kokabmedia.app.ws.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * These tests run the read/write routing with two H2 databases, the replica is a copy of
+ * the primary made by replicate(), so until the next copy the replica lags behind the
+ * primary the way a real replica does.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+		"app.datasource.routing.enabled=true",
+		"spring.datasource.url=jdbc:h2:mem:routing-primary",
+		"app.datasource.replica.url=jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1" })
+class ReadWriteRoutingTests {
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	@Qualifier("primaryDataSource")
+	private DataSource primaryDataSource;
+
+	@Autowired
+	@Qualifier("replicaDataSource")
+	private DataSource replicaDataSource;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@BeforeEach
+	void replicate() {
+
+		List<String> script = new JdbcTemplate(primaryDataSource).queryForList("SCRIPT", String.class);
+		JdbcTemplate replica = new JdbcTemplate(replicaDataSource);
+		replica.execute("DROP ALL OBJECTS");
+		script.forEach(replica::execute);
+		entityManagerFactory.getCache().evictAll();
+	}
+
+	@Test
+	void readsGoToReplicaUntilClientHasWritten() {
+
+		ResponseEntity<UserRest> created = restTemplate.postForEntity("/jpa/users", json(Map.of("firstName", "Routed",
+				"lastName", "Primary", "email", "routed@test.com", "password", "12345678"), null), UserRest.class);
+		assertThat(created.getStatusCode()).isEqualTo(HttpStatus.OK);
+		String cookie = created.getHeaders().getFirst(HttpHeaders.SET_COOKIE);
+		assertThat(cookie).startsWith(ReadYourWrites.COOKIE_NAME + "=");
+		long userId = created.getBody().getUserId();
+		entityManagerFactory.getCache().evictAll();
+
+		// Another client reads the replica, which has not caught up with the write yet.
+		assertThat(get(userId, null).getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+		// The client that wrote reads its own write from the primary.
+		ResponseEntity<UserRest> own = get(userId, cookie);
+		assertThat(own.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(own.getBody().getFirstName()).isEqualTo("Routed");
+
+		replicate();
+		assertThat(get(userId, null).getStatusCode()).isEqualTo(HttpStatus.OK);
+	}
+
+	@Test
+	void updatesGoToPrimaryAndReadsDoNotSetCookie() {
+
+		ResponseEntity<UserRest> read = get(10001, null);
+		assertThat(read.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(read.getHeaders().containsKey(HttpHeaders.SET_COOKIE)).isFalse();
+
+		ResponseEntity<UserRest> updated = restTemplate.exchange("/jpa/users/10001", HttpMethod.PUT,
+				json(Map.of("firstName", "Written", "lastName", "Primary"), null), UserRest.class);
+		assertThat(updated.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(updated.getHeaders().getFirst(HttpHeaders.SET_COOKIE)).startsWith(ReadYourWrites.COOKIE_NAME + "=");
+		assertThat(new JdbcTemplate(primaryDataSource).queryForObject(
+				"SELECT FIRST_NAME FROM USER_REST WHERE USER_ID = 10001", String.class)).isEqualTo("Written");
+		assertThat(new JdbcTemplate(replicaDataSource).queryForObject(
+				"SELECT FIRST_NAME FROM USER_REST WHERE USER_ID = 10001", String.class)).isNotEqualTo("Written");
+	}
+
+	@Test
+	void replicaReadsDoNotFillTheSecondLevelCache() {
+
+		ResponseEntity<UserRest> updated = restTemplate.exchange("/jpa/users/10002", HttpMethod.PUT,
+				json(Map.of("firstName", "Fresh", "lastName", "Primary"), null), UserRest.class);
+		String cookie = updated.getHeaders().getFirst(HttpHeaders.SET_COOKIE);
+		// The cached copy of the update expires.
+		entityManagerFactory.getCache().evictAll();
+
+		// Another client reads the old user from the replica, it is not cached.
+		assertThat(get(10002, null).getBody().getFirstName()).isNotEqualTo("Fresh");
+		assertThat(entityManagerFactory.getCache().contains(UserRest.class, 10002L)).isFalse();
+
+		// The client that wrote reads its own write, which the primary read puts into the cache.
+		assertThat(get(10002, cookie).getBody().getFirstName()).isEqualTo("Fresh");
+		assertThat(entityManagerFactory.getCache().contains(UserRest.class, 10002L)).isTrue();
+	}
+
+	@Test
+	void bothPoolsHaveMetrics() {
+
+		assertThat(meterRegistry.find("hikaricp.connections").tag("pool", ReadWriteRoutingDataSource.PRIMARY).gauge())
+				.isNotNull();
+		assertThat(meterRegistry.find("hikaricp.connections").tag("pool", ReadWriteRoutingDataSource.REPLICA).gauge())
+				.isNotNull();
+	}
+
+	private ResponseEntity<UserRest> get(long userId, String cookie) {
+
+		return restTemplate.exchange("/jpa/users/" + userId, HttpMethod.GET, json(null, cookie), UserRest.class);
+	}
+
+	private static HttpEntity<Object> json(Object body, String cookie) {
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+		if (cookie != null) {
+			headers.add(HttpHeaders.COOKIE, cookie.split(";", 2)[0]);
+		}
+		return new HttpEntity<>(body, headers);
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.kokabmedia.app.ws.sharding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.zaxxer.hikari.HikariDataSource;
+
+/*
+ * This benchmark measures the throughput of the ShardedUserRepository class with 1, 2, 4
+ * and 8 embedded H2 shards under the same load, a mix of 70% reads by id, 20% updates and
+ * 10% creates from a fixed number of threads.
+ *
+ * It is not run by the build, run it with the test class path, for example:
+ *
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.kokabmedia.app.ws.sharding.ShardedUserBenchmark [threads] [seconds] [users]
+ */
+public class ShardedUserBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int users = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+		System.out.printf("threads=%d seconds=%d users=%d cpus=%d%n", threads, seconds, users,
+				Runtime.getRuntime().availableProcessors());
+		System.out.printf("%6s %12s %10s%n", "shards", "ops/s", "scaling");
+
+		double baseline = 0;
+		for (int shardCount : new int[] { 1, 2, 4, 8 }) {
+			double throughput = run(shardCount, threads, seconds, users);
+			if (baseline == 0) {
+				baseline = throughput;
+			}
+			System.out.printf("%6d %12.0f %9.2fx%n", shardCount, throughput, throughput / baseline);
+		}
+	}
+
+	private static double run(int shardCount, int threads, int seconds, int users) throws Exception {
+
+		List<DataSource> dataSources = new ArrayList<>();
+		for (int shard = 0; shard < shardCount; shard++) {
+			HikariDataSource dataSource = new HikariDataSource();
+			dataSource.setJdbcUrl("jdbc:h2:mem:bench-" + shardCount + "-" + shard + ";DB_CLOSE_DELAY=-1");
+			dataSource.setUsername("sa");
+			dataSource.setMaximumPoolSize(Math.max(2, threads / shardCount + 1));
+			dataSources.add(dataSource);
+		}
+
+		try (ShardedUserRepository repository = new ShardedUserRepository(dataSources, new ModuloShardStrategy(),
+				ShardedUserConfig.scatterExecutor(shardCount))) {
+			repository.createSchema();
+
+			long[] ids = new long[users];
+			for (int i = 0; i < users; i++) {
+				ids[i] = repository.create(user(i)).getUserId();
+			}
+
+			LongAdder operations = new LongAdder();
+			CountDownLatch done = new CountDownLatch(threads);
+			long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+			for (int t = 0; t < threads; t++) {
+				Thread worker = new Thread(() -> {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					while (System.nanoTime() < deadline) {
+						int operation = random.nextInt(100);
+						long id = ids[random.nextInt(ids.length)];
+						if (operation < 70) {
+							repository.findById(id);
+						} else if (operation < 90) {
+							repository.update(id, "First" + operation, "Last" + operation, null);
+						} else {
+							repository.create(user(random.nextInt()));
+						}
+						operations.increment();
+					}
+					done.countDown();
+				});
+				worker.start();
+			}
+			done.await();
+			return operations.sum() / (double) seconds;
+		}
+	}
+
+	private static UserRest user(int i) {
+
+		return new UserRest(0, "Bench" + i, "User" + i, "bench" + i + "@test.com", "12345678");
+	}
+
+}
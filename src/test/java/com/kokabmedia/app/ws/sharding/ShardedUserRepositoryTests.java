@@ -0,0 +1,131 @@
+package com.kokabmedia.app.ws.sharding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.kokabmedia.app.ws.exeption.UserConflictException;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * These tests run the ShardedUserRepository class on three embedded H2 databases without
+ * the Spring context.
+ */
+class ShardedUserRepositoryTests {
+
+	private static final int SHARDS = 3;
+
+	private final List<DataSource> dataSources = new ArrayList<>();
+	private ShardedUserRepository repository;
+
+	@BeforeEach
+	void createShards() {
+
+		String run = UUID.randomUUID().toString();
+		for (int shard = 0; shard < SHARDS; shard++) {
+			dataSources.add(new DriverManagerDataSource("jdbc:h2:mem:" + run + "-" + shard + ";DB_CLOSE_DELAY=-1", "sa", ""));
+		}
+		repository = new ShardedUserRepository(dataSources, new ModuloShardStrategy(),
+				ShardedUserConfig.scatterExecutor(SHARDS));
+		repository.createSchema();
+	}
+
+	@AfterEach
+	void dropShards() throws Exception {
+
+		// Not through JdbcTemplate, which reads the warnings of the statement of the closed database at debug level.
+		for (DataSource dataSource : dataSources) {
+			try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+				statement.execute("SHUTDOWN");
+			}
+		}
+		repository.close();
+	}
+
+	@Test
+	void usersAreStoredOnTheShardOfTheirId() {
+
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			ids.add(repository.create(user("Sharded", "user" + i)).getUserId());
+		}
+
+		assertThat(ids).doesNotHaveDuplicates();
+		for (int shard = 0; shard < SHARDS; shard++) {
+			List<Long> stored = new JdbcTemplate(dataSources.get(shard)).queryForList("SELECT USER_ID FROM USER_REST",
+					Long.class);
+			final int expected = shard;
+			assertThat(stored).isNotEmpty().allMatch(id -> shardOf(id) == expected);
+		}
+		assertThat(repository.count()).isEqualTo(30);
+		assertThat(repository.findById(ids.get(7)).map(UserRest::getEmail)).hasValue("user7@test.com");
+	}
+
+	@Test
+	void listsAndSearchesAreMergedInIdOrder() {
+
+		for (int i = 0; i < 20; i++) {
+			repository.create(user(i % 2 == 0 ? "Even" : "Odd", "user" + i));
+		}
+
+		List<UserRest> all = new ArrayList<>(repository.findAll(0, 8));
+		all.addAll(repository.findAll(8, 8));
+		all.addAll(repository.findAll(16, 8));
+		assertThat(all).hasSize(20).extracting(UserRest::getUserId).isSorted().doesNotHaveDuplicates();
+
+		// The pages after a user id are the same pages.
+		List<UserRest> after = new ArrayList<>(repository.findAllAfter(0, 8));
+		after.addAll(repository.findAllAfter(after.get(7).getUserId(), 8));
+		after.addAll(repository.findAllAfter(after.get(15).getUserId(), 8));
+		assertThat(after).extracting(UserRest::getUserId)
+				.containsExactlyElementsOf(all.stream().map(UserRest::getUserId).collect(Collectors.toList()));
+		assertThat(repository.findAllAfter(all.get(19).getUserId(), 8)).isEmpty();
+
+		List<UserRest> odd = repository.findByLastNameStartingWith("Od", 100);
+		assertThat(odd).hasSize(10).extracting(UserRest::getLastName).containsOnly("Odd");
+		assertThat(odd).extracting(UserRest::getUserId).isSorted();
+		assertThat(repository.findByLastNameStartingWith("%", 100)).isEmpty();
+	}
+
+	@Test
+	void updatesAndDeletesGoToOneShard() {
+
+		UserRest created = repository.create(user("Before", "update"));
+
+		UserRest updated = repository.update(created.getUserId(), "After", "Update", 0L).get();
+		assertThat(updated.getFirstName()).isEqualTo("After");
+		assertThat(updated.getVersion()).isEqualTo(1);
+
+		assertThatThrownBy(() -> repository.update(created.getUserId(), "Stale", "Update", 0L))
+				.isInstanceOf(UserConflictException.class);
+
+		assertThat(repository.deleteById(created.getUserId())).isTrue();
+		assertThat(repository.findById(created.getUserId())).isEmpty();
+		assertThat(repository.update(created.getUserId(), "Gone", "User", null)).isEmpty();
+	}
+
+	private static int shardOf(long userId) {
+
+		return new ModuloShardStrategy().shardForId(userId, SHARDS);
+	}
+
+	private static UserRest user(String lastName, String emailName) {
+
+		return new UserRest(0, "First", lastName, emailName + "@test.com", "12345678");
+	}
+
+}
@@ -0,0 +1,38 @@
+package com.kokabmedia.app.ws.shared;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class CountingBloomFilterTests {
+
+	@Test
+	void addedStringsAreAlwaysFoundFromManyThreads() {
+
+		CountingBloomFilter filter = new CountingBloomFilter(100_000, 0.01);
+		IntStream.range(0, 100_000).parallel().forEach(i -> filter.add("user" + i + "@test.com"));
+
+		assertThat(IntStream.range(0, 100_000).allMatch(i -> filter.mightContain("user" + i + "@test.com"))).isTrue();
+
+		long falsePositives = IntStream.range(0, 100_000).filter(i -> filter.mightContain("new" + i + "@test.com")).count();
+		assertThat(falsePositives).isLessThan(2_000);
+	}
+
+	@Test
+	void removedStringsAreNotFoundAndOthersStay() {
+
+		CountingBloomFilter filter = new CountingBloomFilter(1_000, 0.01);
+		filter.add("bob@test.com");
+		filter.add("dave@test.com");
+		filter.add("dave@test.com");
+
+		filter.remove("bob@test.com");
+		filter.remove("dave@test.com");
+
+		assertThat(filter.mightContain("bob@test.com")).isFalse();
+		assertThat(filter.mightContain("dave@test.com")).isTrue();
+	}
+
+}
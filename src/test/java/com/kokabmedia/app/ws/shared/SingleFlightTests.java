@@ -0,0 +1,178 @@
+package com.kokabmedia.app.ws.shared;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.kokabmedia.app.ws.exeption.ServiceUnavailableException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * These tests run a leader whose loader blocks until it is released and check what the
+ * followers that arrive in the meantime get.
+ */
+class SingleFlightTests {
+
+	private static final int FOLLOWERS = 4;
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(FOLLOWERS + 1);
+
+	private final CountDownLatch entered = new CountDownLatch(1);
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@AfterEach
+	void stopCallers() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void concurrentCallsForOneKeyRunTheLoaderOnce() throws Exception {
+
+		SingleFlight<Long, String> flight = new SingleFlight<>("test", 5_000, registry);
+
+		Future<String> leader = executor.submit(() -> flight.execute(1L, () -> block("user 1")));
+		entered.await(5, TimeUnit.SECONDS);
+		List<Future<String>> followers = follow(flight, () -> "not loaded");
+		awaitFollowers();
+
+		// Another key is not coalesced with the flight of the first one.
+		assertThat(flight.execute(2L, () -> "user 2")).isEqualTo("user 2");
+
+		release.countDown();
+		assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("user 1");
+		for (Future<String> follower : followers) {
+			assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("user 1");
+		}
+		assertThat(loads).hasValue(1);
+		assertThat(calls("follower")).isEqualTo(FOLLOWERS);
+		assertThat(registry.get("single.flight.coalescing.ratio").gauge().value()).isEqualTo(4.0 / 6);
+		assertThat(registry.get("single.flight.in.flight").gauge().value()).isZero();
+
+		// Nothing is cached, the next call loads again.
+		assertThat(flight.execute(1L, () -> "user 1 again")).isEqualTo("user 1 again");
+	}
+
+	@Test
+	void followersGetTheExceptionOfTheLeaderUnchanged() throws Exception {
+
+		SingleFlight<Long, String> flight = new SingleFlight<>("test", 5_000, registry);
+		ResponseStatusException notFound = new ResponseStatusException(HttpStatus.NOT_FOUND, "User 1 not found");
+
+		Future<String> leader = executor.submit(() -> flight.execute(1L, () -> {
+			block(null);
+			throw notFound;
+		}));
+		entered.await(5, TimeUnit.SECONDS);
+		List<Future<String>> followers = follow(flight, () -> "not loaded");
+		awaitFollowers();
+		release.countDown();
+
+		assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS)).hasCause(notFound);
+		for (Future<String> follower : followers) {
+			assertThatThrownBy(() -> follower.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+					.hasCause(notFound);
+		}
+		assertThat(loads).hasValue(1);
+	}
+
+	@Test
+	void followerThatWaitsTooLongIsToldToRetry() throws Exception {
+
+		SingleFlight<Long, String> flight = new SingleFlight<>("test", 50, registry);
+
+		Future<String> leader = executor.submit(() -> flight.execute(1L, () -> block("user 1")));
+		entered.await(5, TimeUnit.SECONDS);
+
+		assertThatThrownBy(() -> flight.execute(1L, () -> "not loaded"))
+				.isInstanceOfSatisfying(ServiceUnavailableException.class,
+						e -> assertThat(e.getRetryAfterSeconds()).isEqualTo(1));
+		assertThat(registry.get("single.flight.timeouts").counter().count()).isEqualTo(1);
+
+		// The leader is not affected by the follower that gave up.
+		release.countDown();
+		assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("user 1");
+	}
+
+	@Test
+	void interruptedFollowerIsToldToRetryAndKeepsItsInterrupt() throws Exception {
+
+		SingleFlight<Long, String> flight = new SingleFlight<>("test", 5_000, registry);
+
+		executor.submit(() -> flight.execute(1L, () -> block("user 1")));
+		entered.await(5, TimeUnit.SECONDS);
+
+		CompletableFuture<Boolean> interrupted = new CompletableFuture<>();
+		Thread follower = new Thread(() -> {
+			try {
+				flight.execute(1L, () -> "not loaded");
+				interrupted.complete(false);
+			} catch (ServiceUnavailableException e) {
+				interrupted.complete(Thread.currentThread().isInterrupted());
+			}
+		});
+		follower.start();
+		awaitFollowers(1);
+		follower.interrupt();
+
+		assertThat(interrupted.get(5, TimeUnit.SECONDS)).isTrue();
+		release.countDown();
+	}
+
+	private String block(String value) {
+		loads.incrementAndGet();
+		entered.countDown();
+		try {
+			release.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return value;
+	}
+
+	private List<Future<String>> follow(SingleFlight<Long, String> flight, Supplier<String> loader) {
+		List<Future<String>> followers = new ArrayList<>();
+		for (int i = 0; i < FOLLOWERS; i++) {
+			followers.add(executor.submit(() -> flight.execute(1L, loader)));
+		}
+		return followers;
+	}
+
+	private void awaitFollowers() throws InterruptedException {
+		awaitFollowers(FOLLOWERS);
+	}
+
+	// Every follower is counted before it starts to wait for the leader.
+	private void awaitFollowers(int followers) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (calls("follower") < followers && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+
+	private double calls(String role) {
+		return registry.get("single.flight.calls").tag("role", role).counter().count();
+	}
+
+}
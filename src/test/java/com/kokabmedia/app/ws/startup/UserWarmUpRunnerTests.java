@@ -0,0 +1,105 @@
+package com.kokabmedia.app.ws.startup;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.ui.controller.UserJPAController;
+import com.kokabmedia.app.ws.userservice.impl.UserServiceImpl;
+import com.kokabmedia.app.ws.userservice.impl.UserStorePersistence;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * These tests start the application with the warm-up, the persistence of the in-memory
+ * users and a rate limit of 2 requests, and check that the warm-up ran before the
+ * application reported ready, that none of its synthetic users are left behind or
+ * journaled and that its requests were not rate limited.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+		"app.warmup.enabled=true",
+		"app.warmup.iterations=20",
+		"spring.datasource.url=jdbc:h2:mem:warm-up",
+		"app.users.memory.persistence.enabled=true",
+		"app.admission.client.rate-per-second=1",
+		"app.admission.client.burst=2" })
+class UserWarmUpRunnerTests {
+
+	@DynamicPropertySource
+	static void persistenceDirectory(DynamicPropertyRegistry registry) throws IOException {
+		Path directory = Files.createTempDirectory("warm-up-users");
+		registry.add("app.users.memory.persistence.directory", directory::toString);
+	}
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private UserWarmUpRunner userWarmUpRunner;
+
+	@Autowired
+	private UserJPARepository userJpaRepository;
+
+	@Autowired
+	private UserServiceImpl userService;
+
+	@SpyBean
+	private UserStorePersistence userStorePersistence;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	void warmUpRunsBeforeReadinessAndLeavesNoUsers() {
+
+		assertThat(userWarmUpRunner.getCompletedIterations()).isEqualTo(20);
+		// The 20 requests of the warm-up bypassed the admission control.
+		assertThat(meterRegistry.get("admission.requests").tag("result", "admitted").counter().count()).isZero();
+		assertThat(meterRegistry.get("admission.requests").tag("result", "rate_limited").counter().count()).isZero();
+		verify(userStorePersistence, never()).journalPut(any());
+		verify(userStorePersistence, never()).journalRemove(anyLong());
+		assertThat(restTemplate.getForEntity("/actuator/health/readiness", String.class).getStatusCode())
+				.isEqualTo(HttpStatus.OK);
+
+		// Only the users of data.sql, the maintained count has not seen the warm-up users either.
+		assertThat(userJpaRepository.count()).isEqualTo(3);
+		ResponseEntity<String> users = restTemplate.getForEntity("/jpa/users", String.class);
+		assertThat(users.getHeaders().getFirst(UserJPAController.TOTAL_COUNT_HEADER)).isEqualTo("3");
+		assertThat(users.getHeaders().getFirst(UserJPAController.TOTAL_COUNT_EXACT_HEADER)).isEqualTo("true");
+		assertThat(userService.usersMap).isEmpty();
+
+		// The email of a rolled back warm-up user is free.
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+		Map<String, String> user = Map.of("firstName", "After", "lastName", "Warm-up",
+				"email", "warm-up-0@warm-up.invalid", "password", "12345678");
+		assertThat(restTemplate.postForEntity("/jpa/users", new HttpEntity<>(user, headers), String.class)
+				.getStatusCode()).isEqualTo(HttpStatus.OK);
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.kokabmedia.app.ws.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+
+import org.h2.mvstore.MVStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * These tests run the H2FileStoreMaintenance class against a file database without the
+ * Spring context, with the JDBC URL options of the file profile.
+ */
+class H2FileStoreMaintenanceTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void compactsRewrittenChunksWithoutLosingRows() {
+
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		try (HikariDataSource dataSource = dataSource()) {
+			H2FileStoreMaintenance maintenance = new H2FileStoreMaintenance(dataSource, registry, 80, 5000, 16);
+			JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+			jdbcTemplate.execute("create table user_rest (user_id bigint primary key, first_name varchar(255))");
+			jdbcTemplate.update("insert into user_rest select x, 'First' || x from system_range(1, 5000)");
+
+			// Every update leaves the old pages of the rows behind in older chunks, without the
+			// retention time the chunks of the test do not have to be 45 seconds old.
+			MVStore store = (MVStore) maintenance.store().unwrap();
+			store.setRetentionTime(0);
+			for (int round = 0; round < 5; round++) {
+				jdbcTemplate.update("update user_rest set first_name = ? where mod(user_id, 2) = 0", "Round" + round);
+				store.commit();
+			}
+			int fillRateBefore = store.getFillRate();
+			long sizeBefore = store.getFileStore().size();
+			assertThat(fillRateBefore).isLessThan(80);
+
+			maintenance.compact();
+
+			assertThat(store.getFillRate()).isGreaterThan(fillRateBefore);
+			assertThat(store.getFileStore().size()).isLessThan(sizeBefore);
+			assertThat(jdbcTemplate.queryForObject("select count(*) from user_rest where first_name = 'Round4'",
+					Integer.class)).isEqualTo(2500);
+			assertThat(registry.get("h2.store.file.size").gauge().value()).isPositive();
+			assertThat(registry.get("h2.store.fill.rate").gauge().value()).isEqualTo(store.getFillRate());
+		}
+
+		// The rows are read back from the file by the next instance.
+		try (HikariDataSource dataSource = dataSource()) {
+			assertThat(new JdbcTemplate(dataSource).queryForObject("select count(*) from user_rest", Integer.class))
+					.isEqualTo(5000);
+		}
+	}
+
+	private HikariDataSource dataSource() {
+
+		HikariDataSource dataSource = new HikariDataSource();
+		dataSource.setJdbcUrl("jdbc:h2:nioMapped:" + directory.resolve("users") + ";CACHE_SIZE=8192;WRITE_DELAY=0");
+		dataSource.setUsername("sa");
+		dataSource.setMaximumPoolSize(2);
+		return dataSource;
+	}
+
+}
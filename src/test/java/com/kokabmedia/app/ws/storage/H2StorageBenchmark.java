@@ -0,0 +1,169 @@
+package com.kokabmedia.app.ws.storage;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.kokabmedia.app.ws.RestMobileAppWsApplication;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * This benchmark compares the /jpa/users workload on the in-memory H2 database of the
+ * default profile with the MVStore file database of the file profile.
+ *
+ * Every run starts the application in this JVM, stores a number of users, then sends a mix
+ * of 70% GET /jpa/users/{userId}, 20% PUT and 10% POST requests from a number of threads
+ * and prints the throughput, the 99th percentile latency and the heap that is still used
+ * after a garbage collection. The file database is then started again to measure how long
+ * the start up takes with the users already on disk.
+ *
+ * It is not run by the build, run it with the test class path, for example:
+ *
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -Xmx2g -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.kokabmedia.app.ws.storage.H2StorageBenchmark [users] [threads] [seconds]
+ */
+public class H2StorageBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		int users = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		Path directory = Files.createTempDirectory("h2-storage-benchmark");
+
+		// The devtools restart would run this main method again in a new class loader.
+		System.setProperty("spring.devtools.restart.enabled", "false");
+
+		System.out.printf("users=%d threads=%d seconds=%d cpus=%d%n", users, threads, seconds,
+				Runtime.getRuntime().availableProcessors());
+		run("in-memory", users, threads, seconds, "default");
+		run("file", users, threads, seconds, "file", "--app.h2.file.path=" + directory.resolve("users"));
+
+		long start = System.nanoTime();
+		try (ConfigurableApplicationContext context = start("file", "--app.h2.file.path=" + directory.resolve("users"))) {
+			System.out.printf("%-10s restart with %d users %,d ms, file %,d MB%n", "file",
+					context.getBean(UserJPARepository.class).count(), (System.nanoTime() - start) / 1_000_000,
+					Files.size(directory.resolve("users.mv.db")) / (1024 * 1024));
+		}
+	}
+
+	private static void run(String name, int users, int threads, int seconds, String profile, String... properties)
+			throws Exception {
+
+		try (ConfigurableApplicationContext context = start(profile, properties)) {
+			UserJPARepository repository = context.getBean(UserJPARepository.class);
+			List<UserRest> batch = new ArrayList<>();
+			for (int i = 0; i < users; i++) {
+				batch.add(new UserRest(0, "First" + i, "Last" + i, "user" + i + "@" + name + ".benchmark", "password" + i));
+				if (batch.size() == 1000 || i == users - 1) {
+					repository.saveAll(batch);
+					batch.clear();
+				}
+			}
+			long[] ids = repository.findAll().stream().mapToLong(UserRest::getUserId).toArray();
+			String base = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort()
+					+ "/jpa/users";
+
+			// Warm up the request paths, then measure.
+			load(base, ids, threads, Math.max(2, seconds / 4));
+			long[] latencies = load(base, ids, threads, seconds);
+			Arrays.sort(latencies);
+
+			System.gc();
+			long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+			System.out.printf("%-10s %,10.0f requests/s  p99 %,7.2f ms  heap after gc %,6d MB%n", name,
+					latencies.length / (double) seconds, latencies[(int) (latencies.length * 0.99)] / 1e6,
+					heap / (1024 * 1024));
+		}
+	}
+
+	private static ConfigurableApplicationContext start(String profile, String... properties) {
+
+		// Without the users of data.sql, their ids collide with the generated ids above 10000.
+		List<String> args = new ArrayList<>(Arrays.asList("--server.port=0", "--spring.jpa.show-sql=false",
+				"--spring.sql.init.mode=never",
+				"--app.admission.enabled=false", "--app.audit.enabled=false", "--logging.level.root=warn"));
+		args.addAll(Arrays.asList(properties));
+		return new SpringApplicationBuilder(RestMobileAppWsApplication.class).profiles(profile)
+				.run(args.toArray(new String[0]));
+	}
+
+	private static long[] load(String base, long[] ids, int threads, int seconds) throws Exception {
+
+		HttpClient client = HttpClient.newHttpClient();
+		AtomicLong created = new AtomicLong();
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<long[]>> results = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				results.add(executor.submit(() -> {
+					long[] latencies = new long[1 << 16];
+					int count = 0;
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					while (System.nanoTime() < deadline) {
+						HttpRequest request = request(base, ids[random.nextInt(ids.length)], random.nextInt(100),
+								created);
+						long start = System.nanoTime();
+						client.send(request, HttpResponse.BodyHandlers.discarding());
+						if (count == latencies.length) {
+							latencies = Arrays.copyOf(latencies, count * 2);
+						}
+						latencies[count++] = System.nanoTime() - start;
+					}
+					return Arrays.copyOf(latencies, count);
+				}));
+			}
+			long[] all = new long[0];
+			for (Future<long[]> result : results) {
+				long[] latencies = result.get();
+				int offset = all.length;
+				all = Arrays.copyOf(all, offset + latencies.length);
+				System.arraycopy(latencies, 0, all, offset, latencies.length);
+			}
+			return all;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	// 70% reads, 20% updates and 10% creates.
+	private static HttpRequest request(String base, long id, int operation, AtomicLong created) {
+
+		HttpRequest.Builder request;
+		if (operation < 70) {
+			request = HttpRequest.newBuilder(URI.create(base + "/" + id)).GET();
+		} else if (operation < 90) {
+			request = HttpRequest.newBuilder(URI.create(base + "/" + id))
+					.PUT(json("{\"firstName\":\"First" + operation + "\",\"lastName\":\"Last" + operation + "\"}"));
+		} else {
+			request = HttpRequest.newBuilder(URI.create(base)).POST(json("{\"firstName\":\"New\",\"lastName\":\"User\","
+					+ "\"email\":\"new" + created.incrementAndGet() + "." + System.nanoTime()
+					+ "@benchmark.test\",\"password\":\"password1\"}"));
+		}
+		return request.header("Content-Type", "application/json").header("Accept", "application/json").build();
+	}
+
+	private static HttpRequest.BodyPublisher json(String body) {
+		return HttpRequest.BodyPublishers.ofString(body);
+	}
+
+}
@@ -0,0 +1,219 @@
+package com.kokabmedia.app.ws.tracing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * These tests send requests with a traceparent header and read the exported traces from
+ * the span file to check the spans of the layers of a request and their parents.
+ *
+ * Nothing is sampled by the sample rate and the tail latency threshold is out of reach,
+ * so only the requests with the sampled flag are exported.
+ *
+ * The roll over of the span file is checked on an exporter of its own.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+		"app.tracing.enabled=true",
+		"app.tracing.sample-rate=0",
+		"app.tracing.tail.enabled=true",
+		"app.tracing.tail.latency-threshold-ms=600000",
+		"app.tracing.export.file=target/tracing-tests/spans.jsonl",
+		"spring.datasource.url=jdbc:h2:mem:tracing" })
+class TracingTests {
+
+	private static final Path SPAN_FILE = Paths.get("target/tracing-tests/spans.jsonl");
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private Tracer tracer;
+
+	@Autowired
+	@Qualifier("applicationTaskExecutor")
+	private ThreadPoolTaskExecutor taskExecutor;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	void sampledRequestExportsSpansOfEveryLayer() throws Exception {
+
+		String traceId = traceId();
+		ResponseEntity<String> response = get("/jpa/users/10001", "00-" + traceId + "-b7ad6b7169203331-01");
+
+		assertThat(response.getHeaders().getFirst(Tracer.TRACEPARENT_HEADER)).startsWith("00-" + traceId + '-')
+				.endsWith("-01");
+
+		Map<String, JsonNode> spans = awaitTrace(traceId);
+		JsonNode root = spans.get("GET /jpa/users/{userId}");
+		JsonNode controller = spans.get("UserJPAController.getUser");
+		JsonNode repository = spans.get("UserJPARepository.findById");
+		JsonNode statement = spans.get("jdbc.executeQuery");
+		JsonNode write = spans.get("message.write");
+
+		assertThat(root.get("parentSpanId").asText()).isEqualTo("b7ad6b7169203331");
+		assertThat(root.get("kind").asInt()).isEqualTo(2);
+		assertThat(attribute(root, "http.status_code")).isEqualTo("200");
+		assertThat(controller.get("parentSpanId").asText()).isEqualTo(root.get("spanId").asText());
+		assertThat(repository.get("parentSpanId").asText()).isEqualTo(controller.get("spanId").asText());
+		assertThat(statement.get("parentSpanId").asText()).isEqualTo(repository.get("spanId").asText());
+		assertThat(statement.get("kind").asInt()).isEqualTo(3);
+		assertThat(attribute(statement, "db.statement")).containsIgnoringCase("select");
+		assertThat(write.get("parentSpanId").asText()).isEqualTo(root.get("spanId").asText());
+	}
+
+	@Test
+	void unsampledRequestIsNotExported() throws Exception {
+
+		double notSampled = meterRegistry.counter("tracing.traces", "result", "not_sampled").count();
+		String unsampledTraceId = traceId();
+		get("/jpa/users/10002", "00-" + unsampledTraceId + "-b7ad6b7169203331-00");
+
+		// The exporter writes in order, once the sampled trace is in the file the other would be too.
+		String sampledTraceId = traceId();
+		get("/jpa/users/10002", "00-" + sampledTraceId + "-b7ad6b7169203331-01");
+		awaitTrace(sampledTraceId);
+
+		assertThat(readTraces(unsampledTraceId)).isEmpty();
+		assertThat(meterRegistry.counter("tracing.traces", "result", "not_sampled").count())
+				.isEqualTo(notSampled + 1);
+	}
+
+	@Test
+	void taskOfApplicationTaskExecutorJoinsTrace() throws Exception {
+
+		String traceId = traceId();
+		try (Span root = tracer.startRootSpan("job", "00-" + traceId + "-b7ad6b7169203331-01")) {
+			taskExecutor.submit(() -> {
+				try (Span span = tracer.startSpan("task", Span.Kind.INTERNAL)) {
+					span.setAttribute("thread", Thread.currentThread().getName());
+				}
+			}).get();
+		}
+
+		Map<String, JsonNode> spans = awaitTrace(traceId);
+		assertThat(spans.get("task").get("parentSpanId").asText()).isEqualTo(spans.get("job").get("spanId").asText());
+		assertThat(attribute(spans.get("task"), "thread")).startsWith("task-");
+		assertThat(tracer.isRecording()).isFalse();
+	}
+
+	@Test
+	void spanFileIsRolledOverAtItsMaximumSize() throws Exception {
+
+		Path file = Paths.get("target/tracing-tests/rolled/spans.jsonl");
+		Path rolledFile = Paths.get("target/tracing-tests/rolled/spans.jsonl.1");
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(rolledFile);
+		OtlpJsonFileExporter exporter = new OtlpJsonFileExporter(new SimpleMeterRegistry(), file.toString(), 100, 1);
+		Tracer rolledTracer = new Tracer(exporter, new SimpleMeterRegistry(), 0, false, 600000, 256);
+		exporter.start();
+
+		// Every trace is written on its own, a trace is a few hundred bytes.
+		for (int i = 0; i < 20; i++) {
+			rolledTracer.startRootSpan("job", "00-" + traceId() + "-b7ad6b7169203331-01").close();
+			long deadline = System.currentTimeMillis() + 10_000;
+			while (!Files.exists(file) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(150);
+		}
+		exporter.stop();
+
+		assertThat(rolledFile).exists();
+		assertThat(Files.size(file)).isLessThan(1024 + Files.size(rolledFile));
+		assertThat(Files.size(rolledFile)).isGreaterThanOrEqualTo(1024);
+		assertThat(Files.readAllLines(file).size() + Files.readAllLines(rolledFile).size()).isLessThan(20);
+		assertThat(Paths.get("target/tracing-tests/rolled/spans.jsonl.2")).doesNotExist();
+	}
+
+	private ResponseEntity<String> get(String path, String traceparent) {
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(Tracer.TRACEPARENT_HEADER, traceparent);
+		headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+		return restTemplate.exchange(path, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+	}
+
+	/*
+	 * The spans of the trace by name, waits for the writer thread of the exporter.
+	 */
+	private Map<String, JsonNode> awaitTrace(String traceId) throws Exception {
+
+		long deadline = System.currentTimeMillis() + 10_000;
+		List<JsonNode> spans = readTraces(traceId);
+		while (spans.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+			spans = readTraces(traceId);
+		}
+		assertThat(spans).as("exported spans of trace %s", traceId).isNotEmpty();
+
+		Map<String, JsonNode> spansByName = new HashMap<>();
+		for (JsonNode span : spans) {
+			spansByName.put(span.get("name").asText(), span);
+		}
+		return spansByName;
+	}
+
+	private List<JsonNode> readTraces(String traceId) throws IOException {
+
+		List<JsonNode> spans = new ArrayList<>();
+		if (!Files.exists(SPAN_FILE)) {
+			return spans;
+		}
+		for (String line : Files.readAllLines(SPAN_FILE)) {
+			for (JsonNode span : objectMapper.readTree(line).at("/resourceSpans/0/scopeSpans/0/spans")) {
+				if (span.get("traceId").asText().equals(traceId)) {
+					spans.add(span);
+				}
+			}
+		}
+		return spans;
+	}
+
+	private static String attribute(JsonNode span, String key) {
+
+		for (JsonNode attribute : span.get("attributes")) {
+			if (attribute.get("key").asText().equals(key)) {
+				JsonNode value = attribute.get("value");
+				return value.has("intValue") ? value.get("intValue").asText() : value.get("stringValue").asText();
+			}
+		}
+		return null;
+	}
+
+	private static String traceId() {
+		return Span.hex(ThreadLocalRandom.current().nextLong()) + Span.hex(ThreadLocalRandom.current().nextLong());
+	}
+
+}
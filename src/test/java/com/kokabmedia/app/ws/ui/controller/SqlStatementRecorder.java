@@ -0,0 +1,133 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import com.kokabmedia.app.ws.userservice.impl.UserReadService;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+
+/*
+ * This class records the SQL statements that the application sends to the database while
+ * a test request runs, the datasource of the application context is wrapped by a
+ * datasource-proxy when the Config class is imported by a test.
+ *
+ * Only the statements of the thread that called start() are recorded, so a test that
+ * sends its requests with MockMvc (which runs the request on the test thread) does not
+ * count the statements of scheduled jobs and other background threads. The statements of
+ * the threads of the UserReadService are recorded too, GET /jpa/users/{userId} reads its
+ * user on them. A JDBC batch is one execution and is recorded as one statement.
+ */
+class SqlStatementRecorder implements QueryExecutionListener {
+
+	enum Type {
+		SELECT, INSERT, UPDATE, DELETE, SEQUENCE, OTHER
+	}
+
+	private final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+
+	private volatile Thread recordingThread;
+
+	void start() {
+		statements.clear();
+		recordingThread = Thread.currentThread();
+	}
+
+	/*
+	 * Stops the recording and returns the recorded statements in the order they were sent.
+	 */
+	List<String> stop() {
+		recordingThread = null;
+		synchronized (statements) {
+			return new ArrayList<>(statements);
+		}
+	}
+
+	@Override
+	public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+	}
+
+	@Override
+	public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+
+		Thread thread = Thread.currentThread();
+		if (thread != recordingThread
+				&& (recordingThread == null || !thread.getName().startsWith(UserReadService.THREAD_NAME_PREFIX))) {
+			return;
+		}
+		for (QueryInfo queryInfo : queryInfoList) {
+			statements.add(queryInfo.getQuery().trim());
+		}
+	}
+
+	static Type typeOf(String sql) {
+
+		String statement = sql.toLowerCase(Locale.ROOT);
+		if (statement.startsWith("call next value for") || statement.startsWith("select next value for")) {
+			return Type.SEQUENCE;
+		}
+		for (Type type : Type.values()) {
+			if (statement.startsWith(type.name().toLowerCase(Locale.ROOT) + " ")) {
+				return type;
+			}
+		}
+		return Type.OTHER;
+	}
+
+	/*
+	 * Counts the statements by type, the types without statements are left out.
+	 */
+	static Map<Type, Integer> countByType(List<String> statements) {
+
+		Map<Type, Integer> counts = new TreeMap<>();
+		for (String sql : statements) {
+			counts.merge(typeOf(sql), 1, Integer::sum);
+		}
+		return counts;
+	}
+
+	/*
+	 * Wraps every DataSource bean of the application context in a proxy that reports its
+	 * statements to the recorder.
+	 */
+	@TestConfiguration(proxyBeanMethods = false)
+	static class Config {
+
+		@Bean
+		SqlStatementRecorder sqlStatementRecorder() {
+			return new SqlStatementRecorder();
+		}
+
+		@Bean
+		static BeanPostProcessor statementRecordingDataSourcePostProcessor(ObjectProvider<SqlStatementRecorder> recorder) {
+
+			return new BeanPostProcessor() {
+
+				@Override
+				public Object postProcessAfterInitialization(Object bean, String beanName) {
+
+					if (bean instanceof DataSource) {
+						return ProxyDataSourceBuilder.create((DataSource) bean).name(beanName)
+								.listener(recorder.getObject()).build();
+					}
+					return bean;
+				}
+			};
+		}
+	}
+
+}
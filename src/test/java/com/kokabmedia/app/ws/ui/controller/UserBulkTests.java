@@ -0,0 +1,171 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.repository.UserTombstoneRepository;
+import com.kokabmedia.app.ws.ui.model.response.BulkOperationResultRest;
+import com.kokabmedia.app.ws.ui.model.response.BulkUserResultRest;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.kokabmedia.app.ws.userservice.impl.UserCountService;
+import com.kokabmedia.app.ws.userservice.impl.UserEmailIndex;
+
+/*
+ * These tests send POST /jpa/users/bulk requests in both modes and check the result of
+ * every operation, the database and the listeners of the UserChangedEvent.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class UserBulkTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private UserJPARepository userJpaRepository;
+
+	@Autowired
+	private UserTombstoneRepository userTombstoneRepository;
+
+	@Autowired
+	private UserCountService userCountService;
+
+	@Autowired
+	private UserEmailIndex userEmailIndex;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	/*
+	 * The second-level cache is shared by the application contexts of the tests, another
+	 * context may have recreated the tables and left users with the ids of new users in it.
+	 */
+	@BeforeEach
+	void forgetCachedUsers() {
+		entityManagerFactory.getCache().evictAll();
+	}
+
+	@Test
+	void atomicRequestAppliesEveryOperation() throws Exception {
+
+		UserRest renamed = createUser();
+		UserRest deleted = createUser();
+		String email = UUID.randomUUID() + "@bulk.test";
+		long countBefore = userCountService.getCount().getValue();
+
+		MvcResult response = bulk("ATOMIC", create(email), update(renamed.getUserId(), renamed.getVersion()),
+				delete(deleted.getUserId()), create(UUID.randomUUID() + "@bulk.test"));
+
+		assertThat(response.getResponse().getStatus()).isEqualTo(200);
+		BulkUserResultRest result = result(response);
+		assertThat(result.getSucceeded()).isEqualTo(4);
+		assertThat(result.getResults()).extracting(BulkOperationResultRest::getOp)
+				.containsExactly("CREATE", "UPDATE", "DELETE", "CREATE");
+		long createdId = result.getResults().get(0).getUserId();
+		assertThat(result.getResults().get(1).getUser().getVersion()).isEqualTo(renamed.getVersion() + 1);
+
+		assertThat(userJpaRepository.findById(createdId)).hasValueSatisfying(user -> assertThat(user.getEmail())
+				.isEqualTo(email));
+		assertThat(userJpaRepository.findById(renamed.getUserId()).get().getFirstName()).isEqualTo("Renamed");
+		assertThat(userJpaRepository.findById(deleted.getUserId())).isEmpty();
+		assertThat(userTombstoneRepository.existsById(deleted.getUserId())).isTrue();
+
+		// The listeners saw the committed changes.
+		assertThat(userCountService.getCount().getValue()).isEqualTo(countBefore + 1);
+		assertThat(userEmailIndex.isTaken(email)).isTrue();
+	}
+
+	@Test
+	void atomicRequestAppliesNothingWhenAnOperationFails() throws Exception {
+
+		UserRest user = createUser();
+		String email = UUID.randomUUID() + "@bulk.test";
+
+		MvcResult invalid = bulk("ATOMIC", create(email), Map.of("op", "UPDATE", "userId", user.getUserId(),
+				"firstName", "X", "lastName", "Renamed"));
+		assertThat(invalid.getResponse().getStatus()).isEqualTo(400);
+		assertThat(result(invalid).getResults()).extracting(BulkOperationResultRest::getStatus)
+				.containsExactly(424, 400);
+
+		MvcResult missing = bulk("ATOMIC", create(email), delete(Long.MAX_VALUE),
+				update(user.getUserId(), user.getVersion()));
+		assertThat(missing.getResponse().getStatus()).isEqualTo(404);
+		assertThat(result(missing).getResults()).extracting(BulkOperationResultRest::getStatus)
+				.containsExactly(424, 404, 424);
+
+		assertThat(userJpaRepository.existsByEmail(email)).isFalse();
+		assertThat(userJpaRepository.findById(user.getUserId()).get().getFirstName()).isEqualTo("Bulk");
+	}
+
+	@Test
+	void bestEffortRequestAppliesTheValidOperations() throws Exception {
+
+		UserRest stale = createUser();
+		UserRest renamed = createUser();
+		String email = UUID.randomUUID() + "@bulk.test";
+
+		MvcResult response = bulk("BEST_EFFORT", create(email), create(email), update(stale.getUserId(),
+				stale.getVersion() + 1), update(renamed.getUserId(), renamed.getVersion()), delete(Long.MAX_VALUE),
+				delete(renamed.getUserId()));
+
+		assertThat(response.getResponse().getStatus()).isEqualTo(207);
+		BulkUserResultRest result = result(response);
+		assertThat(result.getResults()).extracting(BulkOperationResultRest::getStatus)
+				.containsExactly(200, 400, 409, 200, 404, 400);
+		assertThat(result.getSucceeded()).isEqualTo(2);
+		assertThat(result.getFailed()).isEqualTo(4);
+		assertThat(userJpaRepository.existsByEmail(email)).isTrue();
+		assertThat(userJpaRepository.findById(stale.getUserId()).get().getFirstName()).isEqualTo("Bulk");
+		assertThat(userJpaRepository.findById(renamed.getUserId()).get().getFirstName()).isEqualTo("Renamed");
+	}
+
+	private MvcResult bulk(String mode, Map<?, ?>... operations) throws Exception {
+
+		List<Map<?, ?>> list = Arrays.asList(operations);
+		return mockMvc.perform(post("/jpa/users/bulk").contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON)
+				.content(objectMapper.writeValueAsString(Map.of("mode", mode, "operations", list)))).andReturn();
+	}
+
+	private BulkUserResultRest result(MvcResult response) throws Exception {
+		return objectMapper.readValue(response.getResponse().getContentAsString(), BulkUserResultRest.class);
+	}
+
+	private static Map<String, Object> create(String email) {
+		return Map.of("op", "CREATE", "firstName", "Created", "lastName", "Bulk", "email", email, "password", "12345678");
+	}
+
+	private static Map<String, Object> update(long userId, long version) {
+		return Map.of("op", "UPDATE", "userId", userId, "firstName", "Renamed", "lastName", "Bulk", "version", version);
+	}
+
+	private static Map<String, Object> delete(long userId) {
+		return Map.of("op", "DELETE", "userId", userId);
+	}
+
+	private UserRest createUser() {
+		return userJpaRepository.save(new UserRest(0, "Bulk", "User", UUID.randomUUID() + "@bulk.test", "12345678"));
+	}
+
+}
@@ -0,0 +1,206 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.reset;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * These tests update the same user from several clients at once and check that no update
+ * is lost, with and without the version of the user, and that a versionless update that
+ * keeps losing the race is answered with 409 after max-retries retries.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+		"app.admission.enabled=false",
+		"app.users.update.max-retries=20" })
+class UserConcurrentUpdateTests {
+
+	private static final int CLIENTS = 8;
+
+	private static final int UPDATES_PER_CLIENT = 10;
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@SpyBean
+	private UserJPARepository userJpaRepository;
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+
+	@AfterEach
+	void stopClients() {
+		executor.shutdownNow();
+		reset(userJpaRepository);
+	}
+
+	@Test
+	void concurrentVersionlessUpdatesAreRetriedAndEveryOneIsApplied() throws Exception {
+
+		UserRest created = createJpaUser();
+		String path = "/jpa/users/" + created.getUserId();
+		Set<Long> versions = ConcurrentHashMap.newKeySet();
+
+		concurrently(client -> {
+			for (int i = 0; i < UPDATES_PER_CLIENT; i++) {
+				ResponseEntity<UserRest> response = restTemplate.exchange(path, HttpMethod.PUT,
+						json(Map.of("firstName", "Client " + client, "lastName", "Update " + i)), UserRest.class);
+				assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+				versions.add(response.getBody().getVersion());
+			}
+		});
+
+		// Every update got its own version, none was written over another without one.
+		int updates = CLIENTS * UPDATES_PER_CLIENT;
+		assertThat(versions).hasSize(updates);
+		assertThat(userJpaRepository.findById(created.getUserId()).get().getVersion())
+				.isEqualTo(created.getVersion() + updates);
+	}
+
+	@Test
+	void versionedReadModifyWriteLosesNoIncrementOfJpaUsers() throws Exception {
+
+		UserRest created = createJpaUser();
+		incrementConcurrently("/jpa/users/" + created.getUserId());
+	}
+
+	@Test
+	void versionedReadModifyWriteLosesNoIncrementOfInMemoryUsers() throws Exception {
+
+		UserRest created = restTemplate.postForObject("/users", json(Map.of("firstName", "Counter", "lastName",
+				"Count 0", "email", UUID.randomUUID() + "@update.test", "password", "12345678")), UserRest.class);
+		incrementConcurrently("/users/" + created.getUserId());
+	}
+
+	@Test
+	void versionlessUpdateIsRejectedWhenItsRetriesAreUsedUp() {
+
+		UserRest created = createJpaUser();
+		// The default answer of the spy calls the repository.
+		Answer<?> repository = mockingDetails(userJpaRepository).getMockCreationSettings().getDefaultAnswer();
+
+		// Every read of the update is followed by a change of another connection.
+		doAnswer(invocation -> {
+			long userId = invocation.getArgument(0);
+			Object user = repository.answer(invocation);
+			CompletableFuture.runAsync(() -> jdbcTemplate.update(
+					"update user_rest set version = version + 1 where user_id = ?", userId)).join();
+			return user;
+		}).when(userJpaRepository).findById(anyLong());
+		clearInvocations(userJpaRepository);
+
+		ResponseEntity<UserRest> response = restTemplate.exchange("/jpa/users/" + created.getUserId(), HttpMethod.PUT,
+				json(Map.of("firstName", "Never", "lastName", "Applied")), UserRest.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+		// The first attempt, 20 retries and the read of the current user for the 409.
+		assertThat(mockingDetails(userJpaRepository).getInvocations())
+				.filteredOn(invocation -> invocation.getMethod().getName().equals("findById")).hasSize(22);
+		reset(userJpaRepository);
+		entityManagerFactory.getCache().evict(UserRest.class, created.getUserId());
+		assertThat(userJpaRepository.findById(created.getUserId()).get().getFirstName()).isEqualTo("Counter");
+	}
+
+	/*
+	 * Every client reads the user, increments the number of its last name and sends it
+	 * with the version it read, after a 409 it starts again from the current user.
+	 */
+	private void incrementConcurrently(String path) throws Exception {
+
+		concurrently(client -> {
+			for (int i = 0; i < UPDATES_PER_CLIENT; i++) {
+				UserRest current = restTemplate.exchange(path, HttpMethod.GET, json(null), UserRest.class).getBody();
+				while (true) {
+					ResponseEntity<UserRest> response = restTemplate.exchange(path, HttpMethod.PUT,
+							json(Map.of("firstName", "Counter", "lastName", "Count " + (count(current) + 1),
+									"version", current.getVersion())), UserRest.class);
+					if (response.getStatusCode() == HttpStatus.OK) {
+						break;
+					}
+					assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+					current = response.getBody();
+				}
+			}
+		});
+
+		UserRest result = restTemplate.exchange(path, HttpMethod.GET, json(null), UserRest.class).getBody();
+		assertThat(count(result)).isEqualTo(CLIENTS * UPDATES_PER_CLIENT);
+		assertThat(result.getVersion()).isEqualTo(CLIENTS * UPDATES_PER_CLIENT);
+	}
+
+	private void concurrently(Client client) throws Exception {
+
+		List<Future<?>> clients = new ArrayList<>();
+		for (int c = 0; c < CLIENTS; c++) {
+			int number = c;
+			clients.add(executor.submit(() -> {
+				client.run(number);
+				return null;
+			}));
+		}
+		for (Future<?> result : clients) {
+			result.get();
+		}
+	}
+
+	private UserRest createJpaUser() {
+		return restTemplate.postForObject("/jpa/users", json(Map.of("firstName", "Counter", "lastName", "Count 0",
+				"email", UUID.randomUUID() + "@update.test", "password", "12345678")), UserRest.class);
+	}
+
+	private static int count(UserRest user) {
+		return Integer.parseInt(user.getLastName().substring("Count ".length()));
+	}
+
+	private static HttpEntity<Object> json(Object body) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+		return new HttpEntity<>(body, headers);
+	}
+
+	private interface Client {
+		void run(int number) throws Exception;
+	}
+
+}
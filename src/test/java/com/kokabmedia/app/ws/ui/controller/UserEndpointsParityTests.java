@@ -0,0 +1,118 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * These tests send real HTTP requests to the /users and /jpa/users endpoints, they are run 
+ * on the JVM by the default build and compiled to a native image by the native Maven 
+ * profile, so both modes are checked against the same expectations.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+class UserEndpointsParityTests {
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Test
+	void jpaUsersRoundTripInJsonAndXml() {
+
+		UserRest created = restTemplate.postForObject("/jpa/users",
+				json(Map.of("firstName", "Native", "lastName", "Image", "email", "native@test.com", "password", "12345678")),
+				UserRest.class);
+		assertThat(created.getUserId()).isPositive();
+		assertThat(created.getFirstName()).isEqualTo("Native");
+
+		ResponseEntity<UserRest> json = restTemplate.exchange("/jpa/users/" + created.getUserId(), HttpMethod.GET,
+				accept(MediaType.APPLICATION_JSON), UserRest.class);
+		assertThat(json.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(json.getBody().getEmail()).isEqualTo("native@test.com");
+
+		ResponseEntity<String> xml = restTemplate.exchange("/jpa/users/" + created.getUserId(), HttpMethod.GET,
+				accept(MediaType.APPLICATION_XML), String.class);
+		assertThat(xml.getHeaders().getContentType().isCompatibleWith(MediaType.APPLICATION_XML)).isTrue();
+		assertThat(xml.getBody()).contains("<firstName>Native</firstName>");
+
+		UserRest updated = restTemplate.exchange("/jpa/users/" + created.getUserId(), HttpMethod.PUT,
+				json(Map.of("firstName", "Updated", "lastName", "Image")), UserRest.class).getBody();
+		assertThat(updated.getFirstName()).isEqualTo("Updated");
+		assertThat(updated.getVersion()).isEqualTo(created.getVersion() + 1);
+
+		ResponseEntity<UserRest> stale = restTemplate.exchange("/jpa/users/" + created.getUserId(), HttpMethod.PUT,
+				json(Map.of("firstName", "Stale", "lastName", "Image", "version", created.getVersion())), UserRest.class);
+		assertThat(stale.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+		assertThat(stale.getBody().getFirstName()).isEqualTo("Updated");
+		assertThat(stale.getBody().getVersion()).isEqualTo(updated.getVersion());
+
+		UserRest[] users = restTemplate.getForObject("/jpa/users", UserRest[].class);
+		assertThat(users).extracting(UserRest::getUserId).contains(10001L, created.getUserId());
+
+		restTemplate.delete("/jpa/users/" + created.getUserId());
+		assertThat(restTemplate.getForEntity("/jpa/users/" + created.getUserId(), UserRest.class).getStatusCode())
+				.isEqualTo(HttpStatus.NO_CONTENT);
+	}
+
+	@Test
+	void inMemoryUsersRoundTrip() {
+
+		ResponseEntity<UserRest> created = restTemplate.postForEntity("/users",
+				json(Map.of("firstName", "Native", "lastName", "Image", "email", "native@test.com", "password", "12345678")),
+				UserRest.class);
+		assertThat(created.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(created.getBody().getLastName()).isEqualTo("Image");
+		String path = "/users/" + created.getBody().getUserId();
+
+		assertThat(restTemplate.getForObject(path, UserRest.class).getEmail()).isEqualTo("native@test.com");
+
+		UserRest updated = restTemplate.exchange(path, HttpMethod.PUT,
+				json(Map.of("firstName", "Updated", "lastName", "Image", "version", 0)), UserRest.class).getBody();
+		assertThat(updated.getFirstName()).isEqualTo("Updated");
+		assertThat(updated.getVersion()).isEqualTo(1);
+
+		ResponseEntity<UserRest> stale = restTemplate.exchange(path, HttpMethod.PUT,
+				json(Map.of("firstName", "Stale", "lastName", "Image", "version", 0)), UserRest.class);
+		assertThat(stale.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+		assertThat(stale.getBody().getFirstName()).isEqualTo("Updated");
+
+		restTemplate.delete(path);
+		assertThat(restTemplate.getForEntity(path, UserRest.class).getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+		ResponseEntity<String> invalid = restTemplate.postForEntity("/users",
+				json(Map.of("firstName", "N", "lastName", "Image", "email", "native@test.com", "password", "12345678")),
+				String.class);
+		assertThat(invalid.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+
+		assertThat(restTemplate.getForObject("/users?page=2&limit=10", String.class))
+				.isEqualTo("get users was called with page = 2 and limit = 10");
+	}
+
+	private static HttpEntity<Object> json(Object body) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+		return new HttpEntity<>(body, headers);
+	}
+
+	private static HttpEntity<Void> accept(MediaType mediaType) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setAccept(Collections.singletonList(mediaType));
+		return new HttpEntity<>(headers);
+	}
+
+}
@@ -0,0 +1,247 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.ui.controller.SqlStatementRecorder.Type;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.kokabmedia.app.ws.ui.model.response.UserSyncRest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * These tests pin the number and the type of the SQL statements that every endpoint of
+ * UserJPAController (and the delta sync of UserSyncController) sends to the database, a
+ * change that adds a query to an endpoint or loads a page of users one by one (N+1)
+ * fails the build until the expected counts are updated on purpose.
+ *
+ * The second-level and query cache of Hibernate are emptied before a cold request, so
+ * the counts do not depend on the requests of other tests, and the counts of a request
+ * that is served from the caches are pinned separately.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@Import(SqlStatementRecorder.Config.class)
+class UserJPAControllerStatementCountTests {
+
+	// More users than one page, so a page that loads its users one by one is noticed.
+	private static final int PAGE_SIZE = 50;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private SqlStatementRecorder recorder;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private UserJPARepository userJpaRepository;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@BeforeEach
+	void fillFirstPage() {
+
+		List<UserRest> users = new ArrayList<>();
+		for (long count = userJpaRepository.count(); count <= PAGE_SIZE; count++) {
+			users.add(new UserRest(0, "Statement", "Counted", UUID.randomUUID() + "@statements.test", "12345678"));
+		}
+		userJpaRepository.saveAll(users);
+	}
+
+	@Test
+	void getUsersLoadsPageWithOneSelect() throws Exception {
+
+		evictCaches();
+		assertStatements(get("/jpa/users?page=1&limit=" + PAGE_SIZE), Map.of(Type.SELECT, 1));
+
+		// The query cache has the ids of the page and the second-level cache the users.
+		assertStatements(get("/jpa/users?page=1&limit=" + PAGE_SIZE), Map.of());
+	}
+
+	@Test
+	void getUserLoadsUserWithOneSelect() throws Exception {
+
+		long userId = createUser().getUserId();
+
+		evictCaches();
+		assertStatements(get("/jpa/users/" + userId), Map.of(Type.SELECT, 1));
+		assertStatements(get("/jpa/users/" + userId), Map.of());
+		assertStatements(get("/jpa/users/" + Long.MAX_VALUE), Map.of(Type.SELECT, 1));
+	}
+
+	@Test
+	void multiGetLoadsUncachedUsersWithOneSelect() throws Exception {
+
+		long first = createUser().getUserId();
+		long second = createUser().getUserId();
+		long third = createUser().getUserId();
+		String ids = first + "," + second + "," + third;
+
+		evictCaches();
+		assertStatements(get("/jpa/users?ids=" + ids), Map.of(Type.SELECT, 1));
+		assertStatements(get("/jpa/users?ids=" + ids), Map.of());
+
+		// A cached user is read from the cache and the others with one IN query.
+		entityManagerFactory.getCache().evict(UserRest.class, second);
+		entityManagerFactory.getCache().evict(UserRest.class, third);
+		assertStatements(post("/jpa/users/lookup").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"ids\": [" + ids + "]}"), Map.of(Type.SELECT, 1));
+	}
+
+	@Test
+	void createUserInsertsWithoutReading() throws Exception {
+
+		/*
+		 * The email check only queries the database when the Bloom filter of the
+		 * UserEmailIndex reports a possible duplicate, which is rare but not impossible
+		 * for a random email.
+		 */
+		double possibleDuplicates = emailChecks("possible_duplicate");
+		List<String> statements = record(post("/jpa/users").contentType(MediaType.APPLICATION_JSON)
+				.content(objectMapper.writeValueAsString(Map.of("firstName", "Created", "lastName", "Counted",
+						"email", UUID.randomUUID() + "@statements.test", "password", "12345678"))));
+		int emailQueries = (int) (emailChecks("possible_duplicate") - possibleDuplicates);
+
+		assertThat(SqlStatementRecorder.countByType(statements)).as(String.join("\n", statements))
+				.isEqualTo(emailQueries == 0 ? Map.of(Type.SEQUENCE, 1, Type.INSERT, 1)
+						: Map.of(Type.SELECT, emailQueries, Type.SEQUENCE, 1, Type.INSERT, 1));
+	}
+
+	@Test
+	void updateUserSelectsOnceAndUpdatesOnce() throws Exception {
+
+		long userId = createUser().getUserId();
+
+		evictCaches();
+		assertStatements(updateUser(userId, "Uncached"), Map.of(Type.SELECT, 1, Type.UPDATE, 1));
+
+		// The user that was read by the first update is in the second-level cache.
+		assertStatements(updateUser(userId, "Cached"), Map.of(Type.UPDATE, 1));
+	}
+
+	@Test
+	void deleteUserSelectsDeletesAndStoresTombstone() throws Exception {
+
+		long userId = createUser().getUserId();
+
+		evictCaches();
+		assertStatements(delete("/jpa/users/" + userId), Map.of(Type.SELECT, 1, Type.DELETE, 1, Type.INSERT, 1));
+	}
+
+	@Test
+	void bulkSendsEveryOperationTypeAsOneBatch() throws Exception {
+
+		long first = createUser().getUserId();
+		long second = createUser().getUserId();
+		long third = createUser().getUserId();
+		long fourth = createUser().getUserId();
+		List<Map<String, Object>> operations = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			operations.add(Map.of("op", "CREATE", "firstName", "Bulk", "lastName", "Counted", "email",
+					UUID.randomUUID() + "@statements.test", "password", "12345678"));
+		}
+		operations.add(Map.of("op", "UPDATE", "userId", first, "firstName", "Bulk", "lastName", "Renamed"));
+		operations.add(Map.of("op", "UPDATE", "userId", second, "firstName", "Bulk", "lastName", "Renamed"));
+		operations.add(Map.of("op", "DELETE", "userId", third));
+		operations.add(Map.of("op", "DELETE", "userId", fourth));
+
+		/*
+		 * One sequence call per created user, one IN query for the changed users and one
+		 * JDBC batch of inserts (users and tombstones), updates and deletes each.
+		 */
+		evictCaches();
+		double possibleDuplicates = emailChecks("possible_duplicate");
+		List<String> statements = record(post("/jpa/users/bulk").contentType(MediaType.APPLICATION_JSON)
+				.content(objectMapper.writeValueAsString(Map.of("operations", operations))));
+		int emailQueries = (int) (emailChecks("possible_duplicate") - possibleDuplicates);
+
+		assertThat(SqlStatementRecorder.countByType(statements)).as(String.join("\n", statements))
+				.isEqualTo(Map.of(Type.SEQUENCE, 3, Type.SELECT, 1 + emailQueries, Type.INSERT, 2, Type.UPDATE, 1,
+						Type.DELETE, 1));
+	}
+
+	@Test
+	void syncReadsUsersAndTombstonesWithOneSelectEach() throws Exception {
+
+		MvcResult initial = mockMvc.perform(get("/jpa/users/sync?limit=" + PAGE_SIZE)
+				.accept(MediaType.APPLICATION_JSON)).andReturn();
+		String token = objectMapper.readValue(initial.getResponse().getContentAsString(), UserSyncRest.class)
+				.getNextToken();
+
+		evictCaches();
+		assertStatements(get("/jpa/users/sync?limit=" + PAGE_SIZE), Map.of(Type.SELECT, 1));
+		assertStatements(get("/jpa/users/sync?limit=" + PAGE_SIZE + "&since=" + token), Map.of(Type.SELECT, 2));
+	}
+
+	private void assertStatements(RequestBuilder request, Map<Type, Integer> expected) throws Exception {
+
+		List<String> statements = record(request);
+		assertThat(SqlStatementRecorder.countByType(statements)).as(String.join("\n", statements))
+				.isEqualTo(expected);
+	}
+
+	private List<String> record(RequestBuilder request) throws Exception {
+
+		MvcResult result;
+		List<String> statements;
+		recorder.start();
+		try {
+			result = mockMvc.perform(request).andReturn();
+		} finally {
+			statements = recorder.stop();
+		}
+		assertThat(result.getResponse().getStatus()).as("HTTP status").isLessThan(400);
+		return statements;
+	}
+
+	private RequestBuilder updateUser(long userId, String firstName) throws Exception {
+
+		return put("/jpa/users/" + userId).contentType(MediaType.APPLICATION_JSON)
+				.content(objectMapper.writeValueAsString(Map.of("firstName", firstName, "lastName", "Counted")));
+	}
+
+	private UserRest createUser() {
+
+		return userJpaRepository.save(new UserRest(0, "Statement", "Counted", UUID.randomUUID() + "@statements.test",
+				"12345678"));
+	}
+
+	private double emailChecks(String result) {
+		return meterRegistry.get("user.email.checks").tag("result", result).counter().count();
+	}
+
+	private void evictCaches() {
+		entityManagerFactory.getCache().evictAll();
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.reset;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.kokabmedia.app.ws.userservice.impl.UserReadService;
+
+/*
+ * These tests hold the lookup of a user while a second request for the same user waits
+ * for it and check that the waiting request is told to try again when the lookup takes
+ * longer than the coalescing timeout.
+ */
+@SpringBootTest(properties = {
+		"app.users.lookup.coalescing-timeout-ms=100",
+		"app.users.read.circuit-breaker.timeout-ms=5000" })
+@AutoConfigureMockMvc
+class UserLookupCoalescingTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private UserJPARepository userJpaRepository;
+
+	@SpyBean
+	private UserReadService userReadService;
+
+	@AfterEach
+	void resumeLookups() {
+		reset(userReadService);
+	}
+
+	@Test
+	void requestThatWaitsTooLongForALookupGets503() throws Exception {
+
+		long userId = userJpaRepository.save(new UserRest(0, "Single", "Flight", UUID.randomUUID()
+				+ "@coalescing.test", "12345678")).getUserId();
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			entered.countDown();
+			release.await(5, TimeUnit.SECONDS);
+			return invocation.callRealMethod();
+		}).when(userReadService).read(anyLong());
+
+		CompletableFuture<MvcResult> leader = CompletableFuture.supplyAsync(() -> getUser(userId));
+		assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+		MvcResult follower = getUser(userId);
+		assertThat(follower.getResponse().getStatus()).isEqualTo(503);
+		assertThat(follower.getResponse().getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+		assertThat(follower.getResponse().getContentAsString()).contains("Timed out after 100 ms");
+
+		release.countDown();
+		assertThat(leader.get(5, TimeUnit.SECONDS).getResponse().getStatus()).isEqualTo(200);
+	}
+
+	private MvcResult getUser(long userId) {
+		try {
+			return mockMvc.perform(get("/jpa/users/" + userId).accept(MediaType.APPLICATION_JSON)).andReturn();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.ui.model.request.UserIdsRequestModel;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.kokabmedia.app.ws.ui.model.response.UsersRest;
+
+/*
+ * These tests check that GET /jpa/users?ids= and POST /jpa/users/lookup accept and reject
+ * the same lists of ids.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class UserMultiGetTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private UserJPARepository userJpaRepository;
+
+	@Test
+	void bothEndpointsReturnTheUsersInTheRequestedOrder() throws Exception {
+
+		long first = createUser();
+		long second = createUser();
+		List<Long> ids = List.of(second, first, second, Long.MAX_VALUE);
+
+		for (RequestBuilder request : List.of(query(ids), body(Map.of("ids", ids)))) {
+			String response = mockMvc.perform(request).andReturn().getResponse().getContentAsString();
+			UsersRest users = objectMapper.readValue(response, UsersRest.class);
+			assertThat(users.getUsers()).extracting(UserRest::getUserId).containsExactly(second, first);
+		}
+	}
+
+	@Test
+	void nullIdsAreRejectedWith400() throws Exception {
+
+		assertThat(status(get("/jpa/users?ids=1,,2").accept(MediaType.APPLICATION_JSON))).isEqualTo(400);
+		assertThat(status(body(Map.of("ids", Arrays.asList(1L, null, 2L))))).isEqualTo(400);
+	}
+
+	@Test
+	void emptyAndTooLongListsAreRejectedWith400() throws Exception {
+
+		List<Long> allowed = LongStream.rangeClosed(1, UserIdsRequestModel.MAX_IDS).boxed()
+				.collect(Collectors.toList());
+		List<Long> tooMany = LongStream.rangeClosed(1, UserIdsRequestModel.MAX_IDS + 1).boxed()
+				.collect(Collectors.toList());
+
+		assertThat(status(query(allowed))).isEqualTo(200);
+		assertThat(status(body(Map.of("ids", allowed)))).isEqualTo(200);
+		assertThat(status(query(tooMany))).isEqualTo(400);
+		assertThat(status(body(Map.of("ids", tooMany)))).isEqualTo(400);
+		assertThat(status(body(Map.of("ids", List.of())))).isEqualTo(400);
+	}
+
+	private long createUser() {
+		return userJpaRepository.save(new UserRest(0, "Multi", "Get", UUID.randomUUID() + "@multi-get.test",
+				"12345678")).getUserId();
+	}
+
+	private int status(RequestBuilder request) throws Exception {
+		return mockMvc.perform(request).andReturn().getResponse().getStatus();
+	}
+
+	private static RequestBuilder query(List<Long> ids) {
+		return get("/jpa/users").param("ids", ids.stream().map(String::valueOf).collect(Collectors.joining(",")))
+				.accept(MediaType.APPLICATION_JSON);
+	}
+
+	private RequestBuilder body(Object body) throws Exception {
+		return post("/jpa/users/lookup").contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON)
+				.content(objectMapper.writeValueAsString(body));
+	}
+
+}
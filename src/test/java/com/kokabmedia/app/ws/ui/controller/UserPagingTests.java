@@ -0,0 +1,139 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.kokabmedia.app.ws.userservice.impl.UserCountService;
+
+/*
+ * These tests page through GET /jpa/users and check the rejected page parameters, the
+ * pages past the last user and the X-Total-Count and X-Total-Count-Exact headers around
+ * created and deleted users.
+ */
+@SpringBootTest(properties = {
+		"app.admission.enabled=false",
+		"app.users.list.max-limit=20" })
+@AutoConfigureMockMvc
+class UserPagingTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private UserJPARepository userJpaRepository;
+
+	@Autowired
+	private UserCountService userCountService;
+
+	// More users than two pages of the largest limit.
+	@BeforeEach
+	void fillPages() {
+
+		List<UserRest> users = new ArrayList<>();
+		for (long count = userJpaRepository.count(); count < 45; count++) {
+			users.add(new UserRest(0, "Paged", "User", UUID.randomUUID() + "@paging.test", "12345678"));
+		}
+		userJpaRepository.saveAll(users);
+		userCountService.reconcile();
+	}
+
+	@Test
+	void pageParametersOutsideTheirRangeAreRejectedWith400() throws Exception {
+
+		assertThat(status("/jpa/users?page=0")).isEqualTo(400);
+		assertThat(status("/jpa/users?page=-1")).isEqualTo(400);
+		assertThat(status("/jpa/users?limit=0")).isEqualTo(400);
+		assertThat(status("/jpa/users?limit=21")).isEqualTo(400);
+		assertThat(status("/jpa/users?page=1&limit=20")).isEqualTo(200);
+	}
+
+	@Test
+	void pagesFollowEachOtherAndEndWithEmptyPages() throws Exception {
+
+		long total = userJpaRepository.count();
+		int lastPage = (int) ((total + 19) / 20);
+
+		List<Long> userIds = new ArrayList<>();
+		for (int page = 1; page <= lastPage; page++) {
+			List<UserRest> users = users(getUsers("/jpa/users?limit=20&page=" + page));
+			assertThat(users).hasSize(page < lastPage ? 20 : (int) (total - (lastPage - 1) * 20L));
+			users.forEach(user -> userIds.add(user.getUserId()));
+		}
+		assertThat(userIds).hasSize((int) total).doesNotHaveDuplicates().isSorted();
+
+		// A page past the last user is empty and still has the count.
+		MvcResult pastTheEnd = getUsers("/jpa/users?limit=20&page=" + (lastPage + 1));
+		assertThat(users(pastTheEnd)).isEmpty();
+		assertThat(pastTheEnd.getResponse().getHeader(UserJPAController.TOTAL_COUNT_HEADER))
+				.isEqualTo(Long.toString(total));
+		assertThat(users(getUsers("/jpa/users?limit=1&page=" + Integer.MAX_VALUE))).isEmpty();
+		// The offset of the first user does not fit the query.
+		assertThat(status("/jpa/users?limit=20&page=" + Integer.MAX_VALUE)).isEqualTo(400);
+	}
+
+	@Test
+	void totalCountIsApproximateAfterAWriteUntilTheNextReconcile() throws Exception {
+
+		long total = userJpaRepository.count();
+		assertCount(total, true);
+
+		MvcResult created = mockMvc.perform(post("/jpa/users").contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(Map.of("firstName",
+						"Counted", "lastName", "User", "email", UUID.randomUUID() + "@paging.test", "password",
+						"12345678")))).andReturn();
+		assertThat(created.getResponse().getStatus()).isEqualTo(200);
+		assertCount(total + 1, false);
+
+		long userId = objectMapper.readValue(created.getResponse().getContentAsString(), UserRest.class).getUserId();
+		mockMvc.perform(delete("/jpa/users/" + userId));
+		assertCount(total, false);
+
+		userCountService.reconcile();
+		assertCount(total, true);
+	}
+
+	private void assertCount(long total, boolean exact) throws Exception {
+		MvcResult page = getUsers("/jpa/users?limit=1");
+		assertThat(page.getResponse().getHeader(UserJPAController.TOTAL_COUNT_HEADER)).isEqualTo(Long.toString(total));
+		assertThat(page.getResponse().getHeader(UserJPAController.TOTAL_COUNT_EXACT_HEADER))
+				.isEqualTo(Boolean.toString(exact));
+	}
+
+	private MvcResult getUsers(String url) throws Exception {
+		MvcResult result = mockMvc.perform(get(url).accept(MediaType.APPLICATION_JSON)).andReturn();
+		assertThat(result.getResponse().getStatus()).isEqualTo(200);
+		return result;
+	}
+
+	private List<UserRest> users(MvcResult result) throws Exception {
+		return objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<List<UserRest>>() {});
+	}
+
+	private int status(String url) throws Exception {
+		return mockMvc.perform(get(url).accept(MediaType.APPLICATION_JSON)).andReturn().getResponse().getStatus();
+	}
+
+}
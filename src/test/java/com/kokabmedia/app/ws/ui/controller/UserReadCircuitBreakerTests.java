@@ -0,0 +1,136 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.reset;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+import java.util.UUID;
+
+import javax.cache.CacheManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.shared.CircuitBreaker;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.kokabmedia.app.ws.userservice.impl.UserReadService;
+
+/*
+ * These tests stall the reads of UserJPARepository and check that GET /jpa/users/{userId}
+ * is answered within the timeout of the circuit breaker, from the last known good copy of
+ * the user while the breaker is open, and from the database again once the background
+ * probe has closed the breaker.
+ */
+@SpringBootTest(properties = {
+		"app.users.read.circuit-breaker.timeout-ms=200",
+		"app.users.read.circuit-breaker.window-size=4",
+		"app.users.read.circuit-breaker.minimum-calls=2",
+		"app.users.read.circuit-breaker.open-ms=300",
+		"app.users.read.circuit-breaker.probe-interval-ms=100" })
+@AutoConfigureMockMvc
+class UserReadCircuitBreakerTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@SpyBean
+	private UserJPARepository userJpaRepository;
+
+	@Autowired
+	private UserReadService userReadService;
+
+	@Autowired
+	private CacheManager userCacheManager;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	/*
+	 * The JCache manager is shared by the application contexts of the tests, the users of
+	 * another context may have the ids of the users of this test.
+	 */
+	@BeforeEach
+	void forgetLastKnownGoodUsers() {
+		userCacheManager.getCache(UserReadService.LAST_KNOWN_GOOD_CACHE).clear();
+		entityManagerFactory.getCache().evictAll();
+	}
+
+	@AfterEach
+	void resumeDatabase() {
+		reset(userJpaRepository);
+	}
+
+	@Test
+	void stalledDatabaseIsAnsweredFromLastKnownGoodUsers() throws Exception {
+
+		UserRest user = userJpaRepository.save(new UserRest(0, "Known", "Good", UUID.randomUUID() + "@breaker.test",
+				"12345678"));
+		UserRest unknown = userJpaRepository.save(new UserRest(0, "Never", "Read", UUID.randomUUID()
+				+ "@breaker.test", "12345678"));
+		MvcResult fresh = getUser(user.getUserId());
+		assertThat(fresh.getResponse().getStatus()).isEqualTo(200);
+		assertThat(fresh.getResponse().getHeader(HttpHeaders.WARNING)).isNull();
+
+		// Every read of the database now takes 5 seconds.
+		doAnswer(invocation -> {
+			Thread.sleep(5000);
+			return invocation.callRealMethod();
+		}).when(userJpaRepository).findById(anyLong());
+		doAnswer(invocation -> {
+			Thread.sleep(5000);
+			return invocation.callRealMethod();
+		}).when(userJpaRepository).existsById(anyLong());
+
+		for (int i = 0; i < 4; i++) {
+			long start = System.nanoTime();
+			MvcResult stale = getUser(user.getUserId());
+			assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(1000);
+			assertThat(stale.getResponse().getStatus()).isEqualTo(200);
+			assertThat(stale.getResponse().getHeader(HttpHeaders.WARNING)).isEqualTo(UserJPAController.STALE_WARNING);
+			assertThat(stale.getResponse().getHeader(HttpHeaders.AGE)).isNotNull();
+			assertThat(objectMapper.readValue(stale.getResponse().getContentAsString(), UserRest.class)
+					.getFirstName()).isEqualTo("Known");
+		}
+		assertThat(userReadService.getState()).isNotEqualTo(CircuitBreaker.State.CLOSED);
+
+		// Without a copy the user is unavailable, at once while the breaker is open.
+		long start = System.nanoTime();
+		MvcResult unavailable = getUser(unknown.getUserId());
+		assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(200);
+		assertThat(unavailable.getResponse().getStatus()).isEqualTo(503);
+		assertThat(unavailable.getResponse().getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+
+		// Once the database answers again the probe closes the breaker.
+		reset(userJpaRepository);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (userReadService.getState() != CircuitBreaker.State.CLOSED && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertThat(userReadService.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+		MvcResult recovered = getUser(unknown.getUserId());
+		assertThat(recovered.getResponse().getStatus()).isEqualTo(200);
+		assertThat(recovered.getResponse().getHeader(HttpHeaders.WARNING)).isNull();
+	}
+
+	private MvcResult getUser(long userId) throws Exception {
+		return mockMvc.perform(get("/jpa/users/" + userId).accept(MediaType.APPLICATION_JSON)).andReturn();
+	}
+
+}
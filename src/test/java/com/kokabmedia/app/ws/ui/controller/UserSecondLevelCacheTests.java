@@ -0,0 +1,151 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.kokabmedia.app.ws.ui.model.response.UsersRest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * These tests check that GET /jpa/users/{userId} and GET /jpa/users are served from the
+ * second-level and query cache of Hibernate and that an update of UserJPAController never
+ * leaves a stale user in either cache.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+class UserSecondLevelCacheTests {
+
+	private static final String USER_REGION = UserRest.class.getName();
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	void updateReplacesCachedUser() {
+
+		UserRest created = createUser("Cached");
+		entityManagerFactory.getCache().evict(UserRest.class, created.getUserId());
+
+		long misses = region().getMissCount();
+		assertThat(getUser(created.getUserId()).getFirstName()).isEqualTo("Cached");
+		assertThat(region().getMissCount()).isEqualTo(misses + 1);
+
+		long hits = region().getHitCount();
+		assertThat(getUser(created.getUserId()).getFirstName()).isEqualTo("Cached");
+		assertThat(region().getHitCount()).isEqualTo(hits + 1);
+
+		ResponseEntity<UserRest> updated = restTemplate.exchange("/jpa/users/" + created.getUserId(), HttpMethod.PUT,
+				json(Map.of("firstName", "Fresh", "lastName", "Cache")), UserRest.class);
+		assertThat(updated.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+		// The committed update replaced the cache entry, so the next read is a hit with the new state.
+		assertThat(entityManagerFactory.getCache().contains(UserRest.class, created.getUserId())).isTrue();
+		misses = region().getMissCount();
+		UserRest read = getUser(created.getUserId());
+		assertThat(read.getFirstName()).isEqualTo("Fresh");
+		assertThat(read.getVersion()).isEqualTo(created.getVersion() + 1);
+		assertThat(region().getMissCount()).isEqualTo(misses);
+
+		UsersRest multiGet = restTemplate.getForObject("/jpa/users?ids=" + created.getUserId(), UsersRest.class);
+		assertThat(multiGet.getUsers()).extracting(UserRest::getFirstName).containsExactly("Fresh");
+	}
+
+	@Test
+	void staleUpdateIsCheckedAgainstCommittedVersion() {
+
+		UserRest created = createUser("Versioned");
+		getUser(created.getUserId());
+
+		restTemplate.exchange("/jpa/users/" + created.getUserId(), HttpMethod.PUT,
+				json(Map.of("firstName", "First", "lastName", "Cache", "version", created.getVersion())), UserRest.class);
+
+		ResponseEntity<UserRest> stale = restTemplate.exchange("/jpa/users/" + created.getUserId(), HttpMethod.PUT,
+				json(Map.of("firstName", "Second", "lastName", "Cache", "version", created.getVersion())), UserRest.class);
+		assertThat(stale.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+		assertThat(stale.getBody().getFirstName()).isEqualTo("First");
+		assertThat(getUser(created.getUserId()).getFirstName()).isEqualTo("First");
+	}
+
+	@Test
+	void updateInvalidatesCachedFindAll() {
+
+		UserRest created = createUser("Listed");
+		restTemplate.getForObject("/jpa/users", UserRest[].class);
+
+		long queryHits = statistics().getQueryCacheHitCount();
+		assertThat(restTemplate.getForObject("/jpa/users", UserRest[].class))
+				.extracting(UserRest::getFirstName).contains("Listed");
+		assertThat(statistics().getQueryCacheHitCount()).isEqualTo(queryHits + 1);
+
+		restTemplate.exchange("/jpa/users/" + created.getUserId(), HttpMethod.PUT,
+				json(Map.of("firstName", "Relisted", "lastName", "Cache")), UserRest.class);
+
+		assertThat(restTemplate.getForObject("/jpa/users", UserRest[].class))
+				.extracting(UserRest::getFirstName).contains("Relisted").doesNotContain("Listed");
+	}
+
+	@Test
+	void cacheStatisticsAreExposedAsMetrics() {
+
+		getUser(10001);
+
+		assertThat(meterRegistry.find("hibernate.second.level.cache.hit.ratio").gauge()).isNotNull();
+		assertThat(meterRegistry.find("cache.gets").tag("cache", USER_REGION).tag("result", "hit").meters()).isNotEmpty();
+		assertThat(meterRegistry.find("cache.evictions").tag("cache", USER_REGION).meters()).isNotEmpty();
+	}
+
+	private UserRest createUser(String firstName) {
+
+		return restTemplate.postForObject("/jpa/users", json(Map.of("firstName", firstName, "lastName", "Cache",
+				"email", firstName.toLowerCase() + "@cache.test", "password", "12345678")), UserRest.class);
+	}
+
+	private UserRest getUser(long userId) {
+
+		return restTemplate.getForObject("/jpa/users/" + userId, UserRest.class);
+	}
+
+	private Statistics statistics() {
+
+		return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	private CacheRegionStatistics region() {
+
+		return statistics().getDomainDataRegionStatistics(USER_REGION);
+	}
+
+	private static HttpEntity<Object> json(Object body) {
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.setAccept(java.util.List.of(MediaType.APPLICATION_JSON));
+		return new HttpEntity<>(body, headers);
+	}
+
+}
@@ -0,0 +1,203 @@
+package com.kokabmedia.app.ws.ui.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.repository.UserTombstoneRepository;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+import com.kokabmedia.app.ws.ui.model.response.UserSyncRest;
+import com.kokabmedia.app.ws.ui.model.response.UserTombstone;
+import com.kokabmedia.app.ws.userservice.impl.UserTombstoneCleaner;
+
+/*
+ * These tests sync the users with GET /jpa/users/sync like a client and check that deleted
+ * users come back as tombstones, that the pages of changes with the same time are neither
+ * repeated nor skipped, that changes within the settle window are left for the next sync
+ * and that a token older than the tombstones is answered with 410.
+ */
+@SpringBootTest(properties = {
+		"app.admission.enabled=false",
+		"app.users.sync.settle-ms=300",
+		"app.users.sync.tombstone-retention-days=30" })
+@AutoConfigureMockMvc
+class UserSyncTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private UserJPARepository userJpaRepository;
+
+	@Autowired
+	private UserTombstoneRepository userTombstoneRepository;
+
+	@Autowired
+	private UserTombstoneCleaner userTombstoneCleaner;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Test
+	void deletedUsersAreSyncedAsTombstones() throws Exception {
+
+		UserRest kept = createUser();
+		UserRest deleted = createUser();
+		awaitSettleWindow();
+		String token = syncToTheEnd(null);
+
+		mockMvc.perform(delete("/jpa/users/" + deleted.getUserId()));
+		awaitSettleWindow();
+		UserSyncRest delta = sync(token, 100);
+
+		assertThat(delta.getDeletedIds()).containsExactly(deleted.getUserId());
+		assertThat(delta.getChanged()).extracting(UserRest::getUserId).doesNotContain(kept.getUserId());
+		assertThat(delta.isHasMore()).isFalse();
+		// A client that syncs from the beginning never had the user and gets no tombstones.
+		assertThat(sync(null, 500).getDeletedIds()).isEmpty();
+	}
+
+	@Test
+	void pagesOfChangesWithTheSameTimeAreNeitherRepeatedNorSkipped() throws Exception {
+
+		List<UserRest> users = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			users.add(createUser());
+		}
+		mockMvc.perform(delete("/jpa/users/" + users.get(1).getUserId()));
+		mockMvc.perform(delete("/jpa/users/" + users.get(4).getUserId()));
+
+		// Before every other change of the test run, all at the same time.
+		long time = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+		for (UserRest user : users) {
+			jdbcTemplate.update("update user_rest set last_modified = ? where user_id = ?", time, user.getUserId());
+			jdbcTemplate.update("update user_tombstone set deleted_at = ? where user_id = ?", time, user.getUserId());
+		}
+		entityManagerFactory.getCache().evictAll();
+
+		// The users and tombstones of one time are merged in the order of their ids.
+		String token = token(time - 1, Long.MAX_VALUE, System.currentTimeMillis());
+		UserSyncRest first = assertPage(token, List.of(users.get(0)), List.of(users.get(1)));
+		UserSyncRest second = assertPage(first.getNextToken(), List.of(users.get(2), users.get(3)), List.of());
+		UserSyncRest third = assertPage(second.getNextToken(), List.of(users.get(5)), List.of(users.get(4)));
+		assertThat(sync(third.getNextToken(), 2).getChanged().get(0).getUserId()).isEqualTo(users.get(6).getUserId());
+	}
+
+	@Test
+	void changesWithinTheSettleWindowAreLeftForTheNextSync() throws Exception {
+
+		String token = syncToTheEnd(null);
+
+		UserRest created = createUser();
+		UserSyncRest early = sync(token, 100);
+		assertThat(early.getChanged()).extracting(UserRest::getUserId).doesNotContain(created.getUserId());
+
+		// The token of the early sync is still before the change.
+		awaitSettleWindow();
+		UserSyncRest settled = sync(early.getNextToken(), 100);
+		assertThat(settled.getChanged()).extracting(UserRest::getUserId).contains(created.getUserId());
+	}
+
+	@Test
+	void tokenOlderThanTheTombstonesIsGone() throws Exception {
+
+		long now = System.currentTimeMillis();
+
+		assertThat(status(token(now, 0, now - TimeUnit.DAYS.toMillis(31)))).isEqualTo(410);
+		assertThat(status(token(now, 0, now - TimeUnit.DAYS.toMillis(29)))).isEqualTo(200);
+		assertThat(status("not a token")).isEqualTo(400);
+	}
+
+	@Test
+	void cleanerRemovesTombstonesOlderThanTheRetention() {
+
+		long now = System.currentTimeMillis();
+		UserTombstone expired = userTombstoneRepository.save(new UserTombstone(createUser().getUserId(),
+				now - TimeUnit.DAYS.toMillis(31)));
+		UserTombstone retained = userTombstoneRepository.save(new UserTombstone(createUser().getUserId(),
+				now - TimeUnit.DAYS.toMillis(29)));
+
+		userTombstoneCleaner.removeExpiredTombstones();
+
+		assertThat(userTombstoneRepository.existsById(expired.getUserId())).isFalse();
+		assertThat(userTombstoneRepository.existsById(retained.getUserId())).isTrue();
+	}
+
+	private UserSyncRest assertPage(String token, List<UserRest> changed, List<UserRest> deleted) throws Exception {
+		UserSyncRest page = sync(token, 2);
+		assertThat(page.getChanged()).extracting(UserRest::getUserId)
+				.containsExactlyElementsOf(changed.stream().map(UserRest::getUserId).collect(Collectors.toList()));
+		assertThat(page.getDeletedIds())
+				.containsExactlyElementsOf(deleted.stream().map(UserRest::getUserId).collect(Collectors.toList()));
+		assertThat(page.isHasMore()).isTrue();
+		return page;
+	}
+
+	private UserRest createUser() {
+		return userJpaRepository.save(new UserRest(0, "Delta", "Sync", UUID.randomUUID() + "@sync.test", "12345678"));
+	}
+
+	private void awaitSettleWindow() throws InterruptedException {
+		Thread.sleep(400);
+	}
+
+	private String syncToTheEnd(String token) throws Exception {
+		UserSyncRest delta;
+		do {
+			delta = sync(token, 500);
+			token = delta.getNextToken();
+		} while (delta.isHasMore());
+		return token;
+	}
+
+	private UserSyncRest sync(String token, int limit) throws Exception {
+		MvcResult result = mockMvc.perform(request(token).param("limit", Integer.toString(limit))).andReturn();
+		assertThat(result.getResponse().getStatus()).isEqualTo(200);
+		return objectMapper.readValue(result.getResponse().getContentAsString(), UserSyncRest.class);
+	}
+
+	private int status(String token) throws Exception {
+		return mockMvc.perform(request(token)).andReturn().getResponse().getStatus();
+	}
+
+	private static MockHttpServletRequestBuilder request(String token) {
+		MockHttpServletRequestBuilder request = get("/jpa/users/sync")
+				.accept(MediaType.APPLICATION_JSON);
+		return token == null ? request : request.param("since", token);
+	}
+
+	// The same format as the tokens of UserSyncController, position and time it was issued.
+	private static String token(long time, long userId, long issuedAt) {
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString((time + ":" + userId + ":" + issuedAt).getBytes(StandardCharsets.UTF_8));
+	}
+
+}
@@ -0,0 +1,181 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.kokabmedia.app.ws.RestMobileAppWsApplication;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+
+/*
+ * This benchmark measures GET /jpa/users/{userId} while the database stalls, once with the
+ * circuit breaker of the UserReadService and once with a breaker that never opens and
+ * waits a minute for every read, which is how the endpoint behaved without it.
+ *
+ * Every run starts the application in this JVM without the second-level cache (so every
+ * read goes to the database), stores 1000 users and reads each of them once. Then clients
+ * read random users for three phases of phase-seconds: the database answers, every
+ * statement waits until the stall ends, the database answers again. It prints the
+ * latencies and the status codes (200 with a Warning header counted as stale) of every
+ * phase.
+ *
+ * It is not run by the build, run it with the test class path, for example:
+ *
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.kokabmedia.app.ws.userservice.impl.DatabaseStallBenchmark [threads] [phase-seconds]
+ */
+public class DatabaseStallBenchmark {
+
+	private static volatile boolean stalled;
+
+	public static void main(String[] args) throws Exception {
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int phaseSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		// The devtools restart would run this main method again in a new class loader.
+		System.setProperty("spring.devtools.restart.enabled", "false");
+
+		System.out.printf("threads=%d phase-seconds=%d cpus=%d%n", threads, phaseSeconds,
+				Runtime.getRuntime().availableProcessors());
+		run("breaker", threads, phaseSeconds);
+		run("no breaker", threads, phaseSeconds, "--app.users.read.circuit-breaker.timeout-ms=60000",
+				"--app.users.read.circuit-breaker.failure-rate-threshold=101",
+				"--app.users.read.circuit-breaker.threads=200", "--app.users.read.circuit-breaker.queue-capacity=1000");
+	}
+
+	private static void run(String name, int threads, int phaseSeconds, String... properties) throws Exception {
+
+		// Without the users of data.sql, their ids collide with the generated ids above 10000.
+		List<String> args = new ArrayList<>(Arrays.asList("--server.port=0", "--spring.jpa.show-sql=false",
+				"--spring.sql.init.mode=never", "--app.admission.enabled=false", "--app.audit.enabled=false",
+				"--spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+				"--spring.jpa.properties.hibernate.cache.use_query_cache=false", "--logging.level.root=error"));
+		args.addAll(Arrays.asList(properties));
+		SpringApplicationBuilder builder = new SpringApplicationBuilder(RestMobileAppWsApplication.class)
+				.initializers(context -> context.getBeanFactory().addBeanPostProcessor(stall()));
+
+		try (ConfigurableApplicationContext context = builder.run(args.toArray(new String[0]))) {
+			UserJPARepository repository = context.getBean(UserJPARepository.class);
+			List<UserRest> users = new ArrayList<>();
+			for (int i = 0; i < 1000; i++) {
+				users.add(new UserRest(0, "First" + i, "Last" + i, "user" + i + "@stall.benchmark", "password" + i));
+			}
+			long[] ids = repository.saveAll(users).stream().mapToLong(UserRest::getUserId).toArray();
+			String base = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort()
+					+ "/jpa/users/";
+			HttpClient client = HttpClient.newHttpClient();
+			for (long id : ids) {
+				client.send(request(base, id), HttpResponse.BodyHandlers.discarding());
+			}
+
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				for (String phase : new String[] { "before", "stall", "after" }) {
+					stalled = phase.equals("stall");
+					long deadline = System.nanoTime() + phaseSeconds * 1_000_000_000L;
+					List<Future<List<long[]>>> results = new ArrayList<>();
+					for (int t = 0; t < threads; t++) {
+						results.add(executor.submit(() -> load(client, base, ids, deadline)));
+					}
+					// The stall ends with its phase, the requests that still wait finish after it.
+					if (stalled) {
+						Thread.sleep(phaseSeconds * 1000L);
+						stalled = false;
+					}
+					List<long[]> samples = new ArrayList<>();
+					for (Future<List<long[]>> result : results) {
+						samples.addAll(result.get());
+					}
+					print(name, phase, samples);
+				}
+			} finally {
+				stalled = false;
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	// Latency in nanoseconds and the status (1200 for a stale 200) of every request.
+	private static List<long[]> load(HttpClient client, String base, long[] ids, long deadline) throws Exception {
+
+		List<long[]> samples = new ArrayList<>();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (System.nanoTime() < deadline) {
+			long start = System.nanoTime();
+			HttpResponse<Void> response = client.send(request(base, ids[random.nextInt(ids.length)]),
+					HttpResponse.BodyHandlers.discarding());
+			int status = response.statusCode() == 200 && response.headers().firstValue("Warning").isPresent() ? 1200
+					: response.statusCode();
+			samples.add(new long[] { System.nanoTime() - start, status });
+		}
+		return samples;
+	}
+
+	private static void print(String name, String phase, List<long[]> samples) {
+
+		long[] latencies = samples.stream().mapToLong(sample -> sample[0]).sorted().toArray();
+		Map<String, Integer> statuses = new TreeMap<>();
+		for (long[] sample : samples) {
+			statuses.merge(sample[1] == 1200 ? "200 stale" : Long.toString(sample[1]), 1, Integer::sum);
+		}
+		System.out.printf("%-10s %-6s %,6d requests  p50 %,9.2f ms  p99 %,9.2f ms  max %,9.2f ms  %s%n", name, phase,
+				latencies.length, latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6,
+				latencies[latencies.length - 1] / 1e6, statuses);
+	}
+
+	private static HttpRequest request(String base, long id) {
+
+		return HttpRequest.newBuilder(URI.create(base + id)).timeout(Duration.ofSeconds(120))
+				.header("Accept", "application/json").GET().build();
+	}
+
+	/*
+	 * Wraps the datasource of the application so every statement waits while the database
+	 * is stalled, an interrupted statement goes on at once.
+	 */
+	private static BeanPostProcessor stall() {
+
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (bean instanceof DataSource && beanName.equals("dataSource")) {
+					return ProxyDataSourceBuilder.create((DataSource) bean).beforeQuery((execution, queries) -> {
+						try {
+							while (stalled) {
+								Thread.sleep(10);
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}).build();
+				}
+				return bean;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.kokabmedia.app.ws.RestMobileAppWsApplication;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * This benchmark applies the same mix of creates, renames and deletes to /jpa/users once as
+ * one HTTP request per operation and once as POST /jpa/users/bulk requests in both modes,
+ * and prints how long every way takes.
+ *
+ * It is not run by the build, run it with the test class path, for example:
+ *
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.kokabmedia.app.ws.userservice.impl.UserBulkBenchmark [operations] [rounds]
+ */
+public class UserBulkBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		int operations = args.length > 0 ? Integer.parseInt(args[0]) : 900;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		// The devtools restart would run this main method again in a new class loader.
+		System.setProperty("spring.devtools.restart.enabled", "false");
+
+		// Without the users of data.sql, their ids collide with the ids of the stored users.
+		try (ConfigurableApplicationContext context = new SpringApplicationBuilder(RestMobileAppWsApplication.class)
+				.run("--server.port=0", "--spring.jpa.show-sql=false", "--spring.sql.init.mode=never",
+						"--app.admission.enabled=false",
+						"--app.audit.enabled=false", "--logging.level.root=warn")) {
+
+			UserJPARepository repository = context.getBean(UserJPARepository.class);
+			String base = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort()
+					+ "/jpa/users";
+			HttpClient client = HttpClient.newHttpClient();
+
+			System.out.printf("operations=%d rounds=%d cpus=%d%n", operations, rounds,
+					Runtime.getRuntime().availableProcessors());
+			// The first round warms up the request paths and is not printed.
+			for (int round = 0; round <= rounds; round++) {
+				boolean print = round > 0;
+				List<String> separate = operations(repository, operations);
+				time(print, "separate requests", operations, () -> {
+					for (String operation : separate) {
+						send(client, single(base, operation));
+					}
+				});
+				List<String> atomic = operations(repository, operations);
+				time(print, "bulk ATOMIC", operations, () -> send(client, bulk(base, "ATOMIC", atomic)));
+				List<String> bestEffort = operations(repository, operations);
+				time(print, "bulk BEST_EFFORT", operations, () -> send(client, bulk(base, "BEST_EFFORT", bestEffort)));
+			}
+		}
+	}
+
+	/*
+	 * A third creates, a third renames and a third deletes, the users to rename and delete
+	 * are stored before the timing starts.
+	 */
+	private static List<String> operations(UserJPARepository repository, int operations) {
+
+		List<UserRest> users = new ArrayList<>();
+		for (int i = 0; i < operations / 3 * 2; i++) {
+			users.add(new UserRest(0, "First", "Last", "user" + System.nanoTime() + i + "@bulk.benchmark", "password"));
+		}
+		users = repository.saveAll(users);
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < operations / 3; i++) {
+			result.add("{\"op\":\"CREATE\",\"firstName\":\"New\",\"lastName\":\"User\",\"email\":\"new"
+					+ System.nanoTime() + i + "@bulk.benchmark\",\"password\":\"password1\"}");
+			UserRest renamed = users.get(i * 2);
+			result.add("{\"op\":\"UPDATE\",\"userId\":" + renamed.getUserId()
+					+ ",\"firstName\":\"Renamed\",\"lastName\":\"User\",\"version\":" + renamed.getVersion() + "}");
+			result.add("{\"op\":\"DELETE\",\"userId\":" + users.get(i * 2 + 1).getUserId() + "}");
+		}
+		return result;
+	}
+
+	private static HttpRequest single(String base, String operation) {
+
+		long userId = operation.contains("\"userId\":") ? Long.parseLong(operation.replaceAll(".*\"userId\":(\\d+).*",
+				"$1")) : 0;
+		HttpRequest.Builder request;
+		if (operation.contains("\"CREATE\"")) {
+			request = HttpRequest.newBuilder(URI.create(base)).POST(HttpRequest.BodyPublishers.ofString(operation));
+		} else if (operation.contains("\"UPDATE\"")) {
+			request = HttpRequest.newBuilder(URI.create(base + "/" + userId))
+					.PUT(HttpRequest.BodyPublishers.ofString(operation));
+		} else {
+			request = HttpRequest.newBuilder(URI.create(base + "/" + userId)).DELETE();
+		}
+		return request.header("Content-Type", "application/json").header("Accept", "application/json").build();
+	}
+
+	private static HttpRequest bulk(String base, String mode, List<String> operations) {
+
+		String body = "{\"mode\":\"" + mode + "\",\"operations\":[" + String.join(",", operations) + "]}";
+		return HttpRequest.newBuilder(URI.create(base + "/bulk")).POST(HttpRequest.BodyPublishers.ofString(body))
+				.header("Content-Type", "application/json").header("Accept", "application/json").build();
+	}
+
+	private static void send(HttpClient client, HttpRequest request) throws Exception {
+
+		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+		if (response.statusCode() >= 300) {
+			throw new IllegalStateException(request.uri() + " answered " + response.statusCode() + ": "
+					+ response.body());
+		}
+	}
+
+	private static void time(boolean print, String name, int operations, Run run) throws Exception {
+
+		long start = System.nanoTime();
+		run.run();
+		double millis = (System.nanoTime() - start) / 1e6;
+		if (print) {
+			System.out.printf("%-18s %,8.1f ms  %,8.0f operations/s%n", name, millis, operations / (millis / 1000));
+		}
+	}
+
+	private interface Run {
+		void run() throws Exception;
+	}
+
+}
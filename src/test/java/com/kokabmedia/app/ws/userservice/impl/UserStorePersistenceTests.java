@@ -0,0 +1,175 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import com.kokabmedia.app.ws.shared.Utils;
+import com.kokabmedia.app.ws.ui.model.request.UpdateUserDetailsRequestModel;
+import com.kokabmedia.app.ws.ui.model.request.UserDetailsRequestModel;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * These tests change the users of a UserServiceImpl with the UserStorePersistence without
+ * the Spring context, then restore them into a new UserServiceImpl from the same directory
+ * as a restarted instance would.
+ */
+class UserStorePersistenceTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void restoresSnapshotAndJournalAfterCrash() throws Exception {
+
+		UserStorePersistence persistence = persistence();
+		UserServiceImpl service = service(persistence);
+		List<String> ids = create(service, 100);
+		update(service, ids.get(0), "Before");
+		service.deleteUser(ids.get(1));
+		persistence.snapshot();
+
+		// Changes after the snapshot are only in the journal.
+		update(service, ids.get(0), "After");
+		service.deleteUser(ids.get(2));
+		String createdAfter = create(service, 1).get(0);
+		persistence.flushJournal();
+
+		// The process dies without close(), the next instance restores the same users.
+		UserServiceImpl restored = service(persistence());
+		assertThat(snapshot(restored.usersMap)).isEqualTo(snapshot(service.usersMap));
+		assertThat(restored.getUser(ids.get(0)).getFirstName()).isEqualTo("After");
+		assertThat(restored.getUser(ids.get(0)).getVersion()).isEqualTo(2);
+		assertThat(restored.usersMap).doesNotContainKeys(ids.get(1), ids.get(2)).containsKey(createdAfter);
+		assertThat(Files.list(directory).map(file -> file.getFileName().toString()))
+				.noneMatch(name -> name.endsWith(".tmp"));
+	}
+
+	@Test
+	void closeWritesSnapshotAndRemovesOlderFiles() throws Exception {
+
+		UserStorePersistence persistence = persistence();
+		UserServiceImpl service = service(persistence);
+		create(service, 10);
+		persistence.snapshot();
+		create(service, 10);
+		persistence.close();
+
+		assertThat(Files.list(directory).map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList()))
+				.containsExactly("journal-0000000000000003.log", "snapshot-0000000000000003.bin");
+		assertThat(service(persistence()).usersMap).hasSize(20);
+	}
+
+	@Test
+	void ignoresTornEndOfJournal() throws Exception {
+
+		UserStorePersistence persistence = persistence();
+		UserServiceImpl service = service(persistence);
+		create(service, 5);
+		persistence.flushJournal();
+
+		// A record that was only partly written when the machine failed.
+		Path journal = directory.resolve("journal-0000000000000001.log");
+		Files.write(journal, new byte[] { 0, 0, 0, 40, 1, 2, 3 }, StandardOpenOption.APPEND);
+
+		UserStorePersistence restarted = persistence();
+		UserServiceImpl restored = service(restarted);
+		assertThat(snapshot(restored.usersMap)).isEqualTo(snapshot(service.usersMap));
+
+		// The next run journals to a new file after the torn one and restores both.
+		String created = create(restored, 1).get(0);
+		restarted.flushJournal();
+		assertThat(service(persistence()).usersMap).hasSize(6).containsKey(created);
+	}
+
+	@Test
+	void snapshotsDoNotLoseConcurrentChanges() throws Exception {
+
+		UserStorePersistence persistence = persistence();
+		UserServiceImpl service = service(persistence);
+		List<String> ids = create(service, 200);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> writers = new ArrayList<>();
+			for (int writer = 0; writer < 4; writer++) {
+				writers.add(executor.submit(() -> {
+					for (int i = 0; i < 2_000; i++) {
+						String id = ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+						update(service, id, "Name" + i);
+					}
+				}));
+			}
+			while (!writers.stream().allMatch(Future::isDone)) {
+				persistence.snapshot();
+			}
+			for (Future<?> writer : writers) {
+				writer.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		persistence.flushJournal();
+
+		assertThat(snapshot(service(persistence()).usersMap)).isEqualTo(snapshot(service.usersMap));
+	}
+
+	private UserStorePersistence persistence() {
+		return new UserStorePersistence(directory.toString(), false);
+	}
+
+	private static UserServiceImpl service(UserStorePersistence persistence) {
+
+		StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+		beanFactory.addBean("userStorePersistence", persistence);
+		return new UserServiceImpl(new Utils(), event -> {
+		}, beanFactory.getBeanProvider(UserStorePersistence.class));
+	}
+
+	private static List<String> create(UserServiceImpl service, int count) {
+
+		List<String> ids = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			UserDetailsRequestModel details = new UserDetailsRequestModel();
+			details.setFirstName("First" + i);
+			details.setLastName("Last" + i);
+			details.setEmail("user" + i + "@persistence.test");
+			ids.add(String.valueOf(service.createUser(details).getUserId()));
+		}
+		return ids;
+	}
+
+	private static void update(UserServiceImpl service, String userId, String firstName) {
+
+		UpdateUserDetailsRequestModel details = new UpdateUserDetailsRequestModel();
+		details.setFirstName(firstName);
+		details.setLastName("Updated");
+		service.updateUser(userId, details);
+	}
+
+	// UserRest has no equals(), the users are compared by their fields.
+	private static Map<String, String> snapshot(Map<String, UserRest> users) {
+
+		Map<String, String> fields = new HashMap<>();
+		users.forEach((id, user) -> fields.put(id, user.getUserId() + "|" + user.getFirstName() + "|"
+				+ user.getLastName() + "|" + user.getEmail() + "|" + user.getPassword() + "|" + user.getVersion()
+				+ "|" + user.getLastModified()));
+		return fields;
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * This benchmark measures how long the UserStorePersistence class takes to write a snapshot
+ * of the in-memory users and to restore them on start up from the snapshot and a journal
+ * with changes of 10% of the users, compared with creating the users one by one.
+ *
+ * It is not run by the build, run it with the test class path, for example:
+ *
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -Xmx4g -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.kokabmedia.app.ws.userservice.impl.UserStoreRestoreBenchmark [users]
+ */
+public class UserStoreRestoreBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+		Path directory = Files.createTempDirectory("user-store-benchmark");
+
+		Map<String, UserRest> users = new ConcurrentHashMap<>();
+		UserStorePersistence persistence = new UserStorePersistence(directory.toString(), false);
+		persistence.attach(users);
+
+		long start = System.nanoTime();
+		long[] ids = new long[userCount];
+		for (int i = 0; i < userCount; i++) {
+			UserRest user = new UserRest(ThreadLocalRandom.current().nextLong(), "First" + i, "Last" + i,
+					"user" + i + "@benchmark.test", null);
+			ids[i] = user.getUserId();
+			persistence.mutate(() -> users.compute(String.valueOf(user.getUserId()), (key, previous) -> {
+				persistence.journalPut(user);
+				return user;
+			}));
+		}
+		long createMillis = millis(start);
+
+		start = System.nanoTime();
+		persistence.snapshot();
+		long snapshotMillis = millis(start);
+
+		for (int i = 0; i < userCount / 10; i++) {
+			UserRest user = users.get(String.valueOf(ids[i]));
+			UserRest copy = new UserRest(user.getUserId(), "Changed", user.getLastName(), user.getEmail(), null);
+			copy.setVersion(user.getVersion() + 1);
+			persistence.mutate(() -> users.compute(String.valueOf(copy.getUserId()), (key, previous) -> {
+				persistence.journalPut(copy);
+				return copy;
+			}));
+		}
+		persistence.flushJournal();
+
+		start = System.nanoTime();
+		Map<String, UserRest> restored = new ConcurrentHashMap<>();
+		new UserStorePersistence(directory.toString(), false).attach(restored);
+		long restoreMillis = millis(start);
+
+		long bytes;
+		try (Stream<Path> files = Files.list(directory)) {
+			bytes = files.mapToLong(file -> file.toFile().length()).sum();
+		}
+		System.out.printf("users=%d files=%d MB%n", restored.size(), bytes / (1024 * 1024));
+		System.out.printf("create %8d ms%nsnapshot %6d ms%nrestore %7d ms%n", createMillis, snapshotMillis,
+				restoreMillis);
+	}
+
+	private static long millis(long start) {
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+}
@@ -0,0 +1,164 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.kokabmedia.app.ws.exeption.UserServiceException;
+import com.kokabmedia.app.ws.repository.UserJPARepository;
+import com.kokabmedia.app.ws.ui.model.response.UserRest;
+
+/*
+ * These tests check the group commits of the write-behind buffer against the database and
+ * its rejection and shutdown with a buffer whose repository blocks until it is released.
+ */
+@SpringBootTest(properties = {
+		"app.users.write-behind.enabled=true",
+		"app.users.write-behind.batch-size=10",
+		"app.users.write-behind.flush-interval-ms=200" })
+class UserWriteBehindBufferTests {
+
+	@Autowired
+	private UserWriteBehindBuffer userWriteBehindBuffer;
+
+	@SpyBean
+	private UserJPARepository userJpaRepository;
+
+	@Test
+	void queuedUsersAreCommittedInGroupsOfBatchSize() throws Exception {
+
+		clearInvocations(userJpaRepository);
+		List<CompletableFuture<UserRest>> pending = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			pending.add(userWriteBehindBuffer.submit(user(UUID.randomUUID() + "@write-behind.test")));
+		}
+
+		for (CompletableFuture<UserRest> user : pending) {
+			UserRest stored = user.get(5, TimeUnit.SECONDS);
+			assertThat(userJpaRepository.existsById(stored.getUserId())).isTrue();
+		}
+		// Two full groups, the last one is committed when its flush interval has passed.
+		List<Integer> groups = mockingDetails(userJpaRepository).getInvocations().stream()
+				.filter(invocation -> invocation.getMethod().getName().equals("saveAll"))
+				.map(invocation -> ((List<?>) invocation.getArgument(0)).size()).collect(Collectors.toList());
+		assertThat(groups).containsExactly(10, 10, 5);
+		assertThat(mockingDetails(userJpaRepository).getInvocations())
+				.noneMatch(invocation -> invocation.getMethod().getName().equals("save"));
+	}
+
+	@Test
+	void failedGroupIsStoredOneByOne() throws Exception {
+
+		String takenEmail = UUID.randomUUID() + "@write-behind.test";
+		userJpaRepository.save(user(takenEmail));
+		clearInvocations(userJpaRepository);
+
+		CompletableFuture<UserRest> first = userWriteBehindBuffer.submit(user(UUID.randomUUID() + "@write-behind.test"));
+		CompletableFuture<UserRest> duplicate = userWriteBehindBuffer.submit(user(takenEmail));
+		CompletableFuture<UserRest> last = userWriteBehindBuffer.submit(user(UUID.randomUUID() + "@write-behind.test"));
+
+		// The unique email index fails the group, only the duplicate fails when stored on its own.
+		assertThat(userJpaRepository.existsById(first.get(5, TimeUnit.SECONDS).getUserId())).isTrue();
+		assertThat(userJpaRepository.existsById(last.get(5, TimeUnit.SECONDS).getUserId())).isTrue();
+		assertThatThrownBy(() -> duplicate.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+		assertThat(mockingDetails(userJpaRepository).getInvocations())
+				.filteredOn(invocation -> invocation.getMethod().getName().equals("save")).hasSize(3);
+	}
+
+	@Test
+	void fullQueueIsRejectedAndQueuedUsersAreStoredOnStop() throws Exception {
+
+		BlockingRepository repository = new BlockingRepository();
+		UserWriteBehindBuffer buffer = new UserWriteBehindBuffer(repository.mock,
+				mock(PlatformTransactionManager.class), 2, 1, 1);
+		buffer.start();
+
+		CompletableFuture<UserRest> committing = buffer.submit(user("committing@write-behind.test"));
+		repository.entered.await(5, TimeUnit.SECONDS);
+		List<CompletableFuture<UserRest>> queued = List.of(buffer.submit(user("first@write-behind.test")),
+				buffer.submit(user("second@write-behind.test")));
+
+		assertThatThrownBy(() -> buffer.submit(user("rejected@write-behind.test")))
+				.isInstanceOf(UserServiceException.class);
+
+		repository.release.countDown();
+		buffer.stop();
+		assertThat(committing).isCompleted();
+		assertThat(queued).allMatch(user -> user.isDone() && !user.isCompletedExceptionally());
+		assertThatThrownBy(() -> buffer.submit(user("stopped@write-behind.test")))
+				.isInstanceOf(UserServiceException.class);
+	}
+
+	@Test
+	void interruptedWriterFailsTheQueuedUsers() throws Exception {
+
+		BlockingRepository repository = new BlockingRepository();
+		UserWriteBehindBuffer buffer = new UserWriteBehindBuffer(repository.mock,
+				mock(PlatformTransactionManager.class), 10, 1, 1);
+		buffer.start();
+
+		CompletableFuture<UserRest> committing = buffer.submit(user("committing@write-behind.test"));
+		repository.entered.await(5, TimeUnit.SECONDS);
+		CompletableFuture<UserRest> queued = buffer.submit(user("queued@write-behind.test"));
+
+		repository.writer.interrupt();
+
+		// The user in the group is still stored, the queued user fails instead of waiting.
+		assertThat(committing.get(5, TimeUnit.SECONDS).getEmail()).isEqualTo("committing@write-behind.test");
+		assertThatThrownBy(() -> queued.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(UserServiceException.class);
+		buffer.stop();
+	}
+
+	private static UserRest user(String email) {
+		return new UserRest(0, "Write", "Behind", email, "12345678");
+	}
+
+	/*
+	 * A repository whose saveAll blocks until it is released, an interrupt of the writer
+	 * ends the wait and is left set.
+	 */
+	private static class BlockingRepository {
+
+		private final UserJPARepository mock = mock(UserJPARepository.class);
+
+		private final CountDownLatch entered = new CountDownLatch(1);
+
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		private volatile Thread writer;
+
+		BlockingRepository() {
+			when(mock.saveAll(anyList())).thenAnswer(invocation -> {
+				writer = Thread.currentThread();
+				entered.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return invocation.getArgument(0);
+			});
+		}
+
+	}
+
+}
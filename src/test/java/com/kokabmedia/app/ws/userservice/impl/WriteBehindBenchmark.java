@@ -0,0 +1,153 @@
+package com.kokabmedia.app.ws.userservice.impl;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+
+import com.kokabmedia.app.ws.RestMobileAppWsApplication;
+
+/*
+ * This benchmark sends concurrent POST /jpa/users requests once with a transaction per
+ * request and once with the write-behind buffer for every batch size, and prints the
+ * throughput and the latency percentiles of every run.
+ *
+ * The in-memory database commits without writing anything, so every commit of the
+ * application waits commit-delay-us to stand for the flush of a database log. Every run
+ * starts the application in this JVM, the first requests-per-client requests of every
+ * client warm it up and are not measured.
+ *
+ * It is not run by the build, run it with the test class path, for example:
+ *
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.kokabmedia.app.ws.userservice.impl.WriteBehindBenchmark [clients] [requests-per-client] [commit-delay-us]
+ */
+public class WriteBehindBenchmark {
+
+	private static final int[] BATCH_SIZES = { 1, 10, 50, 100 };
+
+	private static long commitDelayNanos;
+
+	public static void main(String[] args) throws Exception {
+
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		commitDelayNanos = (args.length > 2 ? Long.parseLong(args[2]) : 2000) * 1000;
+
+		// The devtools restart would run this main method again in a new class loader.
+		System.setProperty("spring.devtools.restart.enabled", "false");
+
+		System.out.printf("clients=%d requests-per-client=%d commit-delay-us=%d cpus=%d%n", clients, requests,
+				commitDelayNanos / 1000, Runtime.getRuntime().availableProcessors());
+		run("transaction per request", clients, requests);
+		for (int batchSize : BATCH_SIZES) {
+			run("write-behind batch " + batchSize, clients, requests, "--app.users.write-behind.enabled=true",
+					"--app.users.write-behind.batch-size=" + batchSize);
+		}
+	}
+
+	private static void run(String name, int clients, int requests, String... properties) throws Exception {
+
+		// Without the users of data.sql, their ids collide with the generated ids above 10000.
+		List<String> args = new ArrayList<>(Arrays.asList("--server.port=0", "--spring.jpa.show-sql=false",
+				"--spring.sql.init.mode=never", "--app.admission.enabled=false", "--app.audit.enabled=false",
+				"--server.tomcat.threads.max=" + clients, "--logging.level.root=error"));
+		args.addAll(Arrays.asList(properties));
+		SpringApplicationBuilder builder = new SpringApplicationBuilder(RestMobileAppWsApplication.class)
+				.initializers(context -> context.getBeanFactory().addBeanPostProcessor(commitDelay()));
+
+		try (ConfigurableApplicationContext context = builder.run(args.toArray(new String[0]))) {
+			String url = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort()
+					+ "/jpa/users";
+			HttpClient client = HttpClient.newHttpClient();
+			ExecutorService executor = Executors.newFixedThreadPool(clients);
+			try {
+				load(executor, client, url, clients, requests, name + " warm-up");
+				long start = System.nanoTime();
+				long[] latencies = load(executor, client, url, clients, requests, name);
+				double seconds = (System.nanoTime() - start) / 1e9;
+				Arrays.sort(latencies);
+				System.out.printf("%-24s %,8.0f users/s  p50 %,8.2f ms  p99 %,8.2f ms  max %,8.2f ms%n", name,
+						latencies.length / seconds, latencies[latencies.length / 2] / 1e6,
+						latencies[(int) (latencies.length * 0.99)] / 1e6, latencies[latencies.length - 1] / 1e6);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	// The latency in nanoseconds of every request.
+	private static long[] load(ExecutorService executor, HttpClient client, String url, int clients, int requests,
+			String run) throws Exception {
+
+		List<Future<long[]>> results = new ArrayList<>();
+		for (int c = 0; c < clients; c++) {
+			int clientNumber = c;
+			results.add(executor.submit(() -> {
+				long[] latencies = new long[requests];
+				for (int i = 0; i < requests; i++) {
+					String body = "{\"firstName\":\"Write\",\"lastName\":\"Behind\",\"email\":\"" + run.hashCode()
+							+ "-" + clientNumber + "-" + i + "@write-behind.benchmark\",\"password\":\"password\"}";
+					HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+							.POST(HttpRequest.BodyPublishers.ofString(body)).header("Content-Type", "application/json")
+							.header("Accept", "application/json").build();
+					long start = System.nanoTime();
+					HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+					latencies[i] = System.nanoTime() - start;
+					if (response.statusCode() != 200) {
+						throw new IllegalStateException("POST answered " + response.statusCode() + ": "
+								+ response.body());
+					}
+				}
+				return latencies;
+			}));
+		}
+		List<Long> all = new ArrayList<>();
+		for (Future<long[]> result : results) {
+			for (long latency : result.get()) {
+				all.add(latency);
+			}
+		}
+		return all.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	/*
+	 * Wraps the datasource of the application so every commit waits commitDelayNanos
+	 * before it reaches the database.
+	 */
+	private static BeanPostProcessor commitDelay() {
+
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (bean instanceof DataSource && beanName.equals("dataSource")) {
+					return ProxyDataSourceBuilder.create((DataSource) bean).beforeMethod(execution -> {
+						if (execution.getMethod().getName().equals("commit")) {
+							LockSupport.parkNanos(commitDelayNanos);
+						}
+					}).build();
+				}
+				return bean;
+			}
+		};
+	}
+
+}